@@ -1,21 +1,74 @@
 package com.marshmelo.fileserver;
 
+import com.marshmelo.fileserver.cache.CacheStats;
+import com.marshmelo.fileserver.cache.CacheTier;
+import com.marshmelo.fileserver.cache.TieredCache;
+import com.marshmelo.fileserver.connection.ConnectionManager;
+import com.marshmelo.fileserver.connection.ManagedConnection;
+import com.marshmelo.fileserver.connection.ProcessGauges;
+import com.marshmelo.fileserver.connection.SoakMonitor;
+import com.marshmelo.fileserver.handlers.CacheControlRules;
 import com.marshmelo.fileserver.handlers.HTTPRequestHandler;
+import com.marshmelo.fileserver.handlers.PreloadHints;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.handlers.ServerContext;
+import com.marshmelo.fileserver.http2.Http2Settings;
+import com.marshmelo.fileserver.models.ImageTransformSettings;
+import com.marshmelo.fileserver.models.OriginSettings;
+import com.marshmelo.fileserver.models.PeerSettings;
+import com.marshmelo.fileserver.models.UploadSettings;
+import com.marshmelo.fileserver.models.RequestLimits;
+import com.marshmelo.fileserver.pack.PackReloader;
+import com.marshmelo.fileserver.pack.PackWriter;
+import com.marshmelo.fileserver.peer.PeerGroup;
+import com.marshmelo.fileserver.scheduling.RequestScheduler;
+import com.marshmelo.fileserver.throttling.BandwidthShaper;
+import com.marshmelo.fileserver.throttling.RequestRateLimiter;
+import com.marshmelo.fileserver.tls.TlsContext;
+import com.marshmelo.fileserver.tls.TlsStats;
 import com.marshmelo.fileserver.utils.ApplicationPropertiesUtil;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.*;
-import java.util.concurrent.ExecutorService;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.Map;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.marshmelo.fileserver.messages.LogMessages.*;
 
 public class FileServer {
 
     private static final String APPLICATION_PROPERTIES = "application.properties";
+    private static final String PACK_RELOADER_THREAD_NAME = "pack-reloader";
+    private static final String CACHE_STATS_THREAD_NAME = "cache-stats";
+    private static final String TLS_ACCEPTOR_THREAD_NAME = "tls-acceptor";
+    private static final String TLS_STATS_THREAD_NAME = "tls-stats";
+    private static final String CONNECTION_MANAGER_THREAD_NAME = "connection-manager";
+    private static final String CONNECTION_STATS_THREAD_NAME = "connection-stats";
+    private static final String SOAK_TEST_THREAD_NAME = "soak-test";
+    private static final String PEER_HEALTH_THREAD_NAME = "peer-health";
+    private static final String CACHE_FOLDER_PREFIX = "marshmelo-cache";
+    private static final String TEMPORARY_FOLDER_PROPERTY = "java.io.tmpdir";
     private static final Logger LOGGER = Logger.getLogger(FileServer.class);
     private static ApplicationPropertiesUtil properties;
+    private RequestScheduler scheduler;
+    private BandwidthShaper bandwidthShaper;
+    private RequestRateLimiter rateLimiter;
+    private RequestLimits requestLimits;
+    private Http2Settings http2Settings;
+    private RequestHandlerRegistry registry;
+    private ServerContext context;
+    private int socketTimeout;
+    private ConnectionManager connectionManager;
 
     public static void main(String[] args) {
         FileServer starter = new FileServer();
@@ -28,30 +81,419 @@ public class FileServer {
 
     private void startServer() throws IOException {
         properties = new ApplicationPropertiesUtil(APPLICATION_PROPERTIES);
-        ExecutorService executor = Executors.newFixedThreadPool(properties.getRequestHandlerPoolSize());
+        scheduler = new RequestScheduler(properties.getRequestHandlerPoolSize(), properties.getLargeFilePoolSize(),
+                properties.getLargeFileQueueSize(), properties.getLargeFileThresholdInBytes(), properties.getHttp2StreamPoolSize());
+        bandwidthShaper = createBandwidthShaper();
+        rateLimiter = createRequestRateLimiter();
+        requestLimits = new RequestLimits(properties.getMaxRequestLineLength(), properties.getMaxHeaderBytes(),
+                properties.getMaxHeaderCount(), properties.getHeaderTimeoutInMilliSec());
+        http2Settings = properties.isHttp2Enabled() ? new Http2Settings(properties.getHttp2MaxConcurrentStreams(),
+                properties.getHttp2InitialWindowSize(), properties.getHttp2MaxFrameSize(), requestLimits.getMaxHeaderBytes()) : null;
+        registry = new RequestHandlerRegistry();
+        enableRequestHandlers();
+        registry.setCacheControlRules(createCacheControlRules());
+        if (properties.isUploadEnabled()) {
+            enableUploads();
+        }
+        if (!properties.getOriginUrl().isEmpty()) {
+            enableOrigin();
+        }
+        if (!properties.getPeerSelf().isEmpty()) {
+            enablePeers();
+        }
+        context = new ServerContext(registry, requestLimits);
+        context.setScheduler(scheduler);
+        context.setBandwidthShaper(bandwidthShaper);
+        context.setHttp2Settings(http2Settings);
+        context.setRateLimiter(rateLimiter);
+        socketTimeout = properties.getSocketConnectionTimeoutInMilliSec();
+        startConnectionManager();
+        configureCache();
+        String packPath = properties.getPackPath();
+        if (!packPath.isEmpty()) {
+            loadPack(Paths.get(packPath));
+        } else if (properties.isMetadataScanOnStartup()) {
+            indexResources();
+        }
         ServerSocket socket;
         int port = properties.getServerDefaultPort();
-        int socketTimeout = properties.getSocketConnectionTimeoutInMilliSec();
         try {
             LOGGER.info(START_APPLICATION.formatMessage(findHostName()));
-            socket = new ServerSocket(port);
+            // Accepted sockets keep their channel so that responses can be sent with gathering writes.
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            socket = serverChannel.socket();
+            socket.bind(new InetSocketAddress(port));
             LOGGER.info(SERVER_INITIALIZED.formatMessage(port, port));
         } catch (IOException e) {
             LOGGER.error(SERVER_INITIALIZATION_FAILURE.formatMessage(port), e);
             throw e;
         }
+        if (properties.isTlsEnabled()) {
+            startTlsServer();
+        }
+        acceptConnections(socket, null);
+    }
+
+    /**
+     * Track the deadlines of the open connections, they are checked every tick of the timing wheel.
+     */
+    private void startConnectionManager() {
+        int tick = properties.getConnectionWheelTickInMilliSec();
+        // One tick later than the request handler deadline so that slow clients get their 408 response first.
+        connectionManager = new ConnectionManager(properties.getConnectionIdleTimeoutInMilliSec(),
+                properties.getHeaderTimeoutInMilliSec() + tick, properties.getConnectionWriteTimeoutInMilliSec(),
+                properties.getMaxOpenConnections(), tick, properties.getConnectionWheelSize());
+        createDaemonTimer(CONNECTION_MANAGER_THREAD_NAME).scheduleWithFixedDelay(connectionManager::expireConnections, tick, tick,
+                TimeUnit.MILLISECONDS);
+        int statsInterval = properties.getConnectionStatsLogIntervalInSeconds();
+        if (statsInterval > 0) {
+            createDaemonTimer(CONNECTION_STATS_THREAD_NAME).scheduleWithFixedDelay(this::logConnectionStats, statsInterval,
+                    statsInterval, TimeUnit.SECONDS);
+        }
+        int soakDuration = properties.getSoakDurationInSeconds();
+        if (soakDuration > 0) {
+            startSoakTest(soakDuration);
+        }
+    }
+
+    private void logConnectionStats() {
+        ConnectionManager manager = connectionManager;
+        LOGGER.info(CONNECTION_STATS.formatMessage(manager.getOpenConnections(), manager.getIdleConnections(),
+                manager.getClosedConnections(), manager.getAverageLifetimeInMilliSec(), manager.getBytesRead(),
+                manager.getBytesWritten(), manager.getExpiredConnections(), manager.getReapedConnections(),
+                manager.getRefusedConnections(), ProcessGauges.getOpenFileDescriptors()));
+    }
+
+    /**
+     * Run the server for a soak test: the baseline of the file descriptors and of the heap is recorded after the warm up,
+     * the server is driven by an external load meanwhile, and at the end it exits with status 1 if either leaked.
+     */
+    private void startSoakTest(int durationInSeconds) {
+        int warmUp = Math.min(properties.getSoakWarmUpInSeconds(), durationInSeconds);
+        SoakMonitor monitor = new SoakMonitor(connectionManager, properties.getSoakMaxFileDescriptorGrowth(),
+                properties.getSoakMaxHeapGrowthInBytes());
+        ScheduledExecutorService timer = createDaemonTimer(SOAK_TEST_THREAD_NAME);
+        timer.schedule(monitor::recordBaseline, warmUp, TimeUnit.SECONDS);
+        timer.schedule(() -> {
+            logConnectionStats();
+            System.exit(monitor.check() ? 0 : 1);
+        }, durationInSeconds, TimeUnit.SECONDS);
+        LOGGER.info(SOAK_TEST_STARTED.formatMessage(warmUp, durationInSeconds));
+    }
+
+    /**
+     * Accept the connections of a server socket and hand them to the request handler pool.
+     *
+     * @param socket     the bound server socket.
+     * @param tlsContext encrypts the accepted connections, null for plain HTTP.
+     */
+    private void acceptConnections(ServerSocket socket, TlsContext tlsContext) {
         while (true) {
+            Socket accept;
             try {
-                Socket accept = socket.accept();
-                accept.setSoTimeout(socketTimeout);
-                HTTPRequestHandler requestHandler = new HTTPRequestHandler(accept);
-                executor.execute(requestHandler);
-            } catch (SocketException e) {
-                LOGGER.warn(ERROR_SETTING_SOCKET_TIMEOUT.formatMessage(e.getMessage()));
+                accept = socket.accept();
             } catch (IOException e) {
                 LOGGER.warn(ERROR_ACCEPTING_SOCKET_CONNECTION.formatMessage(), e);
+                continue;
+            }
+            dispatchConnection(accept, tlsContext);
+        }
+    }
+
+    /**
+     * Register an accepted connection and hand it to the request handler pool. The accepting thread owns the socket until
+     * a request handler takes it, so it is closed on every path where that does not happen.
+     */
+    private void dispatchConnection(Socket accept, TlsContext tlsContext) {
+        ManagedConnection connection = null;
+        try {
+            if (rateLimiter != null && !rateLimiter.tryAcquire(accept.getInetAddress())) {
+                LOGGER.debug(REQUEST_RATE_EXCEEDED.formatMessage(accept.getInetAddress()));
+                rejectConnection(accept, tlsContext == null ? RequestRateLimiter.TOO_MANY_REQUESTS_RESPONSE : null);
+                return;
+            }
+            accept.setSoTimeout(socketTimeout);
+            Socket client = tlsContext != null ? tlsContext.wrap(accept) : accept;
+            connection = connectionManager.register(client, client.getInetAddress());
+            if (connection == null) {
+                LOGGER.warn(CONNECTION_LIMIT_REACHED.formatMessage(accept.getInetAddress()));
+                rejectConnection(accept, tlsContext == null ? ConnectionManager.SERVICE_UNAVAILABLE_RESPONSE : null);
+                return;
             }
+            scheduler.execute(new HTTPRequestHandler(client, context, connection));
+        } catch (SocketException e) {
+            LOGGER.warn(ERROR_SETTING_SOCKET_TIMEOUT.formatMessage(e.getMessage()));
+            closeAcceptedSocket(accept, connection);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn(ERROR_ACCEPTING_SOCKET_CONNECTION.formatMessage(), e);
+            closeAcceptedSocket(accept, connection);
+        }
+    }
+
+    private static void closeAcceptedSocket(Socket accept, ManagedConnection connection) {
+        if (connection != null) {
+            connection.close();
+            return;
+        }
+        try {
+            accept.close();
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_CLOSING_SOCKET_CONNECTION.formatMessage(), e);
+        }
+    }
+
+    /**
+     * Serve HTTPS on its own port and thread. The TLS handshakes are done by the request handler threads, the accepting
+     * thread only wraps the connections. The server keeps serving plain HTTP if the keystore can not be loaded.
+     */
+    private void startTlsServer() throws IOException {
+        String keyStorePath = properties.getTlsKeyStorePath();
+        TlsContext tlsContext;
+        try {
+            tlsContext = new TlsContext(Paths.get(keyStorePath), properties.getTlsKeyStorePassword().toCharArray(),
+                    properties.getTlsKeyStoreType(), properties.getTlsProtocols(), properties.getTlsSessionCacheSize(),
+                    properties.getTlsSessionTimeoutInSeconds(), properties.isTlsSessionTicketsEnabled(), http2Settings != null);
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+            LOGGER.error(ERROR_TLS_CONFIGURATION.formatMessage(keyStorePath), e);
+            return;
+        }
+        int port = properties.getTlsPort();
+        ServerSocket socket;
+        try {
+            // Plain sockets: the TLS records are read and written with the socket streams which honor the socket timeout.
+            socket = new ServerSocket(port);
+            LOGGER.info(TLS_INITIALIZED.formatMessage(port));
+        } catch (IOException e) {
+            LOGGER.error(SERVER_INITIALIZATION_FAILURE.formatMessage(port), e);
+            throw e;
+        }
+        Thread acceptor = new Thread(() -> acceptConnections(socket, tlsContext), TLS_ACCEPTOR_THREAD_NAME);
+        acceptor.start();
+        int statsInterval = properties.getTlsStatsLogIntervalInSeconds();
+        if (statsInterval > 0) {
+            TlsStats stats = tlsContext.getStats();
+            createDaemonTimer(TLS_STATS_THREAD_NAME).scheduleWithFixedDelay(() ->
+                    LOGGER.info(TLS_STATS.formatMessage(stats.getFullHandshakes(), stats.getAverageFullHandshakeMicros(),
+                            stats.getResumedHandshakes(), stats.getAverageResumedHandshakeMicros(), stats.getFailedHandshakes())),
+                    statsInterval, statsInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Index the metadata of all the static resources before accepting connections.
+     */
+    private void indexResources() {
+        long start = System.currentTimeMillis();
+        int count = ResourcesUtil.scanResources();
+        LOGGER.info(RESOURCES_INDEXED.formatMessage(count, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Create the tiered resource cache. The disk tier uses a new folder which is deleted when the server stops.
+     */
+    private void configureCache() {
+        Path diskFolder = null;
+        long diskBudget = properties.getDiskCacheBytes();
+        if (diskBudget > 0) {
+            String parent = properties.getDiskCachePath();
+            Path parentFolder = Paths.get(parent.isEmpty() ? System.getProperty(TEMPORARY_FOLDER_PROPERTY) : parent);
+            try {
+                Files.createDirectories(parentFolder);
+                diskFolder = Files.createTempDirectory(parentFolder, CACHE_FOLDER_PREFIX);
+            } catch (IOException e) {
+                LOGGER.warn(ERROR_CREATING_CACHE_FOLDER.formatMessage(parentFolder), e);
+            }
+        }
+        TieredCache cache = new TieredCache(properties.getHeapCacheBytes(), properties.getHeapCacheMaxEntryBytes(),
+                properties.getOffHeapCacheBytes(), diskBudget, diskFolder);
+        ResourcesUtil.configureCache(cache, properties.getGzipMinBytes());
+        ResourcesUtil.configureMinification(properties.isMinifyEnabled());
+        if (diskFolder != null) {
+            Path folder = diskFolder;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                cache.clear();
+                folder.toFile().delete();
+            }));
+        }
+        int statsInterval = properties.getCacheStatsLogIntervalInSeconds();
+        if (statsInterval > 0) {
+            createDaemonTimer(CACHE_STATS_THREAD_NAME).scheduleWithFixedDelay(() -> {
+                for (CacheTier tier : CacheTier.values()) {
+                    CacheStats stats = cache.getStats(tier);
+                    LOGGER.info(CACHE_STATS.formatMessage(tier, stats.getEntries(), stats.getBytes(), stats.getBudget(),
+                            stats.getHits(), stats.getPromotions(), stats.getDemotions(), stats.getEvictions(), cache.getMisses()));
+                }
+                LOGGER.info(CACHE_DEDUPLICATION.formatMessage(cache.getKeyCount(), cache.getContentCount(), cache.getDeduplicatedBytes()));
+            }, statsInterval, statsInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    private static ScheduledExecutorService createDaemonTimer(String threadName) {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Serve the static resources from a memory mapped pack instead of the static folders. If a reload interval is
+     * configured the pack file is checked periodically and swapped when it was replaced.
+     *
+     * @param packPath the pack file built by {@link PackWriter}.
+     * @throws IOException thrown when the pack can not be loaded.
+     */
+    private void loadPack(Path packPath) throws IOException {
+        PackReloader reloader = new PackReloader(packPath, ResourcesUtil::usePack);
+        reloader.load();
+        int reloadInterval = properties.getPackReloadIntervalInSeconds();
+        if (reloadInterval > 0) {
+            createDaemonTimer(PACK_RELOADER_THREAD_NAME).scheduleWithFixedDelay(reloader, reloadInterval, reloadInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Create the per client request rate limiter if a rate is configured.
+     *
+     * @return the {@link RequestRateLimiter} or null if requests are not limited.
+     */
+    private RequestRateLimiter createRequestRateLimiter() {
+        int requestsPerSecond = properties.getClientRequestsPerSecond();
+        if (requestsPerSecond <= 0) {
+            return null;
+        }
+        return new RequestRateLimiter(requestsPerSecond, properties.getClientRequestsBurst(), properties.getRateLimiterMaxClients());
+    }
+
+    /**
+     * Answer a refused client with a pre-built response, e.g. 429 when it exceeded its request rate, and close the connection.
+     * The request is not read, only the bytes already received are discarded so that closing the socket does not reset
+     * the connection before the client reads the response.
+     *
+     * @param accept   the client connection.
+     * @param response the pre-built response, null to close TLS connections which would need a handshake on the
+     *                 accepting thread to send it.
+     */
+    private void rejectConnection(Socket accept, byte[] response) {
+        try {
+            if (response == null) {
+                return;
+            }
+            accept.getOutputStream().write(response);
+            accept.shutdownOutput();
+            InputStream inputStream = accept.getInputStream();
+            inputStream.skip(inputStream.available());
+        } catch (IOException e) {
+            LOGGER.debug(ERROR_WRITING_RESPONSE_CONTENT.formatMessage(), e);
+        } finally {
+            try {
+                accept.close();
+            } catch (IOException e) {
+                LOGGER.warn(ERROR_CLOSING_SOCKET_CONNECTION.formatMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Enable the batch path, the archives, the listings, the image transforms and the preload hints which are configured.
+     */
+    private void enableRequestHandlers() {
+        String batchPath = properties.getBatchPath();
+        if (!batchPath.isEmpty()) {
+            registry.enableBatch(batchPath, properties.getBatchMaxFiles(), properties.getBatchMaxBytes());
+        }
+        if (properties.getArchiveMaxFiles() > 0) {
+            registry.enableArchives(properties.getArchiveMaxFiles());
+        }
+        if (properties.isListingEnabled() && properties.getListingPageSize() > 0) {
+            registry.enableListings(properties.getListingPageSize(), properties.getListingMaxPageSize());
+        }
+        if (properties.isImageEnabled()) {
+            registry.enableImageTransforms(new ImageTransformSettings(properties.getImagePoolSize(),
+                    properties.getImageQueueSize(), properties.getImageMaxDimension(), properties.getImageMaxPixels(),
+                    properties.getImageTimeoutInMilliSec()));
+        }
+        if (properties.isPreloadEnabled()) {
+            registry.enablePreloadHints(new PreloadHints(properties.getPreloadMaxLinks(), properties.isPreloadEarlyHints(),
+                    properties.isPreloadWarm()));
+        }
+    }
+
+    /**
+     * Accept PUT and DELETE requests, only when a token is configured since uploads are never anonymous.
+     */
+    private void enableUploads() {
+        String token = properties.getUploadToken();
+        if (token.isEmpty()) {
+            LOGGER.warn(ERROR_UPLOAD_TOKEN_MISSING.formatMessage("file.server.upload.token"));
+            return;
+        }
+        registry.enableUploads(new UploadSettings(token, properties.getUploadMaxBytes(), properties.getUploadFsyncPolicy()));
+    }
+
+    /**
+     * Fetch the missing resources from the configured origin, an invalid URL leaves them answered with 404.
+     */
+    private void enableOrigin() {
+        String url = properties.getOriginUrl();
+        try {
+            registry.enableOrigin(new OriginSettings(new URI(url), properties.getOriginMaxConnections(),
+                    properties.getOriginTimeoutInMilliSec(), properties.getOriginIdleTimeoutInMilliSec()));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            LOGGER.warn(ERROR_INVALID_ORIGIN_URL.formatMessage(url));
+        }
+    }
+
+    /**
+     * Share the resource cache with the configured peers and check their health periodically, an invalid address
+     * leaves every resource loaded and cached locally.
+     */
+    private void enablePeers() {
+        String self = properties.getPeerSelf();
+        PeerGroup peerGroup;
+        try {
+            peerGroup = registry.enablePeers(new PeerSettings(self, properties.getPeerList(), properties.getPeerPath(),
+                    properties.getPeerVirtualNodes(), properties.getPeerMaxConnections(), properties.getPeerTimeoutInMilliSec()));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn(e.getMessage());
+            return;
+        }
+        LOGGER.info(PEER_MODE_ENABLED.formatMessage(self, peerGroup.getPeers()));
+        long interval = properties.getPeerHealthIntervalInMilliSec();
+        createDaemonTimer(PEER_HEALTH_THREAD_NAME).scheduleWithFixedDelay(peerGroup::checkHealth, interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create the Cache-Control rules if at least one policy applies.
+     *
+     * @return the {@link CacheControlRules} or null if no Cache-Control header is sent.
+     */
+    private CacheControlRules createCacheControlRules() {
+        Map<String, String> rules = properties.getCacheControlRules();
+        String defaultPolicy = properties.getCacheControlDefault();
+        boolean fingerprinted = properties.isCacheControlFingerprinted();
+        if (rules.isEmpty() && defaultPolicy.isEmpty() && !fingerprinted) {
+            return null;
+        }
+        return new CacheControlRules(rules, defaultPolicy, fingerprinted);
+    }
+
+    /**
+     * Create the bandwidth shaper if at least one bandwidth limit is configured.
+     *
+     * @return the {@link BandwidthShaper} or null if the bandwidth is not limited.
+     */
+    private BandwidthShaper createBandwidthShaper() {
+        long globalRate = properties.getGlobalBandwidthInBytesPerSecond();
+        long clientRate = properties.getClientBandwidthInBytesPerSecond();
+        long connectionRate = properties.getConnectionBandwidthInBytesPerSecond();
+        Map<String, Long> rules = properties.getBandwidthRules();
+        if (globalRate <= 0 && clientRate <= 0 && connectionRate <= 0 && rules.isEmpty()) {
+            return null;
         }
+        return new BandwidthShaper(globalRate, clientRate, connectionRate, rules, properties.getBandwidthChunkSizeInBytes(),
+                properties.getBandwidthTimerPoolSize());
     }
 
     /**
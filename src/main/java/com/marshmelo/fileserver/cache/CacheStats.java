@@ -0,0 +1,68 @@
+package com.marshmelo.fileserver.cache;
+
+/**
+ * A snapshot of the counters of one tier of the {@link TieredCache}.
+ */
+public class CacheStats {
+
+    private final CacheTier tier;
+    private final int entries;
+    private final long bytes;
+    private final long budget;
+    private final long hits;
+    private final long promotions;
+    private final long demotions;
+    private final long evictions;
+
+    CacheStats(CacheTier tier, int entries, long bytes, long budget, long hits, long promotions, long demotions, long evictions) {
+        this.tier = tier;
+        this.entries = entries;
+        this.bytes = bytes;
+        this.budget = budget;
+        this.hits = hits;
+        this.promotions = promotions;
+        this.demotions = demotions;
+        this.evictions = evictions;
+    }
+
+    public CacheTier getTier() {
+        return tier;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of entries moved into this tier from a slower one.
+     */
+    public long getPromotions() {
+        return promotions;
+    }
+
+    /**
+     * @return the number of entries moved out of this tier to a slower one.
+     */
+    public long getDemotions() {
+        return demotions;
+    }
+
+    /**
+     * @return the number of entries dropped from the cache while in this tier.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+}
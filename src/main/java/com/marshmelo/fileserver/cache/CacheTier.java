@@ -0,0 +1,19 @@
+package com.marshmelo.fileserver.cache;
+
+/**
+ * The tiers of the {@link TieredCache} from the fastest to the slowest.
+ */
+public enum CacheTier {
+    /**
+     * Small and hot entries kept as arrays of bytes on the heap.
+     */
+    HEAP,
+    /**
+     * Warm entries kept in direct buffers outside of the heap, they do not add garbage collection work.
+     */
+    OFF_HEAP,
+    /**
+     * Generated entries spilled to a local folder and memory mapped, they are cheaper to read back than to generate.
+     */
+    DISK
+}
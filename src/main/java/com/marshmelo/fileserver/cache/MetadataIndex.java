@@ -0,0 +1,234 @@
+package com.marshmelo.fileserver.cache;
+
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.models.StorageTier;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_READING_FILE;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_RESOLVING_STATIC_FOLDER;
+
+/**
+ * Index of the metadata of the static resources (size, modification time, mime type, ETag, pre-compressed variant and
+ * storage tier) keyed by the path relative to the static folder e.g. css/style.css.
+ * <p>
+ * The index is filled by a scan of the static folders or lazily with a single {@link Files#readAttributes} call per
+ * resource, the content of the resources is never read. Several static folders can be indexed (e.g. test and main
+ * resources on the classpath), the first folder containing a resource wins like for the class loader.
+ * Missing resources are remembered too so that repeated 404 requests do not hit the file system, that set is bounded.
+ */
+public class MetadataIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(MetadataIndex.class);
+
+    private static final int MAX_MISSING_ENTRIES = 10000;
+    private static final String GZIP_EXTENSION = ".gz";
+
+    private final List<Path> roots = new ArrayList<>();
+    private final Function<String, String> mimeTypeResolver;
+    private final Map<String, ResourceMetadata> entries = new ConcurrentHashMap<>();
+    private final Set<String> missingEntries = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param roots            the static folders in priority order.
+     * @param mimeTypeResolver finds the mime type of a file name.
+     */
+    public MetadataIndex(List<Path> roots, Function<String, String> mimeTypeResolver) {
+        for (Path root : roots) {
+            this.roots.add(root.toAbsolutePath().normalize());
+        }
+        this.mimeTypeResolver = mimeTypeResolver;
+    }
+
+    /**
+     * Find all the folders with the given name on the classpath, folders inside jar files are opened as zip file systems.
+     *
+     * @param folder the folder name e.g. static.
+     * @return the folders in class loader order.
+     */
+    public static List<Path> findClasspathFolders(String folder) {
+        List<Path> folders = new ArrayList<>();
+        try {
+            Enumeration<URL> urls = MetadataIndex.class.getClassLoader().getResources(folder);
+            while (urls.hasMoreElements()) {
+                folders.add(toPath(urls.nextElement().toURI()));
+            }
+        } catch (IOException | URISyntaxException | FileSystemNotFoundException e) {
+            LOGGER.warn(ERROR_RESOLVING_STATIC_FOLDER.formatMessage(folder), e);
+        }
+        return folders;
+    }
+
+    private static Path toPath(URI uri) throws IOException {
+        if ("jar".equals(uri.getScheme())) {
+            try {
+                FileSystems.newFileSystem(uri, Collections.emptyMap());
+            } catch (FileSystemAlreadyExistsException e) {
+                // Already opened, Paths.get will use it.
+            }
+        }
+        return Paths.get(uri);
+    }
+
+    /**
+     * Find the metadata of a resource.
+     *
+     * @param relativePath the path of the resource relative to the static folder e.g. index.html.
+     * @return the metadata or null if the resource does not exist or is not a regular file.
+     */
+    public ResourceMetadata find(String relativePath) {
+        ResourceMetadata metadata = entries.get(relativePath);
+        if (metadata != null || missingEntries.contains(relativePath)) {
+            return metadata;
+        }
+        metadata = lookup(relativePath);
+        if (metadata == null) {
+            if (missingEntries.size() >= MAX_MISSING_ENTRIES) {
+                missingEntries.clear();
+            }
+            missingEntries.add(relativePath);
+            return null;
+        }
+        entries.put(relativePath, metadata);
+        return metadata;
+    }
+
+    /**
+     * Index all the regular files of the static folders.
+     *
+     * @return the number of indexed resources.
+     */
+    public int scan() {
+        for (Path root : roots) {
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if (attributes.isRegularFile()) {
+                            entries.putIfAbsent(toRelativePath(root, file), createMetadata(file, attributes));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                LOGGER.warn(ERROR_READING_FILE.formatMessage(root), e);
+            }
+        }
+        missingEntries.clear();
+        return entries.size();
+    }
+
+    /**
+     * List the regular files of a folder and of its sub folders, from the file system so that the index does not have
+     * to be complete. The first static folder containing a resource wins like for {@link #find(String)}.
+     *
+     * @param folder a folder relative to the static folder ending with a slash e.g. css/, empty for all the resources.
+     * @return the sorted paths of the files relative to the static folder or null if no static folder contains it.
+     */
+    public List<String> list(String folder) {
+        Set<String> resources = new TreeSet<>();
+        boolean found = false;
+        for (Path root : roots) {
+            Path directory = findFolder(root, folder);
+            if (directory == null) {
+                continue;
+            }
+            found = true;
+            try {
+                Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if (attributes.isRegularFile()) {
+                            resources.add(toRelativePath(root, file));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                LOGGER.warn(ERROR_READING_FILE.formatMessage(directory), e);
+            }
+        }
+        return found ? new ArrayList<>(resources) : null;
+    }
+
+    /**
+     * @param folder a folder relative to the static folder ending with a slash e.g. css/, empty for the static folder.
+     * @return the folder in every static folder containing it, in priority order.
+     */
+    public List<Path> findFolders(String folder) {
+        List<Path> folders = new ArrayList<>();
+        for (Path root : roots) {
+            Path directory = findFolder(root, folder);
+            if (directory != null) {
+                folders.add(directory);
+            }
+        }
+        return folders;
+    }
+
+    private static Path findFolder(Path root, String folder) {
+        Path directory = root.resolve(folder).normalize();
+        return directory.startsWith(root) && Files.isDirectory(directory) ? directory : null;
+    }
+
+    /**
+     * Forget a resource so that its metadata is read again on the next lookup, e.g. after the file changed.
+     *
+     * @param relativePath the path of the resource relative to the static folder.
+     */
+    public void invalidate(String relativePath) {
+        entries.remove(relativePath);
+        missingEntries.remove(relativePath);
+    }
+
+    /**
+     * @return the static folders in priority order.
+     */
+    public List<Path> getRoots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    private ResourceMetadata lookup(String relativePath) {
+        for (Path root : roots) {
+            Path path = root.resolve(relativePath).normalize();
+            if (!path.startsWith(root)) {
+                // Paths like ../../etc/passwd are never resolved outside the static folders.
+                return null;
+            }
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    return createMetadata(path, attributes);
+                }
+            } catch (NoSuchFileException e) {
+                // Try the next static folder.
+            } catch (IOException e) {
+                LOGGER.warn(ERROR_READING_FILE.formatMessage(path), e);
+            }
+        }
+        return null;
+    }
+
+    private ResourceMetadata createMetadata(Path path, BasicFileAttributes attributes) {
+        String fileName = path.getFileName().toString();
+        boolean gzipVariant = Files.isRegularFile(path.resolveSibling(fileName + GZIP_EXTENSION));
+        StorageTier storageTier = path.getFileSystem() == FileSystems.getDefault() ? StorageTier.FILE_SYSTEM : StorageTier.ARCHIVE;
+        return new ResourceMetadata(path, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                mimeTypeResolver.apply(fileName), gzipVariant, storageTier);
+    }
+
+    private static String toRelativePath(Path root, Path file) {
+        String relativePath = root.relativize(file).toString();
+        String separator = root.getFileSystem().getSeparator();
+        return "/".equals(separator) ? relativePath : relativePath.replace(separator, "/");
+    }
+}
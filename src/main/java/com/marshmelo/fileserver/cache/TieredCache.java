@@ -0,0 +1,482 @@
+package com.marshmelo.fileserver.cache;
+
+import com.marshmelo.fileserver.models.Resource;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_ALLOCATING_OFF_HEAP_CACHE;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_DELETING_CACHE_FILE;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_SPILLING_CACHE_ENTRY;
+
+/**
+ * Resource cache with three tiers, see {@link CacheTier}, each one with its own byte budget.
+ * <p>
+ * The content is addressed by a hash of its bytes and mime type, keys (e.g. request paths) are aliases of a content, so
+ * identical files under different paths and their variants are stored once. A content is released when its last key is
+ * removed or when it is evicted, which removes all its keys.
+ * <p>
+ * New entries go to the fastest tier they are allowed in: only entries up to a maximum size live on the heap and only
+ * generated entries (e.g. compressed variants) are spilled to disk, the others can be read again from the static
+ * folders. When a tier is over its budget the entries with the fewest hits are demoted to the next tier, or dropped
+ * from the last one. An entry of a slower tier is promoted once it is hit often enough and more than the coldest entry
+ * of the faster tier. Hit counts are halved periodically so that entries which were hot long ago cool down.
+ * <p>
+ * The cache is guarded by its lock except for hashing new contents. The coldest entry of a tier, to demote it or to
+ * compare it with an entry to promote, is the coldest of a few entries sampled from the tier, so that neither a lookup
+ * nor an insertion scans the tier whatever its size. Tiers with no more entries than the sample are scanned entirely.
+ */
+public class TieredCache {
+
+    private static final Logger LOGGER = Logger.getLogger(TieredCache.class);
+
+    private static final int PROMOTION_HITS = 3;
+    private static final int VICTIM_SAMPLES = 8;
+    private static final int MIN_AGING_INTERVAL = 1024;
+    private static final int AGING_INTERVAL_PER_ENTRY = 8;
+    private static final String SPILL_FILE_FORMAT = "%d.bin";
+    private static final CacheTier[] TIERS = CacheTier.values();
+    private static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+
+    private final long[] budgets = new long[TIERS.length];
+    private final long heapMaxEntryBytes;
+    private final Path diskFolder;
+    private final Map<String, Entry> contents = new HashMap<>();
+    private final Map<String, Entry> aliases = new HashMap<>();
+    private final List<List<Entry>> tierEntries = new ArrayList<>(TIERS.length);
+    private final int[] entryCounts = new int[TIERS.length];
+    private final long[] bytes = new long[TIERS.length];
+    private final long[] hits = new long[TIERS.length];
+    private final long[] promotions = new long[TIERS.length];
+    private final long[] demotions = new long[TIERS.length];
+    private final long[] evictions = new long[TIERS.length];
+    private long misses;
+    private long deduplicatedBytes;
+    private long clock;
+    private long accessesSinceAging;
+    private long spillSequence;
+
+    /**
+     * @param heapBudget        bytes of content kept on the heap.
+     * @param heapMaxEntryBytes bigger entries are never kept on the heap.
+     * @param offHeapBudget     bytes of content kept in direct buffers, 0 disables the tier.
+     * @param diskBudget        bytes of content spilled to disk, 0 disables the tier.
+     * @param diskFolder        the folder of the spilled entries, it should be private to the cache, null disables the tier.
+     */
+    public TieredCache(long heapBudget, long heapMaxEntryBytes, long offHeapBudget, long diskBudget, Path diskFolder) {
+        this.budgets[CacheTier.HEAP.ordinal()] = heapBudget;
+        this.budgets[CacheTier.OFF_HEAP.ordinal()] = offHeapBudget;
+        this.budgets[CacheTier.DISK.ordinal()] = diskFolder == null ? 0 : diskBudget;
+        this.heapMaxEntryBytes = heapMaxEntryBytes;
+        this.diskFolder = diskFolder;
+        for (int i = 0; i < TIERS.length; i++) {
+            tierEntries.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * @param key the cache key e.g. the request URL.
+     * @return the cached resource or null.
+     */
+    public synchronized Resource get(String key) {
+        ageIfNeeded();
+        Entry entry = aliases.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        entry.hits++;
+        entry.lastAccess = ++clock;
+        hits[entry.tier.ordinal()]++;
+        promoteIfHot(entry);
+        return entry.toResource();
+    }
+
+    /**
+     * Cache a resource read from the static folders, it is never spilled to disk.
+     *
+     * @param key      the cache key e.g. the request URL.
+     * @param resource the resource.
+     */
+    public void put(String key, Resource resource) {
+        insert(key, findContentId(resource), resource, false);
+    }
+
+    /**
+     * Cache a resource which is expensive to generate e.g. a compressed variant, it can be spilled to disk.
+     *
+     * @param key      the cache key.
+     * @param resource the generated resource.
+     */
+    public void putGenerated(String key, Resource resource) {
+        insert(key, findContentId(resource), resource, true);
+    }
+
+    /**
+     * @param key the cache key.
+     * @return the id of the content cached for the key or null if the key is not cached, it can be used to build the
+     * keys of the variants of the content so that they are shared by all the keys having the same content.
+     */
+    public synchronized String getContentId(String key) {
+        Entry entry = aliases.get(key);
+        return entry == null ? null : entry.contentId;
+    }
+
+    /**
+     * Remove an entry from any tier.
+     *
+     * @param key the cache key.
+     */
+    public synchronized void remove(String key) {
+        Entry entry = aliases.remove(key);
+        if (entry == null) {
+            return;
+        }
+        entry.keys.remove(key);
+        if (entry.keys.isEmpty()) {
+            contents.remove(entry.contentId);
+            release(entry);
+        } else {
+            deduplicatedBytes -= entry.length;
+        }
+    }
+
+    /**
+     * Remove all the entries.
+     */
+    public synchronized void clear() {
+        for (Entry entry : new ArrayList<>(contents.values())) {
+            release(entry);
+        }
+        contents.clear();
+        aliases.clear();
+        deduplicatedBytes = 0;
+    }
+
+    /**
+     * @param tier the tier.
+     * @return a snapshot of the counters of the tier.
+     */
+    public synchronized CacheStats getStats(CacheTier tier) {
+        int i = tier.ordinal();
+        return new CacheStats(tier, entryCounts[i], bytes[i], budgets[i], hits[i], promotions[i], demotions[i], evictions[i]);
+    }
+
+    /**
+     * @return the number of lookups of keys which were not cached.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of keys, several keys can share one content.
+     */
+    public synchronized int getKeyCount() {
+        return aliases.size();
+    }
+
+    /**
+     * @return the number of distinct contents.
+     */
+    public synchronized int getContentCount() {
+        return contents.size();
+    }
+
+    /**
+     * @return the bytes which would be cached a second time without content addressing.
+     */
+    public synchronized long getDeduplicatedBytes() {
+        return deduplicatedBytes;
+    }
+
+    /**
+     * Hash the content and the mime type, done before taking the lock of the cache.
+     */
+    private static String findContentId(Resource resource) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+        digest.update(resource.getBuffer());
+        digest.update(resource.getMimeType().getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+    }
+
+    private synchronized void insert(String key, String contentId, Resource resource, boolean generated) {
+        Entry existing = aliases.get(key);
+        if (existing != null && existing.contentId.equals(contentId)) {
+            return;
+        }
+        remove(key);
+        Entry entry = contents.get(contentId);
+        if (entry != null) {
+            entry.keys.add(key);
+            entry.generated |= generated;
+            aliases.put(key, entry);
+            deduplicatedBytes += entry.length;
+            return;
+        }
+        entry = new Entry(contentId, resource.getMimeType(), resource.getLength(), generated);
+        entry.hits = 1;
+        entry.lastAccess = ++clock;
+        for (CacheTier tier : TIERS) {
+            if (isAllowed(entry, tier) && store(entry, tier, resource)) {
+                entry.keys.add(key);
+                contents.put(contentId, entry);
+                aliases.put(key, entry);
+                rebalance(tier);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param length    the length of a content.
+     * @param generated true for generated contents.
+     * @return true if a content of that length fits in at least one tier, bigger contents are better streamed.
+     */
+    public boolean accepts(long length, boolean generated) {
+        for (CacheTier tier : TIERS) {
+            if (isAllowed(length, generated, tier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isAllowed(Entry entry, CacheTier tier) {
+        return isAllowed(entry.length, entry.generated, tier);
+    }
+
+    private boolean isAllowed(long length, boolean generated, CacheTier tier) {
+        if (length > budgets[tier.ordinal()]) {
+            return false;
+        }
+        if (tier == CacheTier.HEAP) {
+            return length <= heapMaxEntryBytes;
+        }
+        return tier != CacheTier.DISK || generated;
+    }
+
+    /**
+     * Store the content of an entry in a tier and release its previous copy.
+     *
+     * @return false if the tier can not store the entry, its previous copy is then kept.
+     */
+    private boolean store(Entry entry, CacheTier tier, Resource resource) {
+        Resource heapResource = null;
+        ByteBuffer buffer = null;
+        Path spillFile = null;
+        switch (tier) {
+            case HEAP:
+                heapResource = resource.isMapped() ? new Resource(resource.getContent(), entry.mimeType) : resource;
+                break;
+            case OFF_HEAP:
+                try {
+                    buffer = ByteBuffer.allocateDirect(entry.length);
+                } catch (OutOfMemoryError e) {
+                    // The direct memory limit of the JVM is lower than the budget.
+                    LOGGER.warn(ERROR_ALLOCATING_OFF_HEAP_CACHE.formatMessage(entry.length));
+                    return false;
+                }
+                buffer.put(resource.getBuffer()).flip();
+                break;
+            case DISK:
+                spillFile = diskFolder.resolve(String.format(SPILL_FILE_FORMAT, ++spillSequence));
+                try {
+                    buffer = spill(spillFile, resource.getBuffer());
+                } catch (IOException e) {
+                    LOGGER.warn(ERROR_SPILLING_CACHE_ENTRY.formatMessage(spillFile), e);
+                    deleteSpillFile(spillFile);
+                    return false;
+                }
+                break;
+            default:
+                return false;
+        }
+        if (entry.tier != null) {
+            release(entry);
+        }
+        entry.tier = tier;
+        entry.heapResource = heapResource;
+        entry.buffer = buffer;
+        entry.spillFile = spillFile;
+        List<Entry> entries = tierEntries.get(tier.ordinal());
+        entry.tierIndex = entries.size();
+        entries.add(entry);
+        entryCounts[tier.ordinal()]++;
+        bytes[tier.ordinal()] += entry.length;
+        return true;
+    }
+
+    private static ByteBuffer spill(Path spillFile, ByteBuffer content) throws IOException {
+        try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = content.remaining();
+            long position = 0;
+            while (content.hasRemaining()) {
+                position += channel.write(content, position);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Free the copy of an entry in its current tier, the mapping of a spilled entry stays valid for the responses in
+     * flight until it is garbage collected.
+     */
+    private void release(Entry entry) {
+        // The last entry of the tier takes the place of the released one.
+        List<Entry> entries = tierEntries.get(entry.tier.ordinal());
+        Entry last = entries.remove(entries.size() - 1);
+        if (last != entry) {
+            last.tierIndex = entry.tierIndex;
+            entries.set(entry.tierIndex, last);
+        }
+        entryCounts[entry.tier.ordinal()]--;
+        bytes[entry.tier.ordinal()] -= entry.length;
+        if (entry.spillFile != null) {
+            deleteSpillFile(entry.spillFile);
+        }
+        entry.heapResource = null;
+        entry.buffer = null;
+        entry.spillFile = null;
+    }
+
+    private void deleteSpillFile(Path spillFile) {
+        try {
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_DELETING_CACHE_FILE.formatMessage(spillFile), e);
+        }
+    }
+
+    /**
+     * Demote the coldest entries of a tier until it fits in its budget.
+     */
+    private void rebalance(CacheTier tier) {
+        while (bytes[tier.ordinal()] > budgets[tier.ordinal()]) {
+            Entry victim = findColdest(tier);
+            if (victim == null) {
+                return;
+            }
+            demote(victim);
+        }
+    }
+
+    private void demote(Entry entry) {
+        CacheTier from = entry.tier;
+        Resource resource = entry.toResource();
+        for (int i = from.ordinal() + 1; i < TIERS.length; i++) {
+            CacheTier tier = TIERS[i];
+            if (isAllowed(entry, tier) && store(entry, tier, resource)) {
+                demotions[from.ordinal()]++;
+                rebalance(tier);
+                return;
+            }
+        }
+        evictions[from.ordinal()]++;
+        contents.remove(entry.contentId);
+        for (String key : entry.keys) {
+            aliases.remove(key);
+        }
+        deduplicatedBytes -= (long) (entry.keys.size() - 1) * entry.length;
+        release(entry);
+    }
+
+    private void promoteIfHot(Entry entry) {
+        if (entry.tier == CacheTier.HEAP || entry.hits < PROMOTION_HITS) {
+            return;
+        }
+        CacheTier tier = TIERS[entry.tier.ordinal() - 1];
+        if (!isAllowed(entry, tier)) {
+            return;
+        }
+        if (bytes[tier.ordinal()] + entry.length > budgets[tier.ordinal()]) {
+            Entry coldest = findColdest(tier);
+            if (coldest != null && coldest.hits >= entry.hits) {
+                return;
+            }
+        }
+        if (store(entry, tier, entry.toResource())) {
+            promotions[tier.ordinal()]++;
+            rebalance(tier);
+        }
+    }
+
+    /**
+     * @return the entry with the fewest hits, then the least recently used, among a sample of the tier, null if the tier
+     * is empty.
+     */
+    private Entry findColdest(CacheTier tier) {
+        List<Entry> entries = tierEntries.get(tier.ordinal());
+        boolean sampled = entries.size() > VICTIM_SAMPLES;
+        int count = sampled ? VICTIM_SAMPLES : entries.size();
+        Entry coldest = null;
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries.get(sampled ? ThreadLocalRandom.current().nextInt(entries.size()) : i);
+            if (coldest == null || entry.hits < coldest.hits
+                    || (entry.hits == coldest.hits && entry.lastAccess < coldest.lastAccess)) {
+                coldest = entry;
+            }
+        }
+        return coldest;
+    }
+
+    private void ageIfNeeded() {
+        if (++accessesSinceAging < Math.max(MIN_AGING_INTERVAL, (long) contents.size() * AGING_INTERVAL_PER_ENTRY)) {
+            return;
+        }
+        accessesSinceAging = 0;
+        for (Entry entry : contents.values()) {
+            entry.hits >>= 1;
+        }
+    }
+
+    private static class Entry {
+
+        private final String contentId;
+        private final String mimeType;
+        private final int length;
+        private final Set<String> keys = new HashSet<>();
+        private boolean generated;
+        private CacheTier tier;
+        private Resource heapResource;
+        private ByteBuffer buffer;
+        private Path spillFile;
+        private long hits;
+        private long lastAccess;
+        private int tierIndex;
+
+        Entry(String contentId, String mimeType, int length, boolean generated) {
+            this.contentId = contentId;
+            this.mimeType = mimeType;
+            this.length = length;
+            this.generated = generated;
+        }
+
+        Resource toResource() {
+            return heapResource != null ? heapResource : new Resource(buffer.duplicate(), mimeType);
+        }
+    }
+}
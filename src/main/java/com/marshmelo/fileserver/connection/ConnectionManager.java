@@ -0,0 +1,285 @@
+package com.marshmelo.fileserver.connection;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.marshmelo.fileserver.messages.LogMessages.CONNECTIONS_EXPIRED;
+import static com.marshmelo.fileserver.messages.LogMessages.CONNECTION_CLOSED;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_CLOSING_SOCKET_CONNECTION;
+
+/**
+ * Tracks every open client connection with the deadline of what it is waiting for: the request headers, the end of a
+ * response or, between two requests, the next request. The deadlines are kept in a {@link TimingWheel} so that moving
+ * a connection from one state to the next is O(1), and a timer calling {@link #expireConnections()} every tick closes
+ * the expired connections in one batch. Closing the socket is what enforces the deadline: a thread blocked on the
+ * socket, including in a write which the socket timeout does not apply to, fails and releases the connection.
+ * <p>
+ * The number of open connections is bounded, when the limit is reached the connection idle for the longest time is
+ * closed to make room for the new one, the new one is refused if no connection is idle.
+ * <p>
+ * The manager is also the registry of the open connections: every accepted socket is registered until it is closed
+ * through {@link ManagedConnection#close()} or a deadline, the lifetime and the bytes of the closed connections are
+ * added to the totals.
+ */
+public class ConnectionManager {
+
+    /**
+     * Pre-built response sent to the connections refused because the server has too many open connections.
+     */
+    public static final byte[] SERVICE_UNAVAILABLE_RESPONSE = ("HTTP/1.1 503 Service Unavailable\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Content-Length: 19\r\n" +
+            "Retry-After: 1\r\n" +
+            "Connection: close\r\n" +
+            "\r\n" +
+            "Service Unavailable").getBytes(StandardCharsets.US_ASCII);
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionManager.class);
+
+    private final long idleTimeoutNanos;
+    private final long headerTimeoutNanos;
+    private final long writeTimeoutNanos;
+    private final int maxOpenConnections;
+    private final TimingWheel<ManagedConnection> wheel;
+    /**
+     * Sentinel of the list of idle connections, the oldest one is the next of the sentinel.
+     */
+    private final ManagedConnection idleConnections = new ManagedConnection(this, null, null);
+    private int openConnections;
+    private int idleCount;
+    private long expiredConnections;
+    private long reapedConnections;
+    private long refusedConnections;
+    private long closedConnections;
+    private long closedLifetimeInMilliSec;
+    private long closedBytesRead;
+    private long closedBytesWritten;
+
+    /**
+     * @param idleTimeoutInMilliSec   time a connection may wait for its next request.
+     * @param headerTimeoutInMilliSec time a connection may take to send the request headers.
+     * @param writeTimeoutInMilliSec  time a response may take to be written.
+     * @param maxOpenConnections      maximum number of open connections, 0 for no limit.
+     * @param tickInMilliSec          the resolution of the deadlines.
+     * @param wheelSize               number of ticks of one turn of the timing wheel.
+     */
+    public ConnectionManager(long idleTimeoutInMilliSec, long headerTimeoutInMilliSec, long writeTimeoutInMilliSec,
+                             int maxOpenConnections, long tickInMilliSec, int wheelSize) {
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutInMilliSec);
+        this.headerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(headerTimeoutInMilliSec);
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutInMilliSec);
+        this.maxOpenConnections = maxOpenConnections;
+        this.wheel = new TimingWheel<>(TimeUnit.MILLISECONDS.toNanos(tickInMilliSec), wheelSize, System.nanoTime());
+        idleConnections.previousIdle = idleConnections;
+        idleConnections.nextIdle = idleConnections;
+    }
+
+    /**
+     * Start tracking an accepted connection, it waits for its first request headers.
+     *
+     * @param socket        the accepted connection.
+     * @param clientAddress the address of the client, for the logs.
+     * @return the tracked connection or null if the limit is reached and no connection is idle, the caller refuses
+     * the connection.
+     */
+    public ManagedConnection register(Closeable socket, InetAddress clientAddress) {
+        ManagedConnection reaped = null;
+        ManagedConnection connection;
+        synchronized (this) {
+            if (maxOpenConnections > 0 && openConnections >= maxOpenConnections) {
+                if (idleCount == 0) {
+                    refusedConnections++;
+                    return null;
+                }
+                reaped = idleConnections.nextIdle;
+                remove(reaped);
+                reapedConnections++;
+            }
+            connection = new ManagedConnection(this, socket, clientAddress);
+            openConnections++;
+            schedule(connection, ManagedConnection.State.HEADER, System.nanoTime());
+        }
+        if (reaped != null) {
+            closeSocket(reaped);
+        }
+        return connection;
+    }
+
+    /**
+     * Close the connections whose deadline expired, called by a timer every tick.
+     *
+     * @return the number of closed connections.
+     */
+    public int expireConnections() {
+        return expire(System.nanoTime());
+    }
+
+    int expire(long nowNanos) {
+        List<ManagedConnection> expired = new ArrayList<>();
+        synchronized (this) {
+            if (wheel.expire(nowNanos, expired) == 0) {
+                return 0;
+            }
+            for (ManagedConnection connection : expired) {
+                connection.timeout = null;
+                remove(connection);
+            }
+            expiredConnections += expired.size();
+        }
+        LOGGER.debug(CONNECTIONS_EXPIRED.formatMessage(expired.size()));
+        // The sockets are closed outside the lock, closing a TLS connection writes a close_notify record.
+        for (ManagedConnection connection : expired) {
+            closeSocket(connection);
+        }
+        return expired.size();
+    }
+
+    synchronized void transition(ManagedConnection connection, ManagedConnection.State state) {
+        if (connection.closed) {
+            return;
+        }
+        if (connection.timeout != null) {
+            wheel.cancel(connection.timeout);
+            connection.timeout = null;
+        }
+        if (connection.state == ManagedConnection.State.IDLE) {
+            unlinkIdle(connection);
+        }
+        schedule(connection, state, System.nanoTime());
+    }
+
+    void close(ManagedConnection connection) {
+        synchronized (this) {
+            if (connection.closed) {
+                return;
+            }
+            remove(connection);
+        }
+        closeSocket(connection);
+    }
+
+    private void schedule(ManagedConnection connection, ManagedConnection.State state, long nowNanos) {
+        connection.state = state;
+        switch (state) {
+            case HEADER:
+                connection.timeout = wheel.schedule(connection, nowNanos + headerTimeoutNanos);
+                break;
+            case WRITE:
+                connection.timeout = wheel.schedule(connection, nowNanos + writeTimeoutNanos);
+                break;
+            case IDLE:
+                connection.timeout = wheel.schedule(connection, nowNanos + idleTimeoutNanos);
+                connection.previousIdle = idleConnections.previousIdle;
+                connection.nextIdle = idleConnections;
+                idleConnections.previousIdle.nextIdle = connection;
+                idleConnections.previousIdle = connection;
+                idleCount++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Stop tracking a connection, the caller holds the lock and closes the socket.
+     */
+    private void remove(ManagedConnection connection) {
+        if (connection.timeout != null) {
+            wheel.cancel(connection.timeout);
+            connection.timeout = null;
+        }
+        if (connection.state == ManagedConnection.State.IDLE) {
+            unlinkIdle(connection);
+        }
+        connection.closed = true;
+        openConnections--;
+        closedConnections++;
+        closedLifetimeInMilliSec += connection.getLifetimeInMilliSec();
+        closedBytesRead += connection.getBytesRead();
+        closedBytesWritten += connection.getBytesWritten();
+    }
+
+    private void unlinkIdle(ManagedConnection connection) {
+        connection.previousIdle.nextIdle = connection.nextIdle;
+        connection.nextIdle.previousIdle = connection.previousIdle;
+        connection.previousIdle = null;
+        connection.nextIdle = null;
+        idleCount--;
+    }
+
+    private static void closeSocket(ManagedConnection connection) {
+        try {
+            connection.getSocket().close();
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_CLOSING_SOCKET_CONNECTION.formatMessage(), e);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(CONNECTION_CLOSED.formatMessage(connection.getClientAddress(), connection.getLifetimeInMilliSec(),
+                    connection.getBytesRead(), connection.getBytesWritten()));
+        }
+    }
+
+    public synchronized int getOpenConnections() {
+        return openConnections;
+    }
+
+    public synchronized int getIdleConnections() {
+        return idleCount;
+    }
+
+    /**
+     * @return the number of connections closed because a deadline expired.
+     */
+    public synchronized long getExpiredConnections() {
+        return expiredConnections;
+    }
+
+    /**
+     * @return the number of idle connections closed to make room for new ones.
+     */
+    public synchronized long getReapedConnections() {
+        return reapedConnections;
+    }
+
+    /**
+     * @return the number of connections closed since the start.
+     */
+    public synchronized long getClosedConnections() {
+        return closedConnections;
+    }
+
+    /**
+     * @return the average lifetime of the closed connections.
+     */
+    public synchronized long getAverageLifetimeInMilliSec() {
+        return closedConnections == 0 ? 0 : closedLifetimeInMilliSec / closedConnections;
+    }
+
+    /**
+     * @return the bytes read from the closed connections.
+     */
+    public synchronized long getBytesRead() {
+        return closedBytesRead;
+    }
+
+    /**
+     * @return the bytes written to the closed connections.
+     */
+    public synchronized long getBytesWritten() {
+        return closedBytesWritten;
+    }
+
+    /**
+     * @return the number of connections refused because the limit was reached and no connection was idle.
+     */
+    public synchronized long getRefusedConnections() {
+        return refusedConnections;
+    }
+}
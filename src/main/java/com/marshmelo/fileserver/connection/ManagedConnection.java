@@ -0,0 +1,235 @@
+package com.marshmelo.fileserver.connection;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An open client connection tracked by the {@link ConnectionManager}. The thread serving the connection reports what
+ * the connection is waiting for and the manager closes it when the matching deadline expires, which also unblocks a
+ * thread stuck in a read or a write on the socket.
+ * <p>
+ * The streams of the connection are wrapped with {@link #countReads(InputStream)} and {@link #countWrites(OutputStream)}
+ * so that the bytes transferred are known when the connection is closed.
+ */
+public class ManagedConnection {
+
+    enum State {
+        /**
+         * Receiving the request headers, bounded by the header timeout.
+         */
+        HEADER,
+        /**
+         * Writing a response, bounded by the write timeout.
+         */
+        WRITE,
+        /**
+         * Waiting for the next request, bounded by the idle timeout. Idle connections are the first ones closed when
+         * the connection limit is reached.
+         */
+        IDLE,
+        /**
+         * Served by a protocol managing its own timeouts e.g. HTTP/2, no deadline.
+         */
+        ACTIVE
+    }
+
+    private final ConnectionManager manager;
+    private final Closeable socket;
+    private final InetAddress clientAddress;
+    private final long openedNanos = System.nanoTime();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    State state;
+    TimingWheel.Timeout<ManagedConnection> timeout;
+    ManagedConnection previousIdle;
+    ManagedConnection nextIdle;
+    volatile boolean closed;
+
+    ManagedConnection(ConnectionManager manager, Closeable socket, InetAddress clientAddress) {
+        this.manager = manager;
+        this.socket = socket;
+        this.clientAddress = clientAddress;
+    }
+
+    /**
+     * The request headers are expected, they should be received before the header timeout.
+     */
+    public void awaitHeader() {
+        manager.transition(this, State.HEADER);
+    }
+
+    /**
+     * A response is being written, it should be written before the write timeout.
+     */
+    public void startWrite() {
+        manager.transition(this, State.WRITE);
+    }
+
+    /**
+     * The responses are written and the next request is expected before the idle timeout.
+     */
+    public void idle() {
+        manager.transition(this, State.IDLE);
+    }
+
+    /**
+     * The connection is handed to a protocol with its own timeouts, it is still counted as open.
+     */
+    public void clearDeadline() {
+        manager.transition(this, State.ACTIVE);
+    }
+
+    /**
+     * Close the socket and stop tracking the connection, closing it again has no effect.
+     */
+    public void close() {
+        manager.close(this);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return a stream counting the bytes read from the connection.
+     */
+    public InputStream countReads(InputStream inputStream) {
+        return new CountingInputStream(inputStream);
+    }
+
+    /**
+     * @return a stream counting the bytes written to the connection.
+     */
+    public OutputStream countWrites(OutputStream outputStream) {
+        return new CountingOutputStream(outputStream);
+    }
+
+    /**
+     * @return a channel counting the bytes written to the connection.
+     */
+    public GatheringByteChannel countWrites(GatheringByteChannel channel) {
+        return new CountingChannel(channel);
+    }
+
+    /**
+     * Count bytes read without one of the counting streams, e.g. directly from the socket channel.
+     */
+    public void addBytesRead(long bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    public InetAddress getClientAddress() {
+        return clientAddress;
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return the time since the connection was accepted.
+     */
+    public long getLifetimeInMilliSec() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedNanos);
+    }
+
+    Closeable getSocket() {
+        return socket;
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                bytesRead.addAndGet(read);
+            }
+            return read;
+        }
+    }
+
+    private class CountingOutputStream extends FilterOutputStream {
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytesWritten.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytesWritten.addAndGet(len);
+        }
+    }
+
+    private class CountingChannel implements GatheringByteChannel {
+
+        private final GatheringByteChannel channel;
+
+        CountingChannel(GatheringByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+            return count(channel.write(sources, offset, length));
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) throws IOException {
+            return count(channel.write(sources));
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            return (int) count(channel.write(source));
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private long count(long written) {
+            bytesWritten.addAndGet(written);
+            return written;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.marshmelo.fileserver.connection;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+
+/**
+ * Process wide gauges read from the platform MBeans: the open file descriptors, which include every socket, and the used
+ * heap. A leak of either shows as a steady growth under a constant load.
+ */
+public final class ProcessGauges {
+
+    private ProcessGauges() {
+    }
+
+    /**
+     * @return the number of file descriptors open by the process, -1 if the platform does not report it e.g. Windows.
+     */
+    public static long getOpenFileDescriptors() {
+        OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+        if (operatingSystem instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) operatingSystem).getOpenFileDescriptorCount();
+        }
+        return -1;
+    }
+
+    /**
+     * @param collect true to run a full garbage collection first so that only live objects are counted.
+     * @return the bytes used on the heap.
+     */
+    public static long getUsedHeapBytes(boolean collect) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        if (collect) {
+            memory.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
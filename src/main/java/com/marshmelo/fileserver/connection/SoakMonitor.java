@@ -0,0 +1,69 @@
+package com.marshmelo.fileserver.connection;
+
+import org.apache.log4j.Logger;
+
+import static com.marshmelo.fileserver.messages.LogMessages.SOAK_TEST_BASELINE;
+import static com.marshmelo.fileserver.messages.LogMessages.SOAK_TEST_FAILED;
+import static com.marshmelo.fileserver.messages.LogMessages.SOAK_TEST_PASSED;
+
+/**
+ * Leak check of a long run under load: a baseline of the file descriptors and of the live heap is recorded once the
+ * server is warmed up (caches filled, pools started), and the end of the run fails if either grew more than allowed.
+ * The file descriptors held by the connections open at the time of a sample are not counted, so a run can end with the
+ * load still running; what remains are descriptors nobody owns any more.
+ */
+public class SoakMonitor {
+
+    private static final Logger LOGGER = Logger.getLogger(SoakMonitor.class);
+
+    private final ConnectionManager connectionManager;
+    private final long maxDescriptorGrowth;
+    private final long maxHeapGrowthBytes;
+    private long baselineDescriptors;
+    private long baselineHeapBytes;
+
+    /**
+     * @param connectionManager   the registry of the open connections.
+     * @param maxDescriptorGrowth the file descriptors which may be opened for good during the run e.g. cache spill files.
+     * @param maxHeapGrowthBytes  the live heap which may be added during the run.
+     */
+    public SoakMonitor(ConnectionManager connectionManager, long maxDescriptorGrowth, long maxHeapGrowthBytes) {
+        this.connectionManager = connectionManager;
+        this.maxDescriptorGrowth = maxDescriptorGrowth;
+        this.maxHeapGrowthBytes = maxHeapGrowthBytes;
+    }
+
+    /**
+     * Record the baseline at the end of the warm up.
+     */
+    public synchronized void recordBaseline() {
+        baselineDescriptors = sampleUnownedDescriptors();
+        baselineHeapBytes = ProcessGauges.getUsedHeapBytes(true);
+        LOGGER.info(SOAK_TEST_BASELINE.formatMessage(baselineDescriptors, baselineHeapBytes));
+    }
+
+    /**
+     * Compare the current state to the baseline.
+     *
+     * @return true if neither the file descriptors nor the heap grew more than allowed.
+     */
+    public synchronized boolean check() {
+        long descriptorGrowth = sampleUnownedDescriptors() - baselineDescriptors;
+        long heapGrowth = ProcessGauges.getUsedHeapBytes(true) - baselineHeapBytes;
+        boolean passed = descriptorGrowth <= maxDescriptorGrowth && heapGrowth <= maxHeapGrowthBytes;
+        if (passed) {
+            LOGGER.info(SOAK_TEST_PASSED.formatMessage(descriptorGrowth, heapGrowth));
+        } else {
+            LOGGER.error(SOAK_TEST_FAILED.formatMessage(descriptorGrowth, maxDescriptorGrowth, heapGrowth, maxHeapGrowthBytes));
+        }
+        return passed;
+    }
+
+    /**
+     * @return the open file descriptors minus the sockets of the open connections, 0 if the platform does not report them.
+     */
+    private long sampleUnownedDescriptors() {
+        long descriptors = ProcessGauges.getOpenFileDescriptors();
+        return descriptors < 0 ? 0 : descriptors - connectionManager.getOpenConnections();
+    }
+}
@@ -0,0 +1,141 @@
+package com.marshmelo.fileserver.connection;
+
+import java.util.List;
+
+/**
+ * A hashed timing wheel: a ring of buckets, one per tick, each one holding a doubly linked list of the timeouts due in
+ * that tick modulo the size of the wheel. Scheduling and cancelling a timeout are O(1) whatever the number of pending
+ * timeouts, expiring walks only the buckets of the ticks elapsed since the last call. Timeouts further than one turn of
+ * the wheel stay in their bucket until the turn they are due.
+ * <p>
+ * Deadlines are rounded up to the next tick. The wheel is not thread safe, the owner synchronizes the calls.
+ *
+ * @param <T> the type of the items timing out.
+ */
+public class TimingWheel<T> {
+
+    private final long tickNanos;
+    private final Timeout<T>[] buckets;
+    private final int mask;
+    private final long originNanos;
+    private long nextTick;
+    private int size;
+
+    /**
+     * @param tickNanos  the resolution of the wheel.
+     * @param wheelSize  number of buckets, rounded up to a power of two.
+     * @param nowNanos   the current time, ticks are counted from it.
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickNanos, int wheelSize, long nowNanos) {
+        if (tickNanos <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int buckets = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickNanos = tickNanos;
+        this.buckets = (Timeout<T>[]) new Timeout<?>[buckets];
+        this.mask = buckets - 1;
+        this.originNanos = nowNanos;
+        for (int i = 0; i < buckets; i++) {
+            Timeout<T> sentinel = new Timeout<>(null, 0);
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+            this.buckets[i] = sentinel;
+        }
+    }
+
+    /**
+     * @param item          the item timing out.
+     * @param deadlineNanos the time the item times out, a deadline in the past times out on the next call to
+     *                      {@link #expire(long, List)}.
+     * @return the handle to cancel the timeout.
+     */
+    public Timeout<T> schedule(T item, long deadlineNanos) {
+        long elapsed = deadlineNanos - originNanos;
+        long tick = Math.max(nextTick, elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos);
+        Timeout<T> timeout = new Timeout<>(item, tick);
+        Timeout<T> sentinel = buckets[(int) (tick & mask)];
+        timeout.previous = sentinel.previous;
+        timeout.next = sentinel;
+        sentinel.previous.next = timeout;
+        sentinel.previous = timeout;
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Remove a timeout which did not expire yet, nothing is done if it already expired or was cancelled.
+     */
+    public void cancel(Timeout<T> timeout) {
+        if (timeout.next != null) {
+            unlink(timeout);
+        }
+    }
+
+    /**
+     * Remove the timeouts due up to now.
+     *
+     * @param nowNanos the current time.
+     * @param expired  receives the items of the expired timeouts.
+     * @return the number of expired timeouts.
+     */
+    public int expire(long nowNanos, List<T> expired) {
+        long nowTick = (nowNanos - originNanos) / tickNanos;
+        if (nowTick < nextTick) {
+            return 0;
+        }
+        // After more than a turn every bucket holds due timeouts, each bucket is walked once.
+        long firstTick = Math.max(nextTick, nowTick - mask);
+        int count = 0;
+        for (long tick = firstTick; tick <= nowTick; tick++) {
+            Timeout<T> sentinel = buckets[(int) (tick & mask)];
+            Timeout<T> timeout = sentinel.next;
+            while (timeout != sentinel) {
+                Timeout<T> next = timeout.next;
+                if (timeout.tick <= nowTick) {
+                    unlink(timeout);
+                    expired.add(timeout.item);
+                    count++;
+                }
+                timeout = next;
+            }
+        }
+        nextTick = nowTick + 1;
+        return count;
+    }
+
+    /**
+     * @return the number of pending timeouts.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        timeout.previous.next = timeout.next;
+        timeout.next.previous = timeout.previous;
+        timeout.previous = null;
+        timeout.next = null;
+        size--;
+    }
+
+    /**
+     * A pending timeout, the node of the list of its bucket.
+     */
+    public static final class Timeout<T> {
+
+        private final T item;
+        private final long tick;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+
+        private Timeout(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+
+        public T getItem() {
+            return item;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.marshmelo.fileserver.exceptions;
+
+/**
+ * An HTTP/2 protocol error. Connection errors end the connection with a GOAWAY frame, stream errors only reset the
+ * stream with a RST_STREAM frame.
+ */
+public class Http2Exception extends Exception {
+
+    private static final long serialVersionUID = 1L;
+    private static final int CONNECTION_STREAM_ID = 0;
+
+    private final int errorCode;
+    private final int streamId;
+
+    /**
+     * Create a connection error.
+     *
+     * @param message   the error message.
+     * @param errorCode the HTTP/2 error code e.g. 0x1 PROTOCOL_ERROR.
+     */
+    public Http2Exception(String message, int errorCode) {
+        this(message, errorCode, CONNECTION_STREAM_ID);
+    }
+
+    /**
+     * @param message   the error message.
+     * @param errorCode the HTTP/2 error code e.g. 0x1 PROTOCOL_ERROR.
+     * @param streamId  the stream to reset, 0 for a connection error.
+     */
+    public Http2Exception(String message, int errorCode, int streamId) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    public boolean isStreamError() {
+        return streamId != CONNECTION_STREAM_ID;
+    }
+}
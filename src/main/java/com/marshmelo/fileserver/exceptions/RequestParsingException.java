@@ -2,7 +2,24 @@ package com.marshmelo.fileserver.exceptions;
 
 public class RequestParsingException extends Exception {
 
+    private static final int BAD_REQUEST_STATUS = 400;
+
+    private final int status;
+
     public RequestParsingException(String message) {
+        this(message, BAD_REQUEST_STATUS);
+    }
+
+    /**
+     * @param message the error message.
+     * @param status  the status code of the response sent to the client e.g. 400, 414, 431.
+     */
+    public RequestParsingException(String message, int status) {
         super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
     }
 }
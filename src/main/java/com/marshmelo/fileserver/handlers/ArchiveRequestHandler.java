@@ -0,0 +1,213 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.models.StreamingBody;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_ARCHIVE_REJECTED;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_FILE_NOT_FOUND;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.findExactMetadata;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.hasGzipVariant;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.isCacheable;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.isCompressed;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.listResources;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.loadGzipVariant;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.openContent;
+
+/**
+ * Handles GET requests of a folder with the archive parameter, e.g. /docs/?archive=zip, by sending the resources of the
+ * folder and of its sub folders in a zip or a tar archive under a folder named like the requested one. The archive is
+ * written while the resources are read, one at a time, so the memory used does not depend on the size of the folder.
+ * <p>
+ * Zip entries of formats which are already compressed (jpeg, png, zip...) are stored, the other ones are deflated.
+ * When a resource has a gzip variant in the cache or in a pack, its deflate stream is copied into the archive instead of
+ * compressing the resource again. Tar archives have a Content-length, zip archives are sent with chunked transfer
+ * encoding since the size of the deflated entries is only known once they are written.
+ */
+public class ArchiveRequestHandler extends RequestHandler {
+
+    public static final String ARCHIVE_PARAMETER = "archive";
+    private static final String ZIP_FORMAT = "zip";
+    private static final String TAR_FORMAT = "tar";
+    private static final String ZIP_MIME_TYPE = "application/zip";
+    private static final String TAR_MIME_TYPE = "application/x-tar";
+    private static final String CONTENT_DISPOSITION_HEADER = "Content-Disposition";
+    private static final String ATTACHMENT_FORMAT = "attachment; filename=\"%s.%s\"";
+    private static final String ROOT_FOLDER_NAME = "static";
+    private static final int OK_STATUS = 200;
+    private static final int BAD_REQUEST_STATUS = 400;
+    private static final Logger LOGGER = Logger.getLogger(ArchiveRequestHandler.class);
+
+    private final int maxFiles;
+
+    /**
+     * @param maxFiles maximum number of resources of an archive.
+     */
+    public ArchiveRequestHandler(int maxFiles) {
+        super();
+        this.maxFiles = maxFiles;
+    }
+
+    @Override
+    public void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws InternalServerException, IOException {
+        String requestURL = httpRequest.getUrl();
+        String format = httpRequest.getParam(ARCHIVE_PARAMETER);
+        if (!ZIP_FORMAT.equals(format) && !TAR_FORMAT.equals(format)) {
+            rejectArchive(writer, requestURL);
+            return;
+        }
+        List<String> resources = listResources(requestURL);
+        if (resources == null) {
+            LOGGER.info(ERROR_FILE_NOT_FOUND.formatMessage(requestURL));
+            handleBadRequest(writer);
+            return;
+        }
+        if (resources.size() > maxFiles) {
+            rejectArchive(writer, requestURL);
+            return;
+        }
+        String folder = requestURL.replaceAll("^/+|/+$", "");
+        String rootName = folder.isEmpty() ? ROOT_FOLDER_NAME : folder.substring(folder.lastIndexOf('/') + 1);
+        boolean tar = TAR_FORMAT.equals(format);
+        List<Entry> entries = new ArrayList<>(resources.size());
+        long totalBytes = 0;
+        long nameBytes = 0;
+        for (String relativePath : resources) {
+            ResourceMetadata metadata = findExactMetadata("/" + relativePath);
+            if (metadata == null) {
+                // Removed since the folder was listed.
+                continue;
+            }
+            String name = rootName + "/" + relativePath.substring(folder.isEmpty() ? 0 : folder.length() + 1);
+            if (tar && TarArchive.splitName(name) < 0) {
+                rejectArchive(writer, requestURL);
+                return;
+            }
+            entries.add(new Entry(relativePath, name, metadata));
+            totalBytes += metadata.getSize();
+            nameBytes += name.getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (!tar && !ZipStreamWriter.fits(totalBytes, entries.size(), nameBytes)) {
+            rejectArchive(writer, requestURL);
+            return;
+        }
+        StreamingBody body = tar ? new TarBody(entries) : new ZipBody(entries);
+        HttpResponse response = buildResponse(tar ? TAR_MIME_TYPE : ZIP_MIME_TYPE, body, OK_STATUS);
+        response.addHeader(CONTENT_DISPOSITION_HEADER, String.format(ATTACHMENT_FORMAT, rootName, format));
+        writeResponse(writer, response, requestURL);
+    }
+
+    /**
+     * Archives are always sent from the large file lane, the size of the folder is not computed before the request is
+     * scheduled.
+     */
+    @Override
+    public long findContentSize(HttpRequest httpRequest) {
+        return Long.MAX_VALUE;
+    }
+
+    private void rejectArchive(ResponseWriter writer, String requestURL) throws IOException, InternalServerException {
+        LOGGER.info(ERROR_ARCHIVE_REJECTED.formatMessage(requestURL, maxFiles));
+        handleError(BAD_REQUEST_STATUS, Collections.emptyMap(), writer);
+    }
+
+    /**
+     * A resource of the archive, its content is only opened when the entry is written.
+     */
+    private static final class Entry {
+
+        private final String relativePath;
+        private final String name;
+        private final ResourceMetadata metadata;
+
+        private Entry(String relativePath, String name, ResourceMetadata metadata) {
+            this.relativePath = relativePath;
+            this.name = name;
+            this.metadata = metadata;
+        }
+    }
+
+    private static final class ZipBody implements StreamingBody {
+
+        private final List<Entry> entries;
+
+        private ZipBody(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public long getLength() {
+            return UNKNOWN_LENGTH;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            ZipStreamWriter zip = new ZipStreamWriter(outputStream);
+            try {
+                for (Entry entry : entries) {
+                    writeEntry(zip, entry);
+                }
+            } catch (IOException | RuntimeException e) {
+                zip.abort();
+                throw e;
+            }
+            zip.finish();
+        }
+
+        private static void writeEntry(ZipStreamWriter zip, Entry entry) throws IOException {
+            ResourceMetadata metadata = entry.metadata;
+            StreamingBody content = openContent(entry.relativePath, metadata);
+            if (isCompressed(metadata.getMimeType())) {
+                zip.writeStored(entry.name, metadata.getLastModified(), content);
+                return;
+            }
+            if (hasGzipVariant(metadata) && isCacheable(metadata)) {
+                Resource gzip = loadGzipVariant("/" + entry.relativePath, metadata);
+                if (gzip != null && ZipStreamWriter.isGzipOf(gzip.getBuffer(), metadata.getSize())) {
+                    zip.writeGzip(entry.name, metadata.getLastModified(), gzip.getBuffer());
+                    return;
+                }
+            }
+            zip.writeDeflated(entry.name, metadata.getLastModified(), content);
+        }
+    }
+
+    private static final class TarBody implements StreamingBody {
+
+        private final List<Entry> entries;
+
+        private TarBody(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public long getLength() {
+            long length = TarArchive.END_LENGTH;
+            for (Entry entry : entries) {
+                length += TarArchive.entryLength(entry.metadata.getSize());
+            }
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            for (Entry entry : entries) {
+                TarArchive.writeEntry(outputStream, entry.name, entry.metadata.getLastModified(),
+                        openContent(entry.relativePath, entry.metadata));
+            }
+            TarArchive.finish(outputStream);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.models.StreamingBody;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_BATCH_REJECTED;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_FILE_NOT_FOUND;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.buildRelativePath;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.findExactMetadata;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.openContent;
+
+/**
+ * Handles GET requests of the batch path, e.g. /__batch?f=/a.css&amp;f=/b.js, returning many resources in one response
+ * to save the per request overhead of pages made of many small files. The resources are sent in the requested order as
+ * a multipart/mixed body, or as a tar archive with format=tar.
+ * <p>
+ * The parts are taken from the resource cache and written one after the other straight to the connection, nothing is
+ * copied into an intermediate buffer. The length of the whole body is known from the sizes of the resources, so the
+ * response has a Content-length. The batch is refused with 400 Bad Request if it is empty, has too many files or is too
+ * big, and answered with 404 Not Found if one of the resources does not exist.
+ */
+public class BatchRequestHandler extends RequestHandler {
+
+    public static final String FILES_PARAMETER = "f";
+    public static final String FORMAT_PARAMETER = "format";
+    public static final String TAR_FORMAT = "tar";
+    private static final String MULTIPART_FORMAT = "multipart";
+    private static final String MULTIPART_MIME_TYPE = "multipart/mixed; boundary=%s";
+    private static final String TAR_MIME_TYPE = "application/x-tar";
+    private static final String PART_HEADER_FORMAT = "--%s\r\nContent-Type: %s\r\nContent-Location: /%s\r\n" +
+            "Content-Length: %s\r\nETag: %s\r\n\r\n";
+    private static final String CLOSE_DELIMITER_FORMAT = "\r\n--%s--\r\n";
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final int OK_STATUS = 200;
+    private static final int BAD_REQUEST_STATUS = 400;
+    private static final Logger LOGGER = Logger.getLogger(BatchRequestHandler.class);
+
+    private final int maxFiles;
+    private final long maxBytes;
+
+    /**
+     * @param maxFiles maximum number of resources of a batch.
+     * @param maxBytes maximum total size of the resources of a batch, bigger resources should be requested alone.
+     */
+    public BatchRequestHandler(int maxFiles, long maxBytes) {
+        super();
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws InternalServerException, IOException {
+        String files = httpRequest.getParams() == null ? null : httpRequest.getParam(FILES_PARAMETER);
+        String format = httpRequest.getParams() == null ? null : httpRequest.getParam(FORMAT_PARAMETER);
+        boolean tar = TAR_FORMAT.equals(format);
+        if (files == null || files.isEmpty() || (format != null && !tar && !MULTIPART_FORMAT.equals(format))) {
+            rejectBatch(writer, httpRequest.getUrl());
+            return;
+        }
+        // Repeated parameters are joined with a comma by the parser, both forms are accepted.
+        String[] requestURLs = files.split(",");
+        if (requestURLs.length > maxFiles) {
+            rejectBatch(writer, httpRequest.getUrl());
+            return;
+        }
+        List<Part> parts = new ArrayList<>(requestURLs.length);
+        long totalBytes = 0;
+        for (String requestURL : requestURLs) {
+            String url = requestURL.startsWith("/") ? requestURL : "/" + requestURL;
+            ResourceMetadata metadata = findExactMetadata(url);
+            if (metadata == null) {
+                LOGGER.info(ERROR_FILE_NOT_FOUND.formatMessage(url));
+                handleBadRequest(writer);
+                return;
+            }
+            totalBytes += metadata.getSize();
+            String name = buildRelativePath(url);
+            if (totalBytes > maxBytes || (tar && TarArchive.splitName(name) < 0)) {
+                rejectBatch(writer, httpRequest.getUrl());
+                return;
+            }
+            parts.add(new Part(name, metadata));
+        }
+        StreamingBody body;
+        String mimeType;
+        if (tar) {
+            body = new TarBody(parts);
+            mimeType = TAR_MIME_TYPE;
+        } else {
+            String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime());
+            body = new MultipartBody(parts, boundary);
+            mimeType = String.format(MULTIPART_MIME_TYPE, boundary);
+        }
+        HttpResponse response = buildResponse(mimeType, body, OK_STATUS);
+        writeResponse(writer, response, httpRequest.getUrl());
+    }
+
+    private void rejectBatch(ResponseWriter writer, String requestURL) throws IOException, InternalServerException {
+        LOGGER.info(ERROR_BATCH_REJECTED.formatMessage(requestURL, maxFiles, maxBytes));
+        handleError(BAD_REQUEST_STATUS, Collections.emptyMap(), writer);
+    }
+
+    /**
+     * A resource of the batch, its content is loaded from the cache, or streamed from the file system if it is too big
+     * for the cache, only when the body is written.
+     */
+    private static final class Part {
+
+        private final String name;
+        private final ResourceMetadata metadata;
+        private final StreamingBody content;
+
+        private Part(String name, ResourceMetadata metadata) {
+            this.name = name;
+            this.metadata = metadata;
+            this.content = openContent(name, metadata);
+        }
+    }
+
+    /**
+     * The parts separated by the boundary, each part has the headers of the resource.
+     */
+    private static final class MultipartBody implements StreamingBody {
+
+        private final List<Part> parts;
+        private final List<byte[]> partHeaders;
+        private final byte[] closeDelimiter;
+        private final long length;
+
+        private MultipartBody(List<Part> parts, String boundary) {
+            this.parts = parts;
+            this.partHeaders = new ArrayList<>(parts.size());
+            this.closeDelimiter = String.format(CLOSE_DELIMITER_FORMAT, boundary).getBytes(StandardCharsets.US_ASCII);
+            long length = closeDelimiter.length;
+            for (int i = 0; i < parts.size(); i++) {
+                ResourceMetadata metadata = parts.get(i).metadata;
+                // The delimiter of every part but the first one starts with the CRLF ending the previous part.
+                byte[] header = String.format(PART_HEADER_FORMAT, boundary, metadata.getMimeType(), parts.get(i).name,
+                        metadata.getSize(), metadata.getEtag()).getBytes(StandardCharsets.UTF_8);
+                partHeaders.add(header);
+                length += (i == 0 ? 0 : CRLF.length) + header.length + metadata.getSize();
+            }
+            this.length = length;
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) {
+                    outputStream.write(CRLF);
+                }
+                outputStream.write(partHeaders.get(i));
+                parts.get(i).content.writeTo(outputStream);
+            }
+            outputStream.write(closeDelimiter);
+        }
+    }
+
+    /**
+     * The resources in a tar archive.
+     */
+    private static final class TarBody implements StreamingBody {
+
+        private final List<Part> parts;
+
+        private TarBody(List<Part> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public long getLength() {
+            long length = TarArchive.END_LENGTH;
+            for (Part part : parts) {
+                length += TarArchive.entryLength(part.metadata.getSize());
+            }
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            for (Part part : parts) {
+                TarArchive.writeEntry(outputStream, part.name, part.metadata.getLastModified(), part.content);
+            }
+            TarArchive.finish(outputStream);
+        }
+    }
+}
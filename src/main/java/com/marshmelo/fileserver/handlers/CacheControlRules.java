@@ -0,0 +1,166 @@
+package com.marshmelo.fileserver.handlers;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_INVALID_CACHE_CONTROL_RULE;
+
+/**
+ * Finds the Cache-Control header of the static resources. Rules map path globs (starting with /) or mime types (e.g.
+ * text/html or image/*) to a policy e.g. max-age=86400 or no-cache, they are checked in this order: fingerprinted file
+ * names, path globs in their configured order, the exact mime type, the mime type wildcard and the default policy.
+ * <p>
+ * A file name with a content hash, e.g. app.3f9a12c4.js or logo-0b5e6d2f91.png, never changes content under that name,
+ * so it is cached for a year without revalidation. The hash needs both digits and letters so that dates and serial
+ * numbers, e.g. report-20240101.pdf, are not taken for one. The globs are compiled to regular expressions when the server starts,
+ * a glob ending with / matches everything under the folder, * matches within a path segment and ** across segments,
+ * a ** segment between two slashes also matches no folder at all, e.g. the glob of the css files of every folder
+ * matches /site.css.
+ */
+public class CacheControlRules {
+
+    public static final String FINGERPRINTED_POLICY = "public, max-age=31536000, immutable";
+
+    private static final Pattern FINGERPRINT = Pattern.compile("[^/]*[.-](?=[0-9a-f]*[0-9])(?=[0-9a-f]*[a-f])[0-9a-f]{8,64}(\\.[^/.]+)+");
+    private static final Pattern DIRECTIVE = Pattern.compile(
+            "(public|private|no-cache|no-store|no-transform|must-revalidate|proxy-revalidate|immutable"
+                    + "|(max-age|s-maxage|stale-while-revalidate|stale-if-error)=[0-9]+)");
+    private static final String MIME_TYPE_WILDCARD = "/*";
+    private static final Logger LOGGER = Logger.getLogger(CacheControlRules.class);
+
+    private final List<PathRule> pathRules = new ArrayList<>();
+    private final Map<String, String> mimeTypeRules = new HashMap<>();
+    private final String defaultPolicy;
+    private final boolean fingerprinted;
+
+    /**
+     * @param rules         policies keyed by path glob (starting with /) or mime type, invalid rules are ignored.
+     * @param defaultPolicy policy of the resources matching no rule, null or empty to send no header.
+     * @param fingerprinted cache the fingerprinted file names for a year.
+     */
+    public CacheControlRules(Map<String, String> rules, String defaultPolicy, boolean fingerprinted) {
+        for (Map.Entry<String, String> rule : rules.entrySet()) {
+            String policy = normalize(rule.getValue());
+            if (policy == null) {
+                LOGGER.warn(ERROR_INVALID_CACHE_CONTROL_RULE.formatMessage(rule.getKey(), rule.getValue()));
+            } else if (rule.getKey().startsWith("/")) {
+                pathRules.add(new PathRule(rule.getKey(), policy));
+            } else {
+                mimeTypeRules.put(rule.getKey().toLowerCase(Locale.ROOT), policy);
+            }
+        }
+        String policy = defaultPolicy == null || defaultPolicy.trim().isEmpty() ? null : normalize(defaultPolicy);
+        if (policy == null && defaultPolicy != null && !defaultPolicy.trim().isEmpty()) {
+            LOGGER.warn(ERROR_INVALID_CACHE_CONTROL_RULE.formatMessage("default", defaultPolicy));
+        }
+        this.defaultPolicy = policy;
+        this.fingerprinted = fingerprinted;
+    }
+
+    /**
+     * Find the Cache-Control header of a resource.
+     *
+     * @param requestURL the URL of the resource without query.
+     * @param mimeType   the mime type of the resource.
+     * @return the value of the header or null if no policy applies.
+     */
+    public String findPolicy(String requestURL, String mimeType) {
+        if (fingerprinted && isFingerprinted(requestURL)) {
+            return FINGERPRINTED_POLICY;
+        }
+        for (PathRule rule : pathRules) {
+            if (rule.matches(requestURL)) {
+                return rule.policy;
+            }
+        }
+        if (mimeType != null) {
+            String policy = mimeTypeRules.get(mimeType);
+            if (policy == null) {
+                int index = mimeType.indexOf('/');
+                policy = index > 0 ? mimeTypeRules.get(mimeType.substring(0, index) + MIME_TYPE_WILDCARD) : null;
+            }
+            if (policy != null) {
+                return policy;
+            }
+        }
+        return defaultPolicy;
+    }
+
+    /**
+     * @return true if the file name has a content hash of 8 to 64 hexadecimal digits before its extension.
+     */
+    static boolean isFingerprinted(String requestURL) {
+        int index = requestURL.lastIndexOf('/');
+        return FINGERPRINT.matcher(requestURL.substring(index + 1)).matches();
+    }
+
+    /**
+     * @return the directives separated by ", " or null if one of them is unknown.
+     */
+    private static String normalize(String policy) {
+        StringBuilder normalized = new StringBuilder();
+        for (String directive : policy.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.ROOT);
+            if (!DIRECTIVE.matcher(directive).matches()) {
+                return null;
+            }
+            normalized.append(normalized.length() == 0 ? "" : ", ").append(directive);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * A path glob compiled to a regular expression, the literal prefix is compared first.
+     */
+    private static final class PathRule {
+
+        private final String prefix;
+        private final Pattern pattern;
+        private final String policy;
+
+        private PathRule(String glob, String policy) {
+            if (glob.endsWith("/")) {
+                glob += "**";
+            }
+            StringBuilder regex = new StringBuilder();
+            int literalEnd = -1;
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '/' && glob.startsWith("**/", i + 1)) {
+                    if (literalEnd < 0) {
+                        literalEnd = i;
+                    }
+                    regex.append("(/.*)?/");
+                    i += 3;
+                } else if (c == '*' || c == '?') {
+                    if (literalEnd < 0) {
+                        literalEnd = i;
+                    }
+                    if (c == '?') {
+                        regex.append("[^/]");
+                    } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            this.prefix = literalEnd < 0 ? glob : glob.substring(0, literalEnd);
+            this.pattern = Pattern.compile(regex.toString());
+            this.policy = policy;
+        }
+
+        private boolean matches(String requestURL) {
+            return requestURL.startsWith(prefix) && pattern.matcher(requestURL).matches();
+        }
+    }
+}
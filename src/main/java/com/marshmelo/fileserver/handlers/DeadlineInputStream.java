@@ -0,0 +1,75 @@
+package com.marshmelo.fileserver.handlers;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Socket input stream enforcing a wall clock deadline on top of the per read socket timeout.
+ * Before every read the socket timeout is shortened to the time left until the deadline, so a client sending one byte
+ * just before every read timeout can not hold a worker thread longer than the deadline.
+ */
+class DeadlineInputStream extends FilterInputStream {
+
+    private final Socket socket;
+    private final int socketTimeout;
+    private long deadlineNanos;
+    private boolean deadlineArmed;
+
+    /**
+     * @param socket        the client connection.
+     * @param inputStream   the socket input stream.
+     * @param socketTimeout the per read timeout of the socket restored when the deadline is cleared.
+     */
+    DeadlineInputStream(Socket socket, InputStream inputStream, int socketTimeout) {
+        super(inputStream);
+        this.socket = socket;
+        this.socketTimeout = socketTimeout;
+    }
+
+    /**
+     * Start a deadline, reads not completed before it fail with a {@link SocketTimeoutException}.
+     *
+     * @param timeoutInMilliSec time from now until the deadline.
+     */
+    void startDeadline(long timeoutInMilliSec) {
+        deadlineNanos = System.nanoTime() + timeoutInMilliSec * 1_000_000L;
+        deadlineArmed = true;
+    }
+
+    /**
+     * Remove the deadline and restore the per read socket timeout.
+     */
+    void clearDeadline() throws IOException {
+        if (deadlineArmed) {
+            deadlineArmed = false;
+            socket.setSoTimeout(socketTimeout);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        applyDeadline();
+        return super.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        applyDeadline();
+        return super.read(b, off, len);
+    }
+
+    private void applyDeadline() throws IOException {
+        if (!deadlineArmed) {
+            return;
+        }
+        long remainingMillis = (deadlineNanos - System.nanoTime()) / 1_000_000L;
+        if (remainingMillis <= 0) {
+            throw new SocketTimeoutException();
+        }
+        int timeout = socketTimeout > 0 ? (int) Math.min(socketTimeout, remainingMillis) : (int) Math.min(Integer.MAX_VALUE, remainingMillis);
+        socket.setSoTimeout(timeout);
+    }
+}
@@ -0,0 +1,412 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_FILE_NOT_FOUND;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_INVALID_LISTING_QUERY;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_READING_FILE;
+
+/**
+ * Generates the listing of a folder without index.html, as an HTML page or as JSON with format=json. The folder is read
+ * with a {@link DirectoryStream} and only the entries of the requested page are kept, in a bounded heap, so a folder of
+ * hundreds of thousands of files never has its whole listing in memory. Entries are sorted by name, size or modification
+ * time (sort, order) and pages are chained with a cursor (after) holding the sort key of the last entry of the previous
+ * page, so any page costs one pass over the folder whatever its position. When sorting by name the attributes are only
+ * read for the entries of the page.
+ * <p>
+ * Rendered pages are kept in the resource cache under a key containing the modification time of the folder, which
+ * changes when an entry is added, removed or renamed, so a stale page is never served after such a change. The size and
+ * the modification time of a file changed in place are refreshed once the page is evicted.
+ */
+public class DirectoryListingHandler extends RequestHandler {
+
+    public static final String FORMAT_PARAMETER = "format";
+    public static final String SORT_PARAMETER = "sort";
+    public static final String ORDER_PARAMETER = "order";
+    public static final String AFTER_PARAMETER = "after";
+    public static final String SIZE_PARAMETER = "size";
+    private static final String JSON_FORMAT = "json";
+    private static final String HTML_FORMAT = "html";
+    private static final String NAME_SORT = "name";
+    private static final String SIZE_SORT = "size";
+    private static final String MODIFIED_SORT = "modified";
+    private static final String ASCENDING_ORDER = "asc";
+    private static final String DESCENDING_ORDER = "desc";
+    private static final String JSON_MIME_TYPE = "application/json";
+    private static final String HTML_MIME_TYPE = "text/html";
+    private static final String LISTING_CACHE_KEY = "%s#listing#%s#%s";
+    private static final char CURSOR_SEPARATOR = ':';
+    private static final int OK_STATUS = 200;
+    private static final int BAD_REQUEST_STATUS = 400;
+    private static final Logger LOGGER = Logger.getLogger(DirectoryListingHandler.class);
+
+    private final int defaultPageSize;
+    private final int maxPageSize;
+
+    /**
+     * @param defaultPageSize number of entries of a page when the size parameter is missing.
+     * @param maxPageSize     maximum number of entries of a page.
+     */
+    public DirectoryListingHandler(int defaultPageSize, int maxPageSize) {
+        super();
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+    }
+
+    @Override
+    public void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws InternalServerException, IOException {
+        String requestURL = httpRequest.getUrl();
+        List<Path> folders = ResourcesUtil.findFolders(requestURL);
+        if (folders.isEmpty()) {
+            LOGGER.info(ERROR_FILE_NOT_FOUND.formatMessage(requestURL));
+            handleBadRequest(writer);
+            return;
+        }
+        Query query = Query.parse(httpRequest, defaultPageSize, maxPageSize);
+        if (query == null) {
+            LOGGER.info(ERROR_INVALID_LISTING_QUERY.formatMessage(requestURL, maxPageSize));
+            handleError(BAD_REQUEST_STATUS, Collections.emptyMap(), writer);
+            return;
+        }
+        StringBuilder version = new StringBuilder();
+        for (Path folder : folders) {
+            version.append(Files.getLastModifiedTime(folder).toMillis()).append(CURSOR_SEPARATOR);
+        }
+        String key = String.format(LISTING_CACHE_KEY, requestURL, version, query.toKey());
+        Resource page = ResourcesUtil.getCache().get(key);
+        if (page == null) {
+            Listing listing = list(folders, query);
+            byte[] content = (query.json ? renderJson(requestURL, listing, query) : renderHtml(requestURL, listing, query))
+                    .getBytes(StandardCharsets.UTF_8);
+            page = new Resource(content, query.json ? JSON_MIME_TYPE : HTML_MIME_TYPE);
+            ResourcesUtil.getCache().putGenerated(key, page);
+        }
+        HttpResponse response = buildResponse(page, OK_STATUS);
+        writeResponse(writer, response, requestURL);
+    }
+
+    /**
+     * Read the folders once, keeping the entries of the page. Entries of a folder hidden by the same entry in a folder
+     * of higher priority are skipped like for the resources, as are hidden files.
+     */
+    private static Listing list(List<Path> folders, Query query) throws IOException {
+        Comparator<Entry> comparator = query.comparator();
+        // The head of the heap is the last entry of the page, it is dropped when a smaller entry is found.
+        PriorityQueue<Entry> page = new PriorityQueue<>(query.size + 1, comparator.reversed());
+        Listing listing = new Listing();
+        for (int i = 0; i < folders.size(); i++) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folders.get(i))) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    if (name.startsWith(".") || isHidden(folders, i, name)) {
+                        continue;
+                    }
+                    listing.total++;
+                    Entry entry = new Entry(path, name);
+                    if (!query.sort.equals(NAME_SORT) && !entry.readAttributes()) {
+                        continue;
+                    }
+                    if (query.after != null && comparator.compare(entry, query.after) <= 0) {
+                        continue;
+                    }
+                    listing.remaining++;
+                    page.add(entry);
+                    if (page.size() > query.size) {
+                        page.poll();
+                    }
+                }
+            }
+        }
+        listing.entries = new ArrayList<>(page);
+        listing.entries.sort(comparator);
+        if (query.sort.equals(NAME_SORT)) {
+            listing.entries.removeIf(entry -> !entry.readAttributes());
+        }
+        return listing;
+    }
+
+    private static boolean isHidden(List<Path> folders, int index, String name) {
+        for (int i = 0; i < index; i++) {
+            if (Files.exists(folders.get(i).resolve(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String renderHtml(String requestURL, Listing listing, Query query) {
+        String title = escapeHtml("Index of " + requestURL);
+        StringBuilder html = new StringBuilder(256 + listing.entries.size() * 160);
+        html.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>").append(title)
+                .append("</title>\n</head>\n<body>\n<h1>").append(title).append("</h1>\n<table>\n<tr>");
+        for (String sort : new String[]{NAME_SORT, SIZE_SORT, MODIFIED_SORT}) {
+            String order = sort.equals(query.sort) && !query.descending ? DESCENDING_ORDER : ASCENDING_ORDER;
+            html.append("<th><a href=\"?").append(SORT_PARAMETER).append('=').append(sort).append("&amp;")
+                    .append(ORDER_PARAMETER).append('=').append(order).append("&amp;").append(SIZE_PARAMETER).append('=')
+                    .append(query.size).append("\">").append(Character.toUpperCase(sort.charAt(0)))
+                    .append(sort.substring(1)).append("</a></th>");
+        }
+        html.append("</tr>\n");
+        if (!"/".equals(requestURL)) {
+            html.append("<tr><td><a href=\"../\">../</a></td><td></td><td></td></tr>\n");
+        }
+        for (Entry entry : listing.entries) {
+            String name = entry.directory ? entry.name + "/" : entry.name;
+            html.append("<tr><td><a href=\"").append(encodeURL(entry.name)).append(entry.directory ? "/" : "")
+                    .append("\">").append(escapeHtml(name)).append("</a></td><td>")
+                    .append(entry.directory ? "-" : Long.toString(entry.size)).append("</td><td>")
+                    .append(HttpResponseBuilder.formatDate(entry.lastModified)).append("</td></tr>\n");
+        }
+        html.append("</table>\n<p>").append(listing.total).append(" entries</p>\n");
+        String next = listing.nextCursor(query);
+        if (next != null) {
+            html.append("<p><a href=\"").append(escapeHtml(query.toQueryString(HTML_FORMAT, next)))
+                    .append("\">Next</a></p>\n");
+        }
+        return html.append("</body>\n</html>\n").toString();
+    }
+
+    private static String renderJson(String requestURL, Listing listing, Query query) {
+        StringBuilder json = new StringBuilder(128 + listing.entries.size() * 96);
+        json.append("{\"path\":").append(quoteJson(requestURL)).append(",\"total\":").append(listing.total)
+                .append(",\"entries\":[");
+        for (int i = 0; i < listing.entries.size(); i++) {
+            Entry entry = listing.entries.get(i);
+            json.append(i == 0 ? "" : ",").append("{\"name\":").append(quoteJson(entry.name)).append(",\"type\":\"")
+                    .append(entry.directory ? "directory" : "file").append("\",\"size\":").append(entry.size)
+                    .append(",\"lastModified\":").append(entry.lastModified).append('}');
+        }
+        String next = listing.nextCursor(query);
+        json.append("],\"next\":").append(next == null ? "null" : quoteJson(query.toQueryString(JSON_FORMAT, next)));
+        return json.append("}\n").toString();
+    }
+
+    private static String encodeURL(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name()).replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String escapeHtml(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String quoteJson(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * An entry of a folder, its attributes are read only when needed.
+     */
+    private static final class Entry {
+
+        private final Path path;
+        private final String name;
+        private boolean directory;
+        private long size;
+        private long lastModified;
+
+        private Entry(Path path, String name) {
+            this.path = path;
+            this.name = name;
+        }
+
+        /**
+         * @return false if the entry can not be read e.g. it was removed since the folder was read.
+         */
+        private boolean readAttributes() {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                directory = attributes.isDirectory();
+                size = directory ? 0 : attributes.size();
+                lastModified = attributes.lastModifiedTime().toMillis();
+                return true;
+            } catch (IOException e) {
+                LOGGER.debug(ERROR_READING_FILE.formatMessage(path), e);
+                return false;
+            }
+        }
+    }
+
+    private static final class Listing {
+
+        private int total;
+        private int remaining;
+        private List<Entry> entries;
+
+        /**
+         * @return the cursor of the next page or null if this is the last page.
+         */
+        private String nextCursor(Query query) {
+            if (remaining <= entries.size() || entries.isEmpty()) {
+                return null;
+            }
+            Entry last = entries.get(entries.size() - 1);
+            switch (query.sort) {
+                case SIZE_SORT:
+                    return Long.toString(last.size) + CURSOR_SEPARATOR + last.name;
+                case MODIFIED_SORT:
+                    return Long.toString(last.lastModified) + CURSOR_SEPARATOR + last.name;
+                default:
+                    return last.name;
+            }
+        }
+    }
+
+    /**
+     * The parameters of a listing request.
+     */
+    private static final class Query {
+
+        private boolean json;
+        private String sort;
+        private boolean descending;
+        private int size;
+        private String cursor;
+        private Entry after;
+
+        /**
+         * @return the query or null if a parameter is invalid.
+         */
+        private static Query parse(HttpRequest httpRequest, int defaultPageSize, int maxPageSize) {
+            Query query = new Query();
+            String format = parameter(httpRequest, FORMAT_PARAMETER, HTML_FORMAT);
+            query.json = JSON_FORMAT.equals(format);
+            query.sort = parameter(httpRequest, SORT_PARAMETER, NAME_SORT);
+            String order = parameter(httpRequest, ORDER_PARAMETER, ASCENDING_ORDER);
+            query.descending = DESCENDING_ORDER.equals(order);
+            if (!query.json && !HTML_FORMAT.equals(format)
+                    || !query.sort.equals(NAME_SORT) && !query.sort.equals(SIZE_SORT) && !query.sort.equals(MODIFIED_SORT)
+                    || !query.descending && !ASCENDING_ORDER.equals(order)) {
+                return null;
+            }
+            try {
+                query.size = Integer.parseInt(parameter(httpRequest, SIZE_PARAMETER, Integer.toString(defaultPageSize)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (query.size <= 0 || query.size > maxPageSize) {
+                return null;
+            }
+            query.cursor = parameter(httpRequest, AFTER_PARAMETER, null);
+            if (query.cursor != null) {
+                query.after = parseCursor(query.sort, query.cursor);
+                if (query.after == null) {
+                    return null;
+                }
+            }
+            return query;
+        }
+
+        private static Entry parseCursor(String sort, String cursor) {
+            if (sort.equals(NAME_SORT)) {
+                return new Entry(null, cursor);
+            }
+            int separator = cursor.indexOf(CURSOR_SEPARATOR);
+            if (separator < 0) {
+                return null;
+            }
+            Entry after = new Entry(null, cursor.substring(separator + 1));
+            try {
+                long key = Long.parseLong(cursor.substring(0, separator));
+                after.size = key;
+                after.lastModified = key;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return after;
+        }
+
+        private static String parameter(HttpRequest httpRequest, String name, String defaultValue) {
+            String value = httpRequest.getParams() == null ? null : httpRequest.getParams().get(name);
+            return value == null || value.isEmpty() ? defaultValue : value;
+        }
+
+        /**
+         * @return the order of the entries, the name breaks the ties of the size and of the modification time.
+         */
+        private Comparator<Entry> comparator() {
+            Comparator<Entry> byName = Comparator.comparing(entry -> entry.name);
+            Comparator<Entry> comparator;
+            switch (sort) {
+                case SIZE_SORT:
+                    comparator = Comparator.<Entry>comparingLong(entry -> entry.size).thenComparing(byName);
+                    break;
+                case MODIFIED_SORT:
+                    comparator = Comparator.<Entry>comparingLong(entry -> entry.lastModified).thenComparing(byName);
+                    break;
+                default:
+                    comparator = byName;
+            }
+            return descending ? comparator.reversed() : comparator;
+        }
+
+        private String toKey() {
+            return toQueryString(json ? JSON_FORMAT : HTML_FORMAT, cursor);
+        }
+
+        private String toQueryString(String format, String nextCursor) {
+            StringBuilder queryString = new StringBuilder("?").append(FORMAT_PARAMETER).append('=').append(format)
+                    .append('&').append(SORT_PARAMETER).append('=').append(sort).append('&').append(ORDER_PARAMETER)
+                    .append('=').append(descending ? DESCENDING_ORDER : ASCENDING_ORDER).append('&')
+                    .append(SIZE_PARAMETER).append('=').append(size);
+            if (nextCursor != null) {
+                queryString.append('&').append(AFTER_PARAMETER).append('=').append(encodeURL(nextCursor));
+            }
+            return queryString.toString();
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.marshmelo.fileserver.exceptions.InternalServerException;
 import com.marshmelo.fileserver.models.HttpRequest;
 import com.marshmelo.fileserver.models.HttpResponse;
 import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.models.StreamingBody;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
@@ -11,28 +13,154 @@ import java.io.OutputStream;
 
 import static com.marshmelo.fileserver.messages.LogMessages.ERROR_FILE_NOT_FOUND;
 import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.findMetadata;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.hasGzipVariant;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.isCacheable;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.loadGzipVariant;
 import static com.marshmelo.fileserver.utils.ResourcesUtil.loadResource;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.openGzipStream;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.openStream;
 
+/**
+ * Handles GET requests. The metadata index is consulted first, the content is only loaded when a body is sent, i.e. not
+ * for missing resources nor for 304 responses. Resources too big for the cache are streamed instead of being loaded.
+ * Folders without index.html are answered by the listing handler when listings are enabled. HTML pages announce the
+ * assets they need with a preload Link header, sent first in a 103 Early Hints response, when preload hints are enabled.
+ * The other missing resources are fetched from the origin when an origin is configured. The {@link HeadRequestHandler}
+ * shares this flow so that HEAD responses have the same headers.
+ */
 public class GetRequestHandler extends RequestHandler {
 
+    private static final int EARLY_HINTS_STATUS = 103;
     private static final int OK_STATUS = 200;
+    private static final String LINK_HEADER = "Link";
+    private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+    private static final String VARY_HEADER = "Vary";
+    private static final String GZIP_ENCODING = "gzip";
     private static final Logger LOGGER = Logger.getLogger(GetRequestHandler.class);
 
+    private RequestHandler listingHandler;
+    private PreloadHints preloadHints;
+    private RequestHandler originHandler;
+
+    public GetRequestHandler() {
+        super();
+    }
+
     public GetRequestHandler(OutputStream outputStream) {
         super(outputStream);
     }
 
+    /**
+     * Answer the folders without index.html with their listing, called before the server starts.
+     *
+     * @param listingHandler the handler of the folders without index.html, null to answer them with 404.
+     */
+    void setListingHandler(RequestHandler listingHandler) {
+        this.listingHandler = listingHandler;
+    }
+
+    /**
+     * Announce the assets of the HTML pages, called before the server starts.
+     *
+     * @param preloadHints the preload hints of the HTML pages, null to disable them.
+     */
+    void setPreloadHints(PreloadHints preloadHints) {
+        this.preloadHints = preloadHints;
+    }
+
+    /**
+     * Serve the missing resources from the origin, called before the server starts.
+     *
+     * @param originHandler the handler of the origin, null to answer the missing resources with 404.
+     */
+    void setOriginHandler(RequestHandler originHandler) {
+        this.originHandler = originHandler;
+    }
+
     @Override
-    public void handleRequest(HttpRequest httpRequest) throws InternalServerException, IOException {
+    public void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws InternalServerException, IOException {
         String requestURL = httpRequest.getUrl();
-        Resource resource = loadResource(requestURL);
-        if (resource != null) {
-            HttpResponse response = buildResponse(resource, OK_STATUS);
-            writeResponseHeader(response);
-            writeResponseBody(response);
-        } else {
+        ResourceMetadata metadata = findMetadata(requestURL);
+        if (metadata == null && listingHandler != null && requestURL.endsWith("/")) {
+            listingHandler.handleRequest(httpRequest, writer);
+            return;
+        }
+        if (metadata == null && originHandler != null) {
+            originHandler.handleRequest(httpRequest, writer);
+            return;
+        }
+        if (metadata == null) {
             LOGGER.info(ERROR_FILE_NOT_FOUND.formatMessage(requestURL));
-            handleBadRequest();
+            handleBadRequest(writer);
+            return;
+        }
+        boolean gzipVariant = hasGzipVariant(metadata);
+        boolean gzip = gzipVariant && acceptsGzip(httpRequest);
+        String etag = gzip ? metadata.getGzipEtag() : metadata.getEtag();
+        if (isNotModified(httpRequest, metadata, etag)) {
+            writeNotModified(writer, requestURL, metadata, etag);
+            return;
+        }
+        String linkHeader = preloadHints == null ? null : preloadHints.findLinkHeader(requestURL, metadata);
+        // Early hints only help a client waiting for a body.
+        if (linkHeader != null && preloadHints.sendsEarlyHints() && writesResourceContent()) {
+            writer.writeInformational(buildEarlyHints(linkHeader));
+        }
+        HttpResponse response = buildResourceResponse(requestURL, metadata, gzip);
+        addValidatorHeaders(response, requestURL, metadata, etag);
+        if (gzip) {
+            response.addHeader(CONTENT_ENCODING_HEADER, GZIP_ENCODING);
+        }
+        if (gzipVariant) {
+            response.addHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+        }
+        if (linkHeader != null) {
+            response.addHeader(LINK_HEADER, linkHeader);
+        }
+        writeResponse(writer, response, requestURL);
+    }
+
+    /**
+     * Build the 200 response of a resource before its headers are added, the HEAD handler overrides it to build the
+     * same response without reading the content.
+     *
+     * @param requestURL the URL of the resource.
+     * @param metadata   the metadata of the resource.
+     * @param gzip       true to send the gzip variant.
+     * @return the response with its body.
+     * @throws IOException thrown when the resource can not be read.
+     */
+    protected HttpResponse buildResourceResponse(String requestURL, ResourceMetadata metadata, boolean gzip) throws IOException {
+        if (isCacheable(metadata)) {
+            Resource resource = gzip ? loadGzipVariant(requestURL, metadata) : loadResource(requestURL);
+            return buildResponse(resource, OK_STATUS);
+        }
+        // Too big to be kept in memory, the file is streamed with a small buffer.
+        StreamingBody body = gzip ? openGzipStream(metadata) : openStream(metadata);
+        return buildResponse(metadata.getMimeType(), body, OK_STATUS);
+    }
+
+    private static HttpResponse buildEarlyHints(String linkHeader) {
+        HttpResponse response = buildResponse(null, 0, EARLY_HINTS_STATUS);
+        response.getHeaders().remove(HttpResponseBuilder.CONTENT_TYPE_HEADER);
+        response.getHeaders().remove(HttpResponseBuilder.CONTENT_LENGTH_HEADER);
+        response.addHeader(LINK_HEADER, linkHeader);
+        return response;
+    }
+
+    private static boolean acceptsGzip(HttpRequest httpRequest) {
+        String acceptEncoding = httpRequest.getHeader(ACCEPT_ENCODING_HEADER);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (GZIP_ENCODING.equalsIgnoreCase(parts[0].trim())) {
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
         }
+        return false;
     }
 }
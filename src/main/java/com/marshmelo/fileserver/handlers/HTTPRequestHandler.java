@@ -1,14 +1,32 @@
 package com.marshmelo.fileserver.handlers;
 
+import com.marshmelo.fileserver.connection.ManagedConnection;
 import com.marshmelo.fileserver.exceptions.InternalServerException;
 import com.marshmelo.fileserver.exceptions.RequestParsingException;
+import com.marshmelo.fileserver.http2.Http2Connection;
+import com.marshmelo.fileserver.http2.Http2Settings;
 import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.RequestLimits;
+import com.marshmelo.fileserver.scheduling.RequestScheduler;
+import com.marshmelo.fileserver.throttling.BandwidthShaper;
+import com.marshmelo.fileserver.throttling.RequestRateLimiter;
+import com.marshmelo.fileserver.throttling.ShapedConnection;
+import com.marshmelo.fileserver.tls.TlsContext;
+import com.marshmelo.fileserver.tls.TlsSocket;
 import org.apache.log4j.Logger;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static com.marshmelo.fileserver.messages.LogMessages.*;
 
@@ -18,61 +36,452 @@ import static com.marshmelo.fileserver.messages.LogMessages.*;
  */
 public class HTTPRequestHandler implements Runnable {
 
-    private static final String GET_REQUEST = "GET";
+    private static final int SERVICE_UNAVAILABLE_STATUS = 503;
+    private static final int NOT_IMPLEMENTED_STATUS = 501;
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final String RETRY_AFTER_IN_SECONDS = "5";
+    private static final int BAD_REQUEST_STATUS = 400;
+    private static final int REQUEST_TIMEOUT_STATUS = 408;
+    private static final int TOO_MANY_REQUESTS_STATUS = 429;
+    private static final String RETRY_AFTER_RATE_LIMIT_IN_SECONDS = "1";
+    private static final String CONNECTION_HEADER = "Connection";
+    private static final String CONNECTION_CLOSE = "close";
+    private static final int SWITCHING_PROTOCOLS_STATUS = 101;
+    private static final String CONNECTION_UPGRADE = "Upgrade";
+    private static final String UPGRADE_HEADER = "Upgrade";
+    private static final String H2C_PROTOCOL = "h2c";
+    private static final int CONTINUE_STATUS = 100;
 
     private static final Logger LOGGER = Logger.getLogger(HTTPRequestHandler.class);
 
     private final Socket socket;
+    private final ServerContext context;
+    private final RequestScheduler scheduler;
+    private final ShapedConnection shapedConnection;
+    private final RequestLimits limits;
+    private final RequestHandlerRegistry registry;
+    private final Http2Settings http2Settings;
+    private final ManagedConnection connection;
+    private DeadlineInputStream deadlineInputStream = null;
     private InputStream inputStream = null;
     private OutputStream outputStream = null;
+    private ResponseWriter responseWriter = null;
+    private int parsedRequests;
 
-    public HTTPRequestHandler(Socket socket) throws IOException {
+    /**
+     * @param socket     the client connection.
+     * @param context    the objects shared by the connections of the server. HTTP/2 is only served with a scheduler,
+     *                   which runs the streams.
+     * @param connection the connection registered in the connection manager, null to close the connection after the
+     *                   pending requests.
+     */
+    public HTTPRequestHandler(Socket socket, ServerContext context, ManagedConnection connection) throws IOException {
         this.socket = socket;
+        this.context = context;
+        this.connection = connection;
+        this.scheduler = context.getScheduler();
+        this.limits = context.getLimits();
+        this.registry = context.getRegistry();
+        this.http2Settings = scheduler != null ? context.getHttp2Settings() : null;
+        BandwidthShaper bandwidthShaper = context.getBandwidthShaper();
+        this.shapedConnection = bandwidthShaper != null ? bandwidthShaper.openConnection(socket.getInetAddress(), socket) : null;
         initSocketIOStream();
     }
 
     @Override
     public void run() {
+        LOGGER.debug(REQUEST_HANDLING_STARTED.formatMessage());
+        serveConnection(this::handleRequest);
+    }
+
+    /**
+     * Run a part of the connection lifecycle on the current thread, which owns the connection until the task hands it
+     * over to another thread. The connection is closed on every other path, unexpected runtime exceptions included, so
+     * that no socket is left open without an owner.
+     */
+    private void serveConnection(ConnectionTask task) {
+        boolean handedOver = false;
         try {
-            LOGGER.debug(REQUEST_HANDLING_STARTED.formatMessage());
-            handleRequest();
-            LOGGER.debug(REQUEST_HANDLING_FINISHED.formatMessage());
+            handedOver = task.serve();
         } catch (InternalServerException | RequestParsingException | IOException | IllegalArgumentException e) {
             LOGGER.warn(e);
-            closeSocket();
+        } catch (RuntimeException e) {
+            LOGGER.error(ERROR_UNEXPECTED_CONNECTION_FAILURE.formatMessage(), e);
+        } finally {
+            if (!handedOver) {
+                closeSocket();
+            }
         }
     }
 
-    private void handleRequest() throws InternalServerException, IOException, RequestParsingException {
+    /**
+     * Serve the requests of the connection. Requests already received while the previous one is served, i.e. pipelined
+     * requests, are served in a row and their responses are batched so that they are sent with a single write.
+     *
+     * @return true if the connection was handed over to another thread.
+     */
+    private boolean handleRequest() throws InternalServerException, IOException, RequestParsingException {
         if (inputStream == null || outputStream == null) {
-            return;
+            return false;
+        }
+        if (socket instanceof TlsSocket && startTls((TlsSocket) socket)) {
+            return false;
+        }
+        return serveRequests();
+    }
+
+    /**
+     * Serve requests until the connection ends or is handed over to the large file lane or to the bandwidth shaper timers.
+     *
+     * @return true if the connection was handed over to another thread.
+     */
+    private boolean serveRequests() throws InternalServerException, IOException, RequestParsingException {
+        while (true) {
+            HttpRequest httpRequest = parseRequest();
+            if (!acquireRequest()) {
+                return closeAfterPendingTransfer();
+            }
+            if (http2Settings != null && switchToHttp2(httpRequest)) {
+                return false;
+            }
+            boolean pipelined = isBodyFinished(httpRequest) && isPipelined(httpRequest);
+            responseWriter.setBatching(pipelined);
+            if (connection != null) {
+                connection.startWrite();
+            }
+            if (!serveRequest(httpRequest)) {
+                return true;
+            }
+            if (!isBodyFinished(httpRequest)) {
+                // The rest of the body would be read as the next request.
+                return closeAfterPendingTransfer();
+            }
+            if (resumeAfterPendingTransfer(httpRequest)) {
+                return true;
+            }
+            if (!pipelined && !awaitNextRequest(httpRequest)) {
+                return closeAfterPendingTransfer();
+            }
+        }
+    }
+
+    /**
+     * Charge a request to the rate of its client, the first request of the connection was charged when the connection
+     * was accepted. Keep-alive and pipelined requests are charged one by one so that a single connection can not exceed
+     * the rate.
+     *
+     * @return false if the client exceeded its rate, the request is then answered with 429 and the connection closed.
+     */
+    private boolean acquireRequest() {
+        RequestRateLimiter rateLimiter = context.getRateLimiter();
+        if (rateLimiter == null || parsedRequests++ == 0 || rateLimiter.tryAcquire(socket.getInetAddress())) {
+            return true;
+        }
+        LOGGER.debug(REQUEST_RATE_EXCEEDED_ON_CONNECTION.formatMessage(socket.getInetAddress()));
+        Map<String, String> headers = new HashMap<>();
+        headers.put(CONNECTION_HEADER, CONNECTION_CLOSE);
+        headers.put(RETRY_AFTER_HEADER, RETRY_AFTER_RATE_LIMIT_IN_SECONDS);
+        rejectRequest(TOO_MANY_REQUESTS_STATUS, headers);
+        return false;
+    }
+
+    /**
+     * Keep the connection open until the next request starts to arrive. The connection manager closes the connection
+     * when the idle timeout expires, or earlier to make room for a new connection, which ends the wait.
+     *
+     * @return true if the next request is arriving.
+     */
+    private boolean awaitNextRequest(HttpRequest httpRequest) throws IOException {
+        if (connection == null || CONNECTION_CLOSE.equalsIgnoreCase(httpRequest.getHeader(CONNECTION_HEADER))) {
+            return false;
+        }
+        connection.idle();
+        int socketTimeout = socket.getSoTimeout();
+        try {
+            socket.setSoTimeout(0);
+            inputStream.mark(1);
+            if (inputStream.read() < 0) {
+                return false;
+            }
+            inputStream.reset();
+        } catch (IOException e) {
+            // Closed by the connection manager.
+            return false;
+        }
+        socket.setSoTimeout(socketTimeout);
+        return true;
+    }
+
+    /**
+     * Close the connection once the body still written by the bandwidth shaper timers is sent.
+     *
+     * @return true if a body is still being written, the shaper then owns the connection.
+     */
+    private boolean closeAfterPendingTransfer() {
+        CompletableFuture<Void> transfer = responseWriter.getPendingTransfer();
+        if (transfer == null || transfer.isDone()) {
+            return false;
+        }
+        transfer.whenComplete((result, error) -> closeSocket());
+        return true;
+    }
+
+    /**
+     * Serve the next request of the connection on the request handler pool once the body still written by the bandwidth
+     * shaper timers is sent, so that the shaping neither holds a thread nor ends keep-alive and pipelining. Without a
+     * scheduler to resume on, the connection is closed once the body is sent.
+     *
+     * @return true if a body is still being written, the shaper then owns the connection.
+     */
+    private boolean resumeAfterPendingTransfer(HttpRequest httpRequest) {
+        CompletableFuture<Void> transfer = responseWriter.getPendingTransfer();
+        if (transfer == null || transfer.isDone()) {
+            return false;
+        }
+        if (scheduler == null || connection == null
+                || CONNECTION_CLOSE.equalsIgnoreCase(httpRequest.getHeader(CONNECTION_HEADER))) {
+            return closeAfterPendingTransfer();
+        }
+        transfer.whenComplete((result, error) -> {
+            if (error != null) {
+                closeSocket();
+                return;
+            }
+            scheduler.execute(() -> serveConnection(
+                    () -> (isPipelined(httpRequest) || awaitNextRequest(httpRequest)) && serveRequests()));
+        });
+        return true;
+    }
+
+    /**
+     * Do the TLS handshake within the header timeout and serve the connection with HTTP/2 if the client chose h2.
+     *
+     * @return true if the connection was served with HTTP/2 or the handshake failed, the connection is closed by the caller.
+     */
+    private boolean startTls(TlsSocket tlsSocket) throws IOException {
+        try {
+            tlsSocket.startHandshake(limits.getHeaderTimeoutInMilliSec());
+        } catch (IOException e) {
+            LOGGER.debug(ERROR_TLS_HANDSHAKE.formatMessage(socket.getInetAddress(), e.getMessage()));
+            return true;
+        }
+        if (http2Settings != null && TlsContext.HTTP2_PROTOCOL.equals(tlsSocket.getApplicationProtocol())) {
+            responseWriter.setBatching(false);
+            if (connection != null) {
+                connection.clearDeadline();
+            }
+            new Http2Connection(socket, inputStream, context, connection).serveNegotiated();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Serve the rest of the connection with HTTP/2 if the request is the prior knowledge preface or an h2c upgrade.
+     * The upgraded request is answered on the first stream after the 101 response.
+     *
+     * @return true if the connection was served with HTTP/2, the connection is closed by the caller.
+     */
+    private boolean switchToHttp2(HttpRequest httpRequest) throws IOException {
+        if (Http2Connection.isPreface(httpRequest)) {
+            responseWriter.setBatching(false);
+            if (connection != null) {
+                connection.clearDeadline();
+            }
+            new Http2Connection(socket, inputStream, context, connection).serve();
+            return true;
+        }
+        Http2Settings clientSettings = Http2Connection.findUpgradeSettings(httpRequest);
+        if (clientSettings == null) {
+            return false;
         }
+        HttpResponse response = HttpResponseBuilder.buildResponse(null, 0, SWITCHING_PROTOCOLS_STATUS);
+        response.getHeaders().remove(HttpResponseBuilder.CONTENT_TYPE_HEADER);
+        response.getHeaders().remove(HttpResponseBuilder.CONTENT_LENGTH_HEADER);
+        response.getHeaders().put(CONNECTION_HEADER, CONNECTION_UPGRADE);
+        response.getHeaders().put(UPGRADE_HEADER, H2C_PROTOCOL);
+        responseWriter.setBatching(false);
+        responseWriter.writeHeader(response);
+        if (connection != null) {
+            connection.clearDeadline();
+        }
+        new Http2Connection(socket, inputStream, context, connection)
+                .serveUpgrade(httpRequest, clientSettings);
+        return true;
+    }
+
+    /**
+     * @return true if the next request is already received and can be served after this one.
+     */
+    private boolean isPipelined(HttpRequest httpRequest) throws IOException {
+        return !CONNECTION_CLOSE.equalsIgnoreCase(httpRequest.getHeader(CONNECTION_HEADER))
+                && inputStream.available() > 0;
+    }
+
+    /**
+     * Serve one request in place or on the large file lane.
+     *
+     * @return false if the request was moved to the large file lane which then owns the connection.
+     */
+    private boolean serveRequest(HttpRequest httpRequest) throws InternalServerException, IOException {
+        RequestHandler handler = registry.findHandler(httpRequest);
+        if (handler == null) {
+            registry.getErrorHandler().handleError(NOT_IMPLEMENTED_STATUS, Collections.emptyMap(), responseWriter);
+            return true;
+        }
+        if (scheduler != null && scheduler.isLargeTransfer(handler.findContentSize(httpRequest))) {
+            responseWriter.setBatching(false);
+            if (!scheduler.offerLargeTransfer(() -> handleLargeRequest(handler, httpRequest))) {
+                LOGGER.warn(LARGE_FILE_LANE_SATURATED.formatMessage(httpRequest.getUrl()));
+                handler.handleError(SERVICE_UNAVAILABLE_STATUS, Collections.singletonMap(RETRY_AFTER_HEADER, RETRY_AFTER_IN_SECONDS),
+                        responseWriter);
+                return true;
+            }
+            return false;
+        }
+        dispatchRequest(handler, httpRequest);
+        return true;
+    }
+
+    /**
+     * Serve a request for a large resource, this method is executed on the large file lane.
+     *
+     * @param httpRequest the parsed request.
+     */
+    private void handleLargeRequest(RequestHandler handler, HttpRequest httpRequest) {
+        serveConnection(() -> {
+            dispatchRequest(handler, httpRequest);
+            if (connection == null || !isBodyFinished(httpRequest)) {
+                return closeAfterPendingTransfer();
+            }
+            if (resumeAfterPendingTransfer(httpRequest)) {
+                return true;
+            }
+            // The connection waits for its next request on the request handler pool, not on the large file lane.
+            connection.idle();
+            scheduler.execute(() -> serveConnection(() -> awaitNextRequest(httpRequest) && serveRequests()));
+            return true;
+        });
+    }
+
+    private void dispatchRequest(RequestHandler handler, HttpRequest httpRequest) throws InternalServerException, IOException {
+        handler.handleRequest(httpRequest, responseWriter);
+        LOGGER.debug(REQUEST_HANDLING_FINISHED.formatMessage());
+    }
+
+    /**
+     * Parse the request headers, they should be received before the header deadline.
+     * Malformed, too large and too slow requests are answered with an error status before the exception is thrown up
+     * so that the connection is closed and the worker released immediately.
+     */
+    private HttpRequest parseRequest() throws IOException, RequestParsingException {
         HttpRequest httpRequest;
+        if (connection != null) {
+            connection.awaitHeader();
+        }
+        deadlineInputStream.startDeadline(limits.getHeaderTimeoutInMilliSec());
         try {
-            httpRequest = HttpRequestParser.parseRequest(inputStream);
+            httpRequest = HttpRequestParser.parseRequest(inputStream, limits);
+            httpRequest.setBody(RequestBodyInputStream.open(httpRequest, inputStream, new BodyListener()));
+        } catch (SocketTimeoutException e) {
+            LOGGER.warn(ERROR_REQUEST_HEADER_TIMEOUT.formatMessage());
+            rejectRequest(REQUEST_TIMEOUT_STATUS);
+            throw e;
         } catch (IOException e) {
             LOGGER.warn(ERROR_PARSING_HTTP_REQUEST.formatMessage());
             throw e;
         } catch (RequestParsingException e) {
             LOGGER.warn(ERROR_IN_HTTP_REQUEST_HEADER_FORMAT.formatMessage());
+            rejectRequest(e.getStatus());
             throw e;
         } catch (IllegalArgumentException e) {
             LOGGER.warn(ERROR_IN_HTTP_REQUEST_URL_ENCODING.formatMessage());
+            rejectRequest(BAD_REQUEST_STATUS);
             throw e;
         }
-        if (httpRequest != null) {
-            String method = httpRequest.getMethod();
-            RequestHandler handler = createSuitableRequestHandler(method, outputStream);
-            handler.handleRequest(httpRequest);
-        } else {
-            closeSocket();
+        deadlineInputStream.clearDeadline();
+        return httpRequest;
+    }
+
+    /**
+     * @return true if the body of the request was read to the end, e.g. it is empty or the handler consumed it.
+     */
+    private static boolean isBodyFinished(HttpRequest httpRequest) {
+        return !(httpRequest.getBody() instanceof RequestBodyInputStream)
+                || ((RequestBodyInputStream) httpRequest.getBody()).isFinished();
+    }
+
+    /**
+     * Send an error response to a request which could not be parsed, the connection is closed afterwards.
+     *
+     * @param status the error status.
+     */
+    private void rejectRequest(int status) {
+        rejectRequest(status, Collections.singletonMap(CONNECTION_HEADER, CONNECTION_CLOSE));
+    }
+
+    /**
+     * Send an error response to a request which is not served, the connection is closed afterwards.
+     *
+     * @param status  the error status.
+     * @param headers the headers of the response, Connection: close included.
+     */
+    private void rejectRequest(int status, Map<String, String> headers) {
+        try {
+            // Responses of the previous pipelined requests go first.
+            responseWriter.setBatching(false);
+            registry.getErrorHandler().handleError(status, headers, responseWriter);
+        } catch (IOException | InternalServerException e) {
+            LOGGER.debug(ERROR_WRITING_RESPONSE_CONTENT.formatMessage(), e);
+        }
+    }
+
+    /**
+     * Sends 100 Continue when the handler starts to read a body the client holds back, and lifts the write deadline
+     * while the body is received: uploads can take longer than a response, stalled clients are still caught by the
+     * socket timeout.
+     */
+    private class BodyListener implements RequestBodyInputStream.Listener {
+
+        @Override
+        public void started(boolean expectContinue) throws IOException {
+            if (expectContinue) {
+                HttpResponse response = HttpResponseBuilder.buildResponse(null, 0, CONTINUE_STATUS);
+                response.getHeaders().clear();
+                responseWriter.writeInformational(response);
+            }
+            if (connection != null) {
+                connection.clearDeadline();
+            }
         }
+
+        @Override
+        public void finished() {
+            if (connection != null) {
+                connection.startWrite();
+            }
+        }
+    }
+
+    /**
+     * A part of the connection lifecycle, see {@link #serveConnection(ConnectionTask)}.
+     */
+    private interface ConnectionTask {
+
+        /**
+         * @return true if the connection was handed over to another thread which then closes it.
+         */
+        boolean serve() throws InternalServerException, RequestParsingException, IOException;
     }
 
     /**
      * Force closing the socket connection to prevent client from being blocked.
      */
     private void closeSocket() {
+        if (connection != null) {
+            connection.close();
+            return;
+        }
         try {
             socket.close();
         } catch (IOException e) {
@@ -80,34 +489,29 @@ public class HTTPRequestHandler implements Runnable {
         }
     }
 
-    /**
-     * This method can be used to create suitable request handler depending on the request method e.g. get, post, delete, put.
-     * For simplicity and because of the scope of the assignment we can just have a default handler which is the {@link GetRequestHandler}.
-     *
-     * @param method e.g. GET, POST, DELETE, PUT...
-     * @return appropriate {@link RequestHandler}
-     */
-    private RequestHandler createSuitableRequestHandler(String method, OutputStream outputStream) {
-        if (method == null || method.equals(GET_REQUEST)) {
-            return new GetRequestHandler(outputStream);
-        }
-        // Default request handler.
-        return new GetRequestHandler(outputStream);
-    }
-
     /**
      * Init socket input and output stream and set socket timeout.
      * Setting socket connection timeout to 1 second to prevent threads from being blocked for any unknown problem like (e.g. networks problems, server/client incompatibility).
+     * The input stream is buffered once per connection because the request parser reads it byte by byte.
      */
     private void initSocketIOStream() throws IOException {
         try {
-            this.inputStream = socket.getInputStream();
+            InputStream socketInputStream = connection != null ? connection.countReads(socket.getInputStream()) : socket.getInputStream();
+            this.deadlineInputStream = new DeadlineInputStream(socket, socketInputStream, socket.getSoTimeout());
+            this.inputStream = new BufferedInputStream(deadlineInputStream);
         } catch (IOException e) {
             LOGGER.warn(ERROR_GETTING_INPUT_STREAM.formatMessage(e.getMessage()));
             throw e;
         }
         try {
-            this.outputStream = socket.getOutputStream();
+            this.outputStream = connection != null ? connection.countWrites(socket.getOutputStream()) : socket.getOutputStream();
+            // Sockets accepted from a channel are written with gathering writes on the channel.
+            GatheringByteChannel channel = socket.getChannel();
+            if (channel != null && connection != null) {
+                channel = connection.countWrites(channel);
+            }
+            this.responseWriter = channel != null
+                    ? new ResponseWriter(channel, shapedConnection) : new ResponseWriter(outputStream, shapedConnection);
         } catch (IOException e) {
             LOGGER.warn(ERROR_GETTING_OUTPUT_STREAM.formatMessage(e.getMessage()));
             throw e;
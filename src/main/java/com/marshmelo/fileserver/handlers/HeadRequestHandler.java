@@ -0,0 +1,45 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+
+import java.io.IOException;
+
+import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.findGzipSize;
+
+/**
+ * Handles HEAD requests with the flow of the {@link GetRequestHandler}, so the validators, the gzip variant and the
+ * other headers are the ones of a GET, but using only the metadata of the resource: the content is neither read nor
+ * cached and no body is written, including for error responses and folder listings. The length of a gzip variant
+ * compressed on the fly or of a minified resource is only known once it is cached, until then the response announces a
+ * chunked body.
+ */
+public class HeadRequestHandler extends GetRequestHandler {
+
+    private static final int OK_STATUS = 200;
+
+    @Override
+    public void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws InternalServerException, IOException {
+        // The listing and origin handlers are shared with GET, they write their bodies to a writer dropping them.
+        super.handleRequest(httpRequest, new HeadResponseWriter(writer));
+    }
+
+    @Override
+    protected HttpResponse buildResourceResponse(String requestURL, ResourceMetadata metadata, boolean gzip) throws IOException {
+        long length = gzip ? findGzipSize(requestURL, metadata) : metadata.getContentLength();
+        return buildResponse(metadata.getMimeType(), length, OK_STATUS);
+    }
+
+    @Override
+    public boolean writesResourceContent() {
+        return false;
+    }
+
+    @Override
+    protected void writeResponse(ResponseWriter writer, HttpResponse response, String requestURL) throws IOException {
+        writer.writeHeader(response);
+    }
+}
@@ -0,0 +1,51 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.models.HttpResponse;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes only the headers of the responses of a HEAD request to the writer of its connection, so that a handler shared
+ * with GET requests, e.g. the listing handler, answers both with the same headers.
+ */
+class HeadResponseWriter extends ResponseWriter {
+
+    private final ResponseWriter writer;
+
+    HeadResponseWriter(ResponseWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void setBatching(boolean batching) throws IOException {
+        writer.setBatching(batching);
+    }
+
+    @Override
+    public CompletableFuture<Void> getPendingTransfer() {
+        return writer.getPendingTransfer();
+    }
+
+    @Override
+    public void writeHeader(HttpResponse response) throws IOException {
+        writer.writeHeader(response);
+    }
+
+    @Override
+    public void writeInformational(HttpResponse response) throws IOException {
+        writer.writeInformational(response);
+    }
+
+    @Override
+    public void writeResponse(HttpResponse response, String requestURL) throws IOException {
+        writer.writeHeader(response);
+    }
+
+    /**
+     * The header was already written by {@link #writeResponse(HttpResponse, String)}.
+     */
+    @Override
+    public void writeBody(HttpResponse response, String requestURL) {
+    }
+}
@@ -1,32 +1,50 @@
 package com.marshmelo.fileserver.handlers;
 
 import com.marshmelo.fileserver.exceptions.RequestParsingException;
+import com.marshmelo.fileserver.messages.LogMessages;
 import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.RequestLimits;
 
 import java.io.*;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import static com.marshmelo.fileserver.messages.LogMessages.*;
 
 /**
  * This class is responsible for parsing the http request which follows the correct format.
  * For more information goto: https://tools.ietf.org/html/rfc7231#section-4.3.1.
- * This class handles only GET and HEAD methods and ignore other methods.
+ * This class handles only GET, HEAD, OPTIONS, PUT and DELETE methods and ignore other methods.
  * In any case if the request header does not follow the correct format a {@link RequestParsingException} will be raised.
  * e.g. GET /index.html?test=true HTTP/1.1
+ * The lines are read byte by byte without reading ahead, so the stream should be buffered by the caller and any body
+ * following the headers is left unread. Lines longer than the {@link RequestLimits} are rejected as soon as the limit
+ * is reached without waiting for the end of the line.
  */
 public class HttpRequestParser {
 
-    private static final String GET_METHOD_NAME = "GET";
-    private static final String HEAD_METHOD_NAME = "HEAD";
+    private static final Set<String> SUPPORTED_METHODS = new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "PUT", "DELETE"));
     private static final String DEFAULT_URL_ENCODING_CHARSET = "UTF-8";
     private static final String HTTP_PROTOCOL_VERSION = "HTTP/1.1";
-    private BufferedReader reader;
+    private static final String HTTP2_PREFACE_LINE = "PRI * HTTP/2.0";
+    private static final int URI_TOO_LONG_STATUS = 414;
+    private static final int NOT_IMPLEMENTED_STATUS = 501;
+    private static final int REQUEST_HEADER_FIELDS_TOO_LARGE_STATUS = 431;
+    private static final int INITIAL_LINE_BUFFER_SIZE = 256;
 
-    private HttpRequestParser(InputStream inputStream) {
-        reader = new BufferedReader(new InputStreamReader(inputStream));
+    private final InputStream inputStream;
+    private final RequestLimits limits;
+    private byte[] lineBuffer = new byte[INITIAL_LINE_BUFFER_SIZE];
+    private int lineBytesRead;
+
+    private HttpRequestParser(InputStream inputStream, RequestLimits limits) {
+        this.inputStream = inputStream;
+        this.limits = limits;
     }
 
     /**
@@ -38,7 +56,21 @@ public class HttpRequestParser {
      * @throws RequestParsingException thrown when there are parsing problems or there is a formatting miss match.
      */
     public static HttpRequest parseRequest(InputStream inputStream) throws IOException, RequestParsingException, IllegalArgumentException {
-        return new HttpRequestParser(inputStream).parseRequest();
+        return parseRequest(inputStream, RequestLimits.DEFAULT_LIMITS);
+    }
+
+    /**
+     * Parse http request headers applying the given size limits.
+     *
+     * @param inputStream socket input stream, should be buffered.
+     * @param limits      the {@link RequestLimits}.
+     * @return {@link HttpRequest} model.
+     * @throws IOException             thrown when there is an IO exception.
+     * @throws RequestParsingException thrown when there are parsing problems or a limit is exceeded, the status of the
+     *                                 exception is the one that should be sent to the client.
+     */
+    public static HttpRequest parseRequest(InputStream inputStream, RequestLimits limits) throws IOException, RequestParsingException, IllegalArgumentException {
+        return new HttpRequestParser(inputStream, limits).parseRequest();
     }
 
     /**
@@ -51,7 +83,8 @@ public class HttpRequestParser {
     private HttpRequest parseRequest() throws IOException, RequestParsingException, IllegalArgumentException {
         Map<String, String> urlParameters = new HashMap<>();
         Map<String, String> headers = new HashMap<>();
-        String[] firstLineParts = parseFirstLine(reader.readLine());
+        String firstLine = readLine(limits.getMaxRequestLineLength(), URI_TOO_LONG_STATUS, ERROR_REQUEST_LINE_TOO_LONG);
+        String[] firstLineParts = parseFirstLine(firstLine);
         String method = firstLineParts[0];
         String url = parseURLAndExtractParameters(firstLineParts[1], urlParameters);
         parseHeaders(headers);
@@ -62,11 +95,12 @@ public class HttpRequestParser {
      * Parse and extract parameters of the given URL.
      *
      * @param urlString     url string to parse e.g. /index.html?test=true, /index.html
-     * @param urlParameters a hash map where the parameters will be added.
+     * @param urlParameters a hash map where the parameters will be added, the values of a repeated parameter are
+     *                      joined with a comma.
      * @return the url without parameters, the parameters will be added to the map.
      * @throws UnsupportedEncodingException throw this exception if an invalid character was found in the URL.
      */
-    private String parseURLAndExtractParameters(String urlString, Map<String, String> urlParameters) throws UnsupportedEncodingException, IllegalArgumentException {
+    public static String parseURLAndExtractParameters(String urlString, Map<String, String> urlParameters) throws UnsupportedEncodingException, IllegalArgumentException {
         int index = urlString.indexOf('?');
         if (index < 0) {
             return urlString;
@@ -80,7 +114,8 @@ public class HttpRequestParser {
             String key = URLDecoder.decode(keyValue[0], DEFAULT_URL_ENCODING_CHARSET);
             if (keyValue.length == 2) {
                 String value = URLDecoder.decode(keyValue[1], DEFAULT_URL_ENCODING_CHARSET);
-                urlParameters.put(key, value);
+                // Repeated parameters e.g. f=a.css&f=b.js are joined with a comma.
+                urlParameters.merge(key, value, (previous, next) -> previous + "," + next);
             } else if (keyValue.length == 1 && parameters[i].indexOf('=') == parameters[i].length() - 1) {
                 // Parameter without a value.
                 urlParameters.put(key, "");
@@ -91,6 +126,8 @@ public class HttpRequestParser {
 
     /**
      * Parse and validate the first line of the header e.g. GET /index.html?test=true HTTP/1.1
+     * The request line of the HTTP/2 connection preface, PRI * HTTP/2.0, is accepted as well so that the connection
+     * can switch to HTTP/2.
      *
      * @param firstLine first line of the request which contains the method, URL and HTTP protocol version.
      * @return the three main parts of the first line
@@ -104,11 +141,14 @@ public class HttpRequestParser {
         if (splits.length != 3) {
             throw new RequestParsingException(ERROR_ARGUMENTS_IN_FIRST_LINE_OF_REQUEST_SHOULD_BE_THREE.formatMessage());
         }
+        if (firstLine.equals(HTTP2_PREFACE_LINE)) {
+            return splits;
+        }
         if (!splits[2].equals(HTTP_PROTOCOL_VERSION)) {
             throw new RequestParsingException(ERROR_HTTP_VERSION_UNSUPPORTED.formatMessage());
         }
-        if (!splits[0].equals(GET_METHOD_NAME) && !splits[0].equals(HEAD_METHOD_NAME)) {
-            throw new RequestParsingException(ERROR_HTTP_METHOD_UNSUPPORTED.formatMessage());
+        if (!SUPPORTED_METHODS.contains(splits[0])) {
+            throw new RequestParsingException(ERROR_HTTP_METHOD_UNSUPPORTED.formatMessage(), NOT_IMPLEMENTED_STATUS);
         }
         return splits;
     }
@@ -123,7 +163,13 @@ public class HttpRequestParser {
     private void parseHeaders(Map<String, String> headers) throws IOException, RequestParsingException {
         String line;
         int i;
-        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+        int remainingBytes = limits.getMaxHeaderBytes();
+        int count = 0;
+        while ((line = readLine(remainingBytes, REQUEST_HEADER_FIELDS_TOO_LARGE_STATUS, ERROR_HEADER_TOO_LARGE)) != null && !line.isEmpty()) {
+            remainingBytes -= lineBytesRead;
+            if (++count > limits.getMaxHeaderCount()) {
+                throw new RequestParsingException(ERROR_TOO_MANY_HEADERS.formatMessage(), REQUEST_HEADER_FIELDS_TOO_LARGE_STATUS);
+            }
             if ((i = line.indexOf(':')) < 0) {
                 throw new RequestParsingException(ERROR_HEADER_INCORRECT_FORMAT.formatMessage());
             } else {
@@ -134,4 +180,39 @@ public class HttpRequestParser {
             throw new RequestParsingException(ERROR_HEADER_SHOULD_END_WITH_BLANK_LINE.formatMessage());
         }
     }
+
+    /**
+     * Read a line terminated by a line feed, the carriage return before the line feed is removed.
+     *
+     * @param maxLength maximum number of bytes of the line including the line terminator.
+     * @param status    the status of the exception thrown when the line is too long.
+     * @param error     the message of the exception thrown when the line is too long.
+     * @return the line or null if the end of the stream is reached before reading any byte.
+     * @throws IOException             thrown if the line can not be read.
+     * @throws RequestParsingException thrown if the line is longer than the maximum length.
+     */
+    private String readLine(int maxLength, int status, LogMessages error) throws IOException, RequestParsingException {
+        int length = 0;
+        int b;
+        lineBytesRead = 0;
+        while ((b = inputStream.read()) != -1) {
+            if (++lineBytesRead > maxLength) {
+                throw new RequestParsingException(error.formatMessage(maxLength), status);
+            }
+            if (b == '\n') {
+                break;
+            }
+            if (length == lineBuffer.length) {
+                lineBuffer = Arrays.copyOf(lineBuffer, lineBuffer.length * 2);
+            }
+            lineBuffer[length++] = (byte) b;
+        }
+        if (b == -1 && lineBytesRead == 0) {
+            return null;
+        }
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        return new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+    }
 }
@@ -2,7 +2,9 @@ package com.marshmelo.fileserver.handlers;
 
 import com.marshmelo.fileserver.models.HttpResponse;
 import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.StreamingBody;
 
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -12,24 +14,62 @@ import java.util.*;
  */
 public class HttpResponseBuilder {
 
+    public static final String CONTENT_TYPE_HEADER = "Content-type";
+    public static final String CONTENT_LENGTH_HEADER = "Content-length";
+    public static final String TRANSFER_ENCODING_HEADER = "Transfer-Encoding";
+    private static final String CHUNKED_TRANSFER_ENCODING = "chunked";
     private static final String HTTP_1_1_PROTOCOL_HEADER = "HTTP/1.1 %s %s";
     private static final int DEFAULT_FOUND_STATUS = 302;
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss";
 
     private final Resource resource;
+    private final StreamingBody streamingBody;
+    private final String mimeType;
+    private final long length;
     private final int status;
     private final Map<String, String> headers = new HashMap<>();
 
     private static final Map<Integer, String> replies = new HashMap<>();
 
     static {
+        replies.put(100, "Continue");
+        replies.put(101, "Switching Protocols");
+        replies.put(103, "Early Hints");
         replies.put(200, "OK");
+        replies.put(201, "Created");
+        replies.put(204, "No Content");
+        replies.put(400, "Bad Request");
+        replies.put(401, "Unauthorized");
+        replies.put(403, "Forbidden");
+        replies.put(410, "Gone");
+        replies.put(413, "Payload Too Large");
+        replies.put(408, "Request Timeout");
+        replies.put(414, "URI Too Long");
+        replies.put(429, "Too Many Requests");
+        replies.put(431, "Request Header Fields Too Large");
+        replies.put(405, "Method Not Allowed");
         replies.put(500, "Internal Server Error");
+        replies.put(501, "Not Implemented");
         replies.put(404, "Not Found");
+        replies.put(301, "Moved Permanently");
         replies.put(302, "Found");
+        replies.put(307, "Temporary Redirect");
+        replies.put(308, "Permanent Redirect");
+        replies.put(304, "Not Modified");
+        replies.put(502, "Bad Gateway");
+        replies.put(503, "Service Unavailable");
+        replies.put(504, "Gateway Timeout");
     }
 
-    private HttpResponseBuilder(Resource resource, int status) {
+    private HttpResponseBuilder(Resource resource, String mimeType, long length, int status) {
+        this(resource, null, mimeType, length, status);
+    }
+
+    private HttpResponseBuilder(Resource resource, StreamingBody streamingBody, String mimeType, long length, int status) {
         this.resource = resource;
+        this.streamingBody = streamingBody;
+        this.mimeType = mimeType;
+        this.length = length;
         this.status = status;
     }
 
@@ -41,13 +81,46 @@ public class HttpResponseBuilder {
      * @return an {@link HttpResponse}.
      */
     public static HttpResponse buildResponse(Resource resource, int status) {
-        HttpResponseBuilder builder = new HttpResponseBuilder(resource, status);
+        HttpResponseBuilder builder = new HttpResponseBuilder(resource, resource.getMimeType(), resource.getLength(), status);
+        return builder.build();
+    }
+
+    /**
+     * Build an {@link HttpResponse} without content from the metadata of a resource e.g. for HEAD requests.
+     *
+     * @param mimeType the mime type of the resource.
+     * @param length   the size of the resource in bytes.
+     * @param status   the status code of the response.
+     * @return an {@link HttpResponse} without content.
+     */
+    public static HttpResponse buildResponse(String mimeType, long length, int status) {
+        HttpResponseBuilder builder = new HttpResponseBuilder(null, mimeType, length, status);
+        return builder.build();
+    }
+
+    /**
+     * Build an {@link HttpResponse} whose body is written while it is produced. Bodies of unknown length are sent with
+     * chunked transfer encoding instead of a Content-length header.
+     *
+     * @param mimeType      the mime type of the body.
+     * @param streamingBody the body.
+     * @param status        the status code of the response.
+     * @return an {@link HttpResponse} with a streaming body.
+     */
+    public static HttpResponse buildResponse(String mimeType, StreamingBody streamingBody, int status) {
+        HttpResponseBuilder builder = new HttpResponseBuilder(null, streamingBody, mimeType, streamingBody.getLength(), status);
         return builder.build();
     }
 
     private HttpResponse build() {
         String replyHeader = getHttpReplyHeader(status);
         buildHeaders();
+        if (streamingBody != null) {
+            return new HttpResponse(replyHeader, status, mimeType, streamingBody, headers);
+        }
+        if (resource == null) {
+            return new HttpResponse(replyHeader, status, mimeType, length, headers);
+        }
         HttpResponse response = new HttpResponse(replyHeader, status, resource, headers);
         return response;
     }
@@ -66,14 +139,28 @@ public class HttpResponseBuilder {
         }
     }
 
+    /**
+     * Find the reason phrase of a status code e.g. Not Found for 404.
+     *
+     * @param status the status code.
+     * @return the reason phrase or null if the status is not supported.
+     */
+    public static String getReasonPhrase(int status) {
+        return replies.get(status);
+    }
+
     /**
      * Add all headers to a hash map.
      */
     private void buildHeaders() {
         headers.put("Date", getDate());
         headers.put("Server", "Marshmelo Http Server");
-        headers.put("Content-type", resource.getMimeType());
-        headers.put("Content-length", Integer.toString(resource.getLength()));
+        headers.put(CONTENT_TYPE_HEADER, mimeType);
+        if (length == StreamingBody.UNKNOWN_LENGTH) {
+            headers.put(TRANSFER_ENCODING_HEADER, CHUNKED_TRANSFER_ENCODING);
+        } else {
+            headers.put(CONTENT_LENGTH_HEADER, Long.toString(length));
+        }
     }
 
     /**
@@ -82,8 +169,37 @@ public class HttpResponseBuilder {
      * @return a string of the date in GMT time zone.
      */
     public static String getDate() {
-        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss", Locale.US);
+        return formatDate(System.currentTimeMillis());
+    }
+
+    /**
+     * Format a date in GMT time zone as used by the Date and Last-Modified headers.
+     *
+     * @param millis milliseconds since the epoch.
+     * @return a string of the date in GMT time zone.
+     */
+    public static String formatDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
         format.setTimeZone(TimeZone.getTimeZone("GMT"));
-        return format.format(new Date()) + " GMT";
+        return format.format(new Date(millis)) + " GMT";
+    }
+
+    /**
+     * Parse a date sent by a client e.g. in the If-Modified-Since header.
+     *
+     * @param date the date in GMT time zone.
+     * @return milliseconds since the epoch or -1 if the date can not be parsed.
+     */
+    public static long parseDate(String date) {
+        if (date == null) {
+            return -1;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT + " zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(date.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
     }
 }
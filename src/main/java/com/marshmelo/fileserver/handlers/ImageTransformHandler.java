@@ -0,0 +1,277 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.ImageTransformSettings;
+import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_FILE_NOT_FOUND;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_IMAGE_TRANSFORM_FAILED;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_IMAGE_TRANSFORM_REJECTED;
+import static com.marshmelo.fileserver.messages.LogMessages.IMAGE_TRANSFORM_POOL_SATURATED;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.findMetadata;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.isCacheable;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.loadResource;
+
+/**
+ * Handles GET requests of jpeg and png images with transform parameters, e.g. /test.jpg?w=320&amp;h=240&amp;q=80, by
+ * sending the image scaled to fit in the given box (w, h), with the given jpeg quality (q) and optionally converted to
+ * another format (format=jpeg|png). Requests of other resources, and of missing ones, are passed to the handler of the
+ * original resources.
+ * <p>
+ * Images are decoded and encoded on a small bounded pool owned by this handler, so that transforms never use more than
+ * a few cores, and requests whose variant is not cached yet are moved to the large file lane so that the workers
+ * serving small files never wait for a transform. A full pool or a transform taking too long is answered with 503.
+ * Variants are kept in the resource cache under a key containing the entity tag of the source, they have their own
+ * entity tag and the Last-Modified date of the source so that clients revalidate them like any other resource.
+ */
+public class ImageTransformHandler extends RequestHandler {
+
+    public static final String WIDTH_PARAMETER = "w";
+    public static final String HEIGHT_PARAMETER = "h";
+    public static final String QUALITY_PARAMETER = "q";
+    public static final String FORMAT_PARAMETER = "format";
+    private static final String JPEG_FORMAT = "jpeg";
+    private static final String JPG_FORMAT = "jpg";
+    private static final String PNG_FORMAT = "png";
+    private static final int DEFAULT_QUALITY = 85;
+    private static final int MAX_QUALITY = 100;
+    private static final String VARIANT_CACHE_KEY = "%s#image#%s#%s";
+    private static final String VARIANT_SUFFIX = "w%dh%dq%d-%s";
+    private static final String THREAD_NAME = "image-transform-%d";
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final String RETRY_AFTER_IN_SECONDS = "5";
+    private static final int OK_STATUS = 200;
+    private static final int BAD_REQUEST_STATUS = 400;
+    private static final int INTERNAL_SERVER_ERROR_STATUS = 500;
+    private static final int SERVICE_UNAVAILABLE_STATUS = 503;
+    private static final Logger LOGGER = Logger.getLogger(ImageTransformHandler.class);
+
+    private final RequestHandler originalHandler;
+    private final ThreadPoolExecutor pool;
+    private final int maxDimension;
+    private final long maxPixels;
+    private final long timeoutInMilliSec;
+
+    /**
+     * @param originalHandler the handler of the resources which are not transformed.
+     * @param settings        the size of the pool and the limits of the transforms.
+     */
+    public ImageTransformHandler(RequestHandler originalHandler, ImageTransformSettings settings) {
+        super();
+        this.originalHandler = originalHandler;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(settings.getPoolSize(), settings.getPoolSize(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, settings.getQueueSize())), runnable -> {
+            Thread thread = new Thread(runnable, String.format(THREAD_NAME, threadCount.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.maxDimension = settings.getMaxDimension();
+        this.maxPixels = settings.getMaxPixels();
+        this.timeoutInMilliSec = settings.getTimeoutInMilliSec();
+    }
+
+    /**
+     * @param httpRequest a GET request.
+     * @return true if the request has a transform parameter.
+     */
+    public static boolean hasTransformParameters(HttpRequest httpRequest) {
+        return httpRequest.getParams() != null && (httpRequest.getParams().containsKey(WIDTH_PARAMETER)
+                || httpRequest.getParams().containsKey(HEIGHT_PARAMETER)
+                || httpRequest.getParams().containsKey(QUALITY_PARAMETER)
+                || httpRequest.getParams().containsKey(FORMAT_PARAMETER));
+    }
+
+    @Override
+    public void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws InternalServerException, IOException {
+        String requestURL = httpRequest.getUrl();
+        ResourceMetadata metadata = findMetadata(requestURL);
+        if (metadata == null || !ImageTransformer.supports(metadata.getMimeType())) {
+            // Not an image e.g. the format parameter of a folder listing.
+            originalHandler.handleRequest(httpRequest, writer);
+            return;
+        }
+        Transform transform = Transform.parse(httpRequest, metadata, maxDimension);
+        if (transform == null) {
+            rejectTransform(writer, requestURL);
+            return;
+        }
+        String etag = transform.buildEtag(metadata);
+        if (isNotModified(httpRequest, metadata, etag)) {
+            writeNotModified(writer, requestURL, metadata, etag);
+            return;
+        }
+        String key = transform.buildCacheKey(requestURL, metadata);
+        Resource variant = ResourcesUtil.getCache().get(key);
+        if (variant == null) {
+            byte[] content = transformOnPool(requestURL, metadata, transform, writer);
+            if (content == null) {
+                // The error response was sent.
+                return;
+            }
+            variant = new Resource(content, transform.mimeType);
+            ResourcesUtil.getCache().putGenerated(key, variant);
+        }
+        HttpResponse response = buildResponse(variant, OK_STATUS);
+        addValidatorHeaders(response, requestURL, metadata, etag);
+        writeResponse(writer, response, requestURL);
+    }
+
+    /**
+     * Cached variants are sent like small resources, variants which have to be generated are moved to the large file
+     * lane.
+     */
+    @Override
+    public long findContentSize(HttpRequest httpRequest) {
+        ResourceMetadata metadata = findMetadata(httpRequest.getUrl());
+        if (metadata == null || !ImageTransformer.supports(metadata.getMimeType())) {
+            return originalHandler.findContentSize(httpRequest);
+        }
+        Transform transform = Transform.parse(httpRequest, metadata, maxDimension);
+        if (transform == null) {
+            return -1;
+        }
+        boolean cached = ResourcesUtil.getCache().getContentId(transform.buildCacheKey(httpRequest.getUrl(), metadata)) != null;
+        return cached ? metadata.getSize() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Run a transform on the pool and wait for it, failures are answered here.
+     *
+     * @return the encoded variant or null if an error response was sent.
+     */
+    private byte[] transformOnPool(String requestURL, ResourceMetadata metadata, Transform transform, ResponseWriter writer)
+            throws IOException, InternalServerException {
+        Future<byte[]> future;
+        try {
+            future = pool.submit(() -> ImageTransformer.transform(openSource(requestURL, metadata), transform.width,
+                    transform.height, transform.quality, transform.mimeType, maxPixels));
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn(IMAGE_TRANSFORM_POOL_SATURATED.formatMessage(requestURL));
+            handleError(SERVICE_UNAVAILABLE_STATUS, Collections.singletonMap(RETRY_AFTER_HEADER, RETRY_AFTER_IN_SECONDS), writer);
+            return null;
+        }
+        byte[] content;
+        try {
+            content = future.get(timeoutInMilliSec, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            LOGGER.warn(IMAGE_TRANSFORM_POOL_SATURATED.formatMessage(requestURL));
+            handleError(SERVICE_UNAVAILABLE_STATUS, Collections.singletonMap(RETRY_AFTER_HEADER, RETRY_AFTER_IN_SECONDS), writer);
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            LOGGER.error(ERROR_IMAGE_TRANSFORM_FAILED.formatMessage(requestURL), e.getCause());
+            handleError(INTERNAL_SERVER_ERROR_STATUS, Collections.emptyMap(), writer);
+            return null;
+        }
+        if (content == null) {
+            rejectTransform(writer, requestURL);
+        }
+        return content;
+    }
+
+    private static InputStream openSource(String requestURL, ResourceMetadata metadata) throws IOException {
+        if (isCacheable(metadata)) {
+            Resource resource = loadResource(requestURL);
+            if (resource == null) {
+                throw new IOException(ERROR_FILE_NOT_FOUND.formatMessage(requestURL));
+            }
+            return new ByteArrayInputStream(resource.getContent());
+        }
+        return Files.newInputStream(metadata.getPath());
+    }
+
+    private void rejectTransform(ResponseWriter writer, String requestURL) throws IOException, InternalServerException {
+        LOGGER.info(ERROR_IMAGE_TRANSFORM_REJECTED.formatMessage(requestURL, maxDimension, maxPixels));
+        handleError(BAD_REQUEST_STATUS, Collections.emptyMap(), writer);
+    }
+
+    /**
+     * The parameters of a transform, missing parameters keep the size and the format of the source.
+     */
+    private static final class Transform {
+
+        private int width;
+        private int height;
+        private int quality = DEFAULT_QUALITY;
+        private String mimeType;
+
+        /**
+         * @return the transform or null if a parameter is invalid.
+         */
+        private static Transform parse(HttpRequest httpRequest, ResourceMetadata metadata, int maxDimension) {
+            Transform transform = new Transform();
+            try {
+                transform.width = parseInt(httpRequest.getParam(WIDTH_PARAMETER), 0);
+                transform.height = parseInt(httpRequest.getParam(HEIGHT_PARAMETER), 0);
+                transform.quality = parseInt(httpRequest.getParam(QUALITY_PARAMETER), DEFAULT_QUALITY);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            String format = httpRequest.getParam(FORMAT_PARAMETER);
+            if (format == null || format.isEmpty()) {
+                transform.mimeType = metadata.getMimeType();
+            } else if (JPEG_FORMAT.equals(format) || JPG_FORMAT.equals(format)) {
+                transform.mimeType = ImageTransformer.JPEG_MIME_TYPE;
+            } else if (PNG_FORMAT.equals(format)) {
+                transform.mimeType = ImageTransformer.PNG_MIME_TYPE;
+            } else {
+                return null;
+            }
+            if (transform.width < 0 || transform.width > maxDimension || transform.height < 0
+                    || transform.height > maxDimension || transform.quality < 1 || transform.quality > MAX_QUALITY) {
+                return null;
+            }
+            if (!ImageTransformer.JPEG_MIME_TYPE.equals(transform.mimeType)) {
+                // Png is lossless, the quality would only split the cache.
+                transform.quality = MAX_QUALITY;
+            }
+            return transform;
+        }
+
+        private static int parseInt(String value, int defaultValue) {
+            return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+        }
+
+        private String buildSuffix() {
+            return String.format(VARIANT_SUFFIX, width, height, quality,
+                    ImageTransformer.JPEG_MIME_TYPE.equals(mimeType) ? JPEG_FORMAT : PNG_FORMAT);
+        }
+
+        /**
+         * @return the key of the variant, it changes with the source since it contains its entity tag.
+         */
+        private String buildCacheKey(String requestURL, ResourceMetadata metadata) {
+            return String.format(VARIANT_CACHE_KEY, ResourcesUtil.buildRelativePath(requestURL), metadata.getEtag(), buildSuffix());
+        }
+
+        private String buildEtag(ResourceMetadata metadata) {
+            String etag = metadata.getEtag();
+            return etag.substring(0, etag.length() - 1) + "-" + buildSuffix() + "\"";
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.marshmelo.fileserver.handlers;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Resizes and converts jpeg and png images with ImageIO. The size of the source is read from its header before it is
+ * decoded so that images with too many pixels are refused without allocating them, and sources much bigger than the
+ * target are decoded with subsampling, which reads a fraction of their pixels. Images are never enlarged.
+ */
+final class ImageTransformer {
+
+    static final String JPEG_MIME_TYPE = "image/jpeg";
+    static final String PNG_MIME_TYPE = "image/png";
+
+    private ImageTransformer() {
+    }
+
+    /**
+     * @param mimeType the mime type of a resource.
+     * @return true if images of this type can be transformed.
+     */
+    static boolean supports(String mimeType) {
+        return JPEG_MIME_TYPE.equals(mimeType) || PNG_MIME_TYPE.equals(mimeType);
+    }
+
+    /**
+     * Scale an image to fit in the given box keeping its aspect ratio and encode it.
+     *
+     * @param source    the encoded source image, it is closed.
+     * @param width     maximum width of the result, 0 to only constrain the height.
+     * @param height    maximum height of the result, 0 to only constrain the width.
+     * @param quality   jpeg quality between 1 and 100, ignored for png.
+     * @param mimeType  the format of the result, see {@link #supports(String)}.
+     * @param maxPixels maximum number of pixels of the source.
+     * @return the encoded result or null if the source has more than maxPixels pixels.
+     * @throws IOException thrown when the source can not be read or decoded.
+     */
+    static byte[] transform(InputStream source, int width, int height, int quality, String mimeType, long maxPixels)
+            throws IOException {
+        BufferedImage image;
+        try (ImageInputStream input = ImageIO.createImageInputStream(source)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image format.");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+                if ((long) sourceWidth * sourceHeight > maxPixels) {
+                    return null;
+                }
+                double scale = findScale(sourceWidth, sourceHeight, width, height);
+                ImageReadParam param = reader.getDefaultReadParam();
+                // Keep at least twice the target size so that the final scaling still smooths the result.
+                int subsampling = Math.max(1, (int) (1 / (2 * scale)));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                image = scale(decoded, Math.max(1, (int) Math.round(sourceWidth * scale)),
+                        Math.max(1, (int) Math.round(sourceHeight * scale)), JPEG_MIME_TYPE.equals(mimeType));
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            source.close();
+        }
+        return encode(image, quality, mimeType);
+    }
+
+    /**
+     * @return the scale fitting the source in the box, at most 1.
+     */
+    private static double findScale(int sourceWidth, int sourceHeight, int width, int height) {
+        double scale = 1;
+        if (width > 0) {
+            scale = Math.min(scale, (double) width / sourceWidth);
+        }
+        if (height > 0) {
+            scale = Math.min(scale, (double) height / sourceHeight);
+        }
+        return scale;
+    }
+
+    private static BufferedImage scale(BufferedImage source, int width, int height, boolean opaque) {
+        BufferedImage target = new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // Jpeg has no alpha channel, transparent pixels of a png are drawn on white.
+            graphics.drawImage(source, 0, 0, width, height, opaque ? Color.WHITE : null, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] encode(BufferedImage image, int quality, String mimeType) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType(mimeType);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for " + mimeType + ".");
+        }
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(encoded)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (JPEG_MIME_TYPE.equals(mimeType)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality / 100f);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return encoded.toByteArray();
+    }
+}
@@ -0,0 +1,39 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+
+import java.io.IOException;
+
+import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
+
+/**
+ * Handles OPTIONS requests by listing the supported methods in the Allow header, e.g. OPTIONS * HTTP/1.1.
+ */
+public class OptionsRequestHandler extends RequestHandler {
+
+    private static final int OK_STATUS = 200;
+    private static final String ALLOW_HEADER = "Allow";
+    private static final String TEXT_PLAIN_MIME_TYPE = "text/plain";
+
+    private final String allowedMethods;
+
+    /**
+     * @param allowedMethods the value of the Allow header e.g. GET, HEAD, OPTIONS.
+     */
+    public OptionsRequestHandler(String allowedMethods) {
+        this.allowedMethods = allowedMethods;
+    }
+
+    @Override
+    public void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws IOException {
+        HttpResponse response = buildResponse(TEXT_PLAIN_MIME_TYPE, 0, OK_STATUS);
+        response.addHeader(ALLOW_HEADER, allowedMethods);
+        writer.writeHeader(response);
+    }
+
+    @Override
+    public boolean writesResourceContent() {
+        return false;
+    }
+}
@@ -0,0 +1,415 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.cache.TieredCache;
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.StreamingBody;
+import com.marshmelo.fileserver.proxy.CachedResponse;
+import com.marshmelo.fileserver.proxy.UpstreamClient;
+import com.marshmelo.fileserver.proxy.UpstreamResponse;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.SocketTimeoutException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_ORIGIN_UNAVAILABLE;
+
+/**
+ * Serves the GET and HEAD requests of the resources missing from the static folders from an origin server, so that the
+ * server acts as a caching edge in front of a slower origin.
+ * <p>
+ * Responses of the origin are kept in the resource cache as generated entries for as long as the origin allows, see
+ * {@link CachedResponse}. A fresh copy is served without asking the origin, a stale one is revalidated with a
+ * conditional request and served again when the origin answers 304. While a resource is being fetched the other
+ * requests of the same resource wait for that fetch instead of sending their own, and are served from the cache once
+ * it is complete. The fetching request streams the body to its client while the copy is kept, responses which can not
+ * be stored are streamed through without being kept, as are bodies too big for the cache.
+ * <p>
+ * An unreachable origin is answered with 502, or 504 when it is too slow, unless a stale copy exists and the origin
+ * does not forbid serving it. The X-Cache header tells whether the response was a HIT, a MISS, REVALIDATED or STALE.
+ */
+public class OriginRequestHandler extends RequestHandler {
+
+    private static final String GET_METHOD = "GET";
+    private static final String HEAD_METHOD = "HEAD";
+    private static final String CONTENT_KEY_FORMAT = "%s#origin";
+    private static final String AGE_HEADER = "Age";
+    private static final String CACHE_STATUS_HEADER = "X-Cache";
+    private static final String HIT = "HIT";
+    private static final String MISS = "MISS";
+    private static final String REVALIDATED = "REVALIDATED";
+    private static final String STALE = "STALE";
+    private static final String ERROR_MIME_TYPE = "text/html";
+    private static final String URL_ENCODING_CHARSET = "UTF-8";
+    private static final String PATH_SAFE_CHARACTERS = "-._~!$&'()*+,;=:@/";
+    private static final int OK_STATUS = 200;
+    private static final int NO_CONTENT_STATUS = 204;
+    private static final int NOT_MODIFIED_STATUS = 304;
+    private static final int BAD_GATEWAY_STATUS = 502;
+    private static final int GATEWAY_TIMEOUT_STATUS = 504;
+    private static final int SWEEP_INTERVAL = 1024;
+    private static final Logger LOGGER = Logger.getLogger(OriginRequestHandler.class);
+
+    private final UpstreamClient client;
+    private final long coalescingWaitMillis;
+    private final Map<String, CachedResponse> responses = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<CachedResponse>> fetches = new ConcurrentHashMap<>();
+    private final AtomicInteger stores = new AtomicInteger();
+
+    /**
+     * @param client               the client of the origin.
+     * @param coalescingWaitMillis the longest time a request waits for the same resource to be fetched by another
+     *                             request before fetching it itself.
+     */
+    public OriginRequestHandler(UpstreamClient client, long coalescingWaitMillis) {
+        super();
+        this.client = client;
+        this.coalescingWaitMillis = coalescingWaitMillis;
+    }
+
+    @Override
+    public void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws InternalServerException, IOException {
+        String target = buildTarget(httpRequest);
+        boolean head = HEAD_METHOD.equals(httpRequest.getMethod());
+        TieredCache cache = ResourcesUtil.getCache();
+        CachedResponse cached = responses.get(target);
+        Resource content = cached == null ? null : cache.get(cached.getContentKey());
+        if (cached != null && content == null) {
+            // Evicted from the resource cache.
+            responses.remove(target, cached);
+            cached = null;
+        }
+        if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+            writeCached(httpRequest, writer, cached, content, HIT);
+            return;
+        }
+        CompletableFuture<CachedResponse> fetch = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> running = fetches.putIfAbsent(target, fetch);
+        if (running != null) {
+            CachedResponse shared = await(running);
+            Resource sharedContent = shared == null ? null : cache.get(shared.getContentKey());
+            if (sharedContent != null) {
+                writeCached(httpRequest, writer, shared, sharedContent, HIT);
+                return;
+            }
+            // The other fetch failed or could not be stored, this request fetches the resource alone.
+            fetch = null;
+        }
+        try {
+            fetch(httpRequest, writer, target, head, cached, content, fetch);
+        } finally {
+            if (fetch != null) {
+                fetches.remove(target, fetch);
+                fetch.complete(null);
+            }
+        }
+    }
+
+    /**
+     * The body of the response is kept in memory only when it fits in the cache, so this handler never needs the large
+     * file lane for its size, it is not known before the origin answers anyway.
+     */
+    @Override
+    public long findContentSize(HttpRequest httpRequest) {
+        return -1;
+    }
+
+    private void fetch(HttpRequest httpRequest, ResponseWriter writer, String target, boolean head, CachedResponse cached,
+                       Resource content, CompletableFuture<CachedResponse> fetch) throws IOException {
+        Map<String, String> validators = cached == null ? Collections.emptyMap() : cached.getValidators();
+        UpstreamResponse upstream;
+        try {
+            // HEAD requests are sent as GET requests so that the cache is filled.
+            upstream = client.send(GET_METHOD, target, validators);
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_ORIGIN_UNAVAILABLE.formatMessage(client.getPool().getHost(), client.getPool().getPort(),
+                    target, e.getMessage()));
+            if (cached != null && !cached.mustRevalidate()) {
+                writeCached(httpRequest, writer, cached, content, STALE);
+            } else {
+                writeError(writer, e instanceof SocketTimeoutException ? GATEWAY_TIMEOUT_STATUS : BAD_GATEWAY_STATUS, head);
+            }
+            return;
+        }
+        try (UpstreamResponse response = upstream) {
+            long now = System.currentTimeMillis();
+            if (cached != null && response.getStatus() == NOT_MODIFIED_STATUS) {
+                CachedResponse revalidated = cached.revalidate(response.getHeaders(), now);
+                if (revalidated != null) {
+                    responses.put(target, revalidated);
+                    if (fetch != null) {
+                        fetch.complete(revalidated);
+                    }
+                } else {
+                    responses.remove(target, cached);
+                }
+                writeCached(httpRequest, writer, revalidated != null ? revalidated : cached, content, REVALIDATED);
+                return;
+            }
+            TieredCache cache = ResourcesUtil.getCache();
+            String contentKey = String.format(CONTENT_KEY_FORMAT, target);
+            CachedResponse storable = CachedResponse.of(contentKey, response.getStatus(), response.getHeaders(), now);
+            long length = response.getContentLength();
+            if (cached != null) {
+                // The origin sent a new representation, the stored one is outdated whether the new one is kept or not.
+                responses.remove(target, cached);
+            }
+            if (storable == null || length >= 0 && !cache.accepts(length, true)) {
+                if (fetch != null) {
+                    // Nothing will be shared, the waiting requests fetch the resource themselves.
+                    fetch.complete(null);
+                }
+                relay(writer, response, head, httpRequest.getUrl());
+                return;
+            }
+            OriginBody body = new OriginBody(response, cache, target, storable, fetch);
+            if (head) {
+                // The body is only read to fill the cache.
+                body.writeTo(new ByteArrayOutputStream(0));
+                HttpResponse httpResponse = buildResponse(storable.getMimeType(), body.count, OK_STATUS);
+                addOriginHeaders(httpResponse, CachedResponse.findRelayedHeaders(response.getHeaders()), MISS);
+                writer.writeHeader(httpResponse);
+                return;
+            }
+            HttpResponse httpResponse = buildResponse(storable.getMimeType(), body, OK_STATUS);
+            addOriginHeaders(httpResponse, CachedResponse.findRelayedHeaders(response.getHeaders()), MISS);
+            writeResponse(writer, httpResponse, httpRequest.getUrl());
+        }
+    }
+
+    /**
+     * Stream a response of the origin which is not stored.
+     */
+    private void relay(ResponseWriter writer, UpstreamResponse response, boolean head, String requestURL) throws IOException {
+        int status = response.getStatus();
+        if (HttpResponseBuilder.getReasonPhrase(status) == null) {
+            writeError(writer, BAD_GATEWAY_STATUS, head);
+            return;
+        }
+        String mimeType = CachedResponse.findMimeType(response.getHeaders());
+        Map<String, String> headers = CachedResponse.findRelayedHeaders(response.getHeaders());
+        if (head || status == NO_CONTENT_STATUS || status == NOT_MODIFIED_STATUS) {
+            HttpResponse httpResponse = buildResponse(mimeType, Math.max(0, response.getContentLength()), status);
+            if (status == NO_CONTENT_STATUS || status == NOT_MODIFIED_STATUS) {
+                httpResponse.getHeaders().remove(HttpResponseBuilder.CONTENT_TYPE_HEADER);
+                httpResponse.getHeaders().remove(HttpResponseBuilder.CONTENT_LENGTH_HEADER);
+            } else if (response.getContentLength() < 0) {
+                // The length of the body the origin would send is not known.
+                httpResponse.getHeaders().remove(HttpResponseBuilder.CONTENT_LENGTH_HEADER);
+            }
+            addOriginHeaders(httpResponse, headers, MISS);
+            writer.writeHeader(httpResponse);
+            return;
+        }
+        InputStream body = response.getBody();
+        long length = response.getContentLength();
+        HttpResponse httpResponse = buildResponse(mimeType, new StreamingBody() {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int read;
+                while ((read = body.read(buffer)) >= 0) {
+                    outputStream.write(buffer, 0, read);
+                }
+            }
+        }, status);
+        addOriginHeaders(httpResponse, headers, MISS);
+        writeResponse(writer, httpResponse, requestURL);
+    }
+
+    /**
+     * Serve a stored response, or a 304 if the client copy is still valid.
+     */
+    private void writeCached(HttpRequest httpRequest, ResponseWriter writer, CachedResponse cached, Resource content,
+                             String cacheStatus) throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, String> headers = cached.getRelayedHeaders();
+        headers.put(AGE_HEADER, Long.toString(cached.getAgeSeconds(now)));
+        if (isNotModified(httpRequest, cached.getLastModified(), cached.getEtag())) {
+            HttpResponse response = buildResponse(content.getMimeType(), 0, NOT_MODIFIED_STATUS);
+            response.getHeaders().remove(HttpResponseBuilder.CONTENT_TYPE_HEADER);
+            response.getHeaders().remove(HttpResponseBuilder.CONTENT_LENGTH_HEADER);
+            addOriginHeaders(response, headers, cacheStatus);
+            writer.writeHeader(response);
+            return;
+        }
+        if (HEAD_METHOD.equals(httpRequest.getMethod())) {
+            HttpResponse response = buildResponse(content.getMimeType(), content.getLength(), OK_STATUS);
+            addOriginHeaders(response, headers, cacheStatus);
+            writer.writeHeader(response);
+            return;
+        }
+        HttpResponse response = buildResponse(content, OK_STATUS);
+        addOriginHeaders(response, headers, cacheStatus);
+        writeResponse(writer, response, httpRequest.getUrl());
+    }
+
+    private void writeError(ResponseWriter writer, int status, boolean head) throws IOException {
+        if (head) {
+            writer.writeHeader(buildResponse(ERROR_MIME_TYPE, 0, status));
+            return;
+        }
+        try {
+            handleError(status, Collections.emptyMap(), writer);
+        } catch (InternalServerException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void addOriginHeaders(HttpResponse response, Map<String, String> headers, String cacheStatus) {
+        headers.forEach(response::addHeader);
+        response.addHeader(CACHE_STATUS_HEADER, cacheStatus);
+    }
+
+    private void store(String target, CachedResponse cached, Resource content) {
+        ResourcesUtil.getCache().putGenerated(cached.getContentKey(), content);
+        responses.put(target, cached);
+        if (stores.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            // Forget the responses whose content was evicted and which were not requested since.
+            TieredCache cache = ResourcesUtil.getCache();
+            responses.values().removeIf(response -> cache.getContentId(response.getContentKey()) == null);
+        }
+    }
+
+    /**
+     * @return the response stored by another fetch or null if it failed, could not be stored or took too long.
+     */
+    private CachedResponse await(CompletableFuture<CachedResponse> fetch) {
+        try {
+            return fetch.get(coalescingWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Build the path and query sent to the origin, the parameters are sorted so that the same resource always has the
+     * same cache key.
+     *
+     * @param httpRequest the request.
+     * @return the encoded path and query e.g. /images/logo%20big.png?v=2.
+     */
+    static String buildTarget(HttpRequest httpRequest) {
+        StringBuilder target = new StringBuilder();
+        for (byte b : httpRequest.getUrl().getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if (c < 0x80 && (Character.isLetterOrDigit(c) || PATH_SAFE_CHARACTERS.indexOf(c) >= 0 || c == '%')) {
+                // A % is kept as it is, the path of a request without query is not decoded by the parser.
+                target.append(c);
+            } else {
+                target.append('%').append(String.format("%02X", (int) c));
+            }
+        }
+        Map<String, String> params = httpRequest.getParams();
+        if (params == null || params.isEmpty()) {
+            return target.toString();
+        }
+        char separator = '?';
+        try {
+            for (Map.Entry<String, String> param : new TreeMap<>(params).entrySet()) {
+                target.append(separator).append(URLEncoder.encode(param.getKey(), URL_ENCODING_CHARSET));
+                if (param.getValue() != null && !param.getValue().isEmpty()) {
+                    target.append('=').append(URLEncoder.encode(param.getValue(), URL_ENCODING_CHARSET));
+                }
+                separator = '&';
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return target.toString();
+    }
+
+    /**
+     * The body of a response of the origin written to the client while a copy is kept for the cache. The copy is
+     * dropped as soon as it is too big for the cache. If the client goes away the body is still read to its end so that
+     * the copy is complete, the waiting requests are then served from the cache.
+     */
+    private final class OriginBody implements StreamingBody {
+
+        private final UpstreamResponse response;
+        private final TieredCache cache;
+        private final String target;
+        private final CachedResponse cached;
+        private final CompletableFuture<CachedResponse> fetch;
+        private long count;
+
+        private OriginBody(UpstreamResponse response, TieredCache cache, String target, CachedResponse cached,
+                           CompletableFuture<CachedResponse> fetch) {
+            this.response = response;
+            this.cache = cache;
+            this.target = target;
+            this.cached = cached;
+            this.fetch = fetch;
+        }
+
+        @Override
+        public long getLength() {
+            return response.getContentLength();
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            long length = response.getContentLength();
+            ByteArrayOutputStream copy = new ByteArrayOutputStream(length >= 0 ? (int) length : COPY_BUFFER_SIZE);
+            IOException clientFailure = null;
+            InputStream body = response.getBody();
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = body.read(buffer)) >= 0) {
+                count += read;
+                if (copy != null) {
+                    copy.write(buffer, 0, read);
+                    if (!cache.accepts(count, true)) {
+                        copy = null;
+                    }
+                }
+                if (clientFailure == null) {
+                    try {
+                        outputStream.write(buffer, 0, read);
+                    } catch (IOException e) {
+                        clientFailure = e;
+                    }
+                }
+                if (clientFailure != null && copy == null) {
+                    break;
+                }
+            }
+            if (copy != null) {
+                store(target, cached, new Resource(copy.toByteArray(), cached.getMimeType()));
+                if (fetch != null) {
+                    fetch.complete(cached);
+                }
+            }
+            if (clientFailure != null) {
+                throw clientFailure;
+            }
+        }
+    }
+}
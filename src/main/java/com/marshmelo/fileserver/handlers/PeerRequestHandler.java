@@ -0,0 +1,53 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.peer.PeerGroup;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+
+import java.io.IOException;
+
+import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
+
+/**
+ * Handles GET requests of the internal endpoint of the peers, e.g. /__peer?path=css/site.css, sending a resource this
+ * server owns to another server of its {@link PeerGroup}. The resource is taken from the cache, or loaded from disk and
+ * cached, but never asked to another peer. The entity tag of the file is sent so that the peer can check it has the
+ * same version. Resources too big for the cache and missing resources are answered with an empty 404, the peer then
+ * reads them itself. Without the path parameter the request is a health check answered with an empty 200.
+ */
+public class PeerRequestHandler extends RequestHandler {
+
+    private static final String ETAG_HEADER = "ETag";
+    private static final String TEXT_PLAIN_MIME_TYPE = "text/plain";
+    private static final int OK_STATUS = 200;
+    private static final int NOT_FOUND_STATUS = 404;
+
+    @Override
+    public void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws IOException {
+        String path = httpRequest.getParams() == null ? null : httpRequest.getParam(PeerGroup.PATH_PARAMETER);
+        if (path == null || path.isEmpty()) {
+            writer.writeHeader(buildResponse(TEXT_PLAIN_MIME_TYPE, 0, OK_STATUS));
+            return;
+        }
+        String requestURL = "/" + path;
+        ResourceMetadata metadata = ResourcesUtil.findFileMetadata(requestURL);
+        Resource resource = metadata != null && ResourcesUtil.isCacheable(metadata)
+                ? ResourcesUtil.loadLocalResource(requestURL) : null;
+        if (resource == null) {
+            writer.writeHeader(buildResponse(TEXT_PLAIN_MIME_TYPE, 0, NOT_FOUND_STATUS));
+            return;
+        }
+        HttpResponse response = buildResponse(resource, OK_STATUS);
+        response.addHeader(ETAG_HEADER, metadata.getEtag());
+        writeResponse(writer, response, null);
+    }
+
+    @Override
+    public long findContentSize(HttpRequest httpRequest) {
+        // Only cacheable resources are sent.
+        return -1;
+    }
+}
@@ -0,0 +1,220 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_READING_FILE;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.findMetadata;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.isCacheable;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.loadResource;
+
+/**
+ * Finds the assets an HTML page needs before it can be rendered, its stylesheets, scripts and images, so that they are
+ * announced with preload Link headers, and in a 103 Early Hints response, before the browser parses the page. A page is
+ * scanned once, the Link header is kept with the metadata it was computed from and computed again when the page
+ * changes. Only assets of the same origin which exist in the static resources are announced, stylesheets first, then
+ * scripts, then the images which are not lazily loaded. When warming is enabled the announced assets are loaded in the
+ * resource cache when the page is scanned, so the requests the hints trigger are served from memory.
+ */
+public class PreloadHints {
+
+    private static final Pattern TAG = Pattern.compile("<(link|script|img)\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile("([a-zA-Z-]+)\\s*=\\s*(\"[^\"]*\"|'[^']*'|[^\\s>]+)");
+    private static final Pattern COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+    private static final String LINK_FORMAT = "<%s>; rel=preload; as=%s";
+    private static final String LINK_SEPARATOR = ", ";
+    private static final String HTML_MIME_TYPE = "text/html";
+    private static final String STYLE_DESTINATION = "style";
+    private static final String SCRIPT_DESTINATION = "script";
+    private static final String IMAGE_DESTINATION = "image";
+    private static final Logger LOGGER = Logger.getLogger(PreloadHints.class);
+
+    private final int maxLinks;
+    private final boolean earlyHints;
+    private final boolean warm;
+    private final Map<String, Hints> hints = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxLinks   maximum number of assets announced for a page.
+     * @param earlyHints send a 103 Early Hints response before the response of the page.
+     * @param warm       load the announced assets in the resource cache when a page is scanned.
+     */
+    public PreloadHints(int maxLinks, boolean earlyHints, boolean warm) {
+        this.maxLinks = maxLinks;
+        this.earlyHints = earlyHints;
+        this.warm = warm;
+    }
+
+    /**
+     * @return true if a 103 Early Hints response is sent before the response of the page.
+     */
+    public boolean sendsEarlyHints() {
+        return earlyHints;
+    }
+
+    /**
+     * Find the Link header of a page, the page is scanned the first time and after it changed.
+     *
+     * @param requestURL the URL of the page.
+     * @param metadata   the metadata of the page.
+     * @return the value of the Link header or null if the resource is not a page or has no asset to announce.
+     */
+    public String findLinkHeader(String requestURL, ResourceMetadata metadata) {
+        if (!HTML_MIME_TYPE.equals(metadata.getMimeType()) || !isCacheable(metadata)) {
+            return null;
+        }
+        Hints cached = hints.get(requestURL);
+        if (cached != null && cached.source == metadata) {
+            return cached.linkHeader;
+        }
+        String linkHeader;
+        try {
+            Resource page = loadResource(requestURL);
+            linkHeader = page == null ? null : buildLinkHeader(requestURL, new String(page.getContent(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_READING_FILE.formatMessage(requestURL), e);
+            return null;
+        }
+        hints.put(requestURL, new Hints(metadata, linkHeader));
+        return linkHeader;
+    }
+
+    private String buildLinkHeader(String requestURL, String html) {
+        StringBuilder linkHeader = new StringBuilder();
+        int count = 0;
+        for (String[] dependency : findDependencies(html, requestURL)) {
+            if (count == maxLinks) {
+                break;
+            }
+            // The resource a request for the asset is served with.
+            String path;
+            try {
+                path = HttpRequestParser.parseURLAndExtractParameters(dependency[0], new HashMap<>());
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                continue;
+            }
+            ResourceMetadata metadata = findMetadata(path);
+            if (metadata == null) {
+                continue;
+            }
+            if (warm && isCacheable(metadata)) {
+                try {
+                    loadResource(path);
+                } catch (IOException e) {
+                    LOGGER.warn(ERROR_READING_FILE.formatMessage(path), e);
+                    continue;
+                }
+            }
+            linkHeader.append(count++ == 0 ? "" : LINK_SEPARATOR).append(String.format(LINK_FORMAT, dependency[0], dependency[1]));
+        }
+        return count == 0 ? null : linkHeader.toString();
+    }
+
+    /**
+     * Find the same origin assets referenced by a page.
+     *
+     * @param html    the content of the page.
+     * @param pageURL the URL of the page, relative references are resolved against it.
+     * @return the absolute URLs of the assets, with their query but without their fragment, and their preload
+     * destination e.g. {/css/site.css?v=2, style}, stylesheets first, then scripts, then images, without duplicates.
+     */
+    static List<String[]> findDependencies(String html, String pageURL) {
+        Set<String> styles = new LinkedHashSet<>();
+        Set<String> scripts = new LinkedHashSet<>();
+        Set<String> images = new LinkedHashSet<>();
+        URI base;
+        try {
+            base = URI.create(pageURL);
+        } catch (IllegalArgumentException e) {
+            return new ArrayList<>();
+        }
+        Matcher tag = TAG.matcher(COMMENT.matcher(html).replaceAll(""));
+        while (tag.find()) {
+            String name = tag.group(1).toLowerCase(Locale.ROOT);
+            Map<String, String> attributes = parseAttributes(tag.group(2));
+            if (name.equals("link")) {
+                String rel = " " + attributes.getOrDefault("rel", "").toLowerCase(Locale.ROOT) + " ";
+                if (rel.contains(" stylesheet ") && !rel.contains(" alternate ")) {
+                    addPath(styles, base, attributes.get("href"));
+                }
+            } else if (name.equals("script")) {
+                if (!"module".equalsIgnoreCase(attributes.get("type"))) {
+                    addPath(scripts, base, attributes.get("src"));
+                }
+            } else if (!"lazy".equalsIgnoreCase(attributes.get("loading"))) {
+                addPath(images, base, attributes.get("src"));
+            }
+        }
+        List<String[]> dependencies = new ArrayList<>();
+        styles.forEach(path -> dependencies.add(new String[]{path, STYLE_DESTINATION}));
+        scripts.forEach(path -> dependencies.add(new String[]{path, SCRIPT_DESTINATION}));
+        images.forEach(path -> dependencies.add(new String[]{path, IMAGE_DESTINATION}));
+        return dependencies;
+    }
+
+    private static Map<String, String> parseAttributes(String attributes) {
+        Map<String, String> parsed = new HashMap<>();
+        Matcher attribute = ATTRIBUTE.matcher(attributes);
+        while (attribute.find()) {
+            String value = attribute.group(2);
+            if (value.startsWith("\"") || value.startsWith("'")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            parsed.putIfAbsent(attribute.group(1).toLowerCase(Locale.ROOT), value.trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Add the absolute URL of a reference if it has the same origin as the page. The reference is resolved as it is
+     * written, so it keeps its escapes and its query, the URL the browser requests and matches the preload with.
+     */
+    private static void addPath(Set<String> paths, URI base, String reference) {
+        if (reference == null || reference.isEmpty() || reference.startsWith("//")) {
+            return;
+        }
+        URI resolved;
+        try {
+            int fragment = reference.indexOf('#');
+            resolved = base.resolve(fragment < 0 ? reference : reference.substring(0, fragment));
+        } catch (Exception e) {
+            // Not a valid URI, e.g. a template placeholder.
+            return;
+        }
+        String path = resolved.getRawPath();
+        if (resolved.getScheme() == null && resolved.getAuthority() == null && path != null && path.startsWith("/")
+                && !path.startsWith("/../")) {
+            paths.add(resolved.getRawQuery() == null ? path : path + "?" + resolved.getRawQuery());
+        }
+    }
+
+    /**
+     * The Link header of a page and the metadata of the page it was computed from.
+     */
+    private static final class Hints {
+
+        private final ResourceMetadata source;
+        private final String linkHeader;
+
+        private Hints(ResourceMetadata source, String linkHeader) {
+            this.source = source;
+            this.linkHeader = linkHeader;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.exceptions.RequestParsingException;
+import com.marshmelo.fileserver.models.HttpRequest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_INVALID_REQUEST_BODY;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_TRANSFER_ENCODING_UNSUPPORTED;
+
+/**
+ * The body of an HTTP/1.1 request read from the connection input stream, delimited by its Content-length or decoded
+ * from the chunked transfer encoding. Nothing is read ahead of what the caller asks for, so a body is never held in
+ * memory and the next request of the connection is left unread. A body which is not read to the end leaves the
+ * connection in an unknown state, the connection should then be closed, see {@link #isFinished()}.
+ */
+final class RequestBodyInputStream extends InputStream {
+
+    private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+    private static final String TRANSFER_ENCODING_HEADER = "Transfer-Encoding";
+    private static final String EXPECT_HEADER = "Expect";
+    private static final String CHUNKED_TRANSFER_ENCODING = "chunked";
+    private static final String EXPECT_CONTINUE = "100-continue";
+    private static final int BAD_REQUEST_STATUS = 400;
+    private static final int NOT_IMPLEMENTED_STATUS = 501;
+    private static final int MAX_CHUNK_LINE_LENGTH = 4096;
+
+    private final InputStream inputStream;
+    private final boolean chunked;
+    private final boolean expectContinue;
+    private final Listener listener;
+    private long remaining;
+    private boolean started;
+    private boolean finished;
+
+    private RequestBodyInputStream(InputStream inputStream, long length, boolean chunked, boolean expectContinue,
+                                   Listener listener) {
+        this.inputStream = inputStream;
+        this.remaining = length;
+        this.chunked = chunked;
+        this.expectContinue = expectContinue;
+        this.listener = listener;
+        this.finished = !chunked && length == 0;
+    }
+
+    /**
+     * Find the body of a request from its Content-length and Transfer-Encoding headers. A request with neither has an
+     * empty body.
+     *
+     * @param httpRequest the parsed request.
+     * @param inputStream the connection input stream positioned after the request headers.
+     * @param listener    told when the body starts and finishes to be read.
+     * @return the body, possibly empty.
+     * @throws RequestParsingException thrown when the headers do not delimit the body, the status of the exception is
+     *                                 the one that should be sent to the client.
+     */
+    static RequestBodyInputStream open(HttpRequest httpRequest, InputStream inputStream, Listener listener)
+            throws RequestParsingException {
+        String transferEncoding = httpRequest.getHeader(TRANSFER_ENCODING_HEADER);
+        String contentLength = httpRequest.getHeader(CONTENT_LENGTH_HEADER);
+        boolean expectContinue = EXPECT_CONTINUE.equalsIgnoreCase(httpRequest.getHeader(EXPECT_HEADER));
+        if (transferEncoding != null) {
+            if (!CHUNKED_TRANSFER_ENCODING.equalsIgnoreCase(transferEncoding.trim())) {
+                throw new RequestParsingException(ERROR_TRANSFER_ENCODING_UNSUPPORTED.formatMessage(transferEncoding),
+                        NOT_IMPLEMENTED_STATUS);
+            }
+            if (contentLength != null) {
+                // Both headers are a known request smuggling vector.
+                throw new RequestParsingException(ERROR_INVALID_REQUEST_BODY.formatMessage(), BAD_REQUEST_STATUS);
+            }
+            return new RequestBodyInputStream(inputStream, 0, true, expectContinue, listener);
+        }
+        long length = 0;
+        if (contentLength != null) {
+            try {
+                length = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                length = -1;
+            }
+            if (length < 0) {
+                throw new RequestParsingException(ERROR_INVALID_REQUEST_BODY.formatMessage(), BAD_REQUEST_STATUS);
+            }
+        }
+        return new RequestBodyInputStream(inputStream, length, false, expectContinue, listener);
+    }
+
+    /**
+     * @return the Content-length of the body or -1 if it is chunked.
+     */
+    long getLength() {
+        return chunked ? -1 : remaining;
+    }
+
+    /**
+     * @return true if the body was read to the end, the next request of the connection can then be read.
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!started) {
+            started = true;
+            listener.started(expectContinue);
+        }
+        if (chunked && remaining == 0 && !readChunkSize()) {
+            finish();
+            return -1;
+        }
+        int read = inputStream.read(b, off, (int) Math.min(len, remaining));
+        if (read < 0) {
+            throw new EOFException(ERROR_INVALID_REQUEST_BODY.formatMessage());
+        }
+        remaining -= read;
+        if (remaining == 0) {
+            if (chunked) {
+                readLine();
+            } else {
+                finish();
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return finished ? 0 : (int) Math.min(remaining, inputStream.available());
+    }
+
+    /**
+     * The connection input stream is not closed, the connection may serve more requests.
+     */
+    @Override
+    public void close() {
+    }
+
+    private void finish() {
+        finished = true;
+        listener.finished();
+    }
+
+    /**
+     * Read the size line of the next chunk, chunk extensions are ignored.
+     *
+     * @return false if it is the last chunk, its trailers are then read.
+     */
+    private boolean readChunkSize() throws IOException {
+        String line = readLine();
+        int extension = line.indexOf(';');
+        try {
+            remaining = Long.parseLong((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException(ERROR_INVALID_REQUEST_BODY.formatMessage());
+        }
+        if (remaining < 0) {
+            throw new IOException(ERROR_INVALID_REQUEST_BODY.formatMessage());
+        }
+        if (remaining > 0) {
+            return true;
+        }
+        while (!readLine().isEmpty()) {
+            // Trailers are ignored.
+        }
+        return false;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = inputStream.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException(ERROR_INVALID_REQUEST_BODY.formatMessage());
+            }
+            if (line.length() == MAX_CHUNK_LINE_LENGTH) {
+                throw new IOException(ERROR_INVALID_REQUEST_BODY.formatMessage());
+            }
+            line.append((char) b);
+        }
+        int length = line.length();
+        return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+    }
+
+    /**
+     * Follows the reading of a body, e.g. to answer Expect: 100-continue only once the body is actually wanted.
+     */
+    interface Listener {
+
+        /**
+         * Called before the first byte of the body is read.
+         *
+         * @param expectContinue true if the client waits for a 100 Continue response before sending the body.
+         * @throws IOException thrown when the 100 Continue response can not be written.
+         */
+        void started(boolean expectContinue) throws IOException;
+
+        /**
+         * Called when the end of the body is read.
+         */
+        void finished();
+    }
+}
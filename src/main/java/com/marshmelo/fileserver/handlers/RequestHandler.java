@@ -4,19 +4,24 @@ import com.marshmelo.fileserver.exceptions.InternalServerException;
 import com.marshmelo.fileserver.models.HttpRequest;
 import com.marshmelo.fileserver.models.HttpResponse;
 import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
 import org.apache.log4j.Logger;
 
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
-import static com.marshmelo.fileserver.messages.LogMessages.ERROR_WRITING_RESPONSE_CONTENT;
 import static com.marshmelo.fileserver.messages.LogMessages.MULTIPLE_ERROR_OCCURRED;
 import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
 import static com.marshmelo.fileserver.utils.ResourcesUtil.loadResource;
 
+/**
+ * Base class of the request handlers. Handlers do not keep any per request state, a single instance of every handler is
+ * registered in the {@link RequestHandlerRegistry} and shared by all the connections, the response is written using the
+ * {@link ResponseWriter} of the connection.
+ */
 public abstract class RequestHandler {
 
     private static final String PAGE_NOT_FOUND_HTML_PAGE = "404.html";
@@ -26,17 +31,72 @@ public abstract class RequestHandler {
 
     private static final Logger LOGGER = Logger.getLogger(RequestHandler.class);
 
-    private static final String HEADER_ENTRY_FORMATTER = "%s: %s";
+    private static final String ERROR_HTML_PAGE = "%s.html";
+    private static final String DEFAULT_ERROR_PAGE_CONTENT = "<!DOCTYPE html>\n<html>\n<body>\n<h1>%s - %s</h1>\n</body>\n</html>";
+    private static final String HTML_MIME_TYPE = "text/html";
+    private static final int NOT_MODIFIED_STATUS = 304;
+    private static final String ETAG_HEADER = "ETag";
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+    private static final String WEAK_ETAG_PREFIX = "W/";
+    private static final String CACHE_CONTROL_HEADER = "Cache-Control";
 
-    private final PrintWriter writer;
-    private final BufferedOutputStream bufferedOutputStream;
+    private final ResponseWriter responseWriter;
+    private CacheControlRules cacheControlRules;
 
+    /**
+     * Create a handler shared by all the connections.
+     */
+    RequestHandler() {
+        this.responseWriter = null;
+    }
+
+    /**
+     * Create a handler bound to a single output stream, used with {@link #handleRequest(HttpRequest)}.
+     *
+     * @param outputStream the stream where the responses are written.
+     */
     RequestHandler(OutputStream outputStream) {
-        writer = new PrintWriter(outputStream);
-        bufferedOutputStream = new BufferedOutputStream(outputStream);
+        this.responseWriter = new ResponseWriter(outputStream);
+    }
+
+    /**
+     * Handle a request writing the response to the output stream given when the handler was created.
+     *
+     * @param httpRequest the parsed request.
+     */
+    public void handleRequest(HttpRequest httpRequest) throws InternalServerException, IOException {
+        handleRequest(httpRequest, responseWriter);
+    }
+
+    public abstract void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws InternalServerException, IOException;
+
+    /**
+     * Set the rules of the Cache-Control header sent with the resources, called before the server starts.
+     *
+     * @param cacheControlRules the rules, null to send no Cache-Control header.
+     */
+    void setCacheControlRules(CacheControlRules cacheControlRules) {
+        this.cacheControlRules = cacheControlRules;
     }
 
-    public abstract void handleRequest(HttpRequest httpRequest) throws InternalServerException, IOException;
+    /**
+     * @return true if the handler writes the content of the requested resource, only such requests are worth moving to
+     * the large file lane.
+     */
+    public boolean writesResourceContent() {
+        return true;
+    }
+
+    /**
+     * @param httpRequest a request this handler serves.
+     * @return the expected size of the content of the response, used to move large transfers to the large file lane,
+     * -1 if there is none or it is unknown.
+     */
+    public long findContentSize(HttpRequest httpRequest) {
+        return writesResourceContent() ? ResourcesUtil.findResourceSize(httpRequest.getUrl()) : -1;
+    }
 
     /**
      * This response is used whenever any exception, rather than page not found, occurs.
@@ -44,12 +104,11 @@ public abstract class RequestHandler {
      * @throws InternalServerException thrown to indicate the server is not able to handle bad request and internal server error.
      * @throws IOException             thrown when response can not be written.
      */
-    private void handleInternalError() throws InternalServerException, IOException {
+    private void handleInternalError(ResponseWriter writer) throws InternalServerException, IOException {
         Resource resource = loadResource(INTERNAL_ERROR_HTML_PAGE);
         if (resource != null) {
             HttpResponse response = buildResponse(resource, INTERNAL_SERVER_ERROR_STATUS);
-            writeResponseHeader(response);
-            writeResponseBody(response);
+            writeResponse(writer, response, null);
         } else {
             LOGGER.error(MULTIPLE_ERROR_OCCURRED.formatMessage());
             throw new InternalServerException(MULTIPLE_ERROR_OCCURRED.formatMessage());
@@ -62,44 +121,136 @@ public abstract class RequestHandler {
      * @throws IOException             thrown when static resource can not be loaded or response can not be written.
      * @throws InternalServerException thrown when server is not able to handle bad request or recover from internal problem.
      */
-    protected void handleBadRequest() throws IOException, InternalServerException {
+    protected void handleBadRequest(ResponseWriter writer) throws IOException, InternalServerException {
         Resource resource = loadResource(PAGE_NOT_FOUND_HTML_PAGE);
         if (resource != null) {
             HttpResponse httpResponse = buildResponse(resource, NOT_FOUND_STATUS);
-            writeResponseHeader(httpResponse);
-            writeResponseBody(httpResponse);
+            writeResponse(writer, httpResponse, null);
         } else {
-            handleInternalError();
+            handleInternalError(writer);
+        }
+    }
+
+    /**
+     * Send an error response with the given status to the output stream given when the handler was created.
+     *
+     * @see #handleError(int, Map, ResponseWriter)
+     */
+    public void handleError(int status, Map<String, String> headers) throws IOException, InternalServerException {
+        handleError(status, headers, responseWriter);
+    }
+
+    /**
+     * Send an error response with the given status. The page {status}.html is sent if it exists in the static resources
+     * o.w. a minimal page containing the status and its reason phrase is generated.
+     *
+     * @param status  the error status e.g. 503.
+     * @param headers extra headers added to the response e.g. Retry-After, can be empty.
+     * @param writer  the {@link ResponseWriter} of the connection.
+     * @throws IOException             thrown when response can not be written.
+     * @throws InternalServerException thrown when the status is not supported.
+     */
+    public void handleError(int status, Map<String, String> headers, ResponseWriter writer) throws IOException, InternalServerException {
+        Resource resource = loadResource(String.format(ERROR_HTML_PAGE, status));
+        if (resource == null) {
+            String reasonPhrase = HttpResponseBuilder.getReasonPhrase(status);
+            if (reasonPhrase == null) {
+                handleInternalError(writer);
+                return;
+            }
+            String content = String.format(DEFAULT_ERROR_PAGE_CONTENT, status, reasonPhrase);
+            resource = new Resource(content.getBytes(StandardCharsets.UTF_8), HTML_MIME_TYPE);
+        }
+        HttpResponse response = buildResponse(resource, status);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            response.addHeader(header.getKey(), header.getValue());
         }
+        writeResponse(writer, response, null);
+    }
+
+    /**
+     * Check the conditional headers of a request against the validators of a resource, If-None-Match takes precedence
+     * over If-Modified-Since.
+     *
+     * @param httpRequest the request.
+     * @param metadata    the metadata of the requested resource.
+     * @param etag        the entity tag of the representation which would be sent.
+     * @return true if the client copy is still valid and a 304 response can be sent.
+     */
+    protected boolean isNotModified(HttpRequest httpRequest, ResourceMetadata metadata, String etag) {
+        return isNotModified(httpRequest, metadata.getLastModified(), etag);
     }
 
     /**
-     * Write response header.
+     * Check the conditional headers of a request against validators which are not those of a static resource e.g. the
+     * ones of a response of the origin, entity tags are compared weakly.
      *
-     * @param response the {@link HttpResponse}.
+     * @param httpRequest  the request.
+     * @param lastModified the last modification date in milliseconds since the epoch, -1 if it is unknown.
+     * @param etag         the entity tag of the representation which would be sent, null if it is unknown.
+     * @return true if the client copy is still valid and a 304 response can be sent.
      */
-    protected void writeResponseHeader(HttpResponse response) {
-        writer.println(response.getHttpReplyHeader());
-        for (Map.Entry<String, String> entry : response.getHeaders().entrySet()) {
-            writer.println(String.format(HEADER_ENTRY_FORMATTER, entry.getKey(), entry.getValue()));
+    protected boolean isNotModified(HttpRequest httpRequest, long lastModified, String etag) {
+        String ifNoneMatch = httpRequest.getHeader(IF_NONE_MATCH_HEADER);
+        if (ifNoneMatch != null) {
+            if (etag != null && etag.startsWith(WEAK_ETAG_PREFIX)) {
+                etag = etag.substring(WEAK_ETAG_PREFIX.length());
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith(WEAK_ETAG_PREFIX)) {
+                    candidate = candidate.substring(WEAK_ETAG_PREFIX.length());
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
         }
-        writer.println();
-        writer.flush();
+        long ifModifiedSince = HttpResponseBuilder.parseDate(httpRequest.getHeader(IF_MODIFIED_SINCE_HEADER));
+        // HTTP dates have a precision of one second.
+        return ifModifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
     }
 
     /**
-     * Write response body.
+     * Send a 304 Not Modified response, it has the validators of the resource but no content headers and no body.
      *
-     * @param response the {@link HttpResponse} model.
-     * @throws IOException thrown when response body can not be written.
+     * @param writer   the {@link ResponseWriter} of the connection.
+     * @param metadata the metadata of the requested resource.
+     * @param etag     the entity tag of the representation.
+     * @throws IOException thrown when the response can not be written.
      */
-    protected void writeResponseBody(HttpResponse response) throws IOException {
-        try {
-            bufferedOutputStream.write(response.getContent(), 0, response.getLength());
-            bufferedOutputStream.flush();
-        } catch (IOException e) {
-            LOGGER.warn(ERROR_WRITING_RESPONSE_CONTENT.formatMessage());
-            throw e;
+    protected void writeNotModified(ResponseWriter writer, String requestURL, ResourceMetadata metadata, String etag)
+            throws IOException {
+        HttpResponse response = buildResponse(metadata.getMimeType(), 0, NOT_MODIFIED_STATUS);
+        response.getHeaders().remove(HttpResponseBuilder.CONTENT_TYPE_HEADER);
+        response.getHeaders().remove(HttpResponseBuilder.CONTENT_LENGTH_HEADER);
+        addValidatorHeaders(response, requestURL, metadata, etag);
+        writer.writeHeader(response);
+    }
+
+    /**
+     * Add the ETag and Last-Modified headers, and the Cache-Control header when a rule applies to the resource. The
+     * same headers are sent with 304 responses so that revalidated copies keep their policy.
+     */
+    protected void addValidatorHeaders(HttpResponse response, String requestURL, ResourceMetadata metadata, String etag) {
+        response.addHeader(ETAG_HEADER, etag);
+        response.addHeader(LAST_MODIFIED_HEADER, HttpResponseBuilder.formatDate(metadata.getLastModified()));
+        String cacheControl = cacheControlRules == null ? null : cacheControlRules.findPolicy(requestURL, metadata.getMimeType());
+        if (cacheControl != null) {
+            response.addHeader(CACHE_CONTROL_HEADER, cacheControl);
         }
     }
+
+    /**
+     * Write the header and the body of a response, handlers which never send a body override this method.
+     *
+     * @param writer     the {@link ResponseWriter} of the connection.
+     * @param response   the {@link HttpResponse}.
+     * @param requestURL the requested URL, null for error pages.
+     * @throws IOException thrown when the response can not be written.
+     */
+    protected void writeResponse(ResponseWriter writer, HttpResponse response, String requestURL) throws IOException {
+        writer.writeResponse(response, requestURL);
+    }
 }
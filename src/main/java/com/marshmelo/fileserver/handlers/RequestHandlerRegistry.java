@@ -0,0 +1,199 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.ImageTransformSettings;
+import com.marshmelo.fileserver.models.OriginSettings;
+import com.marshmelo.fileserver.models.PeerSettings;
+import com.marshmelo.fileserver.models.UploadSettings;
+import com.marshmelo.fileserver.peer.PeerGroup;
+import com.marshmelo.fileserver.proxy.UpstreamClient;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps request methods to their handlers. The registry and the handlers are created once when the server starts and
+ * shared by all the connections, so no handler is created per request. GET requests of a few paths are served by their
+ * own handler e.g. the batch path, and GET requests with the archive parameter by the {@link ArchiveRequestHandler}.
+ * Folders without index.html are listed by the {@link DirectoryListingHandler} when listings are enabled, and GET
+ * requests with image transform parameters are served by the {@link ImageTransformHandler} when transforms are enabled.
+ * HTML pages announce their stylesheets, scripts and images with {@link PreloadHints} when preload hints are enabled.
+ * The Cache-Control header of the resources is found by the {@link CacheControlRules} given to all the handlers. PUT and
+ * DELETE requests are served by the {@link UploadRequestHandler} when uploads are enabled. GET and HEAD requests of
+ * missing resources are served from the origin by the {@link OriginRequestHandler} when an origin is configured. The
+ * internal endpoint of the servers sharing their caches is served by the {@link PeerRequestHandler}.
+ */
+public class RequestHandlerRegistry {
+
+    public static final String GET_METHOD = "GET";
+    public static final String HEAD_METHOD = "HEAD";
+    public static final String OPTIONS_METHOD = "OPTIONS";
+
+    private final Map<String, RequestHandler> handlers = new HashMap<>();
+    private final Map<String, RequestHandler> getRoutes = new HashMap<>();
+    private final GetRequestHandler getRequestHandler;
+    private final HeadRequestHandler headRequestHandler;
+    private final RequestHandler errorHandler;
+    private RequestHandler archiveHandler;
+    private RequestHandler imageHandler;
+
+    /**
+     * Create a registry of the GET, HEAD and OPTIONS handlers, the other features are enabled with the enable methods.
+     */
+    public RequestHandlerRegistry() {
+        getRequestHandler = new GetRequestHandler();
+        headRequestHandler = new HeadRequestHandler();
+        handlers.put(GET_METHOD, getRequestHandler);
+        handlers.put(HEAD_METHOD, headRequestHandler);
+        handlers.put(OPTIONS_METHOD, new OptionsRequestHandler(String.join(", ", GET_METHOD, HEAD_METHOD, OPTIONS_METHOD)));
+        errorHandler = getRequestHandler;
+    }
+
+    /**
+     * Serve several resources in one response on a path, called before the server starts.
+     *
+     * @param batchPath     the path of the {@link BatchRequestHandler} e.g. /__batch.
+     * @param batchMaxFiles maximum number of resources of a batch.
+     * @param batchMaxBytes maximum total size of the resources of a batch.
+     */
+    public void enableBatch(String batchPath, int batchMaxFiles, long batchMaxBytes) {
+        getRoutes.put(batchPath, new BatchRequestHandler(batchMaxFiles, batchMaxBytes));
+    }
+
+    /**
+     * Serve the archives of the folders requested with the archive parameter, called before the server starts.
+     *
+     * @param archiveMaxFiles maximum number of resources of a folder archive.
+     */
+    public void enableArchives(int archiveMaxFiles) {
+        archiveHandler = new ArchiveRequestHandler(archiveMaxFiles);
+    }
+
+    /**
+     * List the folders without index.html for GET and HEAD requests, called before the server starts.
+     *
+     * @param listingPageSize    default number of entries of a folder listing page.
+     * @param listingMaxPageSize maximum number of entries of a folder listing page.
+     */
+    public void enableListings(int listingPageSize, int listingMaxPageSize) {
+        RequestHandler listingHandler = new DirectoryListingHandler(listingPageSize, Math.max(listingPageSize, listingMaxPageSize));
+        getRequestHandler.setListingHandler(listingHandler);
+        headRequestHandler.setListingHandler(listingHandler);
+    }
+
+    /**
+     * Resize and convert the images requested with transform parameters, called before the server starts.
+     *
+     * @param imageSettings the limits of the image transforms.
+     */
+    public void enableImageTransforms(ImageTransformSettings imageSettings) {
+        imageHandler = new ImageTransformHandler(getRequestHandler, imageSettings);
+    }
+
+    /**
+     * Announce the stylesheets, scripts and images of the HTML pages, called before the server starts.
+     *
+     * @param preloadHints the preload hints of the HTML pages.
+     */
+    public void enablePreloadHints(PreloadHints preloadHints) {
+        getRequestHandler.setPreloadHints(preloadHints);
+        headRequestHandler.setPreloadHints(preloadHints);
+    }
+
+    /**
+     * Accept PUT and DELETE requests to publish and remove resources, called before the server starts.
+     *
+     * @param uploadSettings the token, the size limit and the fsync policy of the uploads.
+     */
+    public void enableUploads(UploadSettings uploadSettings) {
+        UploadRequestHandler uploadHandler = new UploadRequestHandler(uploadSettings);
+        handlers.put(UploadRequestHandler.PUT_METHOD, uploadHandler);
+        handlers.put(UploadRequestHandler.DELETE_METHOD, uploadHandler);
+        handlers.put(OPTIONS_METHOD, new OptionsRequestHandler(String.join(", ", GET_METHOD, HEAD_METHOD, OPTIONS_METHOD,
+                UploadRequestHandler.PUT_METHOD, UploadRequestHandler.DELETE_METHOD)));
+    }
+
+    /**
+     * Fetch the resources missing from the static folders from an origin and cache them, called before the server
+     * starts.
+     *
+     * @param originSettings the URL of the origin and the limits of its connections.
+     * @throws IllegalArgumentException thrown when the URL of the origin is not an absolute http or https URL.
+     */
+    public void enableOrigin(OriginSettings originSettings) {
+        UpstreamClient client = new UpstreamClient(originSettings.getUrl(), originSettings.getMaxConnections(),
+                originSettings.getTimeoutMillis(), originSettings.getIdleTimeoutMillis());
+        OriginRequestHandler originHandler = new OriginRequestHandler(client, originSettings.getTimeoutMillis());
+        getRequestHandler.setOriginHandler(originHandler);
+        headRequestHandler.setOriginHandler(originHandler);
+    }
+
+    /**
+     * Share the resource cache with the other servers of a group, called before the server starts. The resources owned
+     * by another server are fetched from it and the internal endpoint serves the resources this server owns.
+     *
+     * @param peerSettings the addresses of the servers and the path of their internal endpoint.
+     * @return the {@link PeerGroup}, its health should be checked periodically.
+     * @throws IllegalArgumentException thrown when an address is not a host:port address.
+     */
+    public PeerGroup enablePeers(PeerSettings peerSettings) {
+        PeerGroup peerGroup = new PeerGroup(peerSettings);
+        getRoutes.put(peerSettings.getPath(), new PeerRequestHandler());
+        ResourcesUtil.configurePeers(peerGroup);
+        return peerGroup;
+    }
+
+    /**
+     * Set the rules of the Cache-Control header sent with the resources, called before the server starts.
+     *
+     * @param cacheControlRules the rules, null to send no Cache-Control header.
+     */
+    public void setCacheControlRules(CacheControlRules cacheControlRules) {
+        handlers.values().forEach(handler -> handler.setCacheControlRules(cacheControlRules));
+        getRoutes.values().forEach(handler -> handler.setCacheControlRules(cacheControlRules));
+        if (archiveHandler != null) {
+            archiveHandler.setCacheControlRules(cacheControlRules);
+        }
+        if (imageHandler != null) {
+            imageHandler.setCacheControlRules(cacheControlRules);
+        }
+    }
+
+    /**
+     * @param method the request method e.g. GET.
+     * @return the handler of the method or null if the method is not supported.
+     */
+    public RequestHandler findHandler(String method) {
+        return method == null ? null : handlers.get(method);
+    }
+
+    /**
+     * @param httpRequest a parsed request.
+     * @return the handler of the path, of the archive parameter or of the image transform parameters of a GET request if
+     * it has one, o.w. the handler of the method or null if the method is not supported.
+     */
+    public RequestHandler findHandler(HttpRequest httpRequest) {
+        if (GET_METHOD.equals(httpRequest.getMethod())) {
+            RequestHandler handler = getRoutes.get(httpRequest.getUrl());
+            if (handler != null) {
+                return handler;
+            }
+            if (archiveHandler != null && httpRequest.getParams() != null
+                    && httpRequest.getParams().containsKey(ArchiveRequestHandler.ARCHIVE_PARAMETER)) {
+                return archiveHandler;
+            }
+            if (imageHandler != null && ImageTransformHandler.hasTransformParameters(httpRequest)) {
+                return imageHandler;
+            }
+        }
+        return findHandler(httpRequest.getMethod());
+    }
+
+    /**
+     * @return the handler used to answer requests which could not be parsed or dispatched.
+     */
+    public RequestHandler getErrorHandler() {
+        return errorHandler;
+    }
+}
@@ -0,0 +1,351 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.StreamingBody;
+import com.marshmelo.fileserver.throttling.ShapedConnection;
+import org.apache.log4j.Logger;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_BODY_LENGTH_MISMATCH;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_WRITING_RESPONSE_CONTENT;
+
+/**
+ * Writes responses to one connection. The request handlers are shared by all the connections, so everything which
+ * belongs to a connection (output buffer and bandwidth state) is kept here.
+ * <p>
+ * The status line, the headers and the body are written together: small bodies are copied after the headers in the
+ * output buffer and sent with a single write, bigger in memory bodies are sent with the buffer in one gathering write
+ * when the connection is a {@link GatheringByteChannel}. While batching, complete responses stay in the buffer so that
+ * the responses of pipelined requests share the same write.
+ */
+public class ResponseWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(ResponseWriter.class);
+
+    private static final String HEADER_ENTRY_FORMATTER = "%s: %s\r\n";
+    private static final String CRLF = "\r\n";
+    private static final int OUTPUT_BUFFER_SIZE = 16384;
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final GatheringByteChannel channel;
+    private final OutputStream outputStream;
+    private final ShapedConnection shapedConnection;
+    private final ByteBuffer buffer;
+    private final OutputStream bufferedOutputStream = new BufferOutputStream();
+    private boolean batching;
+    private CompletableFuture<Void> pendingTransfer;
+
+    public ResponseWriter(OutputStream outputStream) {
+        this(outputStream, null);
+    }
+
+    /**
+     * Constructor of the writers which do not write HTTP/1.1 messages e.g. HTTP/2 streams, they override all the public
+     * methods.
+     */
+    protected ResponseWriter() {
+        this.channel = null;
+        this.outputStream = null;
+        this.shapedConnection = null;
+        this.buffer = null;
+    }
+
+    /**
+     * @param outputStream     the socket output stream.
+     * @param shapedConnection limits the bandwidth used to write the response bodies, null if bandwidth is not limited.
+     */
+    public ResponseWriter(OutputStream outputStream, ShapedConnection shapedConnection) {
+        this.channel = null;
+        this.outputStream = outputStream;
+        this.shapedConnection = shapedConnection;
+        this.buffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param channel          the socket channel in blocking mode, it is used for gathering writes.
+     * @param shapedConnection limits the bandwidth used to write the response bodies, null if bandwidth is not limited.
+     */
+    public ResponseWriter(GatheringByteChannel channel, ShapedConnection shapedConnection) {
+        this.channel = channel;
+        this.outputStream = null;
+        this.shapedConnection = shapedConnection;
+        this.buffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+    }
+
+    /**
+     * Keep the complete responses in the output buffer instead of sending them, used while the next pipelined request
+     * is already received. Turning batching off sends the buffered responses.
+     *
+     * @param batching true to batch the following responses.
+     * @throws IOException thrown when the buffered responses can not be written.
+     */
+    public void setBatching(boolean batching) throws IOException {
+        this.batching = batching;
+        if (!batching) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * @return the completion of the last body written with bandwidth limits, it may still be written by the shaper
+     * timers, null if no such body was written.
+     */
+    public CompletableFuture<Void> getPendingTransfer() {
+        return pendingTransfer;
+    }
+
+    /**
+     * Write a response without body e.g. a 304 or the response to a HEAD request.
+     *
+     * @param response the {@link HttpResponse}.
+     * @throws IOException thrown when the response can not be written.
+     */
+    public void writeHeader(HttpResponse response) throws IOException {
+        appendHeader(response);
+        endResponse();
+    }
+
+    /**
+     * Write an informational response e.g. 103 Early Hints, it is sent at once unless batching so that the client can
+     * act on it while the final response is prepared.
+     *
+     * @param response the 1xx {@link HttpResponse}, it has no body.
+     * @throws IOException thrown when the response can not be written.
+     */
+    public void writeInformational(HttpResponse response) throws IOException {
+        appendHeader(response);
+        if (!batching) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Write the header and the body of a response, small responses are sent with a single write.
+     *
+     * @param response   the {@link HttpResponse}.
+     * @param requestURL the requested URL used to find the bandwidth rules of the path, can be null.
+     * @throws IOException thrown when the response can not be written.
+     */
+    public void writeResponse(HttpResponse response, String requestURL) throws IOException {
+        appendHeader(response);
+        writeBody(response, requestURL);
+    }
+
+    /**
+     * Write response body, if the bandwidth is limited the body may still be written after this method returns.
+     *
+     * @param response   the {@link HttpResponse} model.
+     * @param requestURL the requested URL used to find the bandwidth rules of the path, can be null.
+     * @throws IOException thrown when response body can not be written.
+     */
+    public void writeBody(HttpResponse response, String requestURL) throws IOException {
+        if (response.getStreamingBody() != null) {
+            writeStreamingBody(response, requestURL);
+            return;
+        }
+        if (shapedConnection != null) {
+            // The transfer flushes the buffer itself, possibly later from the shaper timer threads.
+            pendingTransfer = shapedConnection.transfer(response.getContentBuffer(), requestURL, response.getMimeType(),
+                    bufferedOutputStream);
+            return;
+        }
+        try {
+            ByteBuffer content = response.getContentBuffer();
+            if (content != null) {
+                appendBody(content);
+            }
+            endResponse();
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_WRITING_RESPONSE_CONTENT.formatMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Write a body while it is produced, with chunked transfer encoding if its length is unknown. With bandwidth limits
+     * a body readable as a channel is read chunk by chunk by the shaper timer like a buffer, otherwise the calling
+     * thread waits for the tokens since a producer can not be resumed later by the shaper timer.
+     */
+    private void writeStreamingBody(HttpResponse response, String requestURL) throws IOException {
+        StreamingBody body = response.getStreamingBody();
+        boolean chunked = body.getLength() == StreamingBody.UNKNOWN_LENGTH;
+        ReadableByteChannel channel = shapedConnection != null ? body.openChannel() : null;
+        if (channel != null) {
+            // The transfer closes the chunked stream to write the last chunk, possibly from the shaper timer threads.
+            pendingTransfer = shapedConnection.transfer(channel, requestURL, response.getMimeType(),
+                    chunked ? new ChunkedOutputStream(bufferedOutputStream, COPY_BUFFER_SIZE) : bufferedOutputStream);
+            return;
+        }
+        OutputStream out = shapedConnection != null
+                ? shapedConnection.openStream(requestURL, response.getMimeType(), bufferedOutputStream) : bufferedOutputStream;
+        try {
+            if (chunked) {
+                ChunkedOutputStream chunkedOutputStream = new ChunkedOutputStream(out, COPY_BUFFER_SIZE);
+                body.writeTo(chunkedOutputStream);
+                chunkedOutputStream.finish();
+            } else {
+                CountingOutputStream countingOutputStream = new CountingOutputStream(out);
+                body.writeTo(countingOutputStream);
+                if (countingOutputStream.count != body.getLength()) {
+                    // The client would wait for the missing bytes or read the extra ones as the next response.
+                    throw new IOException(ERROR_BODY_LENGTH_MISMATCH.formatMessage(countingOutputStream.count, body.getLength()));
+                }
+            }
+            endResponse();
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_WRITING_RESPONSE_CONTENT.formatMessage());
+            throw e;
+        } finally {
+            if (out != bufferedOutputStream) {
+                // Releases the buckets of the shaped stream, the connection stream stays open.
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Serialize the status line and the headers at the end of the output buffer.
+     */
+    private void appendHeader(HttpResponse response) throws IOException {
+        StringBuilder header = new StringBuilder(response.getHttpReplyHeader()).append(CRLF);
+        for (Map.Entry<String, String> entry : response.getHeaders().entrySet()) {
+            header.append(String.format(HEADER_ENTRY_FORMATTER, entry.getKey(), entry.getValue()));
+        }
+        header.append(CRLF);
+        bufferedOutputStream.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Copy a body after the header if it fits in the output buffer, o.w. send both with as few writes as possible.
+     */
+    private void appendBody(ByteBuffer content) throws IOException {
+        if (content.remaining() <= buffer.remaining()) {
+            buffer.put(content);
+            return;
+        }
+        if (channel != null) {
+            buffer.flip();
+            ByteBuffer[] buffers = {buffer, content};
+            while (content.hasRemaining()) {
+                channel.write(buffers);
+            }
+            buffer.clear();
+            return;
+        }
+        // Without a channel the head of the body still leaves with the header.
+        ByteBuffer head = content.duplicate();
+        head.limit(head.position() + buffer.remaining());
+        buffer.put(head);
+        content.position(head.limit());
+        flushBuffer();
+        send(content);
+    }
+
+    private void endResponse() throws IOException {
+        if (!batching) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            send(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Write a buffer to the connection bypassing the output buffer.
+     */
+    private void send(ByteBuffer content) throws IOException {
+        if (channel != null) {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            return;
+        }
+        if (content.hasArray()) {
+            outputStream.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+            content.position(content.limit());
+        } else {
+            // Copy a body which is not on the heap, e.g. a slice of a memory mapped pack, straight from the page cache.
+            byte[] copyBuffer = new byte[Math.min(COPY_BUFFER_SIZE, content.remaining())];
+            while (content.hasRemaining()) {
+                int chunk = Math.min(copyBuffer.length, content.remaining());
+                content.get(copyBuffer, 0, chunk);
+                outputStream.write(copyBuffer, 0, chunk);
+            }
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Stream view of the output buffer used by the streaming bodies and the bandwidth shaper, writes bigger than the
+     * buffer are sent directly and flushing sends the buffer.
+     */
+    private class BufferOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.remaining()) {
+                flushBuffer();
+            }
+            if (len >= buffer.capacity()) {
+                send(ByteBuffer.wrap(b, off, len));
+            } else {
+                buffer.put(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Counts the bytes of a body with a known length.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.http2.Http2Settings;
+import com.marshmelo.fileserver.models.RequestLimits;
+import com.marshmelo.fileserver.scheduling.RequestScheduler;
+import com.marshmelo.fileserver.throttling.BandwidthShaper;
+import com.marshmelo.fileserver.throttling.RequestRateLimiter;
+
+/**
+ * The objects shared by all the connections of a server, created once when the server starts. The optional features
+ * are set before the first connection is accepted and are disabled while they are null.
+ */
+public class ServerContext {
+
+    private final RequestHandlerRegistry registry;
+    private final RequestLimits limits;
+    private RequestScheduler scheduler;
+    private BandwidthShaper bandwidthShaper;
+    private Http2Settings http2Settings;
+    private RequestRateLimiter rateLimiter;
+
+    /**
+     * @param registry the shared request handlers.
+     * @param limits   size and time limits of the request headers.
+     */
+    public ServerContext(RequestHandlerRegistry registry, RequestLimits limits) {
+        this.registry = registry;
+        this.limits = limits;
+    }
+
+    public RequestHandlerRegistry getRegistry() {
+        return registry;
+    }
+
+    public RequestLimits getLimits() {
+        return limits;
+    }
+
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @param scheduler moves requests of large resources to the large file lane and runs the HTTP/2 streams, null to
+     *                  serve every request in place and HTTP/1.1 only.
+     */
+    public void setScheduler(RequestScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public BandwidthShaper getBandwidthShaper() {
+        return bandwidthShaper;
+    }
+
+    /**
+     * @param bandwidthShaper limits the bandwidth of response bodies, null if bandwidth is not limited.
+     */
+    public void setBandwidthShaper(BandwidthShaper bandwidthShaper) {
+        this.bandwidthShaper = bandwidthShaper;
+    }
+
+    public Http2Settings getHttp2Settings() {
+        return http2Settings;
+    }
+
+    /**
+     * @param http2Settings the settings announced to HTTP/2 clients, null to serve HTTP/1.1 only.
+     */
+    public void setHttp2Settings(Http2Settings http2Settings) {
+        this.http2Settings = http2Settings;
+    }
+
+    public RequestRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @param rateLimiter limits the requests and the HTTP/2 streams of every client, the first request of a connection
+     *                    is charged when the connection is accepted, null if requests are not limited.
+     */
+    public void setRateLimiter(RequestRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+}
@@ -0,0 +1,133 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.models.StreamingBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes ustar archives: a 512 bytes header per file followed by its content padded to 512 bytes, the archive ends with
+ * two empty blocks. Names longer than 100 bytes are split at a slash between the prefix and the name fields, sizes which
+ * do not fit in 11 octal digits use the base-256 encoding of GNU tar. The length of an archive is known from the sizes of
+ * the files, so it can be sent with a Content-length.
+ */
+final class TarArchive {
+
+    static final int BLOCK_SIZE = 512;
+    static final int END_LENGTH = 2 * BLOCK_SIZE;
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+    private static final int MODE_OFFSET = 100;
+    private static final int UID_OFFSET = 108;
+    private static final int GID_OFFSET = 116;
+    private static final int SIZE_OFFSET = 124;
+    private static final int MTIME_OFFSET = 136;
+    private static final int CHECKSUM_OFFSET = 148;
+    private static final int CHECKSUM_LENGTH = 8;
+    private static final int TYPE_OFFSET = 156;
+    private static final int MAGIC_OFFSET = 257;
+    private static final int PREFIX_OFFSET = 345;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+    private static final byte FILE_TYPE = '0';
+    private static final String FILE_MODE = "0000644";
+    private static final String OWNER_ID = "0000000";
+    private static final String MAGIC = "ustar\00000";
+
+    private static final byte[] PADDING = new byte[BLOCK_SIZE];
+
+    private TarArchive() {
+    }
+
+    /**
+     * @param name the path of an entry, relative to the root of the archive.
+     * @return the length of the part of the name stored in the prefix field, 0 if the name fits in the name field and -1
+     * if the name can not be stored.
+     */
+    static int splitName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= NAME_LENGTH) {
+            return 0;
+        }
+        for (int i = Math.min(PREFIX_LENGTH, bytes.length - 1); i > 0; i--) {
+            if (bytes[i] == '/') {
+                return bytes.length - i - 1 <= NAME_LENGTH ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param size the size of a file.
+     * @return the length of the entry of the file, its header included.
+     */
+    static long entryLength(long size) {
+        return BLOCK_SIZE + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    /**
+     * Write the header, the content and the padding of a file.
+     *
+     * @param outputStream the stream of the archive.
+     * @param name         the path of the file in the archive, {@link #splitName(String)} must accept it.
+     * @param lastModified the modification time in milliseconds.
+     * @param content      the content of the file.
+     * @throws IOException thrown when the content can not be read or the archive can not be written.
+     */
+    static void writeEntry(OutputStream outputStream, String name, long lastModified, StreamingBody content) throws IOException {
+        long size = content.getLength();
+        outputStream.write(buildHeader(name, size, lastModified));
+        content.writeTo(outputStream);
+        outputStream.write(PADDING, 0, (int) (entryLength(size) - BLOCK_SIZE - size));
+    }
+
+    /**
+     * Write the two empty blocks ending the archive.
+     */
+    static void finish(OutputStream outputStream) throws IOException {
+        outputStream.write(PADDING);
+        outputStream.write(PADDING);
+    }
+
+    private static byte[] buildHeader(String name, long size, long lastModified) {
+        byte[] header = new byte[BLOCK_SIZE];
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int prefixLength = splitName(name);
+        if (prefixLength > 0) {
+            System.arraycopy(bytes, 0, header, PREFIX_OFFSET, prefixLength);
+            System.arraycopy(bytes, prefixLength + 1, header, 0, bytes.length - prefixLength - 1);
+        } else {
+            System.arraycopy(bytes, 0, header, 0, bytes.length);
+        }
+        putString(header, MODE_OFFSET, FILE_MODE);
+        putString(header, UID_OFFSET, OWNER_ID);
+        putString(header, GID_OFFSET, OWNER_ID);
+        if (size <= MAX_OCTAL_SIZE) {
+            putString(header, SIZE_OFFSET, String.format("%011o", size));
+        } else {
+            header[SIZE_OFFSET] = (byte) 0x80;
+            for (int i = 0; i < 8; i++) {
+                header[SIZE_OFFSET + 11 - i] = (byte) (size >>> (8 * i));
+            }
+        }
+        putString(header, MTIME_OFFSET, String.format("%011o", lastModified / 1000));
+        header[TYPE_OFFSET] = FILE_TYPE;
+        putString(header, MAGIC_OFFSET, MAGIC);
+        // The checksum is computed with its own field filled with spaces.
+        for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+            header[CHECKSUM_OFFSET + i] = ' ';
+        }
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putString(header, CHECKSUM_OFFSET, String.format("%06o", checksum));
+        header[CHECKSUM_OFFSET + 6] = 0;
+        return header;
+    }
+
+    private static void putString(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
@@ -0,0 +1,294 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.models.UploadSettings;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.marshmelo.fileserver.handlers.HttpResponseBuilder.buildResponse;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_FILE_NOT_FOUND;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_UPLOAD_FAILED;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_UPLOAD_REJECTED;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_UPLOAD_TOO_LARGE;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_UPLOAD_UNAUTHORIZED;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_UPLOAD_UNAVAILABLE;
+import static com.marshmelo.fileserver.messages.LogMessages.UPLOAD_DELETED;
+import static com.marshmelo.fileserver.messages.LogMessages.UPLOAD_PUBLISHED;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.findMetadata;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.findWritableRoot;
+import static com.marshmelo.fileserver.utils.ResourcesUtil.invalidate;
+
+/**
+ * Handles PUT and DELETE requests authenticated with the upload bearer token. The body of a PUT is streamed with a small
+ * buffer to a temporary file next to its target, with a random name starting with a dot so that it is not listed, and
+ * the file is renamed over the target once it is complete, so readers see either the previous or the new file and never a
+ * partial one. The metadata and the cached copies of the resource are dropped as soon as the file is published.
+ * <p>
+ * Files are written in the first static folder. A pre-compressed .gz copy of a replaced file is deleted since it does
+ * not match the new content anymore.
+ */
+public class UploadRequestHandler extends RequestHandler {
+
+    public static final String PUT_METHOD = "PUT";
+    public static final String DELETE_METHOD = "DELETE";
+
+    private static final int CREATED_STATUS = 201;
+    private static final int NO_CONTENT_STATUS = 204;
+    private static final int BAD_REQUEST_STATUS = 400;
+    private static final int UNAUTHORIZED_STATUS = 401;
+    private static final int PAYLOAD_TOO_LARGE_STATUS = 413;
+    private static final int INTERNAL_SERVER_ERROR_STATUS = 500;
+    private static final int NOT_IMPLEMENTED_STATUS = 501;
+    private static final String AUTHORIZATION_HEADER = "Authorization";
+    private static final String WWW_AUTHENTICATE_HEADER = "WWW-Authenticate";
+    private static final String BEARER_SCHEME = "Bearer ";
+    private static final String BEARER_CHALLENGE = "Bearer realm=\"uploads\"";
+    private static final String LOCATION_HEADER = "Location";
+    private static final String ETAG_HEADER = "ETag";
+    private static final String TEMPORARY_PREFIX = ".upload-";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final Logger LOGGER = Logger.getLogger(UploadRequestHandler.class);
+
+    private final byte[] token;
+    private final long maxBytes;
+    private final UploadSettings.FsyncPolicy fsyncPolicy;
+
+    /**
+     * @param settings the token, the size limit and the fsync policy of the uploads.
+     */
+    public UploadRequestHandler(UploadSettings settings) {
+        this.token = settings.getToken().getBytes(StandardCharsets.UTF_8);
+        this.maxBytes = settings.getMaxBytes();
+        this.fsyncPolicy = settings.getFsyncPolicy();
+    }
+
+    @Override
+    public void handleRequest(HttpRequest httpRequest, ResponseWriter writer) throws InternalServerException, IOException {
+        String method = httpRequest.getMethod();
+        String requestURL = httpRequest.getUrl();
+        if (!isAuthorized(httpRequest)) {
+            LOGGER.warn(ERROR_UPLOAD_UNAUTHORIZED.formatMessage(method, requestURL));
+            handleError(UNAUTHORIZED_STATUS, Collections.singletonMap(WWW_AUTHENTICATE_HEADER, BEARER_CHALLENGE), writer);
+            return;
+        }
+        Path root = findWritableRoot();
+        if (root == null || (PUT_METHOD.equals(method) && httpRequest.getBody() == null)) {
+            LOGGER.warn(ERROR_UPLOAD_UNAVAILABLE.formatMessage(method, requestURL));
+            handleError(NOT_IMPLEMENTED_STATUS, Collections.emptyMap(), writer);
+            return;
+        }
+        Path path = resolve(root, requestURL);
+        if (path == null) {
+            LOGGER.warn(ERROR_UPLOAD_REJECTED.formatMessage(method, requestURL));
+            handleError(BAD_REQUEST_STATUS, Collections.emptyMap(), writer);
+            return;
+        }
+        if (DELETE_METHOD.equals(method)) {
+            delete(requestURL, path, writer);
+        } else {
+            put(httpRequest, path, writer);
+        }
+    }
+
+    /**
+     * PUT bodies of unknown length are moved to the large file lane like big ones, receiving them takes a while.
+     */
+    @Override
+    public long findContentSize(HttpRequest httpRequest) {
+        if (!(httpRequest.getBody() instanceof RequestBodyInputStream)) {
+            return -1;
+        }
+        long length = ((RequestBodyInputStream) httpRequest.getBody()).getLength();
+        return length < 0 ? Long.MAX_VALUE : length;
+    }
+
+    private void put(HttpRequest httpRequest, Path path, ResponseWriter writer) throws IOException, InternalServerException {
+        String requestURL = httpRequest.getUrl();
+        long length = findContentSize(httpRequest);
+        if (length > maxBytes && length != Long.MAX_VALUE) {
+            // The body is not read, the connection is closed after the response.
+            LOGGER.warn(ERROR_UPLOAD_TOO_LARGE.formatMessage(requestURL, maxBytes));
+            handleError(PAYLOAD_TOO_LARGE_STATUS, Collections.emptyMap(), writer);
+            return;
+        }
+        Path temporary = null;
+        boolean replaced = false;
+        long size;
+        try {
+            Files.createDirectories(path.getParent());
+            // Not Files.createTempFile, the published file keeps the permissions of the other static files.
+            temporary = Files.createFile(path.resolveSibling(TEMPORARY_PREFIX
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMPORARY_SUFFIX));
+            size = write(httpRequest.getBody(), temporary);
+            if (size < 0) {
+                Files.delete(temporary);
+            } else {
+                replaced = publish(requestURL, temporary, path);
+            }
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_UPLOAD_FAILED.formatMessage(requestURL), e);
+            if (temporary != null) {
+                Files.deleteIfExists(temporary);
+            }
+            handleError(INTERNAL_SERVER_ERROR_STATUS, Collections.emptyMap(), writer);
+            return;
+        }
+        if (size < 0) {
+            // The rest of the body is not read, the connection is closed after the response.
+            LOGGER.warn(ERROR_UPLOAD_TOO_LARGE.formatMessage(requestURL, maxBytes));
+            handleError(PAYLOAD_TOO_LARGE_STATUS, Collections.emptyMap(), writer);
+            return;
+        }
+        invalidateResource(requestURL);
+        LOGGER.info(UPLOAD_PUBLISHED.formatMessage(httpRequest.getMethod(), requestURL, size));
+        HttpResponse response = buildEmptyResponse(replaced ? NO_CONTENT_STATUS : CREATED_STATUS);
+        if (!replaced) {
+            response.addHeader(LOCATION_HEADER, requestURL);
+        }
+        ResourceMetadata metadata = findMetadata(requestURL);
+        if (metadata != null) {
+            response.addHeader(ETAG_HEADER, metadata.getEtag());
+        }
+        writer.writeHeader(response);
+    }
+
+    /**
+     * Rename the complete temporary file over the target.
+     *
+     * @return true if the target existed.
+     */
+    private boolean publish(String requestURL, Path temporary, Path path) throws IOException {
+        boolean replaced = Files.exists(path);
+        if (!requestURL.endsWith(GZIP_EXTENSION)) {
+            Files.deleteIfExists(path.resolveSibling(path.getFileName() + GZIP_EXTENSION));
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceFolder(path.getParent());
+        return replaced;
+    }
+
+    private void delete(String requestURL, Path path, ResponseWriter writer) throws IOException, InternalServerException {
+        if (!Files.isRegularFile(path)) {
+            LOGGER.info(ERROR_FILE_NOT_FOUND.formatMessage(requestURL));
+            handleBadRequest(writer);
+            return;
+        }
+        Files.delete(path);
+        if (!requestURL.endsWith(GZIP_EXTENSION)) {
+            // The pre-compressed copy would be served for the deleted file.
+            Files.deleteIfExists(path.resolveSibling(path.getFileName() + GZIP_EXTENSION));
+        }
+        forceFolder(path.getParent());
+        invalidateResource(requestURL);
+        LOGGER.info(UPLOAD_DELETED.formatMessage(requestURL));
+        writer.writeHeader(buildEmptyResponse(NO_CONTENT_STATUS));
+    }
+
+    /**
+     * Copy the body to the temporary file with a fixed buffer, whatever the size of the body.
+     *
+     * @return the size of the body or -1 if it is larger than the maximum size, the rest of the body is not read.
+     */
+    private long write(InputStream body, Path temporary) throws IOException {
+        long size = 0;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = body.read(buffer)) >= 0) {
+                size += read;
+                if (size > maxBytes) {
+                    return -1;
+                }
+                ByteBuffer content = ByteBuffer.wrap(buffer, 0, read);
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+            }
+            if (fsyncPolicy != UploadSettings.FsyncPolicy.NONE) {
+                channel.force(true);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Force the entries of a folder, i.e. a rename or a deletion, when the fsync policy is {@link UploadSettings.FsyncPolicy#FULL}.
+     */
+    private void forceFolder(Path folder) {
+        if (fsyncPolicy != UploadSettings.FsyncPolicy.FULL) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Folders can not be opened on every platform e.g. Windows, the rename is still atomic.
+            LOGGER.debug(e);
+        }
+    }
+
+    /**
+     * The resource is dropped, and the resource it is the pre-compressed copy of since its gzip variant changed.
+     */
+    private static void invalidateResource(String requestURL) {
+        invalidate(requestURL);
+        if (requestURL.endsWith(GZIP_EXTENSION)) {
+            invalidate(requestURL.substring(0, requestURL.length() - GZIP_EXTENSION.length()));
+        } else {
+            // The pre-compressed copy is deleted with the file.
+            invalidate(requestURL + GZIP_EXTENSION);
+        }
+    }
+
+    private boolean isAuthorized(HttpRequest httpRequest) {
+        String authorization = httpRequest.getHeader(AUTHORIZATION_HEADER);
+        if (token.length == 0 || authorization == null || !authorization.regionMatches(true, 0, BEARER_SCHEME, 0, BEARER_SCHEME.length())) {
+            return false;
+        }
+        byte[] candidate = authorization.substring(BEARER_SCHEME.length()).trim().getBytes(StandardCharsets.UTF_8);
+        // Constant time comparison so that the token can not be guessed byte after byte.
+        return MessageDigest.isEqual(candidate, token);
+    }
+
+    /**
+     * @return the file of the URL in the static folder or null if the URL names a folder, goes out of the static folder
+     * or has a hidden segment, e.g. the temporary files of the uploads.
+     */
+    private static Path resolve(Path root, String requestURL) {
+        if (!requestURL.startsWith("/") || requestURL.endsWith("/")) {
+            return null;
+        }
+        for (String segment : requestURL.substring(1).split("/")) {
+            if (segment.isEmpty() || segment.startsWith(".")) {
+                return null;
+            }
+        }
+        Path path = root.resolve(requestURL.substring(1)).normalize();
+        return path.startsWith(root) && !Files.isDirectory(path) ? path : null;
+    }
+
+    private static HttpResponse buildEmptyResponse(int status) {
+        HttpResponse response = buildResponse(null, 0, status);
+        response.getHeaders().remove(HttpResponseBuilder.CONTENT_TYPE_HEADER);
+        if (status == NO_CONTENT_STATUS) {
+            response.getHeaders().remove(HttpResponseBuilder.CONTENT_LENGTH_HEADER);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,297 @@
+package com.marshmelo.fileserver.handlers;
+
+import com.marshmelo.fileserver.models.StreamingBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a zip archive to a stream while the entries are produced, only the central directory records are kept until
+ * the end. Stored entries have their CRC computed before they are written so that the local header is complete,
+ * deflated entries are followed by a data descriptor, and entries whose deflate stream already exists (e.g. the gzip
+ * variant of a cached resource) are copied without being compressed again. Archives bigger than 4GB or with more than
+ * 65535 entries need zip64 which is not supported, callers check {@link #fits(long, int, long)} first.
+ */
+final class ZipStreamWriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int DATA_DESCRIPTOR_SIZE = 16;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final short VERSION = 20;
+    private static final short DATA_DESCRIPTOR_FLAG = 1 << 3;
+    private static final short UTF8_NAME_FLAG = 1 << 11;
+    private static final short STORED = 0;
+    private static final short DEFLATED = 8;
+    private static final long MAX_SIZE = 0xffffffffL;
+    private static final int MAX_ENTRIES = 0xffff;
+    private static final int MIN_DOS_YEAR = 1980;
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int GZIP_FLAGS_OFFSET = 3;
+    private static final int GZIP_HEADER_CRC = 2;
+    private static final int GZIP_EXTRA = 4;
+    private static final int GZIP_NAME = 8;
+    private static final int GZIP_COMMENT = 16;
+
+    private final CountingStream out;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] header = new byte[CENTRAL_HEADER_SIZE];
+    private int entries;
+
+    /**
+     * @param outputStream the stream of the response, it is not closed.
+     */
+    ZipStreamWriter(OutputStream outputStream) {
+        this.out = new CountingStream(outputStream);
+    }
+
+    /**
+     * @param totalBytes the sum of the sizes of the entries.
+     * @param entries    the number of entries.
+     * @param names      the sum of the lengths of the entry names in bytes.
+     * @return true if the archive needs neither zip64 offsets nor a zip64 entry count, assuming deflate does not expand
+     * the entries by more than its own framing.
+     */
+    static boolean fits(long totalBytes, int entries, long names) {
+        long overhead = (long) entries * (LOCAL_HEADER_SIZE + DATA_DESCRIPTOR_SIZE + CENTRAL_HEADER_SIZE + 64) + 2 * names;
+        return entries <= MAX_ENTRIES && totalBytes + totalBytes / 1000 + overhead + END_OF_CENTRAL_DIRECTORY_SIZE < MAX_SIZE;
+    }
+
+    /**
+     * Write an entry without compression, its content is written twice, once to compute its CRC.
+     */
+    void writeStored(String name, long lastModified, StreamingBody content) throws IOException {
+        CRC32 crc = new CRC32();
+        try (CheckedOutputStream checksum = new CheckedOutputStream(new DiscardingStream(), crc)) {
+            content.writeTo(checksum);
+        }
+        long offset = out.count;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        writeLocalHeader(nameBytes, UTF8_NAME_FLAG, STORED, lastModified, crc.getValue(), content.getLength(), content.getLength());
+        content.writeTo(out);
+        addCentralHeader(nameBytes, UTF8_NAME_FLAG, STORED, lastModified, crc.getValue(), content.getLength(),
+                content.getLength(), offset);
+    }
+
+    /**
+     * Write an entry compressed with deflate while it is written, the sizes and the CRC follow in a data descriptor.
+     */
+    void writeDeflated(String name, long lastModified, StreamingBody content) throws IOException {
+        long offset = out.count;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        short flags = UTF8_NAME_FLAG | DATA_DESCRIPTOR_FLAG;
+        writeLocalHeader(nameBytes, flags, DEFLATED, lastModified, 0, 0, 0);
+        long dataStart = out.count;
+        CRC32 crc = new CRC32();
+        deflater.reset();
+        DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(new NonClosingStream(out), deflater,
+                StreamingBody.COPY_BUFFER_SIZE);
+        try (CheckedOutputStream checksum = new CheckedOutputStream(deflaterOutputStream, crc)) {
+            content.writeTo(checksum);
+        }
+        long compressedSize = out.count - dataStart;
+        ByteBuffer descriptor = littleEndian(DATA_DESCRIPTOR_SIZE);
+        descriptor.putInt(DATA_DESCRIPTOR_SIGNATURE).putInt((int) crc.getValue()).putInt((int) compressedSize)
+                .putInt((int) content.getLength());
+        out.write(descriptor.array());
+        addCentralHeader(nameBytes, flags, DEFLATED, lastModified, crc.getValue(), compressedSize, content.getLength(),
+                offset);
+    }
+
+    /**
+     * Write an entry from the gzip compressed copy of its content, the deflate stream, the CRC and the size are taken
+     * from the gzip member so nothing is compressed.
+     *
+     * @param gzip the gzip member, see {@link #isGzipOf(ByteBuffer, long)}.
+     */
+    void writeGzip(String name, long lastModified, ByteBuffer gzip) throws IOException {
+        ByteBuffer trailer = gzip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long crc = trailer.getInt(gzip.limit() - GZIP_TRAILER_SIZE) & MAX_SIZE;
+        long size = trailer.getInt(gzip.limit() - GZIP_TRAILER_SIZE + 4) & MAX_SIZE;
+        ByteBuffer deflate = gzip.duplicate();
+        deflate.position(gzip.position() + gzipHeaderLength(gzip)).limit(gzip.limit() - GZIP_TRAILER_SIZE);
+        long offset = out.count;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        writeLocalHeader(nameBytes, UTF8_NAME_FLAG, DEFLATED, lastModified, crc, deflate.remaining(), size);
+        long compressedSize = deflate.remaining();
+        Channels.newChannel(out).write(deflate);
+        addCentralHeader(nameBytes, UTF8_NAME_FLAG, DEFLATED, lastModified, crc, compressedSize, size, offset);
+    }
+
+    /**
+     * @param gzip a gzip compressed copy of a resource.
+     * @param size the size of the resource.
+     * @return true if the gzip member is complete and its trailer has the size of the resource, a stale pre-compressed
+     * file is not used.
+     */
+    static boolean isGzipOf(ByteBuffer gzip, long size) {
+        if (gzip.remaining() < GZIP_HEADER_SIZE + GZIP_TRAILER_SIZE || size > MAX_SIZE
+                || (gzip.get(gzip.position()) & 0xff) != 0x1f || (gzip.get(gzip.position() + 1) & 0xff) != 0x8b
+                || gzip.get(gzip.position() + 2) != DEFLATED) {
+            return false;
+        }
+        int headerLength = gzipHeaderLength(gzip);
+        ByteBuffer trailer = gzip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        return headerLength > 0 && headerLength <= gzip.remaining() - GZIP_TRAILER_SIZE
+                && (trailer.getInt(gzip.limit() - 4) & MAX_SIZE) == size;
+    }
+
+    /**
+     * Write the central directory, the archive is complete. The output stream is neither flushed nor closed.
+     */
+    void finish() throws IOException {
+        deflater.end();
+        long offset = out.count;
+        centralDirectory.writeTo(out);
+        ByteBuffer end = littleEndian(END_OF_CENTRAL_DIRECTORY_SIZE);
+        end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE).putShort((short) 0).putShort((short) 0)
+                .putShort((short) entries).putShort((short) entries).putInt(centralDirectory.size()).putInt((int) offset)
+                .putShort((short) 0);
+        out.write(end.array());
+    }
+
+    /**
+     * Release the deflater if the archive could not be finished.
+     */
+    void abort() {
+        deflater.end();
+    }
+
+    private void writeLocalHeader(byte[] name, short flags, short method, long lastModified, long crc,
+                                  long compressedSize, long size) throws IOException {
+        ByteBuffer local = ByteBuffer.wrap(header, 0, LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(LOCAL_HEADER_SIGNATURE).putShort(VERSION).putShort(flags).putShort(method)
+                .putInt(toDosTime(lastModified)).putInt((int) crc).putInt((int) compressedSize).putInt((int) size)
+                .putShort((short) name.length).putShort((short) 0);
+        out.write(header, 0, LOCAL_HEADER_SIZE);
+        out.write(name);
+    }
+
+    private void addCentralHeader(byte[] name, short flags, short method, long lastModified, long crc,
+                                  long compressedSize, long size, long offset) throws IOException {
+        ByteBuffer central = ByteBuffer.wrap(header, 0, CENTRAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        central.putInt(CENTRAL_HEADER_SIGNATURE).putShort(VERSION).putShort(VERSION).putShort(flags).putShort(method)
+                .putInt(toDosTime(lastModified)).putInt((int) crc).putInt((int) compressedSize).putInt((int) size)
+                .putShort((short) name.length).putShort((short) 0).putShort((short) 0).putShort((short) 0)
+                .putShort((short) 0).putInt(0).putInt((int) offset);
+        centralDirectory.write(header, 0, CENTRAL_HEADER_SIZE);
+        centralDirectory.write(name);
+        entries++;
+    }
+
+    /**
+     * @return the length of the gzip header, its optional fields included, or -1 if the header is truncated.
+     */
+    private static int gzipHeaderLength(ByteBuffer gzip) {
+        int start = gzip.position();
+        int flags = gzip.get(start + GZIP_FLAGS_OFFSET) & 0xff;
+        int position = start + GZIP_HEADER_SIZE;
+        if ((flags & GZIP_EXTRA) != 0) {
+            if (position + 2 > gzip.limit()) {
+                return -1;
+            }
+            position += 2 + ((gzip.get(position) & 0xff) | (gzip.get(position + 1) & 0xff) << 8);
+        }
+        for (int field : new int[]{GZIP_NAME, GZIP_COMMENT}) {
+            if ((flags & field) != 0) {
+                while (position < gzip.limit() && gzip.get(position) != 0) {
+                    position++;
+                }
+                position++;
+            }
+        }
+        if ((flags & GZIP_HEADER_CRC) != 0) {
+            position += 2;
+        }
+        return position > gzip.limit() ? -1 : position - start;
+    }
+
+    /**
+     * @return the modification time in MS-DOS format, the date in the high 16 bits.
+     */
+    private static int toDosTime(long lastModified) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneId.systemDefault());
+        if (time.getYear() < MIN_DOS_YEAR) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - MIN_DOS_YEAR) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16
+                | time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    private static ByteBuffer littleEndian(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Counts the bytes written to the response, they are the offsets of the entries.
+     */
+    private static final class CountingStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Lets the deflater stream be closed to finish the entry without closing the response.
+     */
+    private static final class NonClosingStream extends FilterOutputStream {
+
+        private NonClosingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class DiscardingStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.marshmelo.fileserver.http2;
+
+/**
+ * A header name and value of an HTTP/2 header list, names are lower case and pseudo-header names start with a colon
+ * e.g. :path.
+ */
+public class HeaderField {
+
+    /**
+     * Overhead of an entry in the HPACK dynamic table, see https://tools.ietf.org/html/rfc7541#section-4.1.
+     */
+    static final int ENTRY_OVERHEAD = 32;
+
+    private final String name;
+    private final String value;
+
+    public HeaderField(String name, String value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public boolean isPseudoHeader() {
+        return name.startsWith(":");
+    }
+
+    /**
+     * @return the size of the field in a dynamic table or in a header list, the strings are ISO-8859-1 so a character
+     * is one octet.
+     */
+    public int size() {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+}
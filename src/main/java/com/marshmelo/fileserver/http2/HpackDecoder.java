@@ -0,0 +1,116 @@
+package com.marshmelo.fileserver.http2;
+
+import com.marshmelo.fileserver.exceptions.Http2Exception;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.marshmelo.fileserver.http2.Http2Frame.COMPRESSION_ERROR;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_HPACK_INVALID_TABLE_SIZE;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_HPACK_TRUNCATED_BLOCK;
+
+/**
+ * Decodes the header blocks sent by a client, see https://tools.ietf.org/html/rfc7541#section-6.
+ * The dynamic table is shared by all the streams of a connection, so the blocks must be decoded in the order they are
+ * received, including the blocks of refused streams. Any error is a connection error.
+ */
+public class HpackDecoder {
+
+    private final HpackTable table;
+    private final int maxTableSize;
+    private byte[] block;
+    private int position;
+
+    /**
+     * @param maxTableSize the SETTINGS_HEADER_TABLE_SIZE announced to the client.
+     */
+    public HpackDecoder(int maxTableSize) {
+        this.table = new HpackTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+    }
+
+    /**
+     * Decode a complete header block.
+     *
+     * @param block the concatenated fragments of a HEADERS frame and its CONTINUATION frames.
+     * @return the header fields in the order of the block.
+     * @throws Http2Exception thrown when the block is malformed.
+     */
+    public List<HeaderField> decode(byte[] block) throws Http2Exception {
+        this.block = block;
+        this.position = 0;
+        List<HeaderField> fields = new ArrayList<>();
+        while (position < block.length) {
+            int b = block[position] & 0xff;
+            if ((b & 0x80) != 0) {
+                // Indexed header field.
+                fields.add(table.get(readInteger(7)));
+            } else if ((b & 0x40) != 0) {
+                // Literal header field with incremental indexing.
+                HeaderField field = readLiteral(6);
+                table.add(field);
+                fields.add(field);
+            } else if ((b & 0x20) != 0) {
+                // Dynamic table size update, only allowed at the beginning of a block.
+                int size = readInteger(5);
+                if (!fields.isEmpty() || size > maxTableSize) {
+                    throw new Http2Exception(ERROR_HPACK_INVALID_TABLE_SIZE.formatMessage(size), COMPRESSION_ERROR);
+                }
+                table.setMaxSize(size);
+            } else {
+                // Literal header field without indexing or never indexed.
+                fields.add(readLiteral(4));
+            }
+        }
+        this.block = null;
+        return fields;
+    }
+
+    private HeaderField readLiteral(int prefixBits) throws Http2Exception {
+        int nameIndex = readInteger(prefixBits);
+        String name = nameIndex == 0 ? readString() : table.get(nameIndex).getName();
+        return new HeaderField(name, readString());
+    }
+
+    private String readString() throws Http2Exception {
+        if (position >= block.length) {
+            throw new Http2Exception(ERROR_HPACK_TRUNCATED_BLOCK.formatMessage(), COMPRESSION_ERROR);
+        }
+        boolean huffman = (block[position] & 0x80) != 0;
+        int length = readInteger(7);
+        if (length > block.length - position) {
+            throw new Http2Exception(ERROR_HPACK_TRUNCATED_BLOCK.formatMessage(), COMPRESSION_ERROR);
+        }
+        String value = huffman
+                ? new String(HpackHuffman.decode(block, position, length), StandardCharsets.ISO_8859_1)
+                : new String(block, position, length, StandardCharsets.ISO_8859_1);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Read an integer with an N-bit prefix, see https://tools.ietf.org/html/rfc7541#section-5.1.
+     */
+    private int readInteger(int prefixBits) throws Http2Exception {
+        int mask = (1 << prefixBits) - 1;
+        long value = block[position++] & mask;
+        if (value < mask) {
+            return (int) value;
+        }
+        int shift = 0;
+        int b;
+        do {
+            if (position >= block.length || shift > 28) {
+                throw new Http2Exception(ERROR_HPACK_TRUNCATED_BLOCK.formatMessage(), COMPRESSION_ERROR);
+            }
+            b = block[position++] & 0xff;
+            value += (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (value > Integer.MAX_VALUE) {
+            throw new Http2Exception(ERROR_HPACK_TRUNCATED_BLOCK.formatMessage(), COMPRESSION_ERROR);
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,109 @@
+package com.marshmelo.fileserver.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes the response header blocks, see https://tools.ietf.org/html/rfc7541#section-6.
+ * Fields found in the tables are sent as an index, the others are added to the dynamic table unless their value
+ * changes with almost every response (e.g. date, content-length), so repeated headers like server or content-type
+ * cost one octet after the first response. Strings are Huffman encoded when it makes them shorter.
+ * The dynamic table is shared by all the streams, blocks must be written in the order they are encoded.
+ */
+public class HpackEncoder {
+
+    private static final Set<String> NOT_INDEXED_HEADERS = new HashSet<>(Arrays.asList("content-length", "date", "etag",
+            "last-modified"));
+
+    private final HpackTable table = new HpackTable(Http2Settings.DEFAULT_HEADER_TABLE_SIZE);
+    private int smallestPendingSize = -1;
+
+    /**
+     * Apply the SETTINGS_HEADER_TABLE_SIZE of the client, the encoder never uses more than the default size to bound
+     * the memory of a connection. The change is signaled at the beginning of the next block.
+     *
+     * @param size the size announced by the client.
+     */
+    public void setMaxTableSize(int size) {
+        size = Math.min(size, Http2Settings.DEFAULT_HEADER_TABLE_SIZE);
+        if (size == table.getMaxSize()) {
+            return;
+        }
+        smallestPendingSize = smallestPendingSize < 0 ? size : Math.min(smallestPendingSize, size);
+        table.setMaxSize(size);
+    }
+
+    /**
+     * Encode a header list.
+     *
+     * @param fields the fields, pseudo-headers first.
+     * @return the header block.
+     */
+    public byte[] encode(List<HeaderField> fields) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        if (smallestPendingSize >= 0) {
+            // The decoder must see the smallest size before the final one to evict the same entries.
+            writeInteger(block, 0x20, 5, smallestPendingSize);
+            if (smallestPendingSize != table.getMaxSize()) {
+                writeInteger(block, 0x20, 5, table.getMaxSize());
+            }
+            smallestPendingSize = -1;
+        }
+        for (HeaderField field : fields) {
+            int index = table.find(field.getName(), field.getValue());
+            if (index > 0) {
+                writeInteger(block, 0x80, 7, index);
+            } else if (NOT_INDEXED_HEADERS.contains(field.getName())) {
+                writeInteger(block, 0x00, 4, -index);
+                writeLiteral(block, field, index);
+            } else {
+                writeInteger(block, 0x40, 6, -index);
+                writeLiteral(block, field, index);
+                table.add(field);
+            }
+        }
+        return block.toByteArray();
+    }
+
+    private static void writeLiteral(ByteArrayOutputStream block, HeaderField field, int index) {
+        if (index == 0) {
+            writeString(block, field.getName());
+        }
+        writeString(block, field.getValue());
+    }
+
+    private static void writeString(ByteArrayOutputStream block, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        int huffmanLength = HpackHuffman.encodedLength(bytes);
+        if (huffmanLength < bytes.length) {
+            writeInteger(block, 0x80, 7, huffmanLength);
+            byte[] encoded = HpackHuffman.encode(bytes);
+            block.write(encoded, 0, encoded.length);
+        } else {
+            writeInteger(block, 0x00, 7, bytes.length);
+            block.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Write an integer with an N-bit prefix after the given pattern bits, see https://tools.ietf.org/html/rfc7541#section-5.1.
+     */
+    private static void writeInteger(ByteArrayOutputStream block, int pattern, int prefixBits, int value) {
+        int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            block.write(pattern | value);
+            return;
+        }
+        block.write(pattern | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            block.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        block.write(value);
+    }
+}
@@ -0,0 +1,176 @@
+package com.marshmelo.fileserver.http2;
+
+import com.marshmelo.fileserver.exceptions.Http2Exception;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.marshmelo.fileserver.http2.Http2Frame.COMPRESSION_ERROR;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_HPACK_INVALID_INDEX;
+
+/**
+ * The HPACK index address space: the static table followed by the dynamic table, see
+ * https://tools.ietf.org/html/rfc7541#section-2.3. The dynamic table is a FIFO bounded by its size in octets, the
+ * newest entry has the lowest index.
+ */
+class HpackTable {
+
+    private static final HeaderField[] STATIC_TABLE = {
+            new HeaderField(":authority", ""),
+            new HeaderField(":method", "GET"),
+            new HeaderField(":method", "POST"),
+            new HeaderField(":path", "/"),
+            new HeaderField(":path", "/index.html"),
+            new HeaderField(":scheme", "http"),
+            new HeaderField(":scheme", "https"),
+            new HeaderField(":status", "200"),
+            new HeaderField(":status", "204"),
+            new HeaderField(":status", "206"),
+            new HeaderField(":status", "304"),
+            new HeaderField(":status", "400"),
+            new HeaderField(":status", "404"),
+            new HeaderField(":status", "500"),
+            new HeaderField("accept-charset", ""),
+            new HeaderField("accept-encoding", "gzip, deflate"),
+            new HeaderField("accept-language", ""),
+            new HeaderField("accept-ranges", ""),
+            new HeaderField("accept", ""),
+            new HeaderField("access-control-allow-origin", ""),
+            new HeaderField("age", ""),
+            new HeaderField("allow", ""),
+            new HeaderField("authorization", ""),
+            new HeaderField("cache-control", ""),
+            new HeaderField("content-disposition", ""),
+            new HeaderField("content-encoding", ""),
+            new HeaderField("content-language", ""),
+            new HeaderField("content-length", ""),
+            new HeaderField("content-location", ""),
+            new HeaderField("content-range", ""),
+            new HeaderField("content-type", ""),
+            new HeaderField("cookie", ""),
+            new HeaderField("date", ""),
+            new HeaderField("etag", ""),
+            new HeaderField("expect", ""),
+            new HeaderField("expires", ""),
+            new HeaderField("from", ""),
+            new HeaderField("host", ""),
+            new HeaderField("if-match", ""),
+            new HeaderField("if-modified-since", ""),
+            new HeaderField("if-none-match", ""),
+            new HeaderField("if-range", ""),
+            new HeaderField("if-unmodified-since", ""),
+            new HeaderField("last-modified", ""),
+            new HeaderField("link", ""),
+            new HeaderField("location", ""),
+            new HeaderField("max-forwards", ""),
+            new HeaderField("proxy-authenticate", ""),
+            new HeaderField("proxy-authorization", ""),
+            new HeaderField("range", ""),
+            new HeaderField("referer", ""),
+            new HeaderField("refresh", ""),
+            new HeaderField("retry-after", ""),
+            new HeaderField("server", ""),
+            new HeaderField("set-cookie", ""),
+            new HeaderField("strict-transport-security", ""),
+            new HeaderField("transfer-encoding", ""),
+            new HeaderField("user-agent", ""),
+            new HeaderField("vary", ""),
+            new HeaderField("via", ""),
+            new HeaderField("www-authenticate", "")
+    };
+
+    /**
+     * Dynamic entries, the oldest first.
+     */
+    private final List<HeaderField> entries = new ArrayList<>();
+    private int size;
+    private int maxSize;
+
+    /**
+     * @param maxSize the maximum size of the dynamic table in octets.
+     */
+    HpackTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param index the index, starting at 1.
+     * @return the field at the index.
+     * @throws Http2Exception thrown when the index is outside the static and the dynamic tables.
+     */
+    HeaderField get(int index) throws Http2Exception {
+        if (index <= 0 || index > STATIC_TABLE.length + entries.size()) {
+            throw new Http2Exception(ERROR_HPACK_INVALID_INDEX.formatMessage(index), COMPRESSION_ERROR);
+        }
+        if (index <= STATIC_TABLE.length) {
+            return STATIC_TABLE[index - 1];
+        }
+        return entries.get(entries.size() - 1 - (index - STATIC_TABLE.length - 1));
+    }
+
+    /**
+     * Find a field, exact matches are preferred to name matches and the static table to the dynamic table.
+     *
+     * @return the index of a field with the same name and value, the negated index of a field with the same name or 0.
+     */
+    int find(String name, String value) {
+        int nameIndex = 0;
+        for (int i = 0; i < STATIC_TABLE.length; i++) {
+            if (STATIC_TABLE[i].getName().equals(name)) {
+                if (STATIC_TABLE[i].getValue().equals(value)) {
+                    return i + 1;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = -(i + 1);
+                }
+            }
+        }
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            HeaderField entry = entries.get(i);
+            if (entry.getName().equals(name)) {
+                int index = STATIC_TABLE.length + entries.size() - i;
+                if (entry.getValue().equals(value)) {
+                    return index;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = -index;
+                }
+            }
+        }
+        return nameIndex;
+    }
+
+    /**
+     * Insert a field evicting the oldest entries, a field larger than the table empties it and is not inserted.
+     */
+    void add(HeaderField field) {
+        evict(maxSize - field.size());
+        if (field.size() <= maxSize) {
+            entries.add(field);
+            size += field.size();
+        }
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getLength() {
+        return entries.size();
+    }
+
+    private void evict(int targetSize) {
+        while (size > targetSize && !entries.isEmpty()) {
+            size -= entries.remove(0).size();
+        }
+    }
+}
@@ -0,0 +1,981 @@
+package com.marshmelo.fileserver.http2;
+
+import com.marshmelo.fileserver.connection.ManagedConnection;
+import com.marshmelo.fileserver.exceptions.Http2Exception;
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.exceptions.RequestParsingException;
+import com.marshmelo.fileserver.handlers.HttpRequestParser;
+import com.marshmelo.fileserver.handlers.RequestHandler;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.handlers.ResponseWriter;
+import com.marshmelo.fileserver.handlers.ServerContext;
+import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.RequestLimits;
+import com.marshmelo.fileserver.scheduling.RequestScheduler;
+import com.marshmelo.fileserver.throttling.RequestRateLimiter;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.marshmelo.fileserver.http2.Http2Frame.*;
+import static com.marshmelo.fileserver.messages.LogMessages.*;
+
+/**
+ * Serves an HTTP/2 connection over cleartext (h2c), started either with the prior knowledge preface or by the upgrade
+ * of an HTTP/1.1 request, see https://tools.ietf.org/html/rfc7540#section-3.
+ * <p>
+ * Frames are read on the connection thread. Every request is served by the shared request handlers on the stream lane
+ * of the {@link RequestScheduler} (large resources on the large file lane), so all the assets of a page are fetched in
+ * parallel on a single connection. Response bodies respect the flow control windows of the client, request bodies are
+ * discarded and their flow control credit is returned at once. Bandwidth shaping does not apply to HTTP/2 streams.
+ */
+public class Http2Connection {
+
+    private static final Logger LOGGER = Logger.getLogger(Http2Connection.class);
+
+    private static final String PREFACE_METHOD = "PRI";
+    private static final String PREFACE_URL = "*";
+    private static final byte[] CLIENT_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLIENT_PREFACE_BODY = "SM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String UPGRADE_HEADER = "Upgrade";
+    private static final String HTTP2_SETTINGS_HEADER = "HTTP2-Settings";
+    private static final String H2C_PROTOCOL = "h2c";
+    private static final String STATUS_PSEUDO_HEADER = ":status";
+    private static final String METHOD_PSEUDO_HEADER = ":method";
+    private static final String PATH_PSEUDO_HEADER = ":path";
+    private static final String SCHEME_PSEUDO_HEADER = ":scheme";
+    private static final String AUTHORITY_PSEUDO_HEADER = ":authority";
+    private static final String HOST_HEADER = "host";
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList("connection", "keep-alive",
+            "proxy-connection", "transfer-encoding", "upgrade"));
+    private static final int UPGRADE_STREAM_ID = 1;
+    private static final int PRIORITY_LENGTH = 5;
+    private static final int RST_STREAM_LENGTH = 4;
+    private static final int WINDOW_UPDATE_LENGTH = 4;
+    private static final int PING_LENGTH = 8;
+    private static final int REQUEST_HEADER_FIELDS_TOO_LARGE_STATUS = 431;
+    private static final int NOT_IMPLEMENTED_STATUS = 501;
+    private static final int SERVICE_UNAVAILABLE_STATUS = 503;
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final String RETRY_AFTER_IN_SECONDS = "5";
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private final Closeable socket;
+    private final InetAddress clientAddress;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private final Http2FrameCodec codec;
+    private final long flowControlTimeoutInMilliSec;
+    private final RequestScheduler scheduler;
+    private final RequestHandlerRegistry registry;
+    private final RequestLimits limits;
+    private final Http2Settings localSettings;
+    private final RequestRateLimiter rateLimiter;
+    private final HpackDecoder decoder = new HpackDecoder(Http2Settings.DEFAULT_HEADER_TABLE_SIZE);
+    private final HpackEncoder encoder = new HpackEncoder();
+    private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
+    private final Object flowLock = new Object();
+    private Http2Settings peerSettings = new Http2Settings();
+    private long connectionSendWindow = Http2Settings.DEFAULT_INITIAL_WINDOW_SIZE;
+    private int lastStreamId;
+    private ByteArrayOutputStream headerBlock;
+    private int headerBlockStreamId;
+    private boolean headerBlockEndStream;
+    private boolean headerBlockTrailers;
+    private volatile boolean inputClosed;
+    private volatile boolean closed;
+
+    /**
+     * @param socket      the client connection, its timeout bounds the wait of the streams for flow control credit.
+     * @param inputStream the buffered stream used to parse the HTTP/1.1 request line, it may hold the first frames.
+     * @param context     the shared request handlers, the scheduler running the streams, the size limits of the
+     *                    request headers and the settings announced to the client.
+     * @param connection  counts the bytes of the connection, the input stream is already counted, can be null.
+     */
+    public Http2Connection(Socket socket, InputStream inputStream, ServerContext context, ManagedConnection connection)
+            throws IOException {
+        this(socket, socket.getInetAddress(), openInputStream(socket, inputStream, connection),
+                openOutputStream(socket, connection), socket.getSoTimeout(), context);
+    }
+
+    Http2Connection(Closeable socket, InetAddress clientAddress, InputStream inputStream, OutputStream outputStream,
+                    long flowControlTimeoutInMilliSec, ServerContext context) {
+        this.socket = socket;
+        this.clientAddress = clientAddress;
+        this.inputStream = inputStream;
+        this.outputStream = outputStream;
+        this.codec = new Http2FrameCodec(inputStream, outputStream);
+        this.flowControlTimeoutInMilliSec = flowControlTimeoutInMilliSec;
+        this.scheduler = context.getScheduler();
+        this.registry = context.getRegistry();
+        this.limits = context.getLimits();
+        this.localSettings = context.getHttp2Settings();
+        this.rateLimiter = context.getRateLimiter();
+    }
+
+    /**
+     * @return true if the request is the request line of the HTTP/2 connection preface, PRI * HTTP/2.0.
+     */
+    public static boolean isPreface(HttpRequest httpRequest) {
+        return PREFACE_METHOD.equals(httpRequest.getMethod()) && PREFACE_URL.equals(httpRequest.getUrl());
+    }
+
+    /**
+     * Find the settings carried by an h2c upgrade request.
+     *
+     * @param httpRequest an HTTP/1.1 request.
+     * @return the settings of the client, null if the request does not ask for h2c or the settings are invalid.
+     */
+    public static Http2Settings findUpgradeSettings(HttpRequest httpRequest) {
+        String upgrade = httpRequest.getHeader(UPGRADE_HEADER);
+        String settings = httpRequest.getHeader(HTTP2_SETTINGS_HEADER);
+        if (upgrade == null || settings == null) {
+            return null;
+        }
+        boolean h2c = false;
+        for (String protocol : upgrade.split(",")) {
+            h2c |= H2C_PROTOCOL.equalsIgnoreCase(protocol.trim());
+        }
+        if (!h2c) {
+            return null;
+        }
+        try {
+            Http2Settings clientSettings = new Http2Settings();
+            clientSettings.apply(Base64.getUrlDecoder().decode(settings.trim()));
+            return clientSettings;
+        } catch (IllegalArgumentException | Http2Exception e) {
+            LOGGER.warn(ERROR_HTTP2_INVALID_UPGRADE_SETTINGS.formatMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Serve the connection after the request line of the prior knowledge preface was parsed, the rest of the preface
+     * is read first. The method returns when the connection is closed.
+     */
+    public void serve() {
+        LOGGER.debug(HTTP2_CONNECTION_STARTED.formatMessage("prior knowledge"));
+        serveFrames(CLIENT_PREFACE_BODY, null);
+    }
+
+    /**
+     * Serve a connection on which h2 was negotiated with ALPN, nothing of the preface was read yet.
+     * The method returns when the connection is closed.
+     */
+    public void serveNegotiated() {
+        LOGGER.debug(HTTP2_CONNECTION_STARTED.formatMessage("ALPN"));
+        serveFrames(CLIENT_PREFACE, null);
+    }
+
+    /**
+     * Serve the connection after the 101 response to an h2c upgrade request, the request is answered on stream 1.
+     * The method returns when the connection is closed.
+     *
+     * @param httpRequest    the upgraded request.
+     * @param clientSettings the settings of the HTTP2-Settings header, see {@link #findUpgradeSettings(HttpRequest)}.
+     */
+    public void serveUpgrade(HttpRequest httpRequest, Http2Settings clientSettings) {
+        LOGGER.debug(HTTP2_CONNECTION_STARTED.formatMessage(UPGRADE_HEADER));
+        this.peerSettings = clientSettings;
+        encoder.setMaxTableSize(clientSettings.getHeaderTableSize());
+        serveFrames(CLIENT_PREFACE, httpRequest);
+    }
+
+    private void serveFrames(byte[] preface, HttpRequest upgradeRequest) {
+        try {
+            writeSettings();
+            if (upgradeRequest != null) {
+                lastStreamId = UPGRADE_STREAM_ID;
+                dispatch(openStream(UPGRADE_STREAM_ID, true), upgradeRequest);
+            }
+            readPreface(preface);
+            boolean first = true;
+            Http2Frame frame;
+            while ((frame = readFrame()) != null) {
+                if (first && frame.getType() != SETTINGS) {
+                    throw unexpectedFrame(frame);
+                }
+                first = false;
+                try {
+                    handleFrame(frame);
+                } catch (Http2Exception e) {
+                    if (!e.isStreamError()) {
+                        throw e;
+                    }
+                    LOGGER.debug(e.getMessage());
+                    resetStream(e.getStreamId(), e.getErrorCode());
+                }
+            }
+            awaitStreams();
+            writeGoAway(NO_ERROR);
+        } catch (Http2Exception e) {
+            LOGGER.warn(ERROR_HTTP2_CONNECTION.formatMessage(e.getErrorCode(), e.getMessage()));
+            writeGoAway(e.getErrorCode());
+        } catch (IOException e) {
+            LOGGER.debug(ERROR_WRITING_RESPONSE_CONTENT.formatMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * @return the next frame or null if the client closed the connection or the connection is idle.
+     */
+    private Http2Frame readFrame() throws IOException, Http2Exception {
+        while (true) {
+            try {
+                return codec.readFrame(localSettings.getMaxFrameSize());
+            } catch (SocketTimeoutException e) {
+                if (streams.isEmpty()) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    private void readPreface(byte[] preface) throws IOException, Http2Exception {
+        byte[] received = new byte[preface.length];
+        int offset = 0;
+        while (offset < received.length) {
+            int read = inputStream.read(received, offset, received.length - offset);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+        if (!Arrays.equals(received, preface)) {
+            throw new Http2Exception(ERROR_HTTP2_INVALID_PREFACE.formatMessage(), PROTOCOL_ERROR);
+        }
+    }
+
+    private void handleFrame(Http2Frame frame) throws IOException, Http2Exception {
+        if (headerBlock != null && (frame.getType() != CONTINUATION || frame.getStreamId() != headerBlockStreamId)) {
+            throw unexpectedFrame(frame);
+        }
+        switch (frame.getType()) {
+            case DATA:
+                handleData(frame);
+                break;
+            case HEADERS:
+                handleHeaders(frame);
+                break;
+            case CONTINUATION:
+                if (headerBlock == null) {
+                    throw unexpectedFrame(frame);
+                }
+                appendHeaderBlock(frame.getPayload(), 0, frame.getLength());
+                if (frame.hasFlag(FLAG_END_HEADERS)) {
+                    completeHeaderBlock();
+                }
+                break;
+            case PRIORITY:
+                // Streams are served as soon as they arrive, priorities are only validated.
+                checkStreamFrame(frame, PRIORITY_LENGTH);
+                break;
+            case RST_STREAM:
+                handleRstStream(frame);
+                break;
+            case SETTINGS:
+                handleSettings(frame);
+                break;
+            case PING:
+                handlePing(frame);
+                break;
+            case GOAWAY:
+                // The client opens no more streams, the open ones are served until it closes the connection.
+                if (frame.getStreamId() != 0) {
+                    throw unexpectedFrame(frame);
+                }
+                break;
+            case WINDOW_UPDATE:
+                handleWindowUpdate(frame);
+                break;
+            case PUSH_PROMISE:
+                throw unexpectedFrame(frame);
+            default:
+                // Frames of unknown types are ignored.
+                break;
+        }
+    }
+
+    private void handleData(Http2Frame frame) throws IOException, Http2Exception {
+        int streamId = frame.getStreamId();
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw unexpectedFrame(frame);
+        }
+        // Request bodies are discarded, their flow control credit is returned at once.
+        if (frame.getLength() > 0) {
+            writeWindowUpdate(0, frame.getLength());
+        }
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null || stream.isRemoteClosed()) {
+            codec.flush();
+            throw new Http2Exception(ERROR_HTTP2_UNEXPECTED_FRAME.formatMessage(frame.getType(), streamId), STREAM_CLOSED, streamId);
+        }
+        if (frame.hasFlag(FLAG_END_STREAM)) {
+            stream.closeRemote();
+        } else if (frame.getLength() > 0) {
+            writeWindowUpdate(streamId, frame.getLength());
+        }
+        codec.flush();
+    }
+
+    private void handleHeaders(Http2Frame frame) throws Http2Exception {
+        int streamId = frame.getStreamId();
+        if (streamId == 0 || streamId % 2 == 0) {
+            throw unexpectedFrame(frame);
+        }
+        byte[] payload = frame.getPayload();
+        int offset = 0;
+        int end = payload.length;
+        if (frame.hasFlag(FLAG_PADDED)) {
+            end -= end > 0 ? payload[0] & 0xff : 0;
+            offset++;
+        }
+        if (frame.hasFlag(FLAG_PRIORITY)) {
+            offset += PRIORITY_LENGTH;
+        }
+        if (offset > end) {
+            throw new Http2Exception(ERROR_HTTP2_INVALID_FRAME_LENGTH.formatMessage(frame.getLength(), frame.getType()), PROTOCOL_ERROR);
+        }
+        headerBlockTrailers = streamId <= lastStreamId;
+        if (headerBlockTrailers) {
+            Http2Stream stream = streams.get(streamId);
+            if (stream == null || stream.isRemoteClosed() || !frame.hasFlag(FLAG_END_STREAM)) {
+                throw new Http2Exception(ERROR_HTTP2_UNEXPECTED_FRAME.formatMessage(frame.getType(), streamId), STREAM_CLOSED);
+            }
+        } else {
+            lastStreamId = streamId;
+        }
+        headerBlock = new ByteArrayOutputStream(end - offset);
+        headerBlockStreamId = streamId;
+        headerBlockEndStream = frame.hasFlag(FLAG_END_STREAM);
+        appendHeaderBlock(payload, offset, end - offset);
+        if (frame.hasFlag(FLAG_END_HEADERS)) {
+            completeHeaderBlock();
+        }
+    }
+
+    private void appendHeaderBlock(byte[] fragment, int offset, int length) throws Http2Exception {
+        if (headerBlock.size() + length > localSettings.getMaxHeaderListSize()) {
+            // The block can not be skipped without breaking the dynamic table shared with the client.
+            throw new Http2Exception(ERROR_HTTP2_HEADER_BLOCK_TOO_LARGE.formatMessage(localSettings.getMaxHeaderListSize()), ENHANCE_YOUR_CALM);
+        }
+        headerBlock.write(fragment, offset, length);
+    }
+
+    /**
+     * Decode a complete header block and start serving the request. The block is decoded even if the stream is
+     * refused to keep the dynamic table in sync with the client.
+     */
+    private void completeHeaderBlock() throws Http2Exception {
+        List<HeaderField> fields = decoder.decode(headerBlock.toByteArray());
+        int streamId = headerBlockStreamId;
+        headerBlock = null;
+        headerBlockStreamId = 0;
+        if (headerBlockTrailers) {
+            // Trailers of a request body which is discarded anyway.
+            streams.get(streamId).closeRemote();
+            return;
+        }
+        if (streams.size() >= localSettings.getMaxConcurrentStreams()) {
+            throw new Http2Exception(ERROR_HTTP2_STREAM_REFUSED.formatMessage(streamId, streams.size()), REFUSED_STREAM, streamId);
+        }
+        // Every stream is a request charged to the rate of the client, like the requests of an HTTP/1.1 connection.
+        if (rateLimiter != null && !rateLimiter.tryAcquire(clientAddress)) {
+            throw new Http2Exception(ERROR_HTTP2_STREAM_RATE_EXCEEDED.formatMessage(streamId, clientAddress),
+                    ENHANCE_YOUR_CALM, streamId);
+        }
+        Http2Stream stream = openStream(streamId, headerBlockEndStream);
+        HttpRequest httpRequest;
+        try {
+            httpRequest = toRequest(streamId, fields);
+        } catch (RequestParsingException e) {
+            LOGGER.warn(e.getMessage());
+            scheduler.executeStream(() -> serveStream(stream,
+                    writer -> registry.getErrorHandler().handleError(e.getStatus(), Collections.emptyMap(), writer)));
+            return;
+        } catch (Http2Exception e) {
+            closeStream(stream);
+            throw e;
+        }
+        dispatch(stream, httpRequest);
+    }
+
+    /**
+     * Map a decoded header list on the request model of the handlers, :authority becomes the host header.
+     *
+     * @throws Http2Exception          thrown when the request is malformed.
+     * @throws RequestParsingException thrown when the request should be answered with an error status.
+     */
+    private HttpRequest toRequest(int streamId, List<HeaderField> fields) throws Http2Exception, RequestParsingException {
+        Map<String, String> headers = new HashMap<>();
+        String method = null;
+        String path = null;
+        String scheme = null;
+        String authority = null;
+        int size = 0;
+        for (HeaderField field : fields) {
+            String name = field.getName();
+            size += field.size();
+            if (!name.equals(name.toLowerCase(Locale.ROOT)) || CONNECTION_HEADERS.contains(name)) {
+                throw malformedRequest(streamId);
+            }
+            if (!field.isPseudoHeader()) {
+                headers.put(name, field.getValue());
+            } else if (!headers.isEmpty()) {
+                // Pseudo-headers come before the regular headers.
+                throw malformedRequest(streamId);
+            } else if (METHOD_PSEUDO_HEADER.equals(name)) {
+                method = field.getValue();
+            } else if (PATH_PSEUDO_HEADER.equals(name)) {
+                path = field.getValue();
+            } else if (SCHEME_PSEUDO_HEADER.equals(name)) {
+                scheme = field.getValue();
+            } else if (AUTHORITY_PSEUDO_HEADER.equals(name)) {
+                authority = field.getValue();
+            } else {
+                throw malformedRequest(streamId);
+            }
+        }
+        if (method == null || scheme == null || path == null || path.isEmpty()) {
+            throw malformedRequest(streamId);
+        }
+        if (size > limits.getMaxHeaderBytes() || fields.size() > limits.getMaxHeaderCount()) {
+            throw new RequestParsingException(ERROR_HEADER_TOO_LARGE.formatMessage(limits.getMaxHeaderBytes()),
+                    REQUEST_HEADER_FIELDS_TOO_LARGE_STATUS);
+        }
+        if (authority != null) {
+            headers.putIfAbsent(HOST_HEADER, authority);
+        }
+        Map<String, String> parameters = new HashMap<>();
+        try {
+            String url = HttpRequestParser.parseURLAndExtractParameters(path, parameters);
+            return new HttpRequest(method, url, headers, parameters);
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            throw new RequestParsingException(ERROR_IN_HTTP_REQUEST_URL_ENCODING.formatMessage());
+        }
+    }
+
+    /**
+     * Serve a request on the stream lane, or on the large file lane for large resources like HTTP/1.1 requests.
+     */
+    private void dispatch(Http2Stream stream, HttpRequest httpRequest) {
+        RequestHandler handler = registry.findHandler(httpRequest);
+        if (handler == null) {
+            scheduler.executeStream(() -> serveStream(stream,
+                    writer -> registry.getErrorHandler().handleError(NOT_IMPLEMENTED_STATUS, Collections.emptyMap(), writer)));
+            return;
+        }
+        Runnable task = () -> serveStream(stream, writer -> handler.handleRequest(httpRequest, writer));
+        if (scheduler.isLargeTransfer(handler.findContentSize(httpRequest))) {
+            if (!scheduler.offerLargeTransfer(task)) {
+                LOGGER.warn(LARGE_FILE_LANE_SATURATED.formatMessage(httpRequest.getUrl()));
+                scheduler.executeStream(() -> serveStream(stream, writer -> handler.handleError(SERVICE_UNAVAILABLE_STATUS,
+                        Collections.singletonMap(RETRY_AFTER_HEADER, RETRY_AFTER_IN_SECONDS), writer)));
+            }
+            return;
+        }
+        scheduler.executeStream(task);
+    }
+
+    /**
+     * Write the response of a stream, a stream which could not be answered completely is reset.
+     */
+    private void serveStream(Http2Stream stream, StreamTask task) {
+        Http2ResponseWriter writer = new Http2ResponseWriter(this, stream);
+        try {
+            task.serve(writer);
+            if (!writer.isEnded()) {
+                resetStream(stream.getId(), INTERNAL_ERROR);
+            }
+        } catch (InternalServerException | IOException | IllegalArgumentException e) {
+            LOGGER.debug(ERROR_HTTP2_STREAM_RESET.formatMessage(stream.getId()), e);
+            try {
+                resetStream(stream.getId(), INTERNAL_ERROR);
+            } catch (IOException resetError) {
+                LOGGER.debug(ERROR_WRITING_RESPONSE_CONTENT.formatMessage(), resetError);
+            }
+        } finally {
+            closeStream(stream);
+        }
+    }
+
+    private void handleRstStream(Http2Frame frame) throws Http2Exception {
+        checkStreamFrame(frame, RST_STREAM_LENGTH);
+        Http2Stream stream = streams.get(frame.getStreamId());
+        if (stream != null) {
+            stream.reset();
+            synchronized (flowLock) {
+                flowLock.notifyAll();
+            }
+        }
+    }
+
+    private void handleSettings(Http2Frame frame) throws IOException, Http2Exception {
+        if (frame.getStreamId() != 0) {
+            throw unexpectedFrame(frame);
+        }
+        if (frame.hasFlag(FLAG_ACK)) {
+            if (frame.getLength() != 0) {
+                throw new Http2Exception(ERROR_HTTP2_INVALID_FRAME_LENGTH.formatMessage(frame.getLength(), frame.getType()), FRAME_SIZE_ERROR);
+            }
+            return;
+        }
+        synchronized (flowLock) {
+            long previousWindowSize = peerSettings.getInitialWindowSize();
+            peerSettings.apply(frame.getPayload());
+            long delta = peerSettings.getInitialWindowSize() - previousWindowSize;
+            for (Http2Stream stream : streams.values()) {
+                if (stream.getSendWindow() + delta > Http2Settings.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(ERROR_HTTP2_INVALID_WINDOW_UPDATE.formatMessage(delta, stream.getId()), FLOW_CONTROL_ERROR);
+                }
+                stream.addSendWindow(delta);
+            }
+            flowLock.notifyAll();
+        }
+        synchronized (codec) {
+            encoder.setMaxTableSize(peerSettings.getHeaderTableSize());
+            codec.writeFrame(SETTINGS, FLAG_ACK, 0, EMPTY_PAYLOAD, 0, 0);
+            codec.flush();
+        }
+    }
+
+    private void handlePing(Http2Frame frame) throws IOException, Http2Exception {
+        if (frame.getStreamId() != 0) {
+            throw unexpectedFrame(frame);
+        }
+        if (frame.getLength() != PING_LENGTH) {
+            throw new Http2Exception(ERROR_HTTP2_INVALID_FRAME_LENGTH.formatMessage(frame.getLength(), frame.getType()), FRAME_SIZE_ERROR);
+        }
+        if (!frame.hasFlag(FLAG_ACK)) {
+            synchronized (codec) {
+                codec.writeFrame(PING, FLAG_ACK, 0, frame.getPayload(), 0, PING_LENGTH);
+                codec.flush();
+            }
+        }
+    }
+
+    private void handleWindowUpdate(Http2Frame frame) throws Http2Exception {
+        int streamId = frame.getStreamId();
+        if (frame.getLength() != WINDOW_UPDATE_LENGTH) {
+            throw new Http2Exception(ERROR_HTTP2_INVALID_FRAME_LENGTH.formatMessage(frame.getLength(), frame.getType()), FRAME_SIZE_ERROR);
+        }
+        int increment = Http2FrameCodec.readInt(frame.getPayload(), 0) & Integer.MAX_VALUE;
+        if (increment == 0) {
+            throw new Http2Exception(ERROR_HTTP2_INVALID_WINDOW_UPDATE.formatMessage(increment, streamId), PROTOCOL_ERROR, streamId);
+        }
+        synchronized (flowLock) {
+            if (streamId == 0) {
+                if (connectionSendWindow + increment > Http2Settings.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(ERROR_HTTP2_INVALID_WINDOW_UPDATE.formatMessage(increment, streamId), FLOW_CONTROL_ERROR);
+                }
+                connectionSendWindow += increment;
+            } else {
+                Http2Stream stream = streams.get(streamId);
+                if (stream == null) {
+                    if (streamId > lastStreamId) {
+                        throw unexpectedFrame(frame);
+                    }
+                    // Credit for a stream which already ended.
+                    return;
+                }
+                if (stream.getSendWindow() + increment > Http2Settings.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(ERROR_HTTP2_INVALID_WINDOW_UPDATE.formatMessage(increment, streamId), FLOW_CONTROL_ERROR, streamId);
+                }
+                stream.addSendWindow(increment);
+            }
+            flowLock.notifyAll();
+        }
+    }
+
+    /**
+     * Check the stream and the length of a PRIORITY or RST_STREAM frame.
+     */
+    private void checkStreamFrame(Http2Frame frame, int length) throws Http2Exception {
+        if (frame.getStreamId() == 0 || frame.getType() == RST_STREAM && frame.getStreamId() > lastStreamId) {
+            throw unexpectedFrame(frame);
+        }
+        if (frame.getLength() != length) {
+            throw new Http2Exception(ERROR_HTTP2_INVALID_FRAME_LENGTH.formatMessage(frame.getLength(), frame.getType()), FRAME_SIZE_ERROR);
+        }
+    }
+
+    /**
+     * Write the response headers of a stream. The header block is encoded and written under the codec lock because
+     * the client decodes the blocks in the order they are received.
+     *
+     * @param stream    the stream.
+     * @param response  the response, connection specific headers are dropped and the names are sent in lower case.
+     * @param endStream true if the response has no body.
+     * @throws IOException thrown when the stream was reset or the connection is closed.
+     */
+    void writeHeaders(Http2Stream stream, HttpResponse response, boolean endStream) throws IOException {
+        List<HeaderField> fields = new ArrayList<>();
+        fields.add(new HeaderField(STATUS_PSEUDO_HEADER, Integer.toString(response.getStatus())));
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (!CONNECTION_HEADERS.contains(name)) {
+                fields.add(new HeaderField(name, header.getValue()));
+            }
+        }
+        synchronized (codec) {
+            checkStream(stream);
+            codec.writeHeaders(stream.getId(), encoder.encode(fields), endStream, Http2Settings.DEFAULT_MAX_FRAME_SIZE);
+            // Informational responses are sent at once, the final response may take a while.
+            if (endStream || response.getStatus() < 200) {
+                codec.flush();
+            }
+        }
+    }
+
+    /**
+     * Write a body in DATA frames, waiting for flow control credit when the windows are empty.
+     *
+     * @param stream    the stream.
+     * @param data      the bytes from the position to the limit, the buffer is consumed.
+     * @param endStream true to end the stream with the last frame.
+     * @throws IOException thrown when the stream was reset, the connection is closed or the client gives no credit
+     *                     before the socket timeout.
+     */
+    void writeData(Http2Stream stream, ByteBuffer data, boolean endStream) throws IOException {
+        if (!data.hasRemaining() && !endStream) {
+            return;
+        }
+        do {
+            int length = data.hasRemaining() ? acquireWindow(stream, data.remaining()) : 0;
+            ByteBuffer frame = data.duplicate();
+            frame.limit(frame.position() + length);
+            data.position(frame.limit());
+            boolean last = endStream && !data.hasRemaining();
+            synchronized (codec) {
+                checkStream(stream);
+                codec.writeFrame(DATA, last ? FLAG_END_STREAM : 0, stream.getId(), frame);
+            }
+        } while (data.hasRemaining());
+        codec.flush();
+    }
+
+    private int acquireWindow(Http2Stream stream, int wanted) throws IOException {
+        long deadline = System.currentTimeMillis() + flowControlTimeoutInMilliSec;
+        synchronized (flowLock) {
+            while (true) {
+                checkStream(stream);
+                long available = Math.min(stream.getSendWindow(), connectionSendWindow);
+                if (available > 0) {
+                    int length = (int) Math.min(Math.min(available, wanted), Http2Settings.DEFAULT_MAX_FRAME_SIZE);
+                    stream.addSendWindow(-length);
+                    connectionSendWindow -= length;
+                    return length;
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (inputClosed || flowControlTimeoutInMilliSec > 0 && wait <= 0) {
+                    throw new IOException(ERROR_HTTP2_FLOW_CONTROL_TIMEOUT.formatMessage(stream.getId()));
+                }
+                // The frames already buffered may be what the client waits for before sending credit.
+                codec.flush();
+                try {
+                    flowLock.wait(flowControlTimeoutInMilliSec > 0 ? wait : 0);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    private void checkStream(Http2Stream stream) throws IOException {
+        if (stream.isReset() || closed) {
+            throw new IOException(ERROR_HTTP2_STREAM_RESET.formatMessage(stream.getId()));
+        }
+    }
+
+    private Http2Stream openStream(int streamId, boolean remoteClosed) {
+        synchronized (flowLock) {
+            Http2Stream stream = new Http2Stream(streamId, peerSettings.getInitialWindowSize(), remoteClosed);
+            streams.put(streamId, stream);
+            return stream;
+        }
+    }
+
+    private void closeStream(Http2Stream stream) {
+        synchronized (streams) {
+            streams.remove(stream.getId());
+            streams.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until all the streams are answered, once the input is closed the streams waiting for credit fail.
+     */
+    private void awaitStreams() throws InterruptedException {
+        inputClosed = true;
+        synchronized (flowLock) {
+            flowLock.notifyAll();
+        }
+        synchronized (streams) {
+            while (!streams.isEmpty()) {
+                streams.wait();
+            }
+        }
+    }
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            if (stream.isReset()) {
+                return;
+            }
+            stream.reset();
+            synchronized (flowLock) {
+                flowLock.notifyAll();
+            }
+        }
+        byte[] payload = new byte[RST_STREAM_LENGTH];
+        Http2FrameCodec.writeInt(payload, 0, errorCode);
+        synchronized (codec) {
+            codec.writeFrame(RST_STREAM, 0, streamId, payload, 0, payload.length);
+            codec.flush();
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        byte[] payload = localSettings.encode();
+        synchronized (codec) {
+            codec.writeFrame(SETTINGS, 0, 0, payload, 0, payload.length);
+            codec.flush();
+        }
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[WINDOW_UPDATE_LENGTH];
+        Http2FrameCodec.writeInt(payload, 0, increment);
+        codec.writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+    }
+
+    private void writeGoAway(int errorCode) {
+        byte[] payload = new byte[8];
+        Http2FrameCodec.writeInt(payload, 0, lastStreamId);
+        Http2FrameCodec.writeInt(payload, 4, errorCode);
+        try {
+            synchronized (codec) {
+                codec.writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+                codec.flush();
+            }
+        } catch (IOException e) {
+            LOGGER.debug(ERROR_WRITING_RESPONSE_CONTENT.formatMessage(), e);
+        }
+    }
+
+    private void close() {
+        closed = true;
+        inputClosed = true;
+        for (Http2Stream stream : streams.values()) {
+            stream.reset();
+        }
+        synchronized (flowLock) {
+            flowLock.notifyAll();
+        }
+        try {
+            synchronized (codec) {
+                outputStream.close();
+            }
+            inputStream.close();
+            socket.close();
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_CLOSING_SOCKET_CONNECTION.formatMessage(), e);
+        }
+    }
+
+    private static Http2Exception unexpectedFrame(Http2Frame frame) {
+        return new Http2Exception(ERROR_HTTP2_UNEXPECTED_FRAME.formatMessage(frame.getType(), frame.getStreamId()), PROTOCOL_ERROR);
+    }
+
+    private static Http2Exception malformedRequest(int streamId) {
+        return new Http2Exception(ERROR_HTTP2_MALFORMED_REQUEST.formatMessage(streamId), PROTOCOL_ERROR, streamId);
+    }
+
+    /**
+     * Sockets accepted from a channel are used in non-blocking mode: the stream of a socket adaptor holds the blocking
+     * lock of the channel while it waits for data, which would block the stream workers writing responses, and the
+     * channel itself ignores the socket timeout. The bytes the HTTP/1.1 parser already received are copied out while
+     * the channel is still blocking, the stream is never read afterwards since it would refill its buffer from the
+     * socket adaptor, which fails in non-blocking mode.
+     */
+    private static InputStream openInputStream(Socket socket, InputStream inputStream, ManagedConnection connection)
+            throws IOException {
+        SocketChannel channel = socket.getChannel();
+        if (channel == null) {
+            return inputStream;
+        }
+        // The available bytes are received already, reading them does not block.
+        byte[] received = new byte[inputStream.available()];
+        int count = 0;
+        while (count < received.length) {
+            int read = inputStream.read(received, count, received.length - count);
+            if (read < 0) {
+                break;
+            }
+            count += read;
+        }
+        channel.configureBlocking(false);
+        return new ChannelInputStream(ByteBuffer.wrap(received, 0, count), channel, socket.getSoTimeout(), connection);
+    }
+
+    private static OutputStream openOutputStream(Socket socket, ManagedConnection connection) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        OutputStream outputStream = channel != null ? new ChannelOutputStream(channel, socket.getSoTimeout()) : socket.getOutputStream();
+        return connection != null ? connection.countWrites(outputStream) : outputStream;
+    }
+
+    /**
+     * Writes the response of a stream.
+     */
+    private interface StreamTask {
+        void serve(ResponseWriter writer) throws InternalServerException, IOException;
+    }
+
+    /**
+     * Waits on a selector of its own until the channel is ready, at most the socket timeout.
+     */
+    private static class ChannelReadiness implements Closeable {
+
+        private final Selector selector;
+        private final int timeoutInMilliSec;
+
+        ChannelReadiness(SocketChannel channel, int operation, int timeoutInMilliSec) throws IOException {
+            this.selector = Selector.open();
+            this.timeoutInMilliSec = timeoutInMilliSec;
+            channel.register(selector, operation);
+        }
+
+        void awaitReady() throws IOException {
+            try {
+                int ready = selector.select(timeoutInMilliSec);
+                selector.selectedKeys().clear();
+                if (ready == 0 && timeoutInMilliSec > 0) {
+                    throw new SocketTimeoutException();
+                }
+            } catch (ClosedSelectorException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            selector.close();
+        }
+    }
+
+    /**
+     * Reads the bytes already received by the HTTP/1.1 parser, then the channel.
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        private final ByteBuffer received;
+        private final SocketChannel channel;
+        private final ChannelReadiness readiness;
+        private final ManagedConnection connection;
+
+        ChannelInputStream(ByteBuffer received, SocketChannel channel, int timeoutInMilliSec, ManagedConnection connection)
+                throws IOException {
+            this.received = received;
+            this.channel = channel;
+            this.connection = connection;
+            this.readiness = new ChannelReadiness(channel, SelectionKey.OP_READ, timeoutInMilliSec);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (received.hasRemaining()) {
+                int count = Math.min(len, received.remaining());
+                received.get(b, off, count);
+                return count;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            int read;
+            while ((read = channel.read(buffer)) == 0) {
+                readiness.awaitReady();
+            }
+            if (read > 0 && connection != null) {
+                connection.addBytesRead(read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            readiness.close();
+        }
+    }
+
+    private static class ChannelOutputStream extends OutputStream {
+
+        private final SocketChannel channel;
+        private final ChannelReadiness readiness;
+
+        ChannelOutputStream(SocketChannel channel, int timeoutInMilliSec) throws IOException {
+            this.channel = channel;
+            this.readiness = new ChannelReadiness(channel, SelectionKey.OP_WRITE, timeoutInMilliSec);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    readiness.awaitReady();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            readiness.close();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.marshmelo.fileserver.http2;
+
+import com.marshmelo.fileserver.exceptions.Http2Exception;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+import static com.marshmelo.fileserver.http2.Http2Frame.*;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_HTTP2_FRAME_INTERRUPTED;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_HTTP2_FRAME_TOO_LARGE;
+
+/**
+ * Reads and writes HTTP/2 frames. Frames are read by the connection thread only, they are written by the stream
+ * workers too so writes are synchronized and a frame is never interleaved with another one. Written frames are
+ * buffered until {@link #flush()} so that e.g. the HEADERS and the first DATA frame of a small response share a write.
+ */
+public class Http2FrameCodec {
+
+    private static final int OUTPUT_BUFFER_SIZE = 16384;
+    private static final int STREAM_ID_MASK = 0x7fffffff;
+
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private final byte[] outputHeader = new byte[HEADER_SIZE];
+
+    /**
+     * @param inputStream  the connection input, it is read by a single thread.
+     * @param outputStream the connection output.
+     */
+    public Http2FrameCodec(InputStream inputStream, OutputStream outputStream) {
+        this.inputStream = inputStream;
+        this.outputStream = new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE);
+    }
+
+    /**
+     * Read the next frame.
+     *
+     * @param maxFrameSize the largest payload accepted, the SETTINGS_MAX_FRAME_SIZE sent to the peer.
+     * @return the frame or null if the connection is closed between two frames.
+     * @throws SocketTimeoutException thrown only when no byte of the frame was received before the socket timeout.
+     * @throws IOException            thrown when the frame can not be read.
+     * @throws Http2Exception         thrown when the frame is larger than the maximum size.
+     */
+    public Http2Frame readFrame(int maxFrameSize) throws IOException, Http2Exception {
+        int first = inputStream.read();
+        if (first == -1) {
+            return null;
+        }
+        header[0] = (byte) first;
+        readFully(header, 1, HEADER_SIZE - 1);
+        int length = (first & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+        int type = header[3] & 0xff;
+        int flags = header[4] & 0xff;
+        int streamId = readInt(header, 5) & STREAM_ID_MASK;
+        if (length > maxFrameSize) {
+            throw new Http2Exception(ERROR_HTTP2_FRAME_TOO_LARGE.formatMessage(length, maxFrameSize), FRAME_SIZE_ERROR);
+        }
+        byte[] payload = new byte[length];
+        readFully(payload, 0, length);
+        return new Http2Frame(type, flags, streamId, payload);
+    }
+
+    /**
+     * Buffer a frame.
+     */
+    public synchronized void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+        writeFrameHeader(length, type, flags, streamId);
+        outputStream.write(payload, offset, length);
+    }
+
+    /**
+     * Buffer a frame with a payload which may not be on the heap, e.g. a slice of a memory mapped pack.
+     */
+    public synchronized void writeFrame(int type, int flags, int streamId, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        writeFrameHeader(length, type, flags, streamId);
+        if (payload.hasArray()) {
+            outputStream.write(payload.array(), payload.arrayOffset() + payload.position(), length);
+            payload.position(payload.limit());
+        } else {
+            byte[] copy = new byte[length];
+            payload.get(copy);
+            outputStream.write(copy, 0, length);
+        }
+    }
+
+    /**
+     * Buffer a header block, split in a HEADERS frame followed by CONTINUATION frames if it is larger than the maximum
+     * frame size of the peer. The frames are written under the same lock so no other frame comes in between.
+     *
+     * @param streamId     the stream of the response.
+     * @param block        the HPACK encoded header block.
+     * @param endStream    true if the response has no body.
+     * @param maxFrameSize the SETTINGS_MAX_FRAME_SIZE of the peer.
+     */
+    public synchronized void writeHeaders(int streamId, byte[] block, boolean endStream, int maxFrameSize) throws IOException {
+        int offset = 0;
+        int type = HEADERS;
+        int flags = endStream ? FLAG_END_STREAM : 0;
+        do {
+            int length = Math.min(maxFrameSize, block.length - offset);
+            boolean last = offset + length == block.length;
+            writeFrame(type, last ? flags | FLAG_END_HEADERS : flags, streamId, block, offset, length);
+            offset += length;
+            type = CONTINUATION;
+            flags = 0;
+        } while (offset < block.length);
+    }
+
+    /**
+     * Send the buffered frames.
+     */
+    public synchronized void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+        outputHeader[0] = (byte) (length >>> 16);
+        outputHeader[1] = (byte) (length >>> 8);
+        outputHeader[2] = (byte) length;
+        outputHeader[3] = (byte) type;
+        outputHeader[4] = (byte) flags;
+        writeInt(outputHeader, 5, streamId & STREAM_ID_MASK);
+        outputStream.write(outputHeader, 0, HEADER_SIZE);
+    }
+
+    /**
+     * Read the rest of a frame, a timeout in the middle of a frame can not be retried since the bytes already read
+     * would be lost.
+     */
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+        try {
+            while (length > 0) {
+                int read = inputStream.read(buffer, offset, length);
+                if (read == -1) {
+                    throw new EOFException();
+                }
+                offset += read;
+                length -= read;
+            }
+        } catch (SocketTimeoutException e) {
+            throw new IOException(ERROR_HTTP2_FRAME_INTERRUPTED.formatMessage(), e);
+        }
+    }
+
+    static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) << 24 | (buffer[offset + 1] & 0xff) << 16 | (buffer[offset + 2] & 0xff) << 8
+                | buffer[offset + 3] & 0xff;
+    }
+
+    static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
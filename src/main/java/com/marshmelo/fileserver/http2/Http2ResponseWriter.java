@@ -0,0 +1,125 @@
+package com.marshmelo.fileserver.http2;
+
+import com.marshmelo.fileserver.handlers.ResponseWriter;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.StreamingBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the response of one HTTP/2 stream as a HEADERS frame followed by DATA frames, so that the request handlers
+ * serve HTTP/2 streams unchanged. Bodies of unknown length are not chunked, the end of the stream ends the body.
+ */
+class Http2ResponseWriter extends ResponseWriter {
+
+    private final Http2Connection connection;
+    private final Http2Stream stream;
+    private boolean ended;
+
+    Http2ResponseWriter(Http2Connection connection, Http2Stream stream) {
+        this.connection = connection;
+        this.stream = stream;
+    }
+
+    /**
+     * Streams are multiplexed, there is nothing to batch.
+     */
+    @Override
+    public void setBatching(boolean batching) {
+    }
+
+    @Override
+    public void writeHeader(HttpResponse response) throws IOException {
+        connection.writeHeaders(stream, response, true);
+        ended = true;
+    }
+
+    @Override
+    public void writeInformational(HttpResponse response) throws IOException {
+        connection.writeHeaders(stream, response, false);
+    }
+
+    @Override
+    public void writeResponse(HttpResponse response, String requestURL) throws IOException {
+        if (!response.hasContent()) {
+            writeHeader(response);
+            return;
+        }
+        connection.writeHeaders(stream, response, false);
+        writeBody(response, requestURL);
+    }
+
+    @Override
+    public void writeBody(HttpResponse response, String requestURL) throws IOException {
+        StreamingBody body = response.getStreamingBody();
+        if (body != null) {
+            DataFrameOutputStream out = new DataFrameOutputStream();
+            body.writeTo(out);
+            out.finish();
+        } else {
+            ByteBuffer content = response.getContentBuffer();
+            connection.writeData(stream, content != null ? content : ByteBuffer.allocate(0), true);
+        }
+        ended = true;
+    }
+
+    /**
+     * @return true if the end of the stream was sent.
+     */
+    boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * Gathers the writes of a streaming body in DATA frames of the default maximum frame size.
+     */
+    private class DataFrameOutputStream extends OutputStream {
+
+        private final byte[] buffer;
+        private int count;
+
+        DataFrameOutputStream() {
+            this.buffer = new byte[Http2Settings.DEFAULT_MAX_FRAME_SIZE];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flush();
+                }
+                int chunk = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, chunk);
+                count += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                connection.writeData(stream, ByteBuffer.wrap(buffer, 0, count), false);
+                count = 0;
+            }
+        }
+
+        /**
+         * Send the buffered bytes with the end of the stream.
+         */
+        void finish() throws IOException {
+            connection.writeData(stream, ByteBuffer.wrap(buffer, 0, count), true);
+            count = 0;
+        }
+    }
+}
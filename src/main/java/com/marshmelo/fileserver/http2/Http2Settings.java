@@ -0,0 +1,158 @@
+package com.marshmelo.fileserver.http2;
+
+import com.marshmelo.fileserver.exceptions.Http2Exception;
+
+import java.io.ByteArrayOutputStream;
+
+import static com.marshmelo.fileserver.http2.Http2Frame.FLOW_CONTROL_ERROR;
+import static com.marshmelo.fileserver.http2.Http2Frame.FRAME_SIZE_ERROR;
+import static com.marshmelo.fileserver.http2.Http2Frame.PROTOCOL_ERROR;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_HTTP2_INVALID_SETTING;
+
+/**
+ * The SETTINGS parameters of one side of an HTTP/2 connection, see https://tools.ietf.org/html/rfc7540#section-6.5.2.
+ * A new instance has the initial values of the protocol, they are replaced by the SETTINGS frames of the peer.
+ */
+public class Http2Settings {
+
+    public static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+    public static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    public static final int MAX_FRAME_SIZE_LIMIT = 16777215;
+    public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private static final int HEADER_TABLE_SIZE = 0x1;
+    private static final int ENABLE_PUSH = 0x2;
+    private static final int MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int INITIAL_WINDOW_SIZE = 0x4;
+    private static final int MAX_FRAME_SIZE = 0x5;
+    private static final int MAX_HEADER_LIST_SIZE = 0x6;
+    private static final int SETTING_SIZE = 6;
+
+    private int headerTableSize = DEFAULT_HEADER_TABLE_SIZE;
+    private int maxConcurrentStreams = UNLIMITED;
+    private int initialWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private int maxHeaderListSize = UNLIMITED;
+
+    /**
+     * Create the settings of a peer which did not send any SETTINGS frame yet.
+     */
+    public Http2Settings() {
+    }
+
+    /**
+     * Create the settings announced by the server, values out of the protocol range are clamped.
+     *
+     * @param maxConcurrentStreams maximum number of streams a client can open at the same time.
+     * @param initialWindowSize    flow control window of the streams for the bodies sent by the clients.
+     * @param maxFrameSize         largest frame payload accepted from the clients.
+     * @param maxHeaderListSize    largest decoded header list accepted from the clients.
+     */
+    public Http2Settings(int maxConcurrentStreams, int initialWindowSize, int maxFrameSize, int maxHeaderListSize) {
+        this.maxConcurrentStreams = Math.max(1, maxConcurrentStreams);
+        this.initialWindowSize = Math.max(0, initialWindowSize);
+        this.maxFrameSize = Math.min(MAX_FRAME_SIZE_LIMIT, Math.max(DEFAULT_MAX_FRAME_SIZE, maxFrameSize));
+        this.maxHeaderListSize = Math.max(0, maxHeaderListSize);
+    }
+
+    /**
+     * Apply the parameters of a SETTINGS frame, unknown parameters are ignored.
+     *
+     * @param payload the payload of the frame.
+     * @throws Http2Exception thrown when the payload is malformed or a value is out of range.
+     */
+    public void apply(byte[] payload) throws Http2Exception {
+        if (payload.length % SETTING_SIZE != 0) {
+            throw new Http2Exception(ERROR_HTTP2_INVALID_SETTING.formatMessage("length", payload.length), FRAME_SIZE_ERROR);
+        }
+        for (int offset = 0; offset < payload.length; offset += SETTING_SIZE) {
+            int identifier = (payload[offset] & 0xff) << 8 | payload[offset + 1] & 0xff;
+            long value = Http2FrameCodec.readInt(payload, offset + 2) & 0xffffffffL;
+            switch (identifier) {
+                case HEADER_TABLE_SIZE:
+                    headerTableSize = (int) Math.min(value, Integer.MAX_VALUE);
+                    break;
+                case ENABLE_PUSH:
+                    // The server never pushes, only the value is checked.
+                    if (value > 1) {
+                        throw new Http2Exception(ERROR_HTTP2_INVALID_SETTING.formatMessage("SETTINGS_ENABLE_PUSH", value), PROTOCOL_ERROR);
+                    }
+                    break;
+                case MAX_CONCURRENT_STREAMS:
+                    maxConcurrentStreams = (int) Math.min(value, UNLIMITED);
+                    break;
+                case INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW_SIZE) {
+                        throw new Http2Exception(ERROR_HTTP2_INVALID_SETTING.formatMessage("SETTINGS_INITIAL_WINDOW_SIZE", value), FLOW_CONTROL_ERROR);
+                    }
+                    initialWindowSize = (int) value;
+                    break;
+                case MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE_LIMIT) {
+                        throw new Http2Exception(ERROR_HTTP2_INVALID_SETTING.formatMessage("SETTINGS_MAX_FRAME_SIZE", value), PROTOCOL_ERROR);
+                    }
+                    maxFrameSize = (int) value;
+                    break;
+                case MAX_HEADER_LIST_SIZE:
+                    maxHeaderListSize = (int) Math.min(value, UNLIMITED);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the payload of a SETTINGS frame announcing these settings, values equal to the protocol defaults are
+     * omitted.
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        if (headerTableSize != DEFAULT_HEADER_TABLE_SIZE) {
+            encode(payload, HEADER_TABLE_SIZE, headerTableSize);
+        }
+        if (maxConcurrentStreams != UNLIMITED) {
+            encode(payload, MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+        }
+        if (initialWindowSize != DEFAULT_INITIAL_WINDOW_SIZE) {
+            encode(payload, INITIAL_WINDOW_SIZE, initialWindowSize);
+        }
+        if (maxFrameSize != DEFAULT_MAX_FRAME_SIZE) {
+            encode(payload, MAX_FRAME_SIZE, maxFrameSize);
+        }
+        if (maxHeaderListSize != UNLIMITED) {
+            encode(payload, MAX_HEADER_LIST_SIZE, maxHeaderListSize);
+        }
+        return payload.toByteArray();
+    }
+
+    private static void encode(ByteArrayOutputStream payload, int identifier, int value) {
+        byte[] setting = new byte[SETTING_SIZE];
+        setting[0] = (byte) (identifier >>> 8);
+        setting[1] = (byte) identifier;
+        Http2FrameCodec.writeInt(setting, 2, value);
+        payload.write(setting, 0, SETTING_SIZE);
+    }
+
+    public int getHeaderTableSize() {
+        return headerTableSize;
+    }
+
+    public int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    public int getInitialWindowSize() {
+        return initialWindowSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public int getMaxHeaderListSize() {
+        return maxHeaderListSize;
+    }
+}
@@ -0,0 +1,52 @@
+package com.marshmelo.fileserver.http2;
+
+/**
+ * The state of one request/response exchange of an HTTP/2 connection. The send window is guarded by the flow control
+ * lock of the connection.
+ */
+class Http2Stream {
+
+    private final int id;
+    private long sendWindow;
+    private volatile boolean remoteClosed;
+    private volatile boolean reset;
+
+    /**
+     * @param id           the stream identifier chosen by the client.
+     * @param sendWindow   the initial flow control window for the response body, SETTINGS_INITIAL_WINDOW_SIZE of the client.
+     * @param remoteClosed true if the request ended with its headers.
+     */
+    Http2Stream(int id, long sendWindow, boolean remoteClosed) {
+        this.id = id;
+        this.sendWindow = sendWindow;
+        this.remoteClosed = remoteClosed;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    long getSendWindow() {
+        return sendWindow;
+    }
+
+    void addSendWindow(long delta) {
+        sendWindow += delta;
+    }
+
+    boolean isRemoteClosed() {
+        return remoteClosed;
+    }
+
+    void closeRemote() {
+        remoteClosed = true;
+    }
+
+    boolean isReset() {
+        return reset;
+    }
+
+    void reset() {
+        reset = true;
+    }
+}
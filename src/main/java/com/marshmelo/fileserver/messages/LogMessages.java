@@ -20,14 +20,99 @@ public enum LogMessages {
     ERROR_IN_HTTP_REQUEST_HEADER_FORMAT("The request header is not correctly formatted."),
     ERROR_IN_HTTP_REQUEST_URL_ENCODING("The request URL contains not allowed characters."),
     ERROR_WRITING_RESPONSE_CONTENT("Unable to write contents to the response."),
+    ERROR_BATCH_REJECTED("Batch request %s is rejected, it should list between 1 and %s files of at most %s bytes in total."),
+    ERROR_ARCHIVE_REJECTED("Archive request %s is rejected, the format should be zip or tar and the folder should have at most %s files (4GB for zip)."),
+    ERROR_INVALID_LISTING_QUERY("Listing request %s is rejected, the format should be html or json, the sort name, size or modified, the order asc or desc and the size between 1 and %s."),
+    ERROR_IMAGE_TRANSFORM_REJECTED("Image request %s is rejected, w and h should be between 0 and %s, q between 1 and 100, the format jpeg or png and the image should have at most %s pixels."),
+    ERROR_IMAGE_TRANSFORM_FAILED("Image %s can not be transformed."),
+    ERROR_INVALID_REQUEST_BODY("The request body is not delimited correctly by its Content-Length or chunked encoding."),
+    ERROR_TRANSFER_ENCODING_UNSUPPORTED("Transfer-Encoding %s is not supported, only chunked is."),
+    ERROR_UPLOAD_UNAUTHORIZED("%s %s is rejected, the Authorization header does not have the upload token."),
+    ERROR_UPLOAD_REJECTED("%s %s is rejected, the path should name a file in the static folder without hidden segments."),
+    ERROR_UPLOAD_TOO_LARGE("Upload %s is rejected, it is larger than %s bytes."),
+    ERROR_UPLOAD_FAILED("Upload %s failed, the temporary file is deleted."),
+    ERROR_UPLOAD_UNAVAILABLE("%s %s is rejected, uploads need a static folder on the file system and HTTP/1.1."),
+    UPLOAD_PUBLISHED("%s %s published, %s bytes."),
+    UPLOAD_DELETED("%s deleted."),
+    ERROR_INVALID_CACHE_CONTROL_RULE("Cache-Control rule %s is ignored, %s is not a list of known directives e.g. max-age=3600, immutable."),
+    ERROR_BODY_LENGTH_MISMATCH("Streaming body wrote %s bytes instead of %s."),
     ERROR_INITIAL_HEADER_LINE("Initial line of HTTP request does not follow the correct format."),
     ERROR_ARGUMENTS_IN_FIRST_LINE_OF_REQUEST_SHOULD_BE_THREE("First line of HTTP request does not have 3 arguments."),
     ERROR_HTTP_VERSION_UNSUPPORTED("The HTTP version is not supported or header mismatch."),
     ERROR_HTTP_METHOD_UNSUPPORTED("Unsupported request method."),
     ERROR_HEADER_INCORRECT_FORMAT("Header not correctly formatted."),
     ERROR_HEADER_SHOULD_END_WITH_BLANK_LINE("Header is not ended with a blank line."),
+    ERROR_REQUEST_LINE_TOO_LONG("First line of HTTP request is longer than %s bytes."),
+    ERROR_HEADER_TOO_LARGE("Headers of HTTP request are larger than %s bytes."),
+    ERROR_TOO_MANY_HEADERS("HTTP request has too many headers."),
+    ERROR_REQUEST_HEADER_TIMEOUT("Headers of HTTP request were not received in time."),
     ERROR_LOADING_APPLICATION_PROPERTIES("An error occurred while loading application properties, the application will run with the default configurations."),
     ERROR_PARSING_PROPERTY_TO_INTEGER("Error happened when parsing value of the property %s to integer"),
+    ERROR_INVALID_PROPERTY_VALUE("The value %2$s of the property %1$s is not valid, the default %3$s will be set."),
+    ERROR_UPLOAD_TOKEN_MISSING("Uploads are not enabled, the property %s should be set."),
+    LARGE_FILE_LANE_SATURATED("Large file lane is saturated, request for %s is rejected."),
+    IMAGE_TRANSFORM_POOL_SATURATED("Image transform pool is saturated or too slow, request for %s is rejected."),
+    REQUEST_RATE_EXCEEDED("Client %s exceeded its request rate, the connection is rejected."),
+    REQUEST_RATE_EXCEEDED_ON_CONNECTION("Client %s exceeded its request rate, the request is rejected and the connection closed."),
+    ERROR_RESOLVING_STATIC_FOLDER("Static folder %s can not be resolved on the classpath."),
+    RESOURCES_INDEXED("%s static resources indexed in %s ms."),
+    PACK_LOADED("Pack %s with %s resources mapped in %s ms."),
+    PACK_WRITTEN("%s resources packed into %s (%s bytes)."),
+    ERROR_LOADING_PACK("Pack %s can not be loaded, the previous one is still served."),
+    ERROR_INVALID_PACK("File %s is not a valid pack: %s."),
+    ERROR_PACK_TOO_LARGE("Pack is larger than %s bytes and can not be mapped at once."),
+    ERROR_PACK_PATH_TOO_LONG("Path %s is longer than %s bytes and can not be packed."),
+    ERROR_ALLOCATING_OFF_HEAP_CACHE("%s bytes can not be allocated outside of the heap, check -XX:MaxDirectMemorySize."),
+    ERROR_SPILLING_CACHE_ENTRY("Cache entry can not be spilled to %s."),
+    ERROR_DELETING_CACHE_FILE("Cache file %s can not be deleted."),
+    ERROR_CREATING_CACHE_FOLDER("Cache folder can not be created in %s, the disk tier is disabled."),
+    CACHE_STATS("Cache %s tier: %s entries, %s of %s bytes, %s hits, %s promotions, %s demotions, %s evictions, %s misses."),
+    CACHE_DEDUPLICATION("Cache: %s keys share %s contents, %s bytes are not stored twice."),
+    HTTP2_CONNECTION_STARTED("HTTP/2 connection started with %s."),
+    ERROR_HTTP2_INVALID_PREFACE("Invalid HTTP/2 connection preface."),
+    ERROR_HTTP2_INVALID_UPGRADE_SETTINGS("Invalid HTTP2-Settings header, the upgrade to h2c is ignored."),
+    ERROR_HTTP2_CONNECTION("HTTP/2 connection closed with error code %s: %s"),
+    ERROR_HTTP2_STREAM_RESET("HTTP/2 stream %s is reset."),
+    ERROR_HTTP2_FLOW_CONTROL_TIMEOUT("HTTP/2 stream %s waited too long for flow control credit."),
+    ERROR_HTTP2_FRAME_TOO_LARGE("HTTP/2 frame of %s bytes is larger than the maximum frame size %s."),
+    ERROR_HTTP2_FRAME_INTERRUPTED("HTTP/2 frame was not received completely before the socket timeout."),
+    ERROR_HTTP2_INVALID_FRAME_LENGTH("Invalid length %s of HTTP/2 frame of type %s."),
+    ERROR_HTTP2_UNEXPECTED_FRAME("Unexpected HTTP/2 frame of type %s on stream %s."),
+    ERROR_HTTP2_INVALID_WINDOW_UPDATE("Invalid HTTP/2 window update of %s on stream %s."),
+    ERROR_HTTP2_STREAM_REFUSED("HTTP/2 stream %s is refused, %s streams are open."),
+    ERROR_HTTP2_STREAM_RATE_EXCEEDED("HTTP/2 stream %s is reset, client %s exceeded its request rate."),
+    ERROR_HTTP2_MALFORMED_REQUEST("Malformed HTTP/2 request on stream %s."),
+    ERROR_HTTP2_HEADER_BLOCK_TOO_LARGE("HTTP/2 header block is larger than %s bytes."),
+    ERROR_HTTP2_INVALID_SETTING("Invalid HTTP/2 setting %s: %s."),
+    ERROR_HPACK_INVALID_HUFFMAN("Invalid Huffman encoded string in HPACK header block."),
+    ERROR_HPACK_INVALID_INDEX("Invalid HPACK index %s."),
+    ERROR_HPACK_INVALID_TABLE_SIZE("Invalid HPACK dynamic table size update %s."),
+    ERROR_HPACK_TRUNCATED_BLOCK("Truncated HPACK header block."),
+    TLS_INITIALIZED("HTTPS initialized on port: %s."),
+    TLS_STATS("TLS handshakes: %s full (average %s us), %s resumed (average %s us), %s failed."),
+    ERROR_TLS_CONFIGURATION("Could not load the TLS keystore %s, HTTPS is disabled."),
+    ERROR_TLS_HANDSHAKE("TLS handshake with %s failed: %s"),
+    ERROR_TLS_RENEGOTIATION("TLS renegotiation is not supported."),
+    ERROR_TLS_SOCKET_CLOSED("TLS connection is closed."),
+    CONNECTIONS_EXPIRED("Closed %s connections after their deadline."),
+    CONNECTION_LIMIT_REACHED("Too many open connections, the connection of %s is refused."),
+    CONNECTION_CLOSED("Connection of %s closed after %s ms, %s bytes read, %s bytes written."),
+    CONNECTION_STATS("Connections: %s open, %s idle, %s closed (average lifetime %s ms, %s bytes read, %s bytes written), %s expired, %s reaped, %s refused, %s open file descriptors."),
+    ERROR_UNEXPECTED_CONNECTION_FAILURE("Unexpected failure while serving a connection, the connection is closed."),
+    SOAK_TEST_STARTED("Soak test started, the baseline is recorded in %s seconds and the run ends in %s seconds."),
+    SOAK_TEST_BASELINE("Soak test baseline: %s file descriptors, %s bytes of live heap."),
+    SOAK_TEST_PASSED("Soak test passed: %s file descriptors and %s bytes of live heap added."),
+    SOAK_TEST_FAILED("Soak test failed: %s file descriptors added (at most %s), %s bytes of live heap added (at most %s)."),
+    ERROR_INVALID_ORIGIN_URL("Origin %s is not an absolute http or https URL, the origin is disabled."),
+    ERROR_ORIGIN_UNAVAILABLE("Origin %s:%s could not serve %s: %s"),
+    ERROR_ORIGIN_INVALID_RESPONSE("Invalid response from the origin."),
+    ERROR_ORIGIN_POOL_EXHAUSTED("No connection to origin %s:%s became available, all %s are in use."),
+    ERROR_INVALID_PEER("Peer %s is not a host:port address, the peer mode is disabled."),
+    ERROR_PEER_UNAVAILABLE("Peer %s is down, the resources it owns are read from disk: %s"),
+    ERROR_PEER_VERSION_MISMATCH("Peer %s does not have the same version of %s, it is read from disk."),
+    PEER_AVAILABLE("Peer %s is up."),
+    PEER_MODE_ENABLED("Sharing the cache as %s with the peers %s."),
+    PACK_WRITER_USAGE("Usage: PackWriter <static folder> <pack file> [--gzip] [--minify]"),
     INFO_PROPERTY_IS_NOT_CONFIGURED("Default property %s is not configured in the properties file and the default %s will be set."),
     ;
 
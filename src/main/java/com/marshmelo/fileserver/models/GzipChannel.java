@@ -0,0 +1,103 @@
+package com.marshmelo.fileserver.models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a channel with gzip while it is read, so that a compressed body can be read chunk by chunk like a file
+ * instead of being pushed through a {@link java.util.zip.GZIPOutputStream}. The output is the one of a
+ * GZIPOutputStream: the fixed header, the deflated data and the CRC-32 and size trailer.
+ */
+class GzipChannel implements ReadableByteChannel {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int TRAILER_SIZE = 8;
+
+    private final ReadableByteChannel source;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer input = ByteBuffer.allocate(StreamingBody.COPY_BUFFER_SIZE);
+    private final byte[] output = new byte[StreamingBody.COPY_BUFFER_SIZE];
+    private ByteBuffer pending = ByteBuffer.wrap(HEADER);
+    private boolean sourceEnded;
+    private boolean finished;
+    private boolean open = true;
+
+    /**
+     * @param source the uncompressed channel, it is closed with this channel.
+     */
+    GzipChannel(ReadableByteChannel source) {
+        this.source = source;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        while (dst.hasRemaining()) {
+            if (pending.hasRemaining()) {
+                int count = Math.min(pending.remaining(), dst.remaining());
+                ByteBuffer slice = pending.duplicate();
+                slice.limit(slice.position() + count);
+                dst.put(slice);
+                pending.position(pending.position() + count);
+            } else if (finished) {
+                break;
+            } else if (deflater.finished()) {
+                pending = buildTrailer();
+                finished = true;
+            } else {
+                if (deflater.needsInput() && !sourceEnded) {
+                    fillDeflater();
+                }
+                pending = ByteBuffer.wrap(output, 0, deflater.deflate(output, 0, output.length));
+            }
+        }
+        int count = dst.position() - start;
+        return count == 0 && finished ? -1 : count;
+    }
+
+    /**
+     * Give the next bytes of the source to the deflater, or finish the deflater at the end of the source.
+     */
+    private void fillDeflater() throws IOException {
+        input.clear();
+        int count = source.read(input);
+        if (count < 0) {
+            sourceEnded = true;
+            deflater.finish();
+            return;
+        }
+        crc.update(input.array(), 0, count);
+        deflater.setInput(input.array(), 0, count);
+    }
+
+    private ByteBuffer buildTrailer() {
+        byte[] trailer = new byte[TRAILER_SIZE];
+        writeIntLE(trailer, 0, crc.getValue());
+        writeIntLE(trailer, 4, deflater.getBytesRead());
+        return ByteBuffer.wrap(trailer);
+    }
+
+    private static void writeIntLE(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            deflater.end();
+            source.close();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.marshmelo.fileserver.models;
 
+import java.io.InputStream;
 import java.util.Map;
 
 public class HttpRequest {
@@ -7,6 +8,7 @@ public class HttpRequest {
     private String url;
     private Map<String, String> headers;
     private Map<String, String> params;
+    private InputStream body;
 
     public HttpRequest(String method, String url, Map<String, String> headers, Map<String, String> params) {
         this.method = method;
@@ -42,4 +44,16 @@ public class HttpRequest {
     public String getParam(String key) {
         return (String) params.get(key);
     }
+
+    /**
+     * @return the body of the request, it is read from the connection while it is consumed, null if the protocol does
+     * not hand request bodies to the handlers e.g. HTTP/2.
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    public void setBody(InputStream body) {
+        this.body = body;
+    }
 }
@@ -1,5 +1,6 @@
 package com.marshmelo.fileserver.models;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 /**
@@ -10,6 +11,8 @@ public class HttpResponse {
     private final String httpReplyHeader;
     private final int status;
     private final byte[] content;
+    private final ByteBuffer buffer;
+    private final StreamingBody streamingBody;
     private final String mimeType;
     private final int length;
     private final Map<String, String> headers;
@@ -27,12 +30,56 @@ public class HttpResponse {
         assert httpReplyHeader != null && resource != null && headers != null && !headers.isEmpty();
         this.httpReplyHeader = httpReplyHeader;
         this.status = status;
-        this.content = resource.getContent();
+        this.content = resource.isMapped() ? null : resource.getContent();
+        this.buffer = resource.isMapped() ? resource.getBuffer() : null;
+        this.streamingBody = null;
         this.mimeType = resource.getMimeType();
         this.length = resource.getLength();
         this.headers = headers;
     }
 
+    /**
+     * Http response without content, used when only the headers are sent e.g. HEAD requests.
+     *
+     * @param httpReplyHeader
+     * @param status
+     * @param mimeType
+     * @param length          the length of the content which would have been sent.
+     * @param headers
+     */
+    public HttpResponse(String httpReplyHeader, int status, String mimeType, long length, Map<String, String> headers) {
+        assert httpReplyHeader != null && headers != null && !headers.isEmpty();
+        this.httpReplyHeader = httpReplyHeader;
+        this.status = status;
+        this.content = null;
+        this.buffer = null;
+        this.streamingBody = null;
+        this.mimeType = mimeType;
+        this.length = (int) Math.min(Integer.MAX_VALUE, length);
+        this.headers = headers;
+    }
+
+    /**
+     * Http response whose body is written while it is produced.
+     *
+     * @param httpReplyHeader
+     * @param status
+     * @param mimeType
+     * @param streamingBody   the body, its length may be unknown.
+     * @param headers
+     */
+    public HttpResponse(String httpReplyHeader, int status, String mimeType, StreamingBody streamingBody, Map<String, String> headers) {
+        assert httpReplyHeader != null && streamingBody != null && headers != null && !headers.isEmpty();
+        this.httpReplyHeader = httpReplyHeader;
+        this.status = status;
+        this.content = null;
+        this.buffer = null;
+        this.streamingBody = streamingBody;
+        this.mimeType = mimeType;
+        this.length = (int) Math.min(Integer.MAX_VALUE, streamingBody.getLength());
+        this.headers = headers;
+    }
+
     /**
      * Add custom headers.
      * @param key
@@ -46,10 +93,37 @@ public class HttpResponse {
         return status;
     }
 
+    /**
+     * @return the body when it is on the heap, null for memory mapped bodies and responses without a body.
+     */
     public byte[] getContent() {
         return content;
     }
 
+    /**
+     * @return true if the response has a body, either on the heap, memory mapped or streamed.
+     */
+    public boolean hasContent() {
+        return content != null || buffer != null || streamingBody != null;
+    }
+
+    /**
+     * @return the body written while it is produced, null if the body is in memory or there is no body.
+     */
+    public StreamingBody getStreamingBody() {
+        return streamingBody;
+    }
+
+    /**
+     * @return a new view of the body, or null if the response has no body or a streaming body.
+     */
+    public ByteBuffer getContentBuffer() {
+        if (buffer != null) {
+            return buffer.duplicate();
+        }
+        return content != null ? ByteBuffer.wrap(content, 0, length) : null;
+    }
+
     public String getMimeType() {
         return mimeType;
     }
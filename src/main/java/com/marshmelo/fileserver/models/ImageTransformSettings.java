@@ -0,0 +1,48 @@
+package com.marshmelo.fileserver.models;
+
+/**
+ * Limits of the image transforms, see the ImageTransformHandler.
+ */
+public class ImageTransformSettings {
+
+    private final int poolSize;
+    private final int queueSize;
+    private final int maxDimension;
+    private final long maxPixels;
+    private final long timeoutInMilliSec;
+
+    /**
+     * @param poolSize          number of threads transforming images.
+     * @param queueSize         maximum number of transforms waiting for a free thread, more are rejected with 503.
+     * @param maxDimension      maximum width and height which can be requested, bigger values are rejected with 400.
+     * @param maxPixels         maximum number of pixels of a source image, bigger images are rejected with 400.
+     * @param timeoutInMilliSec maximum time a request waits for its transform, slower transforms are answered with 503.
+     */
+    public ImageTransformSettings(int poolSize, int queueSize, int maxDimension, long maxPixels, long timeoutInMilliSec) {
+        this.poolSize = poolSize;
+        this.queueSize = queueSize;
+        this.maxDimension = maxDimension;
+        this.maxPixels = maxPixels;
+        this.timeoutInMilliSec = timeoutInMilliSec;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getMaxDimension() {
+        return maxDimension;
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    public long getTimeoutInMilliSec() {
+        return timeoutInMilliSec;
+    }
+}
@@ -0,0 +1,44 @@
+package com.marshmelo.fileserver.models;
+
+import java.net.URI;
+
+/**
+ * Settings of the origin the resources missing from the static folders are fetched from, see the OriginRequestHandler.
+ */
+public class OriginSettings {
+
+    private final URI url;
+    private final int maxConnections;
+    private final int timeoutMillis;
+    private final long idleTimeoutMillis;
+
+    /**
+     * @param url               the URL of the origin e.g. http://origin.local:8080.
+     * @param maxConnections    maximum number of connections to the origin.
+     * @param timeoutMillis     timeout of the connection and of the reads, also the longest time a request waits for
+     *                          the same resource to be fetched by another request.
+     * @param idleTimeoutMillis idle connections to the origin are closed after this delay.
+     */
+    public OriginSettings(URI url, int maxConnections, int timeoutMillis, long idleTimeoutMillis) {
+        this.url = url;
+        this.maxConnections = maxConnections;
+        this.timeoutMillis = timeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public URI getUrl() {
+        return url;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+}
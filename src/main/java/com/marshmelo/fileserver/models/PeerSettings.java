@@ -0,0 +1,57 @@
+package com.marshmelo.fileserver.models;
+
+import java.util.List;
+
+/**
+ * Settings of the servers sharing their resource caches, see the PeerGroup.
+ */
+public class PeerSettings {
+
+    private final String self;
+    private final List<String> peers;
+    private final String path;
+    private final int virtualNodes;
+    private final int maxConnections;
+    private final int timeoutMillis;
+
+    /**
+     * @param self           the address of this server e.g. 10.0.0.1:8000, as the other servers list it.
+     * @param peers          the addresses of all the servers, this one included.
+     * @param path           the path of the internal endpoint the resources are fetched from e.g. /__peer.
+     * @param virtualNodes   number of points of every server on the hash ring.
+     * @param maxConnections maximum number of connections to every other server.
+     * @param timeoutMillis  timeout of the connections and of the reads, the resource is read from disk when it expires.
+     */
+    public PeerSettings(String self, List<String> peers, String path, int virtualNodes, int maxConnections, int timeoutMillis) {
+        this.self = self;
+        this.peers = peers;
+        this.path = path;
+        this.virtualNodes = virtualNodes;
+        this.maxConnections = maxConnections;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+}
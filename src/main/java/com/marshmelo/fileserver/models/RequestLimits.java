@@ -0,0 +1,43 @@
+package com.marshmelo.fileserver.models;
+
+/**
+ * Size and time limits applied while receiving the request line and the headers of a request.
+ */
+public class RequestLimits {
+
+    public static final RequestLimits DEFAULT_LIMITS = new RequestLimits(8 * 1024, 16 * 1024, 100, 5000);
+
+    private final int maxRequestLineLength;
+    private final int maxHeaderBytes;
+    private final int maxHeaderCount;
+    private final int headerTimeoutInMilliSec;
+
+    /**
+     * @param maxRequestLineLength    maximum length of the first line e.g. GET /index.html HTTP/1.1, longer lines are rejected with 414.
+     * @param maxHeaderBytes          maximum size of all the header lines together, bigger headers are rejected with 431.
+     * @param maxHeaderCount          maximum number of header lines, more headers are rejected with 431.
+     * @param headerTimeoutInMilliSec maximum time to receive the request line and all the headers, slower requests are rejected with 408.
+     */
+    public RequestLimits(int maxRequestLineLength, int maxHeaderBytes, int maxHeaderCount, int headerTimeoutInMilliSec) {
+        this.maxRequestLineLength = maxRequestLineLength;
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxHeaderCount = maxHeaderCount;
+        this.headerTimeoutInMilliSec = headerTimeoutInMilliSec;
+    }
+
+    public int getMaxRequestLineLength() {
+        return maxRequestLineLength;
+    }
+
+    public int getMaxHeaderBytes() {
+        return maxHeaderBytes;
+    }
+
+    public int getMaxHeaderCount() {
+        return maxHeaderCount;
+    }
+
+    public int getHeaderTimeoutInMilliSec() {
+        return headerTimeoutInMilliSec;
+    }
+}
@@ -1,10 +1,14 @@
 package com.marshmelo.fileserver.models;
 
+import java.nio.ByteBuffer;
+
 /**
  * A resource model for a file read from the file system and can be used in the resources cache.
+ * The content is either an array of bytes on the heap or a slice of a memory mapped pack file.
  */
 public class Resource {
     private byte[] content;
+    private ByteBuffer buffer;
     private String mimeType;
     private int length;
 
@@ -21,8 +25,43 @@ public class Resource {
         this.length = content.length;
     }
 
+    /**
+     * Create a resource model whose content is not on the heap e.g. a slice of a memory mapped file.
+     *
+     * @param buffer   resource content from the position to the limit of the buffer
+     * @param mimeType depending on the file extension
+     */
+    public Resource(ByteBuffer buffer, String mimeType) {
+        assert buffer != null && mimeType != null;
+        this.buffer = buffer.slice();
+        this.mimeType = mimeType;
+        this.length = this.buffer.remaining();
+    }
+
+    /**
+     * @return the content, for mapped resources it is copied on the heap on every call, prefer {@link #getBuffer()}.
+     */
     public byte[] getContent() {
-        return content;
+        if (content != null) {
+            return content;
+        }
+        byte[] copy = new byte[length];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * @return a new read only view of the content, its position is independent of the other views.
+     */
+    public ByteBuffer getBuffer() {
+        return content != null ? ByteBuffer.wrap(content).asReadOnlyBuffer() : buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return true if the content is not on the heap.
+     */
+    public boolean isMapped() {
+        return content == null;
     }
 
     public String getMimeType() {
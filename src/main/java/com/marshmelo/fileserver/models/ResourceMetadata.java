@@ -0,0 +1,108 @@
+package com.marshmelo.fileserver.models;
+
+import java.nio.file.Path;
+
+/**
+ * Everything known about a static resource without reading its content, used to answer HEAD, 304 and 404 responses and
+ * to take scheduling decisions. Instances are immutable.
+ */
+public class ResourceMetadata {
+
+    private final Path path;
+    private final long size;
+    private final long contentLength;
+    private final long lastModified;
+    private final String mimeType;
+    private final String etag;
+    private final boolean gzipVariant;
+    private final StorageTier storageTier;
+
+    /**
+     * @param path         the location of the resource content, null for resources stored in a pack.
+     * @param size         size of the content in bytes.
+     * @param lastModified last modification time in milliseconds since the epoch.
+     * @param mimeType     the mime type of the resource.
+     * @param gzipVariant  true if a pre-compressed copy of the resource exists next to it with the .gz extension.
+     * @param storageTier  where the content is stored.
+     */
+    public ResourceMetadata(Path path, long size, long lastModified, String mimeType, boolean gzipVariant, StorageTier storageTier) {
+        assert (path != null || storageTier == StorageTier.PACK) && mimeType != null && storageTier != null;
+        this.path = path;
+        this.size = size;
+        this.contentLength = size;
+        this.lastModified = lastModified;
+        this.mimeType = mimeType;
+        this.etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+        this.gzipVariant = gzipVariant;
+        this.storageTier = storageTier;
+    }
+
+    /**
+     * The metadata of the minified content of a file. The entity tag is derived from the file so that it is known before
+     * the content is minified, the pre-compressed copy of the file is ignored since it is not minified.
+     *
+     * @param source        the metadata of the file.
+     * @param contentLength the size of the minified content or {@link StreamingBody#UNKNOWN_LENGTH} while the content is
+     *                      not loaded, the size is then the one of the file.
+     */
+    public ResourceMetadata(ResourceMetadata source, long contentLength) {
+        this.path = source.path;
+        this.size = contentLength == StreamingBody.UNKNOWN_LENGTH ? source.size : contentLength;
+        this.contentLength = contentLength;
+        this.lastModified = source.lastModified;
+        this.mimeType = source.mimeType;
+        this.etag = source.etag.substring(0, source.etag.length() - 1) + "-min\"";
+        this.gzipVariant = false;
+        this.storageTier = source.storageTier;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the size of the content in bytes, an upper bound when the content length is not known yet, e.g. to take
+     * scheduling decisions or to enforce limits.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the exact size of the content in bytes, e.g. for a Content-Length header, or
+     * {@link StreamingBody#UNKNOWN_LENGTH} for a minified resource whose content was not loaded yet.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @return a strong entity tag derived from the size and the modification time, including the quotes.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return the entity tag of the gzip variant, every representation needs its own strong entity tag.
+     */
+    public String getGzipEtag() {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    public boolean hasGzipVariant() {
+        return gzipVariant;
+    }
+
+    public StorageTier getStorageTier() {
+        return storageTier;
+    }
+}
@@ -0,0 +1,19 @@
+package com.marshmelo.fileserver.models;
+
+/**
+ * Where the content of a resource is stored.
+ */
+public enum StorageTier {
+    /**
+     * A regular file in a static folder on the file system.
+     */
+    FILE_SYSTEM,
+    /**
+     * An entry of a jar or zip archive on the classpath e.g. when running the fat jar.
+     */
+    ARCHIVE,
+    /**
+     * A slice of a memory mapped pack file built with the PackWriter tool.
+     */
+    PACK
+}
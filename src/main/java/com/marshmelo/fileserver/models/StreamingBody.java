@@ -0,0 +1,159 @@
+package com.marshmelo.fileserver.models;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response body written while it is produced, so that it never has to be fully in memory. If the length is not known
+ * in advance the body is sent with chunked transfer encoding.
+ */
+public interface StreamingBody {
+
+    long UNKNOWN_LENGTH = -1;
+    int COPY_BUFFER_SIZE = 8192;
+
+    /**
+     * @return the length of the body in bytes or {@link #UNKNOWN_LENGTH}.
+     */
+    long getLength();
+
+    /**
+     * Write the whole body, it is called at most once. The stream must not be closed.
+     *
+     * @param outputStream the stream of the response.
+     * @throws IOException thrown when the body can not be produced or written.
+     */
+    void writeTo(OutputStream outputStream) throws IOException;
+
+    /**
+     * Open the body as a channel instead of writing it, so that it can be read chunk by chunk e.g. by the bandwidth
+     * shaper timers. Either this method or {@link #writeTo(OutputStream)} is called, at most once.
+     *
+     * @return the channel of the body, closed by the caller, or null if the body can only be written by its producer.
+     * @throws IOException thrown when the body can not be opened.
+     */
+    default ReadableByteChannel openChannel() throws IOException {
+        return null;
+    }
+
+    /**
+     * @param path   a file.
+     * @param length the size of the file.
+     * @return a body copying the file when it is written.
+     */
+    static StreamingBody fromPath(Path path, long length) {
+        return new StreamingBody() {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                Files.copy(path, outputStream);
+            }
+
+            @Override
+            public ReadableByteChannel openChannel() throws IOException {
+                return FileChannel.open(path);
+            }
+        };
+    }
+
+    /**
+     * @param resource a resource, usually from the cache.
+     * @return a body writing the content of the resource without copying it, mapped content is written from the mapping.
+     */
+    static StreamingBody fromResource(Resource resource) {
+        return new StreamingBody() {
+            @Override
+            public long getLength() {
+                return resource.getLength();
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                if (resource.isMapped()) {
+                    Channels.newChannel(outputStream).write(resource.getBuffer());
+                } else {
+                    outputStream.write(resource.getContent(), 0, resource.getLength());
+                }
+            }
+        };
+    }
+
+    /**
+     * @param channel a channel, it is closed once the body is written.
+     * @param length  the number of bytes the channel provides or {@link #UNKNOWN_LENGTH}.
+     * @return a body copying the channel until its end.
+     */
+    static StreamingBody fromChannel(ReadableByteChannel channel, long length) {
+        return new StreamingBody() {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                try (ReadableByteChannel source = channel) {
+                    ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+                    while (source.read(buffer) >= 0) {
+                        outputStream.write(buffer.array(), 0, buffer.position());
+                        buffer.clear();
+                    }
+                }
+            }
+
+            @Override
+            public ReadableByteChannel openChannel() {
+                return channel;
+            }
+        };
+    }
+
+    /**
+     * @param source the uncompressed body.
+     * @return a body compressing the source with gzip while it is written, its length is unknown.
+     */
+    static StreamingBody gzip(StreamingBody source) {
+        return new StreamingBody() {
+            @Override
+            public long getLength() {
+                return UNKNOWN_LENGTH;
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                // Closing the gzip stream writes the trailer, the response stream itself stays open.
+                try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(new FilterOutputStream(outputStream) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                }, COPY_BUFFER_SIZE)) {
+                    source.writeTo(gzipOutputStream);
+                }
+            }
+
+            @Override
+            public ReadableByteChannel openChannel() throws IOException {
+                ReadableByteChannel channel = source.openChannel();
+                return channel == null ? null : new GzipChannel(channel);
+            }
+        };
+    }
+}
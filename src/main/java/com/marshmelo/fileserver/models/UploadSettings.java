@@ -0,0 +1,52 @@
+package com.marshmelo.fileserver.models;
+
+/**
+ * Settings of the uploads with PUT and DELETE, see the UploadRequestHandler.
+ */
+public class UploadSettings {
+
+    /**
+     * When the uploaded bytes are forced to the storage device.
+     */
+    public enum FsyncPolicy {
+        /**
+         * The operating system writes the file when it wants, a crash can publish an incomplete file.
+         */
+        NONE,
+        /**
+         * The file is forced before it is renamed, a published file is always complete.
+         */
+        FILE,
+        /**
+         * The folder is forced after the rename as well, so that a published file survives a crash.
+         */
+        FULL
+    }
+
+    private final String token;
+    private final long maxBytes;
+    private final FsyncPolicy fsyncPolicy;
+
+    /**
+     * @param token       the bearer token expected in the Authorization header of the uploads.
+     * @param maxBytes    maximum size of an uploaded file, bigger uploads are rejected with 413.
+     * @param fsyncPolicy when the uploaded bytes are forced to the storage device.
+     */
+    public UploadSettings(String token, long maxBytes, FsyncPolicy fsyncPolicy) {
+        this.token = token;
+        this.maxBytes = maxBytes;
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+}
@@ -0,0 +1,169 @@
+package com.marshmelo.fileserver.pack;
+
+import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.models.StorageTier;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_INVALID_PACK;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_PACK_TOO_LARGE;
+
+/**
+ * A pack file built by {@link PackWriter} mapped in memory. Opening a pack is a single mmap plus parsing the index,
+ * serving a resource is a hash map lookup and a slice of the mapping, the bodies are read from the page cache without
+ * any system call. Instances are immutable and shared by all the connections.
+ */
+public class PackFile {
+
+    private final Path path;
+    private final Map<String, Entry> entries;
+
+    private PackFile(Path path, Map<String, Entry> entries) {
+        this.path = path;
+        this.entries = entries;
+    }
+
+    /**
+     * Map a pack file and read its index.
+     *
+     * @param path the pack file.
+     * @return the {@link PackFile}.
+     * @throws IOException thrown when the file can not be mapped or is not a valid pack.
+     */
+    public static PackFile open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(ERROR_PACK_TOO_LARGE.formatMessage(Integer.MAX_VALUE));
+            }
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return new PackFile(path, readIndex(path, buffer));
+        } catch (BufferUnderflowException e) {
+            throw new IOException(ERROR_INVALID_PACK.formatMessage(path, "truncated index"), e);
+        }
+    }
+
+    private static Map<String, Entry> readIndex(Path path, ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != PackFormat.MAGIC) {
+            throw new IOException(ERROR_INVALID_PACK.formatMessage(path, "bad magic number"));
+        }
+        int version = buffer.getInt();
+        if (version != PackFormat.VERSION) {
+            throw new IOException(ERROR_INVALID_PACK.formatMessage(path, "unsupported version " + version));
+        }
+        int entryCount = buffer.getInt();
+        buffer.getInt();
+        Map<String, Entry> entries = new HashMap<>(entryCount * 4 / 3 + 1);
+        for (int i = 0; i < entryCount; i++) {
+            String relativePath = readString(buffer);
+            String mimeType = readString(buffer);
+            long lastModified = buffer.getLong();
+            ByteBuffer body = slice(path, buffer, buffer.getLong(), buffer.getLong());
+            long gzipOffset = buffer.getLong();
+            long gzipLength = buffer.getLong();
+            ByteBuffer gzipVariant = gzipLength == PackFormat.NO_VARIANT ? null : slice(path, buffer, gzipOffset, gzipLength);
+            ResourceMetadata metadata = new ResourceMetadata(null, body.remaining(), lastModified, mimeType,
+                    gzipVariant != null, StorageTier.PACK);
+            entries.put(relativePath, new Entry(metadata, body, gzipVariant));
+        }
+        return entries;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & PackFormat.MAX_STRING_LENGTH];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer slice(Path path, ByteBuffer buffer, long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+            throw new IOException(ERROR_INVALID_PACK.formatMessage(path, "entry outside of the file"));
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit((int) (offset + length)).position((int) offset);
+        return slice.slice();
+    }
+
+    /**
+     * @param relativePath the path of the resource relative to the static folder e.g. css/style.css.
+     * @return the metadata or null if the resource is not in the pack.
+     */
+    public ResourceMetadata findMetadata(String relativePath) {
+        Entry entry = entries.get(relativePath);
+        return entry == null ? null : entry.metadata;
+    }
+
+    /**
+     * @param relativePath the path of the resource relative to the static folder.
+     * @return the resource backed by the mapping or null if the resource is not in the pack.
+     */
+    public Resource loadResource(String relativePath) {
+        Entry entry = entries.get(relativePath);
+        return entry == null ? null : new Resource(entry.body.duplicate(), entry.metadata.getMimeType());
+    }
+
+    /**
+     * @param relativePath the path of the resource relative to the static folder.
+     * @return the gzip compressed resource or null if the resource has no gzip variant.
+     */
+    public Resource loadGzipVariant(String relativePath) {
+        Entry entry = entries.get(relativePath);
+        return entry == null || entry.gzipVariant == null ? null
+                : new Resource(entry.gzipVariant.duplicate(), entry.metadata.getMimeType());
+    }
+
+    /**
+     * @param folder a folder relative to the static folder ending with a slash e.g. css/, empty for the whole pack.
+     * @return the sorted paths of the resources of the folder and its sub folders.
+     */
+    public List<String> list(String folder) {
+        List<String> resources = new ArrayList<>();
+        for (String relativePath : entries.keySet()) {
+            if (relativePath.startsWith(folder)) {
+                resources.add(relativePath);
+            }
+        }
+        Collections.sort(resources);
+        return resources;
+    }
+
+    /**
+     * @return the number of resources in the pack.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    private static class Entry {
+
+        private final ResourceMetadata metadata;
+        private final ByteBuffer body;
+        private final ByteBuffer gzipVariant;
+
+        Entry(ResourceMetadata metadata, ByteBuffer body, ByteBuffer gzipVariant) {
+            this.metadata = metadata;
+            this.body = body;
+            this.gzipVariant = gzipVariant;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.marshmelo.fileserver.pack;
+
+/**
+ * Layout of a pack file, all the numbers are big endian.
+ * <pre>
+ * header   int magic "MMPK", int version, int entry count, int index length in bytes
+ * index    one record per resource sorted by path:
+ *          short path length, path (UTF-8), short mime type length, mime type (UTF-8),
+ *          long last modified, long body offset, long body length, long gzip offset, long gzip length (-1 if none)
+ * bodies   every body and every gzip variant starts on a page boundary
+ * </pre>
+ */
+final class PackFormat {
+
+    static final int MAGIC = 0x4D4D504B;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int PAGE_SIZE = 4096;
+    static final int FIXED_RECORD_SIZE = 2 + 2 + 5 * 8;
+    static final long NO_VARIANT = -1;
+    static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private PackFormat() {
+    }
+
+    /**
+     * @return the first page boundary at or after the given position.
+     */
+    static long align(long position) {
+        return (position + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+}
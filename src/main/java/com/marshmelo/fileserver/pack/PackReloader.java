@@ -0,0 +1,67 @@
+package com.marshmelo.fileserver.pack;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_LOADING_PACK;
+import static com.marshmelo.fileserver.messages.LogMessages.PACK_LOADED;
+
+/**
+ * Loads a pack and, when run periodically, loads it again once the file was replaced e.g. by a deploy moving a new pack
+ * over the old one. Responses in flight keep using the old mapping, it is released when they are garbage collected.
+ */
+public class PackReloader implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(PackReloader.class);
+
+    private final Path path;
+    private final Consumer<PackFile> listener;
+    private Object fileKey;
+    private FileTime lastModified;
+
+    /**
+     * @param path     the pack file.
+     * @param listener receives every loaded pack.
+     */
+    public PackReloader(Path path, Consumer<PackFile> listener) {
+        this.path = path;
+        this.listener = listener;
+    }
+
+    /**
+     * Load the pack unconditionally.
+     *
+     * @throws IOException thrown when the pack can not be loaded.
+     */
+    public synchronized void load() throws IOException {
+        long start = System.currentTimeMillis();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        PackFile packFile = PackFile.open(path);
+        fileKey = attributes.fileKey();
+        lastModified = attributes.lastModifiedTime();
+        listener.accept(packFile);
+        LOGGER.info(PACK_LOADED.formatMessage(path, packFile.size(), System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Load the pack if the file was replaced or modified since the last load.
+     */
+    @Override
+    public synchronized void run() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!Objects.equals(attributes.fileKey(), fileKey) || !attributes.lastModifiedTime().equals(lastModified)) {
+                load();
+            }
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_LOADING_PACK.formatMessage(path), e);
+        }
+    }
+}
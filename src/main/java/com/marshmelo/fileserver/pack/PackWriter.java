@@ -0,0 +1,209 @@
+package com.marshmelo.fileserver.pack;
+
+import com.marshmelo.fileserver.utils.MinificationUtil;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_PACK_PATH_TOO_LONG;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_PACK_TOO_LARGE;
+import static com.marshmelo.fileserver.messages.LogMessages.PACK_WRITER_USAGE;
+import static com.marshmelo.fileserver.messages.LogMessages.PACK_WRITTEN;
+
+/**
+ * Build time tool packing a static folder into a single pack file, see {@link PackFormat}.
+ * A file.gz next to a file is stored as its pre-compressed variant. With --gzip a variant is also created for the text
+ * resources which do not have one, when compression saves at least 10%. With --minify the html, css, javascript and
+ * json resources are stored minified, the pre-compressed file of a resource changed by the minification is ignored.
+ * The pack is written to a temporary file which is then moved over the target, so a running server reloading the pack
+ * never sees a partially written file.
+ */
+public class PackWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(PackWriter.class);
+
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final String GZIP_OPTION = "--gzip";
+    private static final String MINIFY_OPTION = "--minify";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final double MIN_COMPRESSION_RATIO = 0.9;
+
+    private final boolean compress;
+    private final boolean minify;
+
+    /**
+     * @param compress create gzip variants of the text resources without a pre-compressed file.
+     */
+    public PackWriter(boolean compress) {
+        this(compress, false);
+    }
+
+    /**
+     * @param compress create gzip variants of the text resources without a pre-compressed file.
+     * @param minify   store the minified content of the html, css, javascript and json resources.
+     */
+    public PackWriter(boolean compress, boolean minify) {
+        this.compress = compress;
+        this.minify = minify;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> options = args.length < 2 ? null : Arrays.asList(args).subList(2, args.length);
+        if (options == null || options.size() > 2 || !Arrays.asList(GZIP_OPTION, MINIFY_OPTION).containsAll(options)) {
+            LOGGER.error(PACK_WRITER_USAGE.formatMessage());
+            System.exit(1);
+        }
+        new PackWriter(options.contains(GZIP_OPTION), options.contains(MINIFY_OPTION)).write(Paths.get(args[0]), Paths.get(args[1]));
+    }
+
+    /**
+     * Pack all the regular files of a folder.
+     *
+     * @param staticFolder the folder to pack e.g. src/main/resources/static.
+     * @param packFile     the pack file, replaced atomically if it exists.
+     * @return the number of packed resources.
+     * @throws IOException thrown when a file can not be read or the pack can not be written.
+     */
+    public int write(Path staticFolder, Path packFile) throws IOException {
+        Map<String, Path> files = findFiles(staticFolder);
+        List<Record> records = new ArrayList<>();
+        long indexLength = 0;
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            String relativePath = file.getKey();
+            if (relativePath.endsWith(GZIP_EXTENSION)
+                    && files.containsKey(relativePath.substring(0, relativePath.length() - GZIP_EXTENSION.length()))) {
+                continue;
+            }
+            Record record = new Record(relativePath, file.getValue(), ResourcesUtil.findMimeType(relativePath));
+            records.add(record);
+            indexLength += PackFormat.FIXED_RECORD_SIZE + record.pathBytes.length + record.mimeTypeBytes.length;
+        }
+
+        Path temporaryFile = packFile.toAbsolutePath().resolveSibling(packFile.getFileName() + TEMPORARY_EXTENSION);
+        long size;
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = PackFormat.align(PackFormat.HEADER_SIZE + indexLength);
+            for (Record record : records) {
+                byte[] body = Files.readAllBytes(record.file);
+                Path gzipFile = files.get(record.relativePath + GZIP_EXTENSION);
+                if (minify && MinificationUtil.supports(record.mimeType)) {
+                    byte[] minified = MinificationUtil.minify(body, record.mimeType);
+                    if (minified != body) {
+                        // The pre-compressed file has the original content.
+                        body = minified;
+                        gzipFile = null;
+                    }
+                }
+                record.lastModified = Files.getLastModifiedTime(record.file).toMillis();
+                record.bodyOffset = position;
+                record.bodyLength = body.length;
+                position = PackFormat.align(writeFully(channel, ByteBuffer.wrap(body), position));
+                byte[] gzipVariant = findGzipVariant(gzipFile, record.mimeType, body);
+                if (gzipVariant != null) {
+                    record.gzipOffset = position;
+                    record.gzipLength = gzipVariant.length;
+                    position = PackFormat.align(writeFully(channel, ByteBuffer.wrap(gzipVariant), position));
+                }
+            }
+            size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(ERROR_PACK_TOO_LARGE.formatMessage(Integer.MAX_VALUE));
+            }
+            ByteBuffer index = ByteBuffer.allocate((int) (PackFormat.HEADER_SIZE + indexLength));
+            index.putInt(PackFormat.MAGIC).putInt(PackFormat.VERSION).putInt(records.size()).putInt((int) indexLength);
+            for (Record record : records) {
+                index.putShort((short) record.pathBytes.length).put(record.pathBytes);
+                index.putShort((short) record.mimeTypeBytes.length).put(record.mimeTypeBytes);
+                index.putLong(record.lastModified).putLong(record.bodyOffset).putLong(record.bodyLength);
+                index.putLong(record.gzipOffset).putLong(record.gzipLength);
+            }
+            index.flip();
+            writeFully(channel, index, 0);
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+        Files.move(temporaryFile, packFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info(PACK_WRITTEN.formatMessage(records.size(), packFile, size));
+        return records.size();
+    }
+
+    private static Map<String, Path> findFiles(Path staticFolder) throws IOException {
+        Path root = staticFolder.toAbsolutePath().normalize();
+        Map<String, Path> files = new TreeMap<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) {
+                    files.put(root.relativize(file).toString().replace(root.getFileSystem().getSeparator(), "/"), file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private byte[] findGzipVariant(Path gzipFile, String mimeType, byte[] body) throws IOException {
+        if (gzipFile != null) {
+            return Files.readAllBytes(gzipFile);
+        }
+        if (!compress || !ResourcesUtil.isCompressible(mimeType)) {
+            return null;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2 + 64);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+            gzipOutputStream.write(body);
+        }
+        return compressed.size() <= body.length * MIN_COMPRESSION_RATIO ? compressed.toByteArray() : null;
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * An index record of the pack.
+     */
+    private static class Record {
+
+        private final String relativePath;
+        private final Path file;
+        private final String mimeType;
+        private final byte[] pathBytes;
+        private final byte[] mimeTypeBytes;
+        private long lastModified;
+        private long bodyOffset;
+        private long bodyLength;
+        private long gzipOffset = PackFormat.NO_VARIANT;
+        private long gzipLength = PackFormat.NO_VARIANT;
+
+        Record(String relativePath, Path file, String mimeType) throws IOException {
+            this.relativePath = relativePath;
+            this.file = file;
+            this.mimeType = mimeType;
+            this.pathBytes = relativePath.getBytes(StandardCharsets.UTF_8);
+            this.mimeTypeBytes = mimeType.getBytes(StandardCharsets.UTF_8);
+            if (pathBytes.length > PackFormat.MAX_STRING_LENGTH) {
+                throw new IOException(ERROR_PACK_PATH_TOO_LONG.formatMessage(relativePath, PackFormat.MAX_STRING_LENGTH));
+            }
+        }
+    }
+}
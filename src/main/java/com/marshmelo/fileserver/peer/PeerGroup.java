@@ -0,0 +1,200 @@
+package com.marshmelo.fileserver.peer;
+
+import com.marshmelo.fileserver.models.PeerSettings;
+import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.proxy.UpstreamClient;
+import com.marshmelo.fileserver.proxy.UpstreamResponse;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_INVALID_PEER;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_PEER_UNAVAILABLE;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_PEER_VERSION_MISMATCH;
+import static com.marshmelo.fileserver.messages.LogMessages.PEER_AVAILABLE;
+
+/**
+ * The servers sharing their resource caches, so that a hot resource is read from disk and kept in memory by one server
+ * only instead of by all of them. Every resource is owned by one server of a {@link PeerRing}; a server missing a
+ * resource it does not own fetches it from the owner over the internal endpoint of the peers, which serves it from its
+ * own cache, and sends it without caching it. The owner loads it from disk on its first request and keeps it cached.
+ * <p>
+ * A copy is only accepted when the owner has the same version of the file, its entity tag made of the size and the
+ * modification time must be the one of the local file, so the servers of a group should be deployed with the same files
+ * and the same minification setting. When the owner does not answer before the timeout, answers with an error or has
+ * another version, the resource is read from disk as without peers. A peer failing a request is marked down and its
+ * resources go to the next servers of the ring until a health check finds it up again.
+ */
+public class PeerGroup {
+
+    public static final String PATH_PARAMETER = "path";
+    private static final String GET_METHOD = "GET";
+    private static final String ETAG_HEADER = "ETag";
+    private static final String URL_ENCODING_CHARSET = "UTF-8";
+    private static final String PEER_URL_FORMAT = "http://%s";
+    private static final long IDLE_TIMEOUT_MILLIS = 30000;
+    private static final int OK_STATUS = 200;
+    private static final Logger LOGGER = Logger.getLogger(PeerGroup.class);
+
+    private final String self;
+    private final String path;
+    private final PeerRing ring;
+    private final Map<String, UpstreamClient> clients = new LinkedHashMap<>();
+    private final Set<String> downPeers = ConcurrentHashMap.newKeySet();
+    private final LongAdder fetched = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * @param settings the addresses of the servers and the limits of the connections to them.
+     * @throws IllegalArgumentException thrown when an address is not a host:port address.
+     */
+    public PeerGroup(PeerSettings settings) {
+        Set<String> peers = new LinkedHashSet<>(settings.getPeers());
+        // This server always owns its share of the resources even when it is missing from the list.
+        peers.add(settings.getSelf());
+        for (String peer : peers) {
+            URI url = parseAddress(peer);
+            if (!peer.equals(settings.getSelf())) {
+                clients.put(peer, new UpstreamClient(url, settings.getMaxConnections(), settings.getTimeoutMillis(),
+                        IDLE_TIMEOUT_MILLIS));
+            }
+        }
+        this.self = settings.getSelf();
+        this.path = settings.getPath();
+        this.ring = new PeerRing(peers, settings.getVirtualNodes());
+    }
+
+    private static URI parseAddress(String peer) {
+        try {
+            URI url = new URI(String.format(PEER_URL_FORMAT, peer));
+            if (url.getHost() == null || url.getPort() <= 0 || !url.getRawPath().isEmpty()) {
+                throw new IllegalArgumentException(ERROR_INVALID_PEER.formatMessage(peer));
+            }
+            return url;
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(ERROR_INVALID_PEER.formatMessage(peer), e);
+        }
+    }
+
+    /**
+     * @param relativePath the path of a resource relative to the static folder.
+     * @return true if this server loads and caches the resource itself, because it owns it or all the other servers
+     * owning it are down.
+     */
+    public boolean isOwner(String relativePath) {
+        return self.equals(findOwner(relativePath));
+    }
+
+    private String findOwner(String relativePath) {
+        return ring.findOwner(relativePath, peer -> peer.equals(self) || !downPeers.contains(peer));
+    }
+
+    /**
+     * Fetch a resource this server does not own from its owner.
+     *
+     * @param relativePath the path of the resource relative to the static folder.
+     * @param metadata     the metadata of the local file, the owner must have the same version.
+     * @return the resource of the owner or null if this server owns it or it must be read from disk.
+     */
+    public Resource fetch(String relativePath, ResourceMetadata metadata) {
+        String owner = findOwner(relativePath);
+        if (owner == null || owner.equals(self)) {
+            return null;
+        }
+        try (UpstreamResponse response = clients.get(owner).send(GET_METHOD, buildTarget(relativePath), Collections.emptyMap())) {
+            long length = response.getContentLength();
+            if (response.getStatus() != OK_STATUS || !metadata.getEtag().equals(response.getHeader(ETAG_HEADER))
+                    || length < 0 || length > Integer.MAX_VALUE) {
+                LOGGER.debug(ERROR_PEER_VERSION_MISMATCH.formatMessage(owner, relativePath));
+                fallbacks.increment();
+                return null;
+            }
+            byte[] content = new byte[(int) length];
+            IOUtils.readFully(response.getBody(), content);
+            fetched.increment();
+            return new Resource(content, metadata.getMimeType());
+        } catch (IOException e) {
+            markDown(owner, e.getMessage());
+            fallbacks.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Ask every other server whether it is up, the ones which are down are skipped until they answer again. Called
+     * periodically by a timer.
+     */
+    public void checkHealth() {
+        for (Map.Entry<String, UpstreamClient> peer : clients.entrySet()) {
+            try (UpstreamResponse response = peer.getValue().send(GET_METHOD, path, Collections.emptyMap())) {
+                IOUtils.skip(response.getBody(), Long.MAX_VALUE);
+                if (response.getStatus() == OK_STATUS) {
+                    if (downPeers.remove(peer.getKey())) {
+                        LOGGER.info(PEER_AVAILABLE.formatMessage(peer.getKey()));
+                    }
+                } else {
+                    markDown(peer.getKey(), Integer.toString(response.getStatus()));
+                }
+            } catch (IOException e) {
+                markDown(peer.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private void markDown(String peer, String reason) {
+        if (downPeers.add(peer)) {
+            LOGGER.warn(ERROR_PEER_UNAVAILABLE.formatMessage(peer, reason));
+        }
+    }
+
+    private String buildTarget(String relativePath) {
+        try {
+            return path + "?" + PATH_PARAMETER + "=" + URLEncoder.encode(relativePath, URL_ENCODING_CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param peer the address of a server.
+     * @return false if the server is marked down.
+     */
+    public boolean isAvailable(String peer) {
+        return !downPeers.contains(peer);
+    }
+
+    /**
+     * @return the addresses of all the servers, this one included.
+     */
+    public List<String> getPeers() {
+        return ring.getPeers();
+    }
+
+    /**
+     * @return the number of resources fetched from their owner.
+     */
+    public long getFetchedCount() {
+        return fetched.sum();
+    }
+
+    /**
+     * @return the number of resources read from disk because their owner could not send them.
+     */
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+}
@@ -0,0 +1,85 @@
+package com.marshmelo.fileserver.peer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * A consistent hash ring assigning every resource to one of the servers sharing their caches. Every server is placed
+ * at many points of the ring, its virtual nodes, and a resource belongs to the first server found clockwise from the
+ * hash of its path. Adding or removing a server only moves the resources of its own points, and a server which is down
+ * is skipped so its resources go to the next servers of the ring instead of all to the same one.
+ * <p>
+ * The points are MD5 hashes of the addresses, so every server computes the same ring from the same list whatever its
+ * order. The ring is immutable and safe to share between threads.
+ */
+public class PeerRing {
+
+    private static final String HASH_ALGORITHM = "MD5";
+    private static final String VIRTUAL_NODE_FORMAT = "%s#%s";
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final List<String> peers;
+
+    /**
+     * @param peers        the addresses of the servers e.g. 10.0.0.1:8000.
+     * @param virtualNodes number of points of every server, at least 1.
+     */
+    public PeerRing(Collection<String> peers, int virtualNodes) {
+        this.peers = Collections.unmodifiableList(new ArrayList<>(peers));
+        for (String peer : peers) {
+            for (int i = 0; i < Math.max(1, virtualNodes); i++) {
+                // The rare collision is resolved the same way on every server, by the address.
+                long point = hash(String.format(VIRTUAL_NODE_FORMAT, peer, i));
+                points.merge(point, peer, (previous, next) -> previous.compareTo(next) <= 0 ? previous : next);
+            }
+        }
+    }
+
+    /**
+     * @param key       the key of a resource, its path relative to the static folder.
+     * @param available tells whether a server can be asked, the ones which are down are skipped.
+     * @return the address of the owner of the resource or null if no server is available.
+     */
+    public String findOwner(String key, Predicate<String> available) {
+        long hash = hash(key);
+        for (Map<Long, String> arc : Arrays.<Map<Long, String>>asList(points.tailMap(hash), points.headMap(hash))) {
+            for (String peer : arc.values()) {
+                if (available.test(peer)) {
+                    return peer;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the addresses of the servers of the ring.
+     */
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    private static long hash(String value) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM).digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports MD5.
+            throw new IllegalStateException(e);
+        }
+        long hash = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = hash << 8 | (digest[i] & 0xff);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,272 @@
+package com.marshmelo.fileserver.proxy;
+
+import com.marshmelo.fileserver.handlers.HttpResponseBuilder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What is known of a response of the origin kept in the resource cache: its headers, its validators and how long it
+ * stays fresh, as told by the Cache-Control, Expires, Date and Age headers of the origin. The content itself is in the
+ * resource cache under {@link #getContentKey()}.
+ * <p>
+ * Only complete 200 responses are stored, and not when the origin forbids it (no-store, private), sets a cookie or
+ * varies on a request header other than Accept-Encoding. s-maxage takes precedence over max-age, which takes precedence
+ * over Expires. Without any of them, a response with a Last-Modified date stays fresh for a tenth of its age, at most a
+ * day, as usual for shared caches. A response which is never fresh, e.g. with no-cache, is still stored when it has a
+ * validator, it is then revalidated with a conditional request every time it is served.
+ */
+public final class CachedResponse {
+
+    private static final String CACHE_CONTROL_HEADER = "cache-control";
+    private static final String EXPIRES_HEADER = "expires";
+    private static final String DATE_HEADER = "date";
+    private static final String AGE_HEADER = "age";
+    private static final String ETAG_HEADER = "etag";
+    private static final String LAST_MODIFIED_HEADER = "last-modified";
+    private static final String CONTENT_TYPE_HEADER = "content-type";
+    private static final String SET_COOKIE_HEADER = "set-cookie";
+    private static final String VARY_HEADER = "vary";
+    private static final String ACCEPT_ENCODING = "accept-encoding";
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+    private static final long HEURISTIC_FRESHNESS_MAX_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int HEURISTIC_FRESHNESS_FRACTION = 10;
+    private static final int OK_STATUS = 200;
+    private static final Map<String, String> RELAYED_HEADERS = new LinkedHashMap<>();
+
+    static {
+        RELAYED_HEADERS.put(ETAG_HEADER, "ETag");
+        RELAYED_HEADERS.put(LAST_MODIFIED_HEADER, "Last-Modified");
+        RELAYED_HEADERS.put(CACHE_CONTROL_HEADER, "Cache-Control");
+        RELAYED_HEADERS.put(EXPIRES_HEADER, "Expires");
+        RELAYED_HEADERS.put("content-encoding", "Content-Encoding");
+        RELAYED_HEADERS.put("content-language", "Content-Language");
+        RELAYED_HEADERS.put("content-disposition", "Content-Disposition");
+        RELAYED_HEADERS.put(VARY_HEADER, "Vary");
+        RELAYED_HEADERS.put("location", "Location");
+    }
+
+    private final String contentKey;
+    private final Map<String, String> originHeaders;
+    private final long storedAt;
+    private final long initialAgeMillis;
+    private final long freshnessMillis;
+    private final boolean mustRevalidate;
+
+    private CachedResponse(String contentKey, Map<String, String> originHeaders, long storedAt, long initialAgeMillis,
+                           long freshnessMillis, boolean mustRevalidate) {
+        this.contentKey = contentKey;
+        this.originHeaders = originHeaders;
+        this.storedAt = storedAt;
+        this.initialAgeMillis = initialAgeMillis;
+        this.freshnessMillis = freshnessMillis;
+        this.mustRevalidate = mustRevalidate;
+    }
+
+    /**
+     * Decide whether a response of the origin can be stored and for how long it is fresh.
+     *
+     * @param contentKey the key of the content in the resource cache.
+     * @param status     the status of the response.
+     * @param headers    the headers of the response keyed by their lower case name.
+     * @param now        the time the response was received.
+     * @return the cached response or null if the response must not be stored.
+     */
+    public static CachedResponse of(String contentKey, int status, Map<String, String> headers, long now) {
+        Map<String, String> directives = parseCacheControl(headers.get(CACHE_CONTROL_HEADER));
+        if (status != OK_STATUS || directives.containsKey("no-store") || directives.containsKey("private")
+                || headers.containsKey(SET_COOKIE_HEADER) || !isSharedVariant(headers.get(VARY_HEADER))) {
+            return null;
+        }
+        long date = HttpResponseBuilder.parseDate(headers.get(DATE_HEADER));
+        long lastModified = HttpResponseBuilder.parseDate(headers.get(LAST_MODIFIED_HEADER));
+        long freshness;
+        if (directives.containsKey("no-cache")) {
+            freshness = 0;
+        } else if (directives.containsKey("s-maxage")) {
+            freshness = parseSeconds(directives.get("s-maxage")) * 1000;
+        } else if (directives.containsKey("max-age")) {
+            freshness = parseSeconds(directives.get("max-age")) * 1000;
+        } else if (headers.containsKey(EXPIRES_HEADER)) {
+            // An invalid date, e.g. 0, means already expired.
+            long expires = HttpResponseBuilder.parseDate(headers.get(EXPIRES_HEADER));
+            freshness = expires < 0 ? 0 : expires - (date >= 0 ? date : now);
+        } else if (lastModified >= 0) {
+            freshness = Math.min(HEURISTIC_FRESHNESS_MAX_MILLIS,
+                    ((date >= 0 ? date : now) - lastModified) / HEURISTIC_FRESHNESS_FRACTION);
+        } else {
+            freshness = 0;
+        }
+        freshness = Math.max(0, freshness);
+        if (freshness == 0 && !headers.containsKey(ETAG_HEADER) && lastModified < 0) {
+            // It could never be served without fetching it again.
+            return null;
+        }
+        long ageMillis = Math.max(parseSeconds(headers.get(AGE_HEADER)) * 1000, date >= 0 ? now - date : 0);
+        boolean mustRevalidate = directives.containsKey("must-revalidate") || directives.containsKey("proxy-revalidate")
+                || directives.containsKey("no-cache");
+        return new CachedResponse(contentKey, new HashMap<>(headers), now, Math.max(0, ageMillis), freshness, mustRevalidate);
+    }
+
+    /**
+     * Update the response after the origin answered a conditional request with 304 Not Modified, the headers of the 304
+     * replace the stored ones.
+     *
+     * @param headers the headers of the 304 response keyed by their lower case name.
+     * @param now     the time the 304 response was received.
+     * @return the refreshed response or null if it must not be stored anymore.
+     */
+    public CachedResponse revalidate(Map<String, String> headers, long now) {
+        Map<String, String> merged = new HashMap<>(originHeaders);
+        // The age of the stored response starts again from the 304.
+        merged.remove(AGE_HEADER);
+        merged.remove(DATE_HEADER);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (RELAYED_HEADERS.containsKey(header.getKey()) || header.getKey().equals(DATE_HEADER)
+                    || header.getKey().equals(AGE_HEADER)) {
+                merged.put(header.getKey(), header.getValue());
+            }
+        }
+        return of(contentKey, OK_STATUS, merged, now);
+    }
+
+    /**
+     * @param now the current time.
+     * @return true if the response can be served without asking the origin.
+     */
+    public boolean isFresh(long now) {
+        return getAgeMillis(now) < freshnessMillis;
+    }
+
+    /**
+     * @return true if the origin forbids serving the response once it is stale, even when the origin is unreachable.
+     */
+    public boolean mustRevalidate() {
+        return mustRevalidate;
+    }
+
+    /**
+     * @param now the current time.
+     * @return the age of the response as sent in the Age header, including its age when it was received.
+     */
+    public long getAgeSeconds(long now) {
+        return getAgeMillis(now) / 1000;
+    }
+
+    private long getAgeMillis(long now) {
+        return initialAgeMillis + Math.max(0, now - storedAt);
+    }
+
+    /**
+     * @return the headers of the conditional request revalidating the response.
+     */
+    public Map<String, String> getValidators() {
+        Map<String, String> validators = new LinkedHashMap<>();
+        if (originHeaders.containsKey(ETAG_HEADER)) {
+            validators.put("If-None-Match", originHeaders.get(ETAG_HEADER));
+        }
+        if (originHeaders.containsKey(LAST_MODIFIED_HEADER)) {
+            validators.put("If-Modified-Since", originHeaders.get(LAST_MODIFIED_HEADER));
+        }
+        return validators;
+    }
+
+    /**
+     * @return the entity tag sent by the origin or null.
+     */
+    public String getEtag() {
+        return originHeaders.get(ETAG_HEADER);
+    }
+
+    /**
+     * @return the Last-Modified date sent by the origin in milliseconds since the epoch or -1.
+     */
+    public long getLastModified() {
+        return HttpResponseBuilder.parseDate(originHeaders.get(LAST_MODIFIED_HEADER));
+    }
+
+    public String getMimeType() {
+        return findMimeType(originHeaders);
+    }
+
+    public String getContentKey() {
+        return contentKey;
+    }
+
+    /**
+     * @return the headers of the origin sent to the clients with the content.
+     */
+    public Map<String, String> getRelayedHeaders() {
+        return findRelayedHeaders(originHeaders);
+    }
+
+    /**
+     * @param headers the headers of a response of the origin keyed by their lower case name.
+     * @return the headers worth sending to the clients, e.g. the validators and the Cache-Control header, the framing
+     * and connection headers are left out.
+     */
+    public static Map<String, String> findRelayedHeaders(Map<String, String> headers) {
+        Map<String, String> relayed = new LinkedHashMap<>();
+        for (Map.Entry<String, String> header : RELAYED_HEADERS.entrySet()) {
+            String value = headers.get(header.getKey());
+            if (value != null) {
+                relayed.put(header.getValue(), value);
+            }
+        }
+        return relayed;
+    }
+
+    /**
+     * @param headers the headers of a response of the origin keyed by their lower case name.
+     * @return the Content-Type of the response or application/octet-stream.
+     */
+    public static String findMimeType(Map<String, String> headers) {
+        return headers.getOrDefault(CONTENT_TYPE_HEADER, DEFAULT_MIME_TYPE);
+    }
+
+    private static boolean isSharedVariant(String vary) {
+        if (vary == null) {
+            return true;
+        }
+        for (String field : vary.split(",")) {
+            String name = field.trim().toLowerCase(Locale.ROOT);
+            if (!name.isEmpty() && !name.equals(ACCEPT_ENCODING)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, String> parseCacheControl(String cacheControl) {
+        if (cacheControl == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> directives = new HashMap<>();
+        for (String directive : cacheControl.split(",")) {
+            int index = directive.indexOf('=');
+            String name = (index < 0 ? directive : directive.substring(0, index)).trim().toLowerCase(Locale.ROOT);
+            String value = index < 0 ? "" : directive.substring(index + 1).trim().replace("\"", "");
+            if (!name.isEmpty()) {
+                directives.putIfAbsent(name, value);
+            }
+        }
+        return directives;
+    }
+
+    /**
+     * @return the number of seconds or 0 if the value is missing or invalid.
+     */
+    private static long parseSeconds(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.marshmelo.fileserver.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_ORIGIN_INVALID_RESPONSE;
+
+/**
+ * The body of a response of the origin, delimited by its Content-Length, decoded from the chunked transfer encoding or
+ * read until the origin closes the connection. The connection can only carry another request once the body is
+ * finished, see {@link #isFinished()}.
+ */
+final class UpstreamBodyInputStream extends InputStream {
+
+    private static final int MAX_CHUNK_LINE_LENGTH = 4096;
+
+    private final InputStream inputStream;
+    private final boolean chunked;
+    private final boolean untilClose;
+    private long remaining;
+    private boolean finished;
+
+    /**
+     * @param inputStream the connection input stream positioned after the response headers.
+     * @param length      the Content-Length of the body, -1 if it is chunked or delimited by the end of the connection.
+     * @param chunked     true if the body is sent with the chunked transfer encoding.
+     */
+    UpstreamBodyInputStream(InputStream inputStream, long length, boolean chunked) {
+        this.inputStream = inputStream;
+        this.chunked = chunked;
+        this.untilClose = !chunked && length < 0;
+        this.remaining = chunked ? 0 : length;
+        this.finished = !chunked && length == 0;
+    }
+
+    /**
+     * @return true if the body was read to its end.
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (untilClose) {
+            int read = inputStream.read(b, off, len);
+            finished = read < 0;
+            return read;
+        }
+        if (chunked && remaining == 0 && !readChunkSize()) {
+            finished = true;
+            return -1;
+        }
+        int read = inputStream.read(b, off, (int) Math.min(len, remaining));
+        if (read < 0) {
+            throw new EOFException(ERROR_ORIGIN_INVALID_RESPONSE.formatMessage());
+        }
+        remaining -= read;
+        if (remaining == 0) {
+            if (chunked) {
+                readLine();
+            } else {
+                finished = true;
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (finished) {
+            return 0;
+        }
+        return untilClose ? inputStream.available() : (int) Math.min(remaining, inputStream.available());
+    }
+
+    /**
+     * The connection is released by the {@link UpstreamResponse}, not by its body.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Read the size line of the next chunk, chunk extensions are ignored.
+     *
+     * @return false if it is the last chunk, its trailers are then read.
+     */
+    private boolean readChunkSize() throws IOException {
+        String line = readLine();
+        int extension = line.indexOf(';');
+        try {
+            remaining = Long.parseLong((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException(ERROR_ORIGIN_INVALID_RESPONSE.formatMessage());
+        }
+        if (remaining < 0) {
+            throw new IOException(ERROR_ORIGIN_INVALID_RESPONSE.formatMessage());
+        }
+        if (remaining > 0) {
+            return true;
+        }
+        while (!readLine().isEmpty()) {
+            // Trailers are ignored.
+        }
+        return false;
+    }
+
+    private String readLine() throws IOException {
+        return UpstreamResponse.readLine(inputStream, MAX_CHUNK_LINE_LENGTH);
+    }
+}
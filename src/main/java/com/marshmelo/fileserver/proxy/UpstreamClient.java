@@ -0,0 +1,102 @@
+package com.marshmelo.fileserver.proxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_INVALID_ORIGIN_URL;
+
+/**
+ * A minimal HTTP/1.1 client of the origin of the proxied resources. Requests are sent over the keep-alive connections
+ * of an {@link UpstreamConnectionPool}. A request failing on a reused connection before any response was read is sent
+ * again on another connection, since the origin may have closed the idle connection in the meantime, GET and HEAD
+ * requests being safe to repeat. The content is asked without content coding so that it can be cached as it is.
+ */
+public class UpstreamClient {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String HTTPS_SCHEME = "https";
+    private static final int HTTP_PORT = 80;
+    private static final int HTTPS_PORT = 443;
+    private static final String HEAD_METHOD = "HEAD";
+    private static final String REQUEST_LINE = "%s %s HTTP/1.1\r\n";
+    private static final String HEADER_LINE = "%s: %s\r\n";
+    private static final String VIA = "1.1 marshmelo";
+
+    private final UpstreamConnectionPool pool;
+    private final String hostHeader;
+    private final String basePath;
+
+    /**
+     * @param origin            the URL of the origin e.g. http://origin.local:8080, its path is prepended to the paths
+     *                          of the requests.
+     * @param maxConnections    maximum number of connections to the origin.
+     * @param timeoutMillis     timeout of the connection, of the reads and of the wait for an available connection.
+     * @param idleTimeoutMillis idle connections are closed after this delay.
+     * @throws IllegalArgumentException thrown when the URL is not an absolute http or https URL.
+     */
+    public UpstreamClient(URI origin, int maxConnections, int timeoutMillis, long idleTimeoutMillis) {
+        String scheme = origin.getScheme() == null ? "" : origin.getScheme().toLowerCase(Locale.ROOT);
+        if (!scheme.equals(HTTP_SCHEME) && !scheme.equals(HTTPS_SCHEME) || origin.getHost() == null) {
+            throw new IllegalArgumentException(ERROR_INVALID_ORIGIN_URL.formatMessage(origin));
+        }
+        boolean tls = scheme.equals(HTTPS_SCHEME);
+        int port = origin.getPort() > 0 ? origin.getPort() : tls ? HTTPS_PORT : HTTP_PORT;
+        this.pool = new UpstreamConnectionPool(origin.getHost(), port, tls, maxConnections, timeoutMillis, idleTimeoutMillis);
+        this.hostHeader = origin.getPort() > 0 ? origin.getHost() + ":" + port : origin.getHost();
+        String path = origin.getRawPath() == null ? "" : origin.getRawPath();
+        this.basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    /**
+     * Send a request to the origin, the response must be closed once its body is read.
+     *
+     * @param method  GET or HEAD.
+     * @param target  the encoded path and query of the resource e.g. /images/logo.png?v=2.
+     * @param headers extra request headers e.g. the validators of a cached copy.
+     * @return the response of the origin.
+     * @throws IOException thrown when the origin can not be reached or does not answer before the timeout.
+     */
+    public UpstreamResponse send(String method, String target, Map<String, String> headers) throws IOException {
+        byte[] request = buildRequest(method, target, headers);
+        while (true) {
+            UpstreamConnection connection = pool.acquire();
+            connection.startRequest();
+            try {
+                OutputStream outputStream = connection.getOutputStream();
+                outputStream.write(request);
+                outputStream.flush();
+                return UpstreamResponse.read(pool, connection, HEAD_METHOD.equals(method));
+            } catch (IOException e) {
+                pool.release(connection, false);
+                // A slow origin is not retried, only connections the origin closed while they were idle.
+                if (!connection.isReused() || e instanceof SocketTimeoutException) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private byte[] buildRequest(String method, String target, Map<String, String> headers) {
+        StringBuilder request = new StringBuilder(String.format(REQUEST_LINE, method, basePath + target));
+        request.append(String.format(HEADER_LINE, "Host", hostHeader));
+        request.append(String.format(HEADER_LINE, "Accept-Encoding", "identity"));
+        request.append(String.format(HEADER_LINE, "Via", VIA));
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.append(String.format(HEADER_LINE, header.getKey(), header.getValue()));
+        }
+        request.append("\r\n");
+        return request.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the pool of the connections to the origin.
+     */
+    public UpstreamConnectionPool getPool() {
+        return pool;
+    }
+}
@@ -0,0 +1,64 @@
+package com.marshmelo.fileserver.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * A keep-alive connection to the origin, owned by one request at a time and returned to its
+ * {@link UpstreamConnectionPool} once the response is read.
+ */
+final class UpstreamConnection {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Socket socket;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private long idleSince;
+    private int requests;
+
+    UpstreamConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.inputStream = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * @return true if the connection already carried a request, the origin may have closed it since.
+     */
+    boolean isReused() {
+        return requests > 1;
+    }
+
+    void startRequest() {
+        requests++;
+    }
+
+    long getIdleSince() {
+        return idleSince;
+    }
+
+    void setIdleSince(long idleSince) {
+        this.idleSince = idleSince;
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing to do, the connection is discarded.
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.marshmelo.fileserver.proxy;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_ORIGIN_POOL_EXHAUSTED;
+
+/**
+ * The keep-alive connections to one origin. At most a fixed number of connections are open, idle or in use, a request
+ * finding none available waits for one to be returned until the timeout. Idle connections are reused most recently
+ * returned first, since they are the least likely to have been closed by the origin, and are closed once they have been
+ * idle longer than the idle timeout.
+ */
+public class UpstreamConnectionPool {
+
+    private static final SSLSocketFactory SSL_SOCKET_FACTORY = (SSLSocketFactory) SSLSocketFactory.getDefault();
+    private static final String ENDPOINT_IDENTIFICATION_ALGORITHM = "HTTPS";
+
+    private final String host;
+    private final int port;
+    private final boolean tls;
+    private final int maxConnections;
+    private final int timeoutMillis;
+    private final long idleTimeoutMillis;
+    private final Deque<UpstreamConnection> idle = new ArrayDeque<>();
+    private int open;
+    private long created;
+    private long reused;
+
+    /**
+     * @param host              the host of the origin.
+     * @param port              the port of the origin.
+     * @param tls               true to connect with TLS.
+     * @param maxConnections    maximum number of open connections.
+     * @param timeoutMillis     timeout of the connection, of the reads and of the wait for an available connection.
+     * @param idleTimeoutMillis idle connections are closed after this delay.
+     */
+    public UpstreamConnectionPool(String host, int port, boolean tls, int maxConnections, int timeoutMillis,
+                                  long idleTimeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.tls = tls;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.timeoutMillis = timeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Take an idle connection or open a new one.
+     *
+     * @return a connection owned by the caller until it is released.
+     * @throws IOException thrown when no connection is available before the timeout or the origin can not be reached.
+     */
+    UpstreamConnection acquire() throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            while (true) {
+                UpstreamConnection connection = idle.pollFirst();
+                long now = System.currentTimeMillis();
+                if (connection != null) {
+                    if (now - connection.getIdleSince() < idleTimeoutMillis) {
+                        reused++;
+                        return connection;
+                    }
+                    discard(connection);
+                    continue;
+                }
+                if (open < maxConnections) {
+                    open++;
+                    created++;
+                    break;
+                }
+                if (now >= deadline) {
+                    throw new SocketTimeoutException(ERROR_ORIGIN_POOL_EXHAUSTED.formatMessage(host, port, maxConnections));
+                }
+                try {
+                    wait(deadline - now);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SocketTimeoutException(ERROR_ORIGIN_POOL_EXHAUSTED.formatMessage(host, port, maxConnections));
+                }
+            }
+        }
+        // Connecting happens outside of the lock, the slot is already counted as open.
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            if (tls) {
+                SSLSocket sslSocket = (SSLSocket) SSL_SOCKET_FACTORY.createSocket(socket, host, port, true);
+                SSLParameters parameters = sslSocket.getSSLParameters();
+                // The certificate of the origin must name its host.
+                parameters.setEndpointIdentificationAlgorithm(ENDPOINT_IDENTIFICATION_ALGORITHM);
+                sslSocket.setSSLParameters(parameters);
+                socket = sslSocket;
+            }
+            return new UpstreamConnection(socket);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            synchronized (this) {
+                open--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Give a connection back once its response was read.
+     *
+     * @param connection the connection.
+     * @param reusable   true if the connection can carry another request, o.w. it is closed.
+     */
+    synchronized void release(UpstreamConnection connection, boolean reusable) {
+        if (reusable) {
+            connection.setIdleSince(System.currentTimeMillis());
+            idle.addFirst(connection);
+        } else {
+            discard(connection);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Close the idle connections, e.g. when the server stops.
+     */
+    public synchronized void close() {
+        UpstreamConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    private void discard(UpstreamConnection connection) {
+        connection.close();
+        open--;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the number of connections opened since the pool was created.
+     */
+    public synchronized long getCreatedCount() {
+        return created;
+    }
+
+    /**
+     * @return the number of times an idle connection was reused.
+     */
+    public synchronized long getReusedCount() {
+        return reused;
+    }
+
+    /**
+     * @return the number of idle connections.
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+}
@@ -0,0 +1,189 @@
+package com.marshmelo.fileserver.proxy;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_ORIGIN_INVALID_RESPONSE;
+
+/**
+ * A response of the origin. Its body is read from the connection while it is consumed, closing the response gives the
+ * connection back to the pool when the body was read to its end and the origin keeps the connection open, o.w. the
+ * connection is closed.
+ */
+public class UpstreamResponse implements Closeable {
+
+    private static final String HTTP_VERSION_PREFIX = "HTTP/1.";
+    private static final String HTTP_1_0 = "HTTP/1.0";
+    private static final String CONTENT_LENGTH_HEADER = "content-length";
+    private static final String TRANSFER_ENCODING_HEADER = "transfer-encoding";
+    private static final String CONNECTION_HEADER = "connection";
+    private static final String CHUNKED_TRANSFER_ENCODING = "chunked";
+    private static final String CLOSE_CONNECTION = "close";
+    private static final String KEEP_ALIVE_CONNECTION = "keep-alive";
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    private static final int NO_CONTENT_STATUS = 204;
+    private static final int NOT_MODIFIED_STATUS = 304;
+
+    private final UpstreamConnectionPool pool;
+    private final UpstreamConnection connection;
+    private final int status;
+    private final Map<String, String> headers;
+    private final long contentLength;
+    private final UpstreamBodyInputStream body;
+    private final boolean keepAlive;
+    private boolean closed;
+
+    private UpstreamResponse(UpstreamConnectionPool pool, UpstreamConnection connection, int status,
+                             Map<String, String> headers, long contentLength, UpstreamBodyInputStream body,
+                             boolean keepAlive) {
+        this.pool = pool;
+        this.connection = connection;
+        this.status = status;
+        this.headers = headers;
+        this.contentLength = contentLength;
+        this.body = body;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Read the status line and the headers of a response, interim 1xx responses are skipped.
+     *
+     * @param pool       the pool of the connection.
+     * @param connection the connection the request was written to.
+     * @param head       true if the request was a HEAD request, its response has no body.
+     * @return the response, its body is not read yet.
+     * @throws IOException thrown when the response can not be read or is not a valid HTTP/1.x response.
+     */
+    static UpstreamResponse read(UpstreamConnectionPool pool, UpstreamConnection connection, boolean head)
+            throws IOException {
+        InputStream inputStream = connection.getInputStream();
+        while (true) {
+            String statusLine = readLine(inputStream, MAX_HEADER_BYTES);
+            String[] parts = statusLine.split(" ", 3);
+            int status;
+            try {
+                status = parts.length < 2 || !parts[0].startsWith(HTTP_VERSION_PREFIX) ? -1 : Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                status = -1;
+            }
+            if (status < 100 || status > 599) {
+                throw new IOException(ERROR_ORIGIN_INVALID_RESPONSE.formatMessage());
+            }
+            Map<String, String> headers = readHeaders(inputStream);
+            if (status < 200) {
+                continue;
+            }
+            String connectionHeader = headers.getOrDefault(CONNECTION_HEADER, "").toLowerCase(Locale.ROOT);
+            boolean keepAlive = HTTP_1_0.equals(parts[0]) ? connectionHeader.contains(KEEP_ALIVE_CONNECTION)
+                    : !connectionHeader.contains(CLOSE_CONNECTION);
+            String transferEncoding = headers.get(TRANSFER_ENCODING_HEADER);
+            boolean chunked = transferEncoding != null
+                    && transferEncoding.toLowerCase(Locale.ROOT).trim().endsWith(CHUNKED_TRANSFER_ENCODING);
+            long contentLength = -1;
+            if (head || status == NO_CONTENT_STATUS || status == NOT_MODIFIED_STATUS) {
+                contentLength = 0;
+                chunked = false;
+            } else if (!chunked && headers.containsKey(CONTENT_LENGTH_HEADER)) {
+                try {
+                    contentLength = Long.parseLong(headers.get(CONTENT_LENGTH_HEADER).trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException(ERROR_ORIGIN_INVALID_RESPONSE.formatMessage());
+                }
+            }
+            if (transferEncoding != null && !chunked && contentLength != 0) {
+                // Any other coding is delimited by the end of the connection.
+                contentLength = -1;
+            }
+            UpstreamBodyInputStream body = new UpstreamBodyInputStream(inputStream, chunked ? -1 : contentLength, chunked);
+            return new UpstreamResponse(pool, connection, status, headers, chunked ? -1 : contentLength, body,
+                    keepAlive && (chunked || contentLength >= 0));
+        }
+    }
+
+    private static Map<String, String> readHeaders(InputStream inputStream) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        int bytes = 0;
+        String line;
+        while (!(line = readLine(inputStream, MAX_HEADER_BYTES)).isEmpty()) {
+            bytes += line.length();
+            int index = line.indexOf(':');
+            if (bytes > MAX_HEADER_BYTES || index <= 0) {
+                throw new IOException(ERROR_ORIGIN_INVALID_RESPONSE.formatMessage());
+            }
+            String name = line.substring(0, index).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(index + 1).trim();
+            headers.merge(name, value, (previous, next) -> previous + ", " + next);
+        }
+        return headers;
+    }
+
+    /**
+     * Read a line ending with LF or CRLF, the line ending is not returned.
+     */
+    static String readLine(InputStream inputStream, int maxLength) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = inputStream.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException(ERROR_ORIGIN_INVALID_RESPONSE.formatMessage());
+            }
+            if (line.length() == maxLength) {
+                throw new IOException(ERROR_ORIGIN_INVALID_RESPONSE.formatMessage());
+            }
+            line.append((char) b);
+        }
+        int length = line.length();
+        return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @param name the name of a header, in any case.
+     * @return the value of the header, repeated headers are joined with commas, or null.
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return the headers keyed by their lower case name.
+     */
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * @return the Content-Length of the body or -1 if it is not known in advance.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return the body, it is read from the connection while it is consumed.
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * Give the connection back to the pool, or close it if the body was not read to its end.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pool.release(connection, keepAlive && body.isFinished());
+    }
+}
@@ -0,0 +1,97 @@
+package com.marshmelo.fileserver.scheduling;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatches request handling on two separate thread pools depending on the size of the requested resource.
+ * Every connection starts on the small lane where the request is parsed, requests for resources bigger than the
+ * configured threshold are then moved to the bounded large lane so that big downloads can never occupy all the workers
+ * serving small files (e.g. css and js files). The streams of HTTP/2 connections are served on a third lane since
+ * their connection tasks stay on the small lane reading frames.
+ */
+public class RequestScheduler {
+
+    private final ExecutorService smallLane;
+    private final ThreadPoolExecutor largeLane;
+    private final ExecutorService streamLane;
+    private final long largeFileThreshold;
+
+    /**
+     * @param smallPoolSize      number of threads accepting, parsing and serving small resources.
+     * @param largePoolSize      number of threads serving large resources.
+     * @param largeQueueSize     maximum number of large transfers waiting for a free thread.
+     * @param largeFileThreshold resources with at least this number of bytes are served on the large lane.
+     */
+    public RequestScheduler(int smallPoolSize, int largePoolSize, int largeQueueSize, long largeFileThreshold) {
+        this(smallPoolSize, largePoolSize, largeQueueSize, largeFileThreshold, smallPoolSize);
+    }
+
+    /**
+     * @param smallPoolSize      number of threads accepting, parsing and serving small resources.
+     * @param largePoolSize      number of threads serving large resources.
+     * @param largeQueueSize     maximum number of large transfers waiting for a free thread.
+     * @param largeFileThreshold resources with at least this number of bytes are served on the large lane.
+     * @param streamPoolSize     number of threads serving the small resources requested on HTTP/2 streams.
+     */
+    public RequestScheduler(int smallPoolSize, int largePoolSize, int largeQueueSize, long largeFileThreshold, int streamPoolSize) {
+        this.smallLane = Executors.newFixedThreadPool(smallPoolSize);
+        this.largeLane = new ThreadPoolExecutor(largePoolSize, largePoolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, largeQueueSize)), new ThreadPoolExecutor.AbortPolicy());
+        this.streamLane = Executors.newFixedThreadPool(streamPoolSize);
+        this.largeFileThreshold = largeFileThreshold;
+    }
+
+    /**
+     * Execute a new connection task on the small lane.
+     *
+     * @param task the connection task.
+     */
+    public void execute(Runnable task) {
+        smallLane.execute(task);
+    }
+
+    /**
+     * Execute the request of an HTTP/2 stream on the stream lane.
+     *
+     * @param task the task writing the response.
+     */
+    public void executeStream(Runnable task) {
+        streamLane.execute(task);
+    }
+
+    /**
+     * Check if a resource with the given size should be served on the large lane.
+     *
+     * @param expectedBytes the size of the resource, negative if the resource size is unknown.
+     * @return true if the resource is considered large.
+     */
+    public boolean isLargeTransfer(long expectedBytes) {
+        return expectedBytes >= largeFileThreshold;
+    }
+
+    /**
+     * Try to execute a large transfer on the large lane.
+     *
+     * @param task the task writing the response.
+     * @return false if the large lane is saturated and the task was not accepted.
+     */
+    public boolean offerLargeTransfer(Runnable task) {
+        try {
+            largeLane.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        smallLane.shutdown();
+        largeLane.shutdown();
+        streamLane.shutdown();
+    }
+}
@@ -0,0 +1,179 @@
+package com.marshmelo.fileserver.throttling;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how fast response bodies are written, using token buckets on three levels: per connection, per client address
+ * and a global one shared by all the connections. A rate of zero means unlimited.
+ * <p>
+ * The per connection rate can be overridden for path prefixes (e.g. /downloads/) and mime types (e.g. image/jpeg or image/*).
+ * Bodies are written in chunks, when a bucket is empty the rest of the transfer is rescheduled on a small timer pool
+ * instead of sleeping, so the worker thread is released as soon as the client exceeds its rate.
+ */
+public class BandwidthShaper {
+
+    private static final long IDLE_CLIENT_BUCKETS_PURGE_PERIOD_IN_SECONDS = 10;
+    private static final String MIME_TYPE_WILDCARD = "/*";
+
+    private final TokenBucket globalBucket;
+    private final long clientRate;
+    private final long connectionRate;
+    private final List<Map.Entry<String, Long>> pathRules = new ArrayList<>();
+    private final Map<String, Long> mimeTypeRules = new HashMap<>();
+    private final int chunkSize;
+    private final Map<InetAddress, ClientBucket> clientBuckets = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param globalRate     bytes per second for all the connections together.
+     * @param clientRate     bytes per second for all the connections of one client address.
+     * @param connectionRate default bytes per second for one connection.
+     * @param rules          per connection rates keyed by path prefix (starting with /) or mime type.
+     * @param chunkSize      number of bytes written at once.
+     * @param timerPoolSize  number of threads writing rescheduled chunks.
+     */
+    public BandwidthShaper(long globalRate, long clientRate, long connectionRate, Map<String, Long> rules,
+                           int chunkSize, int timerPoolSize) {
+        this.globalBucket = globalRate > 0 ? new TokenBucket(globalRate) : null;
+        this.clientRate = clientRate;
+        this.connectionRate = connectionRate;
+        this.chunkSize = chunkSize;
+        for (Map.Entry<String, Long> rule : rules.entrySet()) {
+            if (rule.getKey().startsWith("/")) {
+                pathRules.add(rule);
+            } else {
+                mimeTypeRules.put(rule.getKey(), rule.getValue());
+            }
+        }
+        // Longest prefix first so that the most specific rule wins.
+        pathRules.sort((first, second) -> second.getKey().length() - first.getKey().length());
+        this.timer = Executors.newScheduledThreadPool(timerPoolSize);
+        if (clientRate > 0) {
+            timer.scheduleWithFixedDelay(this::purgeIdleClientBuckets, IDLE_CLIENT_BUCKETS_PURGE_PERIOD_IN_SECONDS,
+                    IDLE_CLIENT_BUCKETS_PURGE_PERIOD_IN_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Create the shaping state of a new connection.
+     *
+     * @param clientAddress the address of the client.
+     * @param connection    closed if a rescheduled write fails.
+     * @return a {@link ShapedConnection}.
+     */
+    public ShapedConnection openConnection(InetAddress clientAddress, Closeable connection) {
+        return new ShapedConnection(this, clientAddress, connection);
+    }
+
+    /**
+     * Find the per connection rate of a transfer, path rules are checked before mime type rules.
+     *
+     * @param requestURL the URL of the request, can be null for error pages.
+     * @param mimeType   the mime type of the body.
+     * @return bytes per second, zero if unlimited.
+     */
+    long findConnectionRate(String requestURL, String mimeType) {
+        if (requestURL != null) {
+            for (Map.Entry<String, Long> rule : pathRules) {
+                if (requestURL.startsWith(rule.getKey())) {
+                    return rule.getValue();
+                }
+            }
+        }
+        if (mimeType != null) {
+            Long rate = mimeTypeRules.get(mimeType);
+            if (rate == null) {
+                int index = mimeType.indexOf('/');
+                rate = index > 0 ? mimeTypeRules.get(mimeType.substring(0, index) + MIME_TYPE_WILDCARD) : null;
+            }
+            if (rate != null) {
+                return rate;
+            }
+        }
+        return connectionRate;
+    }
+
+    /**
+     * Find the bucket shared by all the connections of the client for a transfer, it is kept until it is released.
+     *
+     * @return the bucket of the client or null if clients are not limited.
+     */
+    TokenBucket acquireClientBucket(InetAddress clientAddress) {
+        if (clientRate <= 0 || clientAddress == null) {
+            return null;
+        }
+        // The users are only counted in the atomic map operations of the address.
+        return clientBuckets.compute(clientAddress, (address, bucket) -> {
+            ClientBucket acquired = bucket == null ? new ClientBucket(clientRate) : bucket;
+            acquired.users++;
+            return acquired;
+        });
+    }
+
+    /**
+     * Release a bucket returned by {@link #acquireClientBucket} at the end of a transfer.
+     */
+    void releaseClientBucket(InetAddress clientAddress, TokenBucket released) {
+        if (released == null) {
+            return;
+        }
+        clientBuckets.computeIfPresent(clientAddress, (address, bucket) -> {
+            if (bucket == released) {
+                bucket.users--;
+            }
+            return bucket;
+        });
+    }
+
+    TokenBucket getGlobalBucket() {
+        return globalBucket;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    void schedule(Runnable transfer, long delayInNanos) {
+        timer.schedule(transfer, delayInNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * A full bucket behaves like a new one, so removing it does not give the client any extra bandwidth, as long as no
+     * transfer still uses it next to the new one.
+     */
+    void purgeIdleClientBuckets() {
+        for (InetAddress clientAddress : clientBuckets.keySet()) {
+            clientBuckets.computeIfPresent(clientAddress,
+                    (address, bucket) -> bucket.users == 0 && bucket.isIdle() ? null : bucket);
+        }
+    }
+
+    int getClientBucketCount() {
+        return clientBuckets.size();
+    }
+
+    public void shutdown() {
+        timer.shutdown();
+    }
+
+    /**
+     * The bucket of a client and the number of transfers using it.
+     */
+    private static final class ClientBucket extends TokenBucket {
+
+        private int users;
+
+        private ClientBucket(long ratePerSecond) {
+            super(ratePerSecond);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.marshmelo.fileserver.throttling;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Limits the number of requests per second of every client address using a token bucket per address.
+ * <p>
+ * The buckets are kept in a table split into independently locked stripes so that the accept thread and the workers do not
+ * contend on a single lock. Every stripe is an access ordered map bounded in size, the least recently used address is
+ * dropped when a stripe is full and idle buckets (full buckets behave exactly like new ones) are expired from the old end
+ * of the stripe on every access, so the memory used is bounded whatever the number of clients is.
+ */
+public class RequestRateLimiter {
+
+    /**
+     * Pre-built response sent to the clients exceeding their rate, no parsing or resource lookup is needed to send it.
+     */
+    public static final byte[] TOO_MANY_REQUESTS_RESPONSE = ("HTTP/1.1 429 Too Many Requests\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Content-Length: 17\r\n" +
+            "Retry-After: 1\r\n" +
+            "Connection: close\r\n" +
+            "\r\n" +
+            "Too Many Requests").getBytes(StandardCharsets.US_ASCII);
+
+    private static final int STRIPES = 64;
+    private static final int MAX_IDLE_ENTRIES_EXPIRED_PER_ACCESS = 2;
+
+    private final long requestsPerSecond;
+    private final long burst;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * @param requestsPerSecond number of requests per second allowed for one client address.
+     * @param burst             number of requests a client can send at once after being idle.
+     * @param maxClients        maximum number of client addresses tracked at the same time.
+     */
+    public RequestRateLimiter(long requestsPerSecond, long burst, int maxClients) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = Math.max(1, burst);
+        int stripeCapacity = Math.max(1, maxClients / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    /**
+     * Take one request token of the given client.
+     *
+     * @param clientAddress the client address.
+     * @return false if the client exceeded its rate and the request should be rejected.
+     */
+    public boolean tryAcquire(InetAddress clientAddress) {
+        if (clientAddress == null) {
+            return true;
+        }
+        int hash = clientAddress.hashCode();
+        Stripe stripe = stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        TokenBucket bucket;
+        synchronized (stripe) {
+            bucket = stripe.get(clientAddress);
+            if (bucket == null) {
+                bucket = new TokenBucket(requestsPerSecond, burst);
+                stripe.put(clientAddress, bucket);
+            }
+            stripe.expireIdleEntries(bucket);
+        }
+        return bucket.tryConsume();
+    }
+
+    /**
+     * @return number of client addresses currently tracked.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private static class Stripe extends LinkedHashMap<InetAddress, TokenBucket> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetAddress, TokenBucket> eldest) {
+            return size() > capacity;
+        }
+
+        /**
+         * Remove a few idle buckets starting from the least recently used one, the current bucket is never removed.
+         */
+        void expireIdleEntries(TokenBucket current) {
+            Iterator<TokenBucket> iterator = values().iterator();
+            for (int i = 0; i < MAX_IDLE_ENTRIES_EXPIRED_PER_ACCESS && iterator.hasNext(); i++) {
+                TokenBucket bucket = iterator.next();
+                if (bucket == current || !bucket.isIdle()) {
+                    return;
+                }
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.marshmelo.fileserver.throttling;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_CLOSING_SOCKET_CONNECTION;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_WRITING_RESPONSE_CONTENT;
+
+/**
+ * The bandwidth shaping state of one client connection.
+ */
+public class ShapedConnection {
+
+    private static final Logger LOGGER = Logger.getLogger(ShapedConnection.class);
+
+    private final BandwidthShaper shaper;
+    private final InetAddress clientAddress;
+    private final Closeable connection;
+    private final Map<Long, TokenBucket> connectionBuckets = new HashMap<>();
+
+    ShapedConnection(BandwidthShaper shaper, InetAddress clientAddress, Closeable connection) {
+        this.shaper = shaper;
+        this.clientAddress = clientAddress;
+        this.connection = connection;
+    }
+
+    /**
+     * Write a body respecting the connection, client and global rates. The first chunks are written by the calling thread,
+     * once a limit is reached the rest of the body is written by the shaper timer threads.
+     *
+     * @param content    the body.
+     * @param length     number of bytes to write.
+     * @param requestURL the URL of the request used to find the path rules, can be null.
+     * @param mimeType   the mime type of the body used to find the mime type rules.
+     * @param out        the stream to write to, it is flushed before the transfer is rescheduled and at the end.
+     * @return a future completed when the whole body is written.
+     */
+    public CompletableFuture<Void> transfer(byte[] content, int length, String requestURL, String mimeType, OutputStream out) {
+        return transfer(ByteBuffer.wrap(content, 0, length), requestURL, mimeType, out);
+    }
+
+    /**
+     * Write a body from the position to the limit of a buffer, e.g. a slice of a memory mapped pack.
+     *
+     * @see #transfer(byte[], int, String, String, OutputStream)
+     */
+    public CompletableFuture<Void> transfer(ByteBuffer content, String requestURL, String mimeType, OutputStream out) {
+        return start(new Transfer(content, null, acquireBuckets(requestURL, mimeType), out));
+    }
+
+    /**
+     * Write a body read from a channel, e.g. a file, one chunk at a time so that only a chunk is held in memory and the
+     * rest of the body is read by the shaper timer threads like a buffer.
+     *
+     * @param source     the body, it is closed at the end of the transfer or when it fails.
+     * @param requestURL the URL of the request used to find the path rules, can be null.
+     * @param mimeType   the mime type of the body used to find the mime type rules.
+     * @param out        the stream to write to, it is flushed before the transfer is rescheduled and closed at the end,
+     *                   e.g. to write the last chunk of a chunked body.
+     * @return a future completed when the whole body is written.
+     * @see #transfer(byte[], int, String, String, OutputStream)
+     */
+    public CompletableFuture<Void> transfer(ReadableByteChannel source, String requestURL, String mimeType, OutputStream out) {
+        ByteBuffer chunk = ByteBuffer.allocate(shaper.getChunkSize());
+        chunk.flip();
+        return start(new Transfer(chunk, source, acquireBuckets(requestURL, mimeType), out));
+    }
+
+    private CompletableFuture<Void> start(Transfer transfer) {
+        transfer.completion.whenComplete((result, failure) -> releaseBuckets(transfer.buckets));
+        transfer.run();
+        return transfer.completion;
+    }
+
+    /**
+     * Open a stream respecting the connection, client and global rates for a body written while it is produced.
+     * Unlike {@link #transfer} the writing thread waits until the buckets have enough tokens, so it is only used for
+     * bodies that can not be read as a channel, e.g. archives generated while they are written.
+     *
+     * @param requestURL the URL of the request used to find the path rules, can be null.
+     * @param mimeType   the mime type of the body used to find the mime type rules.
+     * @param out        the stream to write to, it is flushed before waiting.
+     * @return the shaped stream, it must be closed at the end of the body, closing it does not close the underlying
+     * stream.
+     */
+    public OutputStream openStream(String requestURL, String mimeType, OutputStream out) {
+        return new ShapedOutputStream(acquireBuckets(requestURL, mimeType), out);
+    }
+
+    /**
+     * Find the buckets of a transfer, the connection keeps one bucket per rate so that alternating between the rates
+     * of different rules does not refill them. The client bucket is kept until {@link #releaseBuckets}.
+     */
+    private synchronized List<TokenBucket> acquireBuckets(String requestURL, String mimeType) {
+        List<TokenBucket> buckets = new ArrayList<>(3);
+        long rate = shaper.findConnectionRate(requestURL, mimeType);
+        if (rate > 0) {
+            buckets.add(connectionBuckets.computeIfAbsent(rate, TokenBucket::new));
+        }
+        TokenBucket clientBucket = shaper.acquireClientBucket(clientAddress);
+        if (clientBucket != null) {
+            buckets.add(clientBucket);
+        }
+        if (shaper.getGlobalBucket() != null) {
+            buckets.add(shaper.getGlobalBucket());
+        }
+        return buckets;
+    }
+
+    /**
+     * Release the client bucket of a transfer, the other buckets are not counted.
+     */
+    private void releaseBuckets(List<TokenBucket> buckets) {
+        for (TokenBucket bucket : buckets) {
+            shaper.releaseClientBucket(clientAddress, bucket);
+        }
+    }
+
+    private void closeConnection() {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_CLOSING_SOCKET_CONNECTION.formatMessage(), e);
+        }
+    }
+
+    /**
+     * Writes chunks while all the buckets have tokens and reschedules itself when one of them is empty. With a source
+     * the content buffer is refilled from it each time it is written.
+     */
+    private class Transfer implements Runnable {
+
+        private final ByteBuffer content;
+        private final ReadableByteChannel source;
+        private final List<TokenBucket> buckets;
+        private final OutputStream out;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private byte[] copyBuffer;
+
+        Transfer(ByteBuffer content, ReadableByteChannel source, List<TokenBucket> buckets, OutputStream out) {
+            this.content = content;
+            this.source = source;
+            this.buckets = buckets;
+            this.out = out;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (content.hasRemaining() || fill()) {
+                    int chunk = Math.min(shaper.getChunkSize(), content.remaining());
+                    long wait = 0;
+                    for (TokenBucket bucket : buckets) {
+                        wait = Math.max(wait, bucket.nanosUntilAvailable(chunk));
+                    }
+                    if (wait > 0) {
+                        out.flush();
+                        shaper.schedule(this, wait);
+                        return;
+                    }
+                    write(chunk);
+                    for (TokenBucket bucket : buckets) {
+                        bucket.consume(chunk);
+                    }
+                }
+                out.flush();
+                if (source != null) {
+                    source.close();
+                    out.close();
+                }
+                completion.complete(null);
+            } catch (IOException e) {
+                LOGGER.warn(ERROR_WRITING_RESPONSE_CONTENT.formatMessage());
+                closeSource();
+                closeConnection();
+                completion.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Read the next chunk of the source into the content buffer.
+         *
+         * @return false at the end of the source or without source.
+         */
+        private boolean fill() throws IOException {
+            if (source == null) {
+                return false;
+            }
+            content.clear();
+            int count = source.read(content);
+            content.flip();
+            return count >= 0;
+        }
+
+        private void closeSource() {
+            if (source == null) {
+                return;
+            }
+            try {
+                source.close();
+            } catch (IOException e) {
+                LOGGER.warn(ERROR_WRITING_RESPONSE_CONTENT.formatMessage(), e);
+            }
+        }
+
+        private void write(int chunk) throws IOException {
+            if (content.hasArray()) {
+                out.write(content.array(), content.arrayOffset() + content.position(), chunk);
+                content.position(content.position() + chunk);
+                return;
+            }
+            if (copyBuffer == null) {
+                copyBuffer = new byte[shaper.getChunkSize()];
+            }
+            content.get(copyBuffer, 0, chunk);
+            out.write(copyBuffer, 0, chunk);
+        }
+    }
+
+    /**
+     * Blocking counterpart of {@link Transfer} for bodies pushed by a producer.
+     */
+    private class ShapedOutputStream extends OutputStream {
+
+        private final List<TokenBucket> buckets;
+        private final OutputStream out;
+        private boolean closed;
+
+        ShapedOutputStream(List<TokenBucket> buckets, OutputStream out) {
+            this.buckets = buckets;
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(shaper.getChunkSize(), len);
+                awaitTokens(chunk);
+                out.write(b, off, chunk);
+                for (TokenBucket bucket : buckets) {
+                    bucket.consume(chunk);
+                }
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                releaseBuckets(buckets);
+            }
+        }
+
+        private void awaitTokens(int chunk) throws IOException {
+            long wait = 0;
+            for (TokenBucket bucket : buckets) {
+                wait = Math.max(wait, bucket.nanosUntilAvailable(chunk));
+            }
+            if (wait <= 0) {
+                return;
+            }
+            out.flush();
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.marshmelo.fileserver.throttling;
+
+/**
+ * A token bucket refilled continuously with a fixed rate, one token represents one byte or one request.
+ * By default the bucket can hold one second worth of tokens and is allowed to go into debt so that several writers sharing
+ * a bucket never have to agree on a reservation before consuming.
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long ratePerSecond;
+    private final long capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param ratePerSecond number of tokens added every second, should be positive.
+     */
+    public TokenBucket(long ratePerSecond) {
+        this(ratePerSecond, ratePerSecond);
+    }
+
+    /**
+     * @param ratePerSecond number of tokens added every second, should be positive.
+     * @param capacity      maximum number of tokens which can be accumulated (burst size).
+     */
+    public TokenBucket(long ratePerSecond, long capacity) {
+        assert ratePerSecond > 0 && capacity > 0;
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * @return number of tokens which can be consumed now, zero if the bucket is in debt.
+     */
+    public synchronized long available() {
+        refill();
+        return tokens > 0 ? (long) tokens : 0;
+    }
+
+    /**
+     * Consume tokens even if it takes the bucket into debt.
+     *
+     * @param amount number of tokens to consume.
+     */
+    public synchronized void consume(long amount) {
+        refill();
+        tokens -= amount;
+    }
+
+    /**
+     * Consume one token only if it is available.
+     *
+     * @return true if the token was consumed.
+     */
+    public synchronized boolean tryConsume() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * @param amount number of tokens needed.
+     * @return the time in nanoseconds until the given amount of tokens is available, zero if they are available now.
+     */
+    public synchronized long nanosUntilAvailable(long amount) {
+        refill();
+        double missing = Math.min(amount, capacity) - tokens;
+        if (missing <= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(missing * NANOS_PER_SECOND / ratePerSecond);
+    }
+
+    /**
+     * @return true if the bucket is full, an idle bucket behaves exactly like a new one and can be discarded.
+     */
+    public synchronized boolean isIdle() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    public long getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long elapsed = now - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + (double) elapsed * ratePerSecond / NANOS_PER_SECOND);
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.marshmelo.fileserver.tls;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * The server side TLS configuration shared by all the connections: the key material loaded from a keystore and the
+ * session cache. Clients coming back within the session timeout resume their session from the cache (session ID in
+ * TLS 1.2, pre-shared key in TLS 1.3) or from a session ticket, which skips the key exchange and the signature of a
+ * full handshake.
+ */
+public class TlsContext {
+
+    public static final String HTTP2_PROTOCOL = "h2";
+    private static final String HTTP1_PROTOCOL = "http/1.1";
+    private static final String TLS_PROTOCOL = "TLS";
+    private static final String SESSION_TICKETS_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+    private static final String REJECT_RENEGOTIATION_PROPERTY = "jdk.tls.rejectClientInitiatedRenegotiation";
+
+    private final SSLContext sslContext;
+    private final String[] protocols;
+    private final String[] applicationProtocols;
+    private final TlsStats stats = new TlsStats();
+
+    /**
+     * @param keyStorePath            the keystore holding the private key and the certificate chain of the server.
+     * @param password                the password of the keystore and of the key.
+     * @param keyStoreType            the keystore type e.g. PKCS12, JKS.
+     * @param protocols               the enabled protocols e.g. TLSv1.2, TLSv1.3, empty for the defaults of the JVM.
+     * @param sessionCacheSize        maximum number of cached sessions, 0 for no limit.
+     * @param sessionTimeoutInSeconds lifetime of the cached sessions and tickets.
+     * @param sessionTickets          true to resume sessions from tickets kept by the clients (JVMs supporting them).
+     * @param http2                   true to offer h2 with ALPN.
+     * @throws IOException              thrown when the keystore can not be read.
+     * @throws GeneralSecurityException thrown when the keystore or the key can not be loaded.
+     */
+    public TlsContext(Path keyStorePath, char[] password, String keyStoreType, String[] protocols, int sessionCacheSize,
+                      int sessionTimeoutInSeconds, boolean sessionTickets, boolean http2) throws IOException, GeneralSecurityException {
+        // Both are read by the JVM when the first TLS context is created.
+        System.setProperty(SESSION_TICKETS_PROPERTY, Boolean.toString(sessionTickets));
+        System.setProperty(REJECT_RENEGOTIATION_PROPERTY, Boolean.TRUE.toString());
+        KeyStore keyStore = KeyStore.getInstance(keyStoreType);
+        try (InputStream inputStream = Files.newInputStream(keyStorePath)) {
+            keyStore.load(inputStream, password);
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+        this.sslContext = SSLContext.getInstance(TLS_PROTOCOL);
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        sessionContext.setSessionCacheSize(sessionCacheSize);
+        sessionContext.setSessionTimeout(sessionTimeoutInSeconds);
+        this.protocols = protocols;
+        this.applicationProtocols = http2 ? new String[]{HTTP2_PROTOCOL, HTTP1_PROTOCOL} : new String[]{HTTP1_PROTOCOL};
+    }
+
+    /**
+     * Wrap an accepted connection, the handshake is done later by the thread serving the connection.
+     *
+     * @param socket the accepted connection.
+     * @return the TLS connection.
+     * @throws IOException thrown when the socket streams can not be opened.
+     */
+    public TlsSocket wrap(Socket socket) throws IOException {
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters parameters = engine.getSSLParameters();
+        if (protocols.length > 0) {
+            parameters.setProtocols(protocols);
+        }
+        parameters.setUseCipherSuitesOrder(true);
+        parameters.setApplicationProtocols(applicationProtocols);
+        engine.setSSLParameters(parameters);
+        return new TlsSocket(socket, engine, stats);
+    }
+
+    public TlsStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,410 @@
+package com.marshmelo.fileserver.tls;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_TLS_RENEGOTIATION;
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_TLS_SOCKET_CLOSED;
+
+/**
+ * A server side TLS connection encrypted with an {@link SSLEngine}. It is a {@link Socket} so that the connection
+ * handlers serve it like a plain connection: the streams decrypt and encrypt the records, the timeout of the underlying
+ * socket bounds every read and closing sends the close_notify alert.
+ * <p>
+ * The handshake is done by {@link #startHandshake(long)} or by the first read or write. Reading and writing are
+ * guarded by separate locks, so the streams can be used by different threads at the same time e.g. by the streams of an
+ * HTTP/2 connection.
+ */
+public class TlsSocket extends Socket {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Socket socket;
+    private final SSLEngine engine;
+    private final TlsStats stats;
+    private final InputStream networkInput;
+    private final OutputStream networkOutput;
+    private final InputStream inputStream = new TlsInputStream();
+    private final OutputStream outputStream = new TlsOutputStream();
+    private final Object readLock = new Object();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Received records in write mode, decrypted bytes in read mode, records to send in write mode.
+    private ByteBuffer networkIn;
+    private ByteBuffer applicationIn;
+    private ByteBuffer networkOut;
+    private volatile boolean handshakeDone;
+    private volatile boolean closed;
+    private boolean inputDone;
+
+    TlsSocket(Socket socket, SSLEngine engine, TlsStats stats) throws IOException {
+        this.socket = socket;
+        this.engine = engine;
+        this.stats = stats;
+        this.networkInput = socket.getInputStream();
+        this.networkOutput = socket.getOutputStream();
+        this.networkIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.applicationIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        this.applicationIn.flip();
+        this.networkOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+    }
+
+    /**
+     * Do the handshake if it is not done yet.
+     *
+     * @param timeoutInMilliSec the longest time the whole handshake may take, 0 to only apply the socket timeout.
+     * @throws IOException thrown when the handshake fails or does not end in time.
+     */
+    public void startHandshake(long timeoutInMilliSec) throws IOException {
+        if (handshakeDone) {
+            return;
+        }
+        synchronized (readLock) {
+            writeLock.lock();
+            try {
+                if (!handshakeDone) {
+                    handshake(timeoutInMilliSec > 0 ? System.nanoTime() + timeoutInMilliSec * 1_000_000L : 0);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the protocol chosen with ALPN e.g. h2, null if the client did not offer any or the handshake is not done.
+     */
+    public String getApplicationProtocol() {
+        String protocol = handshakeDone ? engine.getApplicationProtocol() : null;
+        return protocol == null || protocol.isEmpty() ? null : protocol;
+    }
+
+    private void handshake(long deadlineNanos) throws IOException {
+        long startNanos = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        int socketTimeout = socket.getSoTimeout();
+        try {
+            engine.beginHandshake();
+            HandshakeStatus status = engine.getHandshakeStatus();
+            while (status != HandshakeStatus.FINISHED && status != HandshakeStatus.NOT_HANDSHAKING) {
+                if (status == HandshakeStatus.NEED_WRAP) {
+                    status = wrap(EMPTY);
+                } else if (status == HandshakeStatus.NEED_TASK) {
+                    status = runDelegatedTasks();
+                } else {
+                    status = unwrap(deadlineNanos, socketTimeout);
+                    if (inputDone) {
+                        throw new EOFException();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            stats.recordFailure();
+            throw e;
+        } finally {
+            socket.setSoTimeout(socketTimeout);
+        }
+        handshakeDone = true;
+        // A resumed session is the cached one, created by an earlier handshake.
+        stats.recordHandshake(engine.getSession().getCreationTime() < startMillis, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Decrypt the buffered records, reading from the network until a complete record is received. The caller holds
+     * the read lock.
+     */
+    private HandshakeStatus unwrap(long deadlineNanos, int socketTimeout) throws IOException {
+        while (true) {
+            SSLEngineResult result;
+            networkIn.flip();
+            applicationIn.compact();
+            try {
+                result = engine.unwrap(networkIn, applicationIn);
+            } finally {
+                applicationIn.flip();
+                networkIn.compact();
+            }
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    if (!networkIn.hasRemaining()) {
+                        networkIn = enlarge(networkIn, engine.getSession().getPacketBufferSize());
+                    }
+                    if (!readNetwork(deadlineNanos, socketTimeout)) {
+                        inputDone = true;
+                        return engine.getHandshakeStatus();
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    applicationIn.compact();
+                    applicationIn = enlarge(applicationIn, engine.getSession().getApplicationBufferSize());
+                    applicationIn.flip();
+                    break;
+                case CLOSED:
+                    inputDone = true;
+                    return result.getHandshakeStatus();
+                default:
+                    return result.getHandshakeStatus();
+            }
+        }
+    }
+
+    /**
+     * @return false if the client closed the connection.
+     */
+    private boolean readNetwork(long deadlineNanos, int socketTimeout) throws IOException {
+        if (deadlineNanos != 0) {
+            long remainingMillis = (deadlineNanos - System.nanoTime()) / 1_000_000L;
+            if (remainingMillis <= 0) {
+                throw new SocketTimeoutException();
+            }
+            socket.setSoTimeout((int) (socketTimeout > 0 ? Math.min(socketTimeout, remainingMillis) : Math.min(Integer.MAX_VALUE, remainingMillis)));
+        }
+        int read = networkInput.read(networkIn.array(), networkIn.arrayOffset() + networkIn.position(), networkIn.remaining());
+        if (read < 0) {
+            try {
+                engine.closeInbound();
+            } catch (SSLException e) {
+                // The client closed the connection without close_notify, the HTTP messages are delimited anyway.
+            }
+            return false;
+        }
+        networkIn.position(networkIn.position() + read);
+        return true;
+    }
+
+    /**
+     * Encrypt the bytes of the source and send the records. The caller holds the write lock.
+     */
+    private HandshakeStatus wrap(ByteBuffer source) throws IOException {
+        while (true) {
+            SSLEngineResult result = engine.wrap(source, networkOut);
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (networkOut.position() > 0) {
+                        flushNetwork();
+                    } else {
+                        networkOut = enlarge(networkOut, engine.getSession().getPacketBufferSize());
+                    }
+                    break;
+                case CLOSED:
+                    flushNetwork();
+                    if (source.hasRemaining()) {
+                        throw new SocketException(ERROR_TLS_SOCKET_CLOSED.formatMessage());
+                    }
+                    return result.getHandshakeStatus();
+                default:
+                    flushNetwork();
+                    return result.getHandshakeStatus();
+            }
+        }
+    }
+
+    private void flushNetwork() throws IOException {
+        if (networkOut.position() > 0) {
+            networkOutput.write(networkOut.array(), networkOut.arrayOffset(), networkOut.position());
+            networkOutput.flush();
+            networkOut.clear();
+        }
+    }
+
+    private HandshakeStatus runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+        return engine.getHandshakeStatus();
+    }
+
+    /**
+     * Answer the handshake messages received after the handshake e.g. TLS 1.3 key updates. The caller holds the read lock.
+     */
+    private void continueHandshake(HandshakeStatus status) throws IOException {
+        while (status == HandshakeStatus.NEED_TASK || status == HandshakeStatus.NEED_WRAP) {
+            if (status == HandshakeStatus.NEED_TASK) {
+                status = runDelegatedTasks();
+                continue;
+            }
+            writeLock.lock();
+            try {
+                status = wrap(EMPTY);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int size) {
+        ByteBuffer enlarged = ByteBuffer.allocate(Math.max(size, buffer.capacity()) + buffer.position());
+        buffer.flip();
+        enlarged.put(buffer);
+        return enlarged;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (closed) {
+            throw new SocketException(ERROR_TLS_SOCKET_CLOSED.formatMessage());
+        }
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (closed) {
+            throw new SocketException(ERROR_TLS_SOCKET_CLOSED.formatMessage());
+        }
+        return outputStream;
+    }
+
+    /**
+     * Send the close_notify alert if no write is in progress and close the connection.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (handshakeDone && writeLock.tryLock()) {
+                try {
+                    engine.closeOutbound();
+                    wrap(EMPTY);
+                } catch (IOException e) {
+                    // The client is gone, the alert is only a courtesy.
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return socket.getInetAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return socket.getPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return socket.getRemoteSocketAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+        socket.setSoTimeout(timeout);
+    }
+
+    @Override
+    public int getSoTimeout() throws SocketException {
+        return socket.getSoTimeout();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        socket.shutdownOutput();
+    }
+
+    private class TlsInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            startHandshake(0);
+            synchronized (readLock) {
+                while (!applicationIn.hasRemaining()) {
+                    if (inputDone) {
+                        return -1;
+                    }
+                    continueHandshake(unwrap(0, 0));
+                }
+                int length = Math.min(len, applicationIn.remaining());
+                applicationIn.get(b, off, length);
+                return length;
+            }
+        }
+
+        /**
+         * @return the number of decrypted bytes, records not decrypted yet are not counted.
+         */
+        @Override
+        public int available() {
+            synchronized (readLock) {
+                return applicationIn.remaining();
+            }
+        }
+    }
+
+    private class TlsOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            startHandshake(0);
+            writeLock.lock();
+            try {
+                if (closed) {
+                    throw new SocketException(ERROR_TLS_SOCKET_CLOSED.formatMessage());
+                }
+                ByteBuffer source = ByteBuffer.wrap(b, off, len);
+                while (source.hasRemaining()) {
+                    int position = source.position();
+                    HandshakeStatus status = wrap(source);
+                    if (status == HandshakeStatus.NEED_TASK) {
+                        runDelegatedTasks();
+                    } else if (source.position() == position && status == HandshakeStatus.NEED_UNWRAP) {
+                        // Client initiated renegotiation is rejected, the engine waits for messages it will not get.
+                        throw new SSLException(ERROR_TLS_RENEGOTIATION.formatMessage());
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.marshmelo.fileserver.tls;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the TLS handshakes of the server. A resumed handshake skips the key exchange and the certificate
+ * signature, so the ratio of resumed to full handshakes is what keeps the CPU cost of TLS down under load.
+ */
+public class TlsStats {
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private final AtomicLong failedHandshakes = new AtomicLong();
+    private final AtomicLong fullHandshakeNanos = new AtomicLong();
+    private final AtomicLong resumedHandshakeNanos = new AtomicLong();
+
+    void recordHandshake(boolean resumed, long durationNanos) {
+        if (resumed) {
+            resumedHandshakes.incrementAndGet();
+            resumedHandshakeNanos.addAndGet(durationNanos);
+        } else {
+            fullHandshakes.incrementAndGet();
+            fullHandshakeNanos.addAndGet(durationNanos);
+        }
+    }
+
+    void recordFailure() {
+        failedHandshakes.incrementAndGet();
+    }
+
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    public long getFailedHandshakes() {
+        return failedHandshakes.get();
+    }
+
+    /**
+     * @return the average duration of the full handshakes in microseconds, including the network round trips.
+     */
+    public long getAverageFullHandshakeMicros() {
+        long count = fullHandshakes.get();
+        return count == 0 ? 0 : fullHandshakeNanos.get() / count / 1000;
+    }
+
+    /**
+     * @return the average duration of the resumed handshakes in microseconds, including the network round trips.
+     */
+    public long getAverageResumedHandshakeMicros() {
+        long count = resumedHandshakes.get();
+        return count == 0 ? 0 : resumedHandshakeNanos.get() / count / 1000;
+    }
+}
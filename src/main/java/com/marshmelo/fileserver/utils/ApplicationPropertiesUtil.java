@@ -1,10 +1,16 @@
 package com.marshmelo.fileserver.utils;
 
 import com.marshmelo.fileserver.messages.LogMessages;
+import com.marshmelo.fileserver.models.UploadSettings;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -20,6 +26,177 @@ public class ApplicationPropertiesUtil {
     private static final String REQUEST_HANDLER_POOL_SIZE_PROPERTY = "file.server.pool.size";
     private static final int SOCKET_CONNECTION_TIMEOUT_IN_MILLI_SEC = 10000;
     private static final String SOCKET_CONNECTION_TIMEOUT_IN_MILLI_SEC_PROPERTY = "file.server.connection.timeout.milliseconds";
+    private static final int LARGE_FILE_THRESHOLD_IN_BYTES = 512 * 1024;
+    private static final String LARGE_FILE_THRESHOLD_IN_BYTES_PROPERTY = "file.server.large.file.threshold.bytes";
+    private static final int LARGE_FILE_POOL_SIZE = 10;
+    private static final String LARGE_FILE_POOL_SIZE_PROPERTY = "file.server.large.file.pool.size";
+    private static final int LARGE_FILE_QUEUE_SIZE = 100;
+    private static final String LARGE_FILE_QUEUE_SIZE_PROPERTY = "file.server.large.file.queue.size";
+    private static final int GLOBAL_BANDWIDTH_IN_BYTES_PER_SECOND = 0;
+    private static final String GLOBAL_BANDWIDTH_IN_BYTES_PER_SECOND_PROPERTY = "file.server.bandwidth.global.bytes.per.second";
+    private static final int CLIENT_BANDWIDTH_IN_BYTES_PER_SECOND = 0;
+    private static final String CLIENT_BANDWIDTH_IN_BYTES_PER_SECOND_PROPERTY = "file.server.bandwidth.client.bytes.per.second";
+    private static final int CONNECTION_BANDWIDTH_IN_BYTES_PER_SECOND = 0;
+    private static final String CONNECTION_BANDWIDTH_IN_BYTES_PER_SECOND_PROPERTY = "file.server.bandwidth.connection.bytes.per.second";
+    private static final String BANDWIDTH_RULES_PROPERTY = "file.server.bandwidth.rules";
+    private static final int BANDWIDTH_CHUNK_SIZE_IN_BYTES = 16 * 1024;
+    private static final String BANDWIDTH_CHUNK_SIZE_IN_BYTES_PROPERTY = "file.server.bandwidth.chunk.bytes";
+    private static final int BANDWIDTH_TIMER_POOL_SIZE = 2;
+    private static final String BANDWIDTH_TIMER_POOL_SIZE_PROPERTY = "file.server.bandwidth.timer.pool.size";
+    private static final int CLIENT_REQUESTS_PER_SECOND = 0;
+    private static final String CLIENT_REQUESTS_PER_SECOND_PROPERTY = "file.server.rate.limit.requests.per.second";
+    private static final int CLIENT_REQUESTS_BURST = 100;
+    private static final String CLIENT_REQUESTS_BURST_PROPERTY = "file.server.rate.limit.burst";
+    private static final int RATE_LIMITER_MAX_CLIENTS = 65536;
+    private static final String RATE_LIMITER_MAX_CLIENTS_PROPERTY = "file.server.rate.limit.max.clients";
+    private static final int MAX_REQUEST_LINE_LENGTH = 8 * 1024;
+    private static final String MAX_REQUEST_LINE_LENGTH_PROPERTY = "file.server.request.line.max.bytes";
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final String MAX_HEADER_BYTES_PROPERTY = "file.server.request.header.max.bytes";
+    private static final int MAX_HEADER_COUNT = 100;
+    private static final String MAX_HEADER_COUNT_PROPERTY = "file.server.request.header.max.count";
+    private static final int HEADER_TIMEOUT_IN_MILLI_SEC = 5000;
+    private static final String HEADER_TIMEOUT_IN_MILLI_SEC_PROPERTY = "file.server.request.header.timeout.milliseconds";
+    private static final boolean METADATA_SCAN_ON_STARTUP = true;
+    private static final String METADATA_SCAN_ON_STARTUP_PROPERTY = "file.server.metadata.scan.on.startup";
+    private static final String PACK_PATH = "";
+    private static final String PACK_PATH_PROPERTY = "file.server.pack.path";
+    private static final int PACK_RELOAD_INTERVAL_IN_SECONDS = 0;
+    private static final String PACK_RELOAD_INTERVAL_IN_SECONDS_PROPERTY = "file.server.pack.reload.seconds";
+    private static final long HEAP_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final String HEAP_CACHE_BYTES_PROPERTY = "file.server.cache.heap.bytes";
+    private static final long HEAP_CACHE_MAX_ENTRY_BYTES = 64L * 1024;
+    private static final String HEAP_CACHE_MAX_ENTRY_BYTES_PROPERTY = "file.server.cache.heap.max.entry.bytes";
+    private static final long OFF_HEAP_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final String OFF_HEAP_CACHE_BYTES_PROPERTY = "file.server.cache.offheap.bytes";
+    private static final long DISK_CACHE_BYTES = 1024L * 1024 * 1024;
+    private static final String DISK_CACHE_BYTES_PROPERTY = "file.server.cache.disk.bytes";
+    private static final String DISK_CACHE_PATH = "";
+    private static final String DISK_CACHE_PATH_PROPERTY = "file.server.cache.disk.path";
+    private static final int CACHE_STATS_LOG_INTERVAL_IN_SECONDS = 0;
+    private static final String CACHE_STATS_LOG_INTERVAL_IN_SECONDS_PROPERTY = "file.server.cache.stats.log.seconds";
+    private static final long GZIP_MIN_BYTES = 1024;
+    private static final String GZIP_MIN_BYTES_PROPERTY = "file.server.gzip.min.bytes";
+    private static final boolean HTTP2_ENABLED = true;
+    private static final String HTTP2_ENABLED_PROPERTY = "file.server.http2.enabled";
+    private static final int HTTP2_MAX_CONCURRENT_STREAMS = 100;
+    private static final String HTTP2_MAX_CONCURRENT_STREAMS_PROPERTY = "file.server.http2.max.concurrent.streams";
+    private static final int HTTP2_INITIAL_WINDOW_SIZE = 65535;
+    private static final String HTTP2_INITIAL_WINDOW_SIZE_PROPERTY = "file.server.http2.initial.window.size";
+    private static final int HTTP2_MAX_FRAME_SIZE = 16384;
+    private static final String HTTP2_MAX_FRAME_SIZE_PROPERTY = "file.server.http2.max.frame.size";
+    private static final int HTTP2_STREAM_POOL_SIZE = 16;
+    private static final String HTTP2_STREAM_POOL_SIZE_PROPERTY = "file.server.http2.stream.pool.size";
+    private static final boolean TLS_ENABLED = false;
+    private static final String TLS_ENABLED_PROPERTY = "file.server.tls.enabled";
+    private static final int TLS_PORT = 8443;
+    private static final String TLS_PORT_PROPERTY = "file.server.tls.port";
+    private static final String TLS_KEYSTORE_PATH = "";
+    private static final String TLS_KEYSTORE_PATH_PROPERTY = "file.server.tls.keystore.path";
+    private static final String TLS_KEYSTORE_PASSWORD = "";
+    private static final String TLS_KEYSTORE_PASSWORD_PROPERTY = "file.server.tls.keystore.password";
+    private static final String TLS_KEYSTORE_TYPE = "PKCS12";
+    private static final String TLS_KEYSTORE_TYPE_PROPERTY = "file.server.tls.keystore.type";
+    private static final String TLS_PROTOCOLS = "";
+    private static final String TLS_PROTOCOLS_PROPERTY = "file.server.tls.protocols";
+    private static final int TLS_SESSION_CACHE_SIZE = 10000;
+    private static final String TLS_SESSION_CACHE_SIZE_PROPERTY = "file.server.tls.session.cache.size";
+    private static final int TLS_SESSION_TIMEOUT_IN_SECONDS = 86400;
+    private static final String TLS_SESSION_TIMEOUT_IN_SECONDS_PROPERTY = "file.server.tls.session.timeout.seconds";
+    private static final boolean TLS_SESSION_TICKETS = true;
+    private static final String TLS_SESSION_TICKETS_PROPERTY = "file.server.tls.session.tickets";
+    private static final int TLS_STATS_LOG_INTERVAL_IN_SECONDS = 0;
+    private static final String TLS_STATS_LOG_INTERVAL_IN_SECONDS_PROPERTY = "file.server.tls.stats.log.seconds";
+    private static final int CONNECTION_IDLE_TIMEOUT_IN_MILLISECONDS = 5000;
+    private static final String CONNECTION_IDLE_TIMEOUT_IN_MILLISECONDS_PROPERTY = "file.server.connection.idle.timeout.milliseconds";
+    private static final int CONNECTION_WRITE_TIMEOUT_IN_MILLISECONDS = 300000;
+    private static final String CONNECTION_WRITE_TIMEOUT_IN_MILLISECONDS_PROPERTY = "file.server.connection.write.timeout.milliseconds";
+    private static final int CONNECTION_MAX_OPEN = 1000;
+    private static final String CONNECTION_MAX_OPEN_PROPERTY = "file.server.connection.max.open";
+    private static final int CONNECTION_WHEEL_TICK_IN_MILLISECONDS = 100;
+    private static final String CONNECTION_WHEEL_TICK_IN_MILLISECONDS_PROPERTY = "file.server.connection.wheel.tick.milliseconds";
+    private static final int CONNECTION_WHEEL_SIZE = 512;
+    private static final String CONNECTION_WHEEL_SIZE_PROPERTY = "file.server.connection.wheel.size";
+    private static final int CONNECTION_STATS_LOG_INTERVAL_IN_SECONDS = 0;
+    private static final String CONNECTION_STATS_LOG_INTERVAL_IN_SECONDS_PROPERTY = "file.server.connection.stats.log.seconds";
+    private static final int SOAK_DURATION_IN_SECONDS = 0;
+    private static final String SOAK_DURATION_IN_SECONDS_PROPERTY = "file.server.soak.duration.seconds";
+    private static final int SOAK_WARMUP_IN_SECONDS = 60;
+    private static final String SOAK_WARMUP_IN_SECONDS_PROPERTY = "file.server.soak.warmup.seconds";
+    private static final int SOAK_MAX_FD_GROWTH = 16;
+    private static final String SOAK_MAX_FD_GROWTH_PROPERTY = "file.server.soak.max.fd.growth";
+    private static final long SOAK_MAX_HEAP_GROWTH_IN_BYTES = 32L * 1024 * 1024;
+    private static final String SOAK_MAX_HEAP_GROWTH_IN_BYTES_PROPERTY = "file.server.soak.max.heap.growth.bytes";
+    private static final String BATCH_PATH = "/__batch";
+    private static final String BATCH_PATH_PROPERTY = "file.server.batch.path";
+    private static final int BATCH_MAX_FILES = 64;
+    private static final String BATCH_MAX_FILES_PROPERTY = "file.server.batch.max.files";
+    private static final long BATCH_MAX_BYTES = 1024 * 1024;
+    private static final String BATCH_MAX_BYTES_PROPERTY = "file.server.batch.max.bytes";
+    private static final int ARCHIVE_MAX_FILES = 10000;
+    private static final String ARCHIVE_MAX_FILES_PROPERTY = "file.server.archive.max.files";
+    private static final boolean LISTING_ENABLED = false;
+    private static final String LISTING_ENABLED_PROPERTY = "file.server.listing.enabled";
+    private static final int LISTING_PAGE_SIZE = 100;
+    private static final String LISTING_PAGE_SIZE_PROPERTY = "file.server.listing.page.size";
+    private static final int LISTING_MAX_PAGE_SIZE = 1000;
+    private static final String LISTING_MAX_PAGE_SIZE_PROPERTY = "file.server.listing.max.page.size";
+    private static final boolean IMAGE_ENABLED = false;
+    private static final String IMAGE_ENABLED_PROPERTY = "file.server.image.enabled";
+    private static final int IMAGE_POOL_SIZE = 2;
+    private static final String IMAGE_POOL_SIZE_PROPERTY = "file.server.image.pool.size";
+    private static final int IMAGE_QUEUE_SIZE = 16;
+    private static final String IMAGE_QUEUE_SIZE_PROPERTY = "file.server.image.queue.size";
+    private static final int IMAGE_MAX_DIMENSION = 4096;
+    private static final String IMAGE_MAX_DIMENSION_PROPERTY = "file.server.image.max.dimension";
+    private static final long IMAGE_MAX_PIXELS = 40L * 1000 * 1000;
+    private static final String IMAGE_MAX_PIXELS_PROPERTY = "file.server.image.max.pixels";
+    private static final long IMAGE_TIMEOUT_MILLISECONDS = 10000;
+    private static final String IMAGE_TIMEOUT_MILLISECONDS_PROPERTY = "file.server.image.timeout.milliseconds";
+    private static final boolean MINIFY_ENABLED = false;
+    private static final String MINIFY_ENABLED_PROPERTY = "file.server.minify.enabled";
+    private static final boolean PRELOAD_ENABLED = false;
+    private static final String PRELOAD_ENABLED_PROPERTY = "file.server.preload.enabled";
+    private static final boolean PRELOAD_EARLY_HINTS = true;
+    private static final String PRELOAD_EARLY_HINTS_PROPERTY = "file.server.preload.early.hints";
+    private static final int PRELOAD_MAX_LINKS = 8;
+    private static final String PRELOAD_MAX_LINKS_PROPERTY = "file.server.preload.max.links";
+    private static final boolean PRELOAD_WARM = true;
+    private static final String PRELOAD_WARM_PROPERTY = "file.server.preload.warm";
+    private static final String CACHE_CONTROL_RULES_PROPERTY = "file.server.cache.control.rules";
+    private static final String CACHE_CONTROL_DEFAULT = "";
+    private static final String CACHE_CONTROL_DEFAULT_PROPERTY = "file.server.cache.control.default";
+    private static final boolean CACHE_CONTROL_FINGERPRINTED = true;
+    private static final String CACHE_CONTROL_FINGERPRINTED_PROPERTY = "file.server.cache.control.fingerprinted";
+    private static final boolean UPLOAD_ENABLED = false;
+    private static final String UPLOAD_ENABLED_PROPERTY = "file.server.upload.enabled";
+    private static final String UPLOAD_TOKEN = "";
+    private static final String UPLOAD_TOKEN_PROPERTY = "file.server.upload.token";
+    private static final long UPLOAD_MAX_BYTES = 1024L * 1024 * 1024;
+    private static final String UPLOAD_MAX_BYTES_PROPERTY = "file.server.upload.max.bytes";
+    private static final UploadSettings.FsyncPolicy UPLOAD_FSYNC = UploadSettings.FsyncPolicy.FILE;
+    private static final String UPLOAD_FSYNC_PROPERTY = "file.server.upload.fsync";
+    private static final String ORIGIN_URL = "";
+    private static final String ORIGIN_URL_PROPERTY = "file.server.origin.url";
+    private static final int ORIGIN_MAX_CONNECTIONS = 16;
+    private static final String ORIGIN_MAX_CONNECTIONS_PROPERTY = "file.server.origin.max.connections";
+    private static final int ORIGIN_TIMEOUT_MILLISECONDS = 5000;
+    private static final String ORIGIN_TIMEOUT_MILLISECONDS_PROPERTY = "file.server.origin.timeout.milliseconds";
+    private static final long ORIGIN_IDLE_TIMEOUT_MILLISECONDS = 30000;
+    private static final String ORIGIN_IDLE_TIMEOUT_MILLISECONDS_PROPERTY = "file.server.origin.idle.timeout.milliseconds";
+    private static final String PEER_SELF = "";
+    private static final String PEER_SELF_PROPERTY = "file.server.peer.self";
+    private static final String PEER_LIST_PROPERTY = "file.server.peer.list";
+    private static final String PEER_PATH = "/__peer";
+    private static final String PEER_PATH_PROPERTY = "file.server.peer.path";
+    private static final int PEER_VIRTUAL_NODES = 160;
+    private static final String PEER_VIRTUAL_NODES_PROPERTY = "file.server.peer.virtual.nodes";
+    private static final int PEER_MAX_CONNECTIONS = 8;
+    private static final String PEER_MAX_CONNECTIONS_PROPERTY = "file.server.peer.max.connections";
+    private static final int PEER_TIMEOUT_MILLISECONDS = 500;
+    private static final String PEER_TIMEOUT_MILLISECONDS_PROPERTY = "file.server.peer.timeout.milliseconds";
+    private static final long PEER_HEALTH_INTERVAL_MILLISECONDS = 2000;
+    private static final String PEER_HEALTH_INTERVAL_MILLISECONDS_PROPERTY = "file.server.peer.health.interval.milliseconds";
     private static final Logger LOGGER = Logger.getLogger(ApplicationPropertiesUtil.class);
 
     private Properties properties;
@@ -98,4 +275,694 @@ public class ApplicationPropertiesUtil {
             return SOCKET_CONNECTION_TIMEOUT_IN_MILLI_SEC;
         }
     }
+
+    /**
+     * Resources with at least this size are served from the large file lane.
+     */
+    public int getLargeFileThresholdInBytes() {
+        return getIntProperty(LARGE_FILE_THRESHOLD_IN_BYTES_PROPERTY, LARGE_FILE_THRESHOLD_IN_BYTES);
+    }
+
+    public int getLargeFilePoolSize() {
+        return getIntProperty(LARGE_FILE_POOL_SIZE_PROPERTY, LARGE_FILE_POOL_SIZE);
+    }
+
+    /**
+     * Maximum number of large transfers waiting for a thread, further large requests are rejected.
+     */
+    public int getLargeFileQueueSize() {
+        return getIntProperty(LARGE_FILE_QUEUE_SIZE_PROPERTY, LARGE_FILE_QUEUE_SIZE);
+    }
+
+    /**
+     * Bandwidth shared by all the connections in bytes per second, 0 means unlimited.
+     */
+    public int getGlobalBandwidthInBytesPerSecond() {
+        return getIntProperty(GLOBAL_BANDWIDTH_IN_BYTES_PER_SECOND_PROPERTY, GLOBAL_BANDWIDTH_IN_BYTES_PER_SECOND);
+    }
+
+    /**
+     * Bandwidth shared by all the connections of one client address in bytes per second, 0 means unlimited.
+     */
+    public int getClientBandwidthInBytesPerSecond() {
+        return getIntProperty(CLIENT_BANDWIDTH_IN_BYTES_PER_SECOND_PROPERTY, CLIENT_BANDWIDTH_IN_BYTES_PER_SECOND);
+    }
+
+    /**
+     * Default bandwidth of one connection in bytes per second, 0 means unlimited.
+     */
+    public int getConnectionBandwidthInBytesPerSecond() {
+        return getIntProperty(CONNECTION_BANDWIDTH_IN_BYTES_PER_SECOND_PROPERTY, CONNECTION_BANDWIDTH_IN_BYTES_PER_SECOND);
+    }
+
+    /**
+     * Per connection bandwidth rules e.g. file.server.bandwidth.rules=/downloads/:262144,image/jpeg:131072,video/*:65536.
+     * A key starting with / is a path prefix o.w. it is a mime type, invalid rules are ignored.
+     *
+     * @return the rates in bytes per second keyed by path prefix or mime type.
+     */
+    public Map<String, Long> getBandwidthRules() {
+        Map<String, Long> rules = new LinkedHashMap<>();
+        String value = properties == null ? null : properties.getProperty(BANDWIDTH_RULES_PROPERTY);
+        if (value == null || value.trim().isEmpty()) {
+            return rules;
+        }
+        for (String rule : value.split(",")) {
+            int index = rule.lastIndexOf(':');
+            try {
+                rules.put(rule.substring(0, index).trim(), Long.parseLong(rule.substring(index + 1).trim()));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                LOGGER.warn(LogMessages.ERROR_PARSING_PROPERTY_TO_INTEGER.formatMessage(BANDWIDTH_RULES_PROPERTY));
+            }
+        }
+        return rules;
+    }
+
+    public int getBandwidthChunkSizeInBytes() {
+        return getIntProperty(BANDWIDTH_CHUNK_SIZE_IN_BYTES_PROPERTY, BANDWIDTH_CHUNK_SIZE_IN_BYTES);
+    }
+
+    public int getBandwidthTimerPoolSize() {
+        return getIntProperty(BANDWIDTH_TIMER_POOL_SIZE_PROPERTY, BANDWIDTH_TIMER_POOL_SIZE);
+    }
+
+    /**
+     * Requests per second allowed for one client address, 0 means unlimited.
+     */
+    public int getClientRequestsPerSecond() {
+        return getIntProperty(CLIENT_REQUESTS_PER_SECOND_PROPERTY, CLIENT_REQUESTS_PER_SECOND);
+    }
+
+    public int getClientRequestsBurst() {
+        return getIntProperty(CLIENT_REQUESTS_BURST_PROPERTY, CLIENT_REQUESTS_BURST);
+    }
+
+    /**
+     * Maximum number of client addresses tracked by the rate limiter, least recently seen clients are forgotten first.
+     */
+    public int getRateLimiterMaxClients() {
+        return getIntProperty(RATE_LIMITER_MAX_CLIENTS_PROPERTY, RATE_LIMITER_MAX_CLIENTS);
+    }
+
+    public int getMaxRequestLineLength() {
+        return getIntProperty(MAX_REQUEST_LINE_LENGTH_PROPERTY, MAX_REQUEST_LINE_LENGTH);
+    }
+
+    public int getMaxHeaderBytes() {
+        return getIntProperty(MAX_HEADER_BYTES_PROPERTY, MAX_HEADER_BYTES);
+    }
+
+    public int getMaxHeaderCount() {
+        return getIntProperty(MAX_HEADER_COUNT_PROPERTY, MAX_HEADER_COUNT);
+    }
+
+    /**
+     * Wall clock time allowed to receive the request line and all the headers, independent of the socket timeout.
+     */
+    public int getHeaderTimeoutInMilliSec() {
+        return getIntProperty(HEADER_TIMEOUT_IN_MILLI_SEC_PROPERTY, HEADER_TIMEOUT_IN_MILLI_SEC);
+    }
+
+    /**
+     * When enabled the metadata of all the static resources is indexed before the server accepts connections,
+     * o.w. it is indexed lazily on the first request of every resource.
+     */
+    public boolean isMetadataScanOnStartup() {
+        return getBooleanProperty(METADATA_SCAN_ON_STARTUP_PROPERTY, METADATA_SCAN_ON_STARTUP);
+    }
+
+    /**
+     * Path of the pack file built with the PackWriter tool, when set the static resources are served from the memory
+     * mapped pack instead of the static folders.
+     *
+     * @return the path or an empty string if no pack is used.
+     */
+    public String getPackPath() {
+        return getStringProperty(PACK_PATH_PROPERTY, PACK_PATH);
+    }
+
+    /**
+     * Interval of the checks for a replaced pack file, 0 disables reloading.
+     */
+    public int getPackReloadIntervalInSeconds() {
+        return getIntProperty(PACK_RELOAD_INTERVAL_IN_SECONDS_PROPERTY, PACK_RELOAD_INTERVAL_IN_SECONDS);
+    }
+
+    /**
+     * Bytes of resources cached on the heap, only resources up to {@link #getHeapCacheMaxEntryBytes()} are kept there.
+     */
+    public long getHeapCacheBytes() {
+        return getLongProperty(HEAP_CACHE_BYTES_PROPERTY, HEAP_CACHE_BYTES);
+    }
+
+    public long getHeapCacheMaxEntryBytes() {
+        return getLongProperty(HEAP_CACHE_MAX_ENTRY_BYTES_PROPERTY, HEAP_CACHE_MAX_ENTRY_BYTES);
+    }
+
+    /**
+     * Bytes of resources cached in direct buffers, the JVM limit -XX:MaxDirectMemorySize should be higher.
+     */
+    public long getOffHeapCacheBytes() {
+        return getLongProperty(OFF_HEAP_CACHE_BYTES_PROPERTY, OFF_HEAP_CACHE_BYTES);
+    }
+
+    /**
+     * Bytes of generated resources e.g. compressed variants spilled to disk.
+     */
+    public long getDiskCacheBytes() {
+        return getLongProperty(DISK_CACHE_BYTES_PROPERTY, DISK_CACHE_BYTES);
+    }
+
+    /**
+     * Folder in which the cache creates its own spill folder, the temporary folder of the system is used when empty.
+     */
+    public String getDiskCachePath() {
+        return getStringProperty(DISK_CACHE_PATH_PROPERTY, DISK_CACHE_PATH);
+    }
+
+    /**
+     * Interval of the cache statistics in the log, 0 disables them.
+     */
+    public int getCacheStatsLogIntervalInSeconds() {
+        return getIntProperty(CACHE_STATS_LOG_INTERVAL_IN_SECONDS_PROPERTY, CACHE_STATS_LOG_INTERVAL_IN_SECONDS);
+    }
+
+    /**
+     * Smallest text resource compressed on the fly for clients accepting gzip, 0 disables compression on the fly.
+     */
+    public long getGzipMinBytes() {
+        return getLongProperty(GZIP_MIN_BYTES_PROPERTY, GZIP_MIN_BYTES);
+    }
+
+    /**
+     * Serve HTTP/2 over cleartext to the clients sending the connection preface or asking for an h2c upgrade.
+     */
+    public boolean isHttp2Enabled() {
+        return getBooleanProperty(HTTP2_ENABLED_PROPERTY, HTTP2_ENABLED);
+    }
+
+    public int getHttp2MaxConcurrentStreams() {
+        return getIntProperty(HTTP2_MAX_CONCURRENT_STREAMS_PROPERTY, HTTP2_MAX_CONCURRENT_STREAMS);
+    }
+
+    /**
+     * Flow control window of the request bodies, announced to the clients in the SETTINGS frame.
+     */
+    public int getHttp2InitialWindowSize() {
+        return getIntProperty(HTTP2_INITIAL_WINDOW_SIZE_PROPERTY, HTTP2_INITIAL_WINDOW_SIZE);
+    }
+
+    /**
+     * Largest frame accepted from the clients, between 16384 and 16777215.
+     */
+    public int getHttp2MaxFrameSize() {
+        return getIntProperty(HTTP2_MAX_FRAME_SIZE_PROPERTY, HTTP2_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Number of threads serving the requests of the HTTP/2 streams.
+     */
+    public int getHttp2StreamPoolSize() {
+        return getIntProperty(HTTP2_STREAM_POOL_SIZE_PROPERTY, HTTP2_STREAM_POOL_SIZE);
+    }
+
+    public boolean isTlsEnabled() {
+        return getBooleanProperty(TLS_ENABLED_PROPERTY, TLS_ENABLED);
+    }
+
+    public int getTlsPort() {
+        return getIntProperty(TLS_PORT_PROPERTY, TLS_PORT);
+    }
+
+    public String getTlsKeyStorePath() {
+        return getStringProperty(TLS_KEYSTORE_PATH_PROPERTY, TLS_KEYSTORE_PATH);
+    }
+
+    public String getTlsKeyStorePassword() {
+        return getStringProperty(TLS_KEYSTORE_PASSWORD_PROPERTY, TLS_KEYSTORE_PASSWORD);
+    }
+
+    public String getTlsKeyStoreType() {
+        return getStringProperty(TLS_KEYSTORE_TYPE_PROPERTY, TLS_KEYSTORE_TYPE);
+    }
+
+    /**
+     * The enabled TLS protocols as a comma separated list e.g. TLSv1.2,TLSv1.3, empty for the defaults of the JVM.
+     */
+    public String[] getTlsProtocols() {
+        String value = getStringProperty(TLS_PROTOCOLS_PROPERTY, TLS_PROTOCOLS);
+        if (value.isEmpty()) {
+            return new String[0];
+        }
+        String[] protocols = value.split(",");
+        for (int i = 0; i < protocols.length; i++) {
+            protocols[i] = protocols[i].trim();
+        }
+        return protocols;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return getIntProperty(TLS_SESSION_CACHE_SIZE_PROPERTY, TLS_SESSION_CACHE_SIZE);
+    }
+
+    public int getTlsSessionTimeoutInSeconds() {
+        return getIntProperty(TLS_SESSION_TIMEOUT_IN_SECONDS_PROPERTY, TLS_SESSION_TIMEOUT_IN_SECONDS);
+    }
+
+    public boolean isTlsSessionTicketsEnabled() {
+        return getBooleanProperty(TLS_SESSION_TICKETS_PROPERTY, TLS_SESSION_TICKETS);
+    }
+
+    /**
+     * Interval of the handshake statistics log, 0 disables it.
+     */
+    public int getTlsStatsLogIntervalInSeconds() {
+        return getIntProperty(TLS_STATS_LOG_INTERVAL_IN_SECONDS_PROPERTY, TLS_STATS_LOG_INTERVAL_IN_SECONDS);
+    }
+
+    /**
+     * Time a connection is kept open waiting for the next request after a response.
+     */
+    public int getConnectionIdleTimeoutInMilliSec() {
+        return getIntProperty(CONNECTION_IDLE_TIMEOUT_IN_MILLISECONDS_PROPERTY, CONNECTION_IDLE_TIMEOUT_IN_MILLISECONDS);
+    }
+
+    /**
+     * Time a response may take to be written before the connection is closed.
+     */
+    public int getConnectionWriteTimeoutInMilliSec() {
+        return getIntProperty(CONNECTION_WRITE_TIMEOUT_IN_MILLISECONDS_PROPERTY, CONNECTION_WRITE_TIMEOUT_IN_MILLISECONDS);
+    }
+
+    /**
+     * Maximum number of open connections, 0 for no limit.
+     */
+    public int getMaxOpenConnections() {
+        return getIntProperty(CONNECTION_MAX_OPEN_PROPERTY, CONNECTION_MAX_OPEN);
+    }
+
+    public int getConnectionWheelTickInMilliSec() {
+        return getIntProperty(CONNECTION_WHEEL_TICK_IN_MILLISECONDS_PROPERTY, CONNECTION_WHEEL_TICK_IN_MILLISECONDS);
+    }
+
+    public int getConnectionWheelSize() {
+        return getIntProperty(CONNECTION_WHEEL_SIZE_PROPERTY, CONNECTION_WHEEL_SIZE);
+    }
+
+    /**
+     * Interval of the connection statistics log, 0 disables it.
+     */
+    public int getConnectionStatsLogIntervalInSeconds() {
+        return getIntProperty(CONNECTION_STATS_LOG_INTERVAL_IN_SECONDS_PROPERTY, CONNECTION_STATS_LOG_INTERVAL_IN_SECONDS);
+    }
+
+    /**
+     * Duration of a soak test run, the server stops at the end of it. 0 for a normal run.
+     */
+    public int getSoakDurationInSeconds() {
+        return getIntProperty(SOAK_DURATION_IN_SECONDS_PROPERTY, SOAK_DURATION_IN_SECONDS);
+    }
+
+    /**
+     * Time from the start of a soak test run until the baseline is recorded.
+     */
+    public int getSoakWarmUpInSeconds() {
+        return getIntProperty(SOAK_WARMUP_IN_SECONDS_PROPERTY, SOAK_WARMUP_IN_SECONDS);
+    }
+
+    public int getSoakMaxFileDescriptorGrowth() {
+        return getIntProperty(SOAK_MAX_FD_GROWTH_PROPERTY, SOAK_MAX_FD_GROWTH);
+    }
+
+    public long getSoakMaxHeapGrowthInBytes() {
+        return getLongProperty(SOAK_MAX_HEAP_GROWTH_IN_BYTES_PROPERTY, SOAK_MAX_HEAP_GROWTH_IN_BYTES);
+    }
+
+    /**
+     * Path of the batch requests returning many resources in one response, empty to disable them.
+     */
+    public String getBatchPath() {
+        return getStringProperty(BATCH_PATH_PROPERTY, BATCH_PATH);
+    }
+
+    public int getBatchMaxFiles() {
+        return getIntProperty(BATCH_MAX_FILES_PROPERTY, BATCH_MAX_FILES);
+    }
+
+    public long getBatchMaxBytes() {
+        return getLongProperty(BATCH_MAX_BYTES_PROPERTY, BATCH_MAX_BYTES);
+    }
+
+    /**
+     * Maximum number of resources of a folder archive, 0 disables the archives.
+     */
+    public int getArchiveMaxFiles() {
+        return getIntProperty(ARCHIVE_MAX_FILES_PROPERTY, ARCHIVE_MAX_FILES);
+    }
+
+    /**
+     * Whether folders without index.html are listed instead of being answered with 404.
+     */
+    public boolean isListingEnabled() {
+        return getBooleanProperty(LISTING_ENABLED_PROPERTY, LISTING_ENABLED);
+    }
+
+    /**
+     * Number of entries of a folder listing page when the request does not set one.
+     */
+    public int getListingPageSize() {
+        return getIntProperty(LISTING_PAGE_SIZE_PROPERTY, LISTING_PAGE_SIZE);
+    }
+
+    /**
+     * Maximum number of entries of a folder listing page.
+     */
+    public int getListingMaxPageSize() {
+        return getIntProperty(LISTING_MAX_PAGE_SIZE_PROPERTY, LISTING_MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Whether images can be resized and converted with the w, h, q and format parameters.
+     */
+    public boolean isImageEnabled() {
+        return getBooleanProperty(IMAGE_ENABLED_PROPERTY, IMAGE_ENABLED);
+    }
+
+    /**
+     * Number of threads transforming images, separate from the threads serving files.
+     */
+    public int getImagePoolSize() {
+        return getIntProperty(IMAGE_POOL_SIZE_PROPERTY, IMAGE_POOL_SIZE);
+    }
+
+    /**
+     * Maximum number of image transforms waiting for a free thread.
+     */
+    public int getImageQueueSize() {
+        return getIntProperty(IMAGE_QUEUE_SIZE_PROPERTY, IMAGE_QUEUE_SIZE);
+    }
+
+    /**
+     * Maximum width and height of a transformed image.
+     */
+    public int getImageMaxDimension() {
+        return getIntProperty(IMAGE_MAX_DIMENSION_PROPERTY, IMAGE_MAX_DIMENSION);
+    }
+
+    /**
+     * Maximum number of pixels of an image to transform, bigger images are not decoded.
+     */
+    public long getImageMaxPixels() {
+        return getLongProperty(IMAGE_MAX_PIXELS_PROPERTY, IMAGE_MAX_PIXELS);
+    }
+
+    /**
+     * Maximum time a request waits for its image transform.
+     */
+    public long getImageTimeoutInMilliSec() {
+        return getLongProperty(IMAGE_TIMEOUT_MILLISECONDS_PROPERTY, IMAGE_TIMEOUT_MILLISECONDS);
+    }
+
+    /**
+     * Whether html, css, javascript and json resources are minified when they are loaded.
+     */
+    public boolean isMinifyEnabled() {
+        return getBooleanProperty(MINIFY_ENABLED_PROPERTY, MINIFY_ENABLED);
+    }
+
+    /**
+     * Whether HTML pages announce the stylesheets, scripts and images they need with preload Link headers.
+     */
+    public boolean isPreloadEnabled() {
+        return getBooleanProperty(PRELOAD_ENABLED_PROPERTY, PRELOAD_ENABLED);
+    }
+
+    /**
+     * Whether the preload Link header is sent first in a 103 Early Hints response.
+     */
+    public boolean isPreloadEarlyHints() {
+        return getBooleanProperty(PRELOAD_EARLY_HINTS_PROPERTY, PRELOAD_EARLY_HINTS);
+    }
+
+    /**
+     * Maximum number of assets announced for a page.
+     */
+    public int getPreloadMaxLinks() {
+        return getIntProperty(PRELOAD_MAX_LINKS_PROPERTY, PRELOAD_MAX_LINKS);
+    }
+
+    /**
+     * Whether the announced assets are loaded in the cache when a page is scanned.
+     */
+    public boolean isPreloadWarm() {
+        return getBooleanProperty(PRELOAD_WARM_PROPERTY, PRELOAD_WARM);
+    }
+
+    /**
+     * Cache-Control rules e.g. file.server.cache.control.rules=/assets/:max-age=604800;text/html:no-cache;image/*:max-age=86400.
+     * Rules are separated by semicolons since policies contain commas, a key starting with / is a path glob o.w. it is
+     * a mime type.
+     *
+     * @return the policies keyed by path glob or mime type in their configured order.
+     */
+    public Map<String, String> getCacheControlRules() {
+        Map<String, String> rules = new LinkedHashMap<>();
+        String value = properties == null ? null : properties.getProperty(CACHE_CONTROL_RULES_PROPERTY);
+        if (value == null || value.trim().isEmpty()) {
+            return rules;
+        }
+        for (String rule : value.split(";")) {
+            int index = rule.indexOf(':');
+            if (index <= 0) {
+                LOGGER.warn(LogMessages.ERROR_INVALID_CACHE_CONTROL_RULE.formatMessage(rule.trim(), ""));
+                continue;
+            }
+            rules.put(rule.substring(0, index).trim(), rule.substring(index + 1).trim());
+        }
+        return rules;
+    }
+
+    /**
+     * Cache-Control policy of the resources matching no rule, empty to send no header.
+     */
+    public String getCacheControlDefault() {
+        return getStringProperty(CACHE_CONTROL_DEFAULT_PROPERTY, CACHE_CONTROL_DEFAULT);
+    }
+
+    /**
+     * Whether file names with a content hash e.g. app.3f9a12c4.js are cached for a year as immutable.
+     */
+    public boolean isCacheControlFingerprinted() {
+        return getBooleanProperty(CACHE_CONTROL_FINGERPRINTED_PROPERTY, CACHE_CONTROL_FINGERPRINTED);
+    }
+
+    /**
+     * Whether resources can be published with PUT and removed with DELETE, the upload token is required as well.
+     */
+    public boolean isUploadEnabled() {
+        return getBooleanProperty(UPLOAD_ENABLED_PROPERTY, UPLOAD_ENABLED);
+    }
+
+    /**
+     * Bearer token expected in the Authorization header of the uploads, uploads are refused while it is empty.
+     */
+    public String getUploadToken() {
+        return getStringProperty(UPLOAD_TOKEN_PROPERTY, UPLOAD_TOKEN);
+    }
+
+    /**
+     * Maximum size of an uploaded file in bytes.
+     */
+    public long getUploadMaxBytes() {
+        return getLongProperty(UPLOAD_MAX_BYTES_PROPERTY, UPLOAD_MAX_BYTES);
+    }
+
+    /**
+     * When uploaded files are forced to the storage device: none, file (before the rename) or full (the folder too).
+     */
+    public UploadSettings.FsyncPolicy getUploadFsyncPolicy() {
+        String value = getStringProperty(UPLOAD_FSYNC_PROPERTY, UPLOAD_FSYNC.name().toLowerCase(Locale.ROOT));
+        try {
+            return UploadSettings.FsyncPolicy.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn(LogMessages.ERROR_INVALID_PROPERTY_VALUE.formatMessage(UPLOAD_FSYNC_PROPERTY, value, UPLOAD_FSYNC));
+            return UPLOAD_FSYNC;
+        }
+    }
+
+    /**
+     * URL of the origin the resources missing from the static folders are fetched from, empty to answer them with 404.
+     */
+    public String getOriginUrl() {
+        return getStringProperty(ORIGIN_URL_PROPERTY, ORIGIN_URL);
+    }
+
+    /**
+     * Maximum number of keep-alive connections to the origin.
+     */
+    public int getOriginMaxConnections() {
+        return getIntProperty(ORIGIN_MAX_CONNECTIONS_PROPERTY, ORIGIN_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Timeout of the connections to the origin and of their reads in milliseconds.
+     */
+    public int getOriginTimeoutInMilliSec() {
+        return getIntProperty(ORIGIN_TIMEOUT_MILLISECONDS_PROPERTY, ORIGIN_TIMEOUT_MILLISECONDS);
+    }
+
+    /**
+     * Idle connections to the origin are closed after this delay in milliseconds.
+     */
+    public long getOriginIdleTimeoutInMilliSec() {
+        return getLongProperty(ORIGIN_IDLE_TIMEOUT_MILLISECONDS_PROPERTY, ORIGIN_IDLE_TIMEOUT_MILLISECONDS);
+    }
+
+    /**
+     * Address of this server in the peer list e.g. 10.0.0.1:8000, empty to disable the peer mode.
+     */
+    public String getPeerSelf() {
+        return getStringProperty(PEER_SELF_PROPERTY, PEER_SELF);
+    }
+
+    /**
+     * Addresses of all the servers sharing their caches, separated by commas e.g. 10.0.0.1:8000,10.0.0.2:8000.
+     *
+     * @return the addresses in their configured order, empty when none is configured.
+     */
+    public List<String> getPeerList() {
+        List<String> peers = new ArrayList<>();
+        String value = properties == null ? null : properties.getProperty(PEER_LIST_PROPERTY);
+        if (value == null) {
+            return peers;
+        }
+        for (String peer : value.split(",")) {
+            if (!peer.trim().isEmpty()) {
+                peers.add(peer.trim());
+            }
+        }
+        return peers;
+    }
+
+    /**
+     * Path of the internal endpoint the peers fetch the resources they do not own from.
+     */
+    public String getPeerPath() {
+        return getStringProperty(PEER_PATH_PROPERTY, PEER_PATH);
+    }
+
+    /**
+     * Number of points of every peer on the hash ring, more points spread the resources more evenly.
+     */
+    public int getPeerVirtualNodes() {
+        return getIntProperty(PEER_VIRTUAL_NODES_PROPERTY, PEER_VIRTUAL_NODES);
+    }
+
+    /**
+     * Maximum number of keep-alive connections to every peer.
+     */
+    public int getPeerMaxConnections() {
+        return getIntProperty(PEER_MAX_CONNECTIONS_PROPERTY, PEER_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Timeout of the connections to the peers and of their reads in milliseconds, the resource is read from disk when
+     * it expires.
+     */
+    public int getPeerTimeoutInMilliSec() {
+        return getIntProperty(PEER_TIMEOUT_MILLISECONDS_PROPERTY, PEER_TIMEOUT_MILLISECONDS);
+    }
+
+    /**
+     * Delay between two health checks of the peers in milliseconds.
+     */
+    public long getPeerHealthIntervalInMilliSec() {
+        return getLongProperty(PEER_HEALTH_INTERVAL_MILLISECONDS_PROPERTY, PEER_HEALTH_INTERVAL_MILLISECONDS);
+    }
+
+    /**
+     * Read an integer property, the default value is returned if the property is missing or not a valid integer.
+     *
+     * @param property     the property name.
+     * @param defaultValue value used when the property can not be read.
+     * @return the configured value or the default one.
+     */
+    private int getIntProperty(String property, int defaultValue) {
+        if (properties == null) {
+            return defaultValue;
+        }
+        String value = properties.getProperty(property);
+        if (value == null) {
+            LOGGER.info(LogMessages.INFO_PROPERTY_IS_NOT_CONFIGURED.formatMessage(property, defaultValue));
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn(LogMessages.ERROR_PARSING_PROPERTY_TO_INTEGER.formatMessage(property));
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Read a boolean property, the default value is returned if the property is missing.
+     *
+     * @param property     the property name.
+     * @param defaultValue value used when the property is missing.
+     * @return the configured value or the default one.
+     */
+    private boolean getBooleanProperty(String property, boolean defaultValue) {
+        if (properties == null) {
+            return defaultValue;
+        }
+        String value = properties.getProperty(property);
+        if (value == null) {
+            LOGGER.info(LogMessages.INFO_PROPERTY_IS_NOT_CONFIGURED.formatMessage(property, defaultValue));
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Read a long property, the default value is returned if the property is missing or not a valid number.
+     *
+     * @param property     the property name.
+     * @param defaultValue value used when the property can not be read.
+     * @return the configured value or the default one.
+     */
+    private long getLongProperty(String property, long defaultValue) {
+        if (properties == null) {
+            return defaultValue;
+        }
+        String value = properties.getProperty(property);
+        if (value == null) {
+            LOGGER.info(LogMessages.INFO_PROPERTY_IS_NOT_CONFIGURED.formatMessage(property, defaultValue));
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn(LogMessages.ERROR_PARSING_PROPERTY_TO_INTEGER.formatMessage(property));
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Read a string property, the default value is returned if the property is missing.
+     *
+     * @param property     the property name.
+     * @param defaultValue value used when the property is missing.
+     * @return the trimmed configured value or the default one.
+     */
+    private String getStringProperty(String property, String defaultValue) {
+        if (properties == null) {
+            return defaultValue;
+        }
+        String value = properties.getProperty(property);
+        if (value == null) {
+            LOGGER.info(LogMessages.INFO_PROPERTY_IS_NOT_CONFIGURED.formatMessage(property, defaultValue));
+            return defaultValue;
+        }
+        return value.trim();
+    }
 }
@@ -0,0 +1,470 @@
+package com.marshmelo.fileserver.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes the whitespace and the comments of text resources which do not change how they are interpreted. Every
+ * minifier is conservative: line breaks are kept where they could end a statement, the content of strings, regular
+ * expressions, template literals, attribute values and pre, textarea and script elements is copied unchanged, and
+ * comments starting with /*! or &lt;!--[if are kept. Content which can not be tokenized, e.g. an unterminated string, is
+ * returned unchanged.
+ */
+public final class MinificationUtil {
+
+    private static final String HTML_MIME_TYPE = "text/html";
+    private static final String CSS_MIME_TYPE = "text/css";
+    private static final String JS_MIME_TYPE = "text/javascript";
+    private static final String JSON_MIME_TYPE = "application/json";
+    private static final String[] RAW_TEXT_ELEMENTS = {"pre", "textarea", "script", "style"};
+    // A slash after these keywords starts a regular expression, not a division.
+    private static final Set<String> REGEX_KEYWORDS = new HashSet<>(Arrays.asList("return", "typeof", "case", "do",
+            "else", "in", "of", "new", "delete", "void", "throw", "instanceof", "yield", "await"));
+
+    private MinificationUtil() {
+    }
+
+    /**
+     * @param mimeType the mime type of a resource.
+     * @return true if resources of this type can be minified.
+     */
+    public static boolean supports(String mimeType) {
+        return HTML_MIME_TYPE.equals(mimeType) || CSS_MIME_TYPE.equals(mimeType) || JS_MIME_TYPE.equals(mimeType)
+                || JSON_MIME_TYPE.equals(mimeType);
+    }
+
+    /**
+     * @param content  the UTF-8 content of a resource.
+     * @param mimeType the mime type of the resource, see {@link #supports(String)}.
+     * @return the minified content, or the given content if it would not be smaller or can not be minified safely.
+     */
+    public static byte[] minify(byte[] content, String mimeType) {
+        String text = new String(content, StandardCharsets.UTF_8);
+        String minified;
+        switch (mimeType) {
+            case HTML_MIME_TYPE:
+                minified = minifyHtml(text);
+                break;
+            case CSS_MIME_TYPE:
+                minified = minifyCss(text);
+                break;
+            case JS_MIME_TYPE:
+                minified = minifyJs(text);
+                break;
+            case JSON_MIME_TYPE:
+                minified = minifyJson(text);
+                break;
+            default:
+                minified = null;
+        }
+        if (minified == null) {
+            return content;
+        }
+        byte[] result = minified.getBytes(StandardCharsets.UTF_8);
+        return result.length < content.length ? result : content;
+    }
+
+    /**
+     * Remove the whitespace outside of the strings.
+     *
+     * @return the minified JSON or null if a string is not terminated.
+     */
+    static String minifyJson(String json) {
+        StringBuilder minified = new StringBuilder(json.length());
+        int i = 0;
+        while (i < json.length()) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                int end = skipQuoted(json, i, '"');
+                if (end < 0) {
+                    return null;
+                }
+                minified.append(json, i, end);
+                i = end;
+            } else {
+                if (!isWhitespace(c)) {
+                    minified.append(c);
+                }
+                i++;
+            }
+        }
+        return minified.toString();
+    }
+
+    /**
+     * Remove the comments, collapse the whitespace and remove it around braces, semicolons and commas.
+     *
+     * @return the minified CSS or null if a string or a comment is not terminated.
+     */
+    static String minifyCss(String css) {
+        StringBuilder minified = new StringBuilder(css.length());
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < css.length()) {
+            char c = css.charAt(i);
+            if (c == '/' && i + 1 < css.length() && css.charAt(i + 1) == '*') {
+                int end = css.indexOf("*/", i + 2);
+                if (end < 0) {
+                    return null;
+                }
+                // A comment is not whitespace, .a/**/.b is .a.b.
+                if (i + 2 < css.length() && css.charAt(i + 2) == '!') {
+                    minified.append(css, i, end + 2);
+                }
+                i = end + 2;
+            } else if (isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+            } else {
+                if (pendingSpace && minified.length() > 0 && !isCssSeparator(c)
+                        && !isCssSeparator(minified.charAt(minified.length() - 1)) && minified.charAt(minified.length() - 1) != ':') {
+                    minified.append(' ');
+                }
+                pendingSpace = false;
+                if (c == '"' || c == '\'') {
+                    int end = skipQuoted(css, i, c);
+                    if (end < 0) {
+                        return null;
+                    }
+                    minified.append(css, i, end);
+                    i = end;
+                    continue;
+                }
+                if (c == '}' && minified.length() > 0 && minified.charAt(minified.length() - 1) == ';') {
+                    // The last declaration of a block does not need its semicolon.
+                    minified.setLength(minified.length() - 1);
+                }
+                minified.append(c);
+                i++;
+            }
+        }
+        return minified.toString();
+    }
+
+    private static boolean isCssSeparator(char c) {
+        return c == '{' || c == '}' || c == ';' || c == ',';
+    }
+
+    /**
+     * Remove the comments, the indentation and the empty lines and collapse the other whitespace. Line breaks are kept
+     * since they can end statements.
+     *
+     * @return the minified script or null if it can not be tokenized.
+     */
+    static String minifyJs(String js) {
+        StringBuilder minified = new StringBuilder(js.length());
+        // Brace depths at which template literals continue, for the ${...} substitutions.
+        Deque<Integer> templates = new ArrayDeque<>();
+        int braceDepth = 0;
+        boolean pendingSpace = false;
+        boolean pendingNewLine = false;
+        int i = 0;
+        while (i < js.length()) {
+            char c = js.charAt(i);
+            char next = i + 1 < js.length() ? js.charAt(i + 1) : 0;
+            if (c == '/' && next == '/') {
+                int end = js.indexOf('\n', i);
+                i = end < 0 ? js.length() : end;
+                continue;
+            }
+            if (c == '/' && next == '*') {
+                int end = js.indexOf("*/", i + 2);
+                if (end < 0) {
+                    return null;
+                }
+                if (i + 2 < js.length() && js.charAt(i + 2) == '!') {
+                    appendPending(minified, pendingSpace, pendingNewLine);
+                    pendingSpace = pendingNewLine = false;
+                    minified.append(js, i, end + 2);
+                } else if (js.substring(i, end).indexOf('\n') >= 0) {
+                    // A comment containing a line break counts as a line break.
+                    pendingNewLine = true;
+                } else {
+                    pendingSpace = true;
+                }
+                i = end + 2;
+                continue;
+            }
+            if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029') {
+                pendingNewLine = true;
+                i++;
+                continue;
+            }
+            if (isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+                continue;
+            }
+            appendPending(minified, pendingSpace, pendingNewLine);
+            pendingSpace = pendingNewLine = false;
+            if (c == '"' || c == '\'') {
+                int end = skipQuoted(js, i, c);
+                if (end < 0) {
+                    return null;
+                }
+                minified.append(js, i, end);
+                i = end;
+            } else if (c == '`' || c == '}' && !templates.isEmpty() && templates.peek() == braceDepth) {
+                if (c == '}') {
+                    templates.pop();
+                }
+                int end = skipTemplate(js, i);
+                if (end < 0) {
+                    return null;
+                }
+                minified.append(js, i, end);
+                if (js.startsWith("${", end - 2)) {
+                    templates.push(braceDepth);
+                }
+                i = end;
+            } else if (c == '/' && startsRegex(minified)) {
+                int end = skipRegex(js, i);
+                if (end < 0) {
+                    return null;
+                }
+                minified.append(js, i, end);
+                i = end;
+            } else {
+                if (c == '{') {
+                    braceDepth++;
+                } else if (c == '}') {
+                    braceDepth--;
+                }
+                minified.append(c);
+                i++;
+            }
+        }
+        return templates.isEmpty() ? minified.toString() : null;
+    }
+
+    /**
+     * Append the whitespace which was skipped before a token, nothing at the start of the script.
+     */
+    private static void appendPending(StringBuilder minified, boolean pendingSpace, boolean pendingNewLine) {
+        if (minified.length() == 0) {
+            return;
+        }
+        if (pendingNewLine) {
+            minified.append('\n');
+        } else if (pendingSpace) {
+            minified.append(' ');
+        }
+    }
+
+    /**
+     * A slash starts a regular expression unless it follows an operand: an identifier which is not a keyword, a number,
+     * a closing parenthesis or bracket.
+     */
+    private static boolean startsRegex(StringBuilder minified) {
+        int end = minified.length();
+        while (end > 0 && isWhitespace(minified.charAt(end - 1))) {
+            end--;
+        }
+        if (end == 0) {
+            return true;
+        }
+        char previous = minified.charAt(end - 1);
+        if (previous == ')' || previous == ']' || previous == '}' || previous == '"' || previous == '\''
+                || previous == '`') {
+            return false;
+        }
+        if (!Character.isJavaIdentifierPart(previous)) {
+            return true;
+        }
+        int start = end;
+        while (start > 0 && Character.isJavaIdentifierPart(minified.charAt(start - 1))) {
+            start--;
+        }
+        return REGEX_KEYWORDS.contains(minified.substring(start, end));
+    }
+
+    /**
+     * @return the index after the regular expression and its flags, -1 if it is not terminated on its line.
+     */
+    private static int skipRegex(String js, int start) {
+        boolean inClass = false;
+        int i = start + 1;
+        while (i < js.length()) {
+            char c = js.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return -1;
+            }
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                i++;
+                while (i < js.length() && Character.isJavaIdentifierPart(js.charAt(i))) {
+                    i++;
+                }
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @param start the index of the opening backtick or of the closing brace of a substitution.
+     * @return the index after the closing backtick or after the ${ of the next substitution, -1 if the template is not
+     * terminated.
+     */
+    private static int skipTemplate(String js, int start) {
+        int i = start + 1;
+        while (i < js.length()) {
+            char c = js.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '`') {
+                return i + 1;
+            } else if (c == '$' && i + 1 < js.length() && js.charAt(i + 1) == '{') {
+                return i + 2;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Remove the comments and collapse the whitespace between the tags, keeping a line break when the whitespace
+     * contained one. Tags, and the content of the pre, textarea, script and style elements, are copied unchanged.
+     *
+     * @return the minified HTML or null if a comment or a tag is not terminated.
+     */
+    static String minifyHtml(String html) {
+        StringBuilder minified = new StringBuilder(html.length());
+        int i = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (html.startsWith("<!--", i)) {
+                int end = html.indexOf("-->", i + 4);
+                if (end < 0) {
+                    return null;
+                }
+                if (html.startsWith("<!--[if", i) || html.startsWith("<!--<![endif]", i)) {
+                    minified.append(html, i, end + 3);
+                }
+                i = end + 3;
+            } else if (c == '<' && i + 1 < html.length() && isTagStart(html.charAt(i + 1))) {
+                int end = skipTag(html, i);
+                if (end < 0) {
+                    return null;
+                }
+                minified.append(html, i, end);
+                String rawText = findRawTextElement(html, i);
+                i = end;
+                if (rawText != null) {
+                    int close = indexOfIgnoreCase(html, "</" + rawText, i);
+                    if (close < 0) {
+                        return null;
+                    }
+                    minified.append(html, i, close);
+                    i = close;
+                }
+            } else if (isWhitespace(c)) {
+                boolean newLine = false;
+                while (i < html.length() && isWhitespace(html.charAt(i))) {
+                    newLine |= html.charAt(i) == '\n';
+                    i++;
+                }
+                // The whitespace around a removed comment is collapsed too.
+                int last = minified.length() - 1;
+                if (last >= 0 && isWhitespace(minified.charAt(last))) {
+                    if (newLine) {
+                        minified.setCharAt(last, '\n');
+                    }
+                } else {
+                    minified.append(newLine ? '\n' : ' ');
+                }
+            } else {
+                minified.append(c);
+                i++;
+            }
+        }
+        return minified.toString();
+    }
+
+    private static boolean isTagStart(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '/' || c == '!' || c == '?';
+    }
+
+    /**
+     * @return the index after the closing &gt; of the tag, -1 if it is not terminated.
+     */
+    private static int skipTag(String html, int start) {
+        int i = start + 1;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (c == '"' || c == '\'') {
+                int end = html.indexOf(c, i + 1);
+                if (end < 0) {
+                    return -1;
+                }
+                i = end + 1;
+            } else if (c == '>') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the name of the element opened by the tag at the given index if its content should be kept unchanged.
+     */
+    private static String findRawTextElement(String html, int tagStart) {
+        for (String element : RAW_TEXT_ELEMENTS) {
+            int nameEnd = tagStart + 1 + element.length();
+            if (html.regionMatches(true, tagStart + 1, element, 0, element.length()) && nameEnd < html.length()
+                    && (html.charAt(nameEnd) == '>' || isWhitespace(html.charAt(nameEnd)))) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static int indexOfIgnoreCase(String text, String value, int from) {
+        for (int i = from; i <= text.length() - value.length(); i++) {
+            if (text.regionMatches(true, i, value, 0, value.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index after the closing quote, -1 if the string is not terminated.
+     */
+    private static int skipQuoted(String text, int start, char quote) {
+        int i = start + 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else if (c == '\n') {
+                // Strings can not span lines without an escape.
+                return -1;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
@@ -1,17 +1,36 @@
 package com.marshmelo.fileserver.utils;
 
+import com.marshmelo.fileserver.cache.MetadataIndex;
+import com.marshmelo.fileserver.cache.TieredCache;
 import com.marshmelo.fileserver.messages.LogMessages;
 import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.models.StorageTier;
+import com.marshmelo.fileserver.models.StreamingBody;
+import com.marshmelo.fileserver.pack.PackFile;
+import com.marshmelo.fileserver.peer.PeerGroup;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
 
+import static com.marshmelo.fileserver.messages.LogMessages.ERROR_FILE_NOT_FOUND;
 import static com.marshmelo.fileserver.messages.LogMessages.ERROR_READING_FILE;
 
 public class ResourcesUtil {
@@ -19,10 +38,25 @@ public class ResourcesUtil {
     private static final String INDEX_HTML_PAGE = "index.html";
 
     private static final Logger LOGGER = Logger.getLogger(ResourcesUtil.class);
-    private static final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    private static final long DEFAULT_HEAP_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final long DEFAULT_HEAP_CACHE_MAX_ENTRY_BYTES = 64L * 1024;
+    private static final long DEFAULT_GZIP_MIN_BYTES = 1024;
     private static final String APPLICATION_OCTET_STREAM = "application/octet-stream";
     private static final Map<String, String> fileToMimeTypeMap = new HashMap<>();
-    private static final String STATIC_RESOURCE_FOLDER_PATH = "static/";
+    private static final Set<String> compressedMimeTypes = new HashSet<>(Arrays.asList("image/jpeg", "image/png",
+            "image/webp", "application/zip", "application/x-7z-compressed"));
+    private static final String STATIC_RESOURCE_FOLDER = "static";
+    private static final String STATIC_RESOURCE_FOLDER_PATH = STATIC_RESOURCE_FOLDER + "/";
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final String GZIP_VARIANT_CACHE_KEY = "%s#gzip";
+    private static final MetadataIndex metadataIndex = new MetadataIndex(MetadataIndex.findClasspathFolders(STATIC_RESOURCE_FOLDER),
+            ResourcesUtil::findMimeType);
+    private static volatile PackFile packFile;
+    private static volatile TieredCache cache = new TieredCache(DEFAULT_HEAP_CACHE_BYTES, DEFAULT_HEAP_CACHE_MAX_ENTRY_BYTES, 0, 0, null);
+    private static volatile long gzipMinBytes = DEFAULT_GZIP_MIN_BYTES;
+    private static volatile boolean minify;
+    private static volatile PeerGroup peerGroup;
+    private static final Map<String, MinifiedMetadata> minifiedMetadata = new ConcurrentHashMap<>();
 
     // Reference https://developer.mozilla.org/en-US/docs/Web/HTTP/Basics_of_HTTP/MIME_types/Complete_list_of_MIME_types
     static {
@@ -47,7 +81,12 @@ public class ResourcesUtil {
     }
 
     /**
-     * Loads a resource from the filesystem if it is not cached, o.w. load from cache.
+     * Loads a resource from the filesystem if it is not cached, o.w. load from cache. The cache key is the path relative to
+     * the static folder so that / and /index.html share one entry. When minification is enabled the minified content of
+     * text resources is cached instead of the content of the file, see {@link #configureMinification(boolean)}.
+     * The metadata index is consulted first so that missing resources never touch the file system twice, when a pack is
+     * used the resource is a slice of the mapped pack. When peers share their caches a resource owned by another server
+     * is fetched from it and not cached, see {@link #configurePeers(PeerGroup)}.
      * Null is returned if resource is not found.
      *
      * @param requestURL
@@ -55,19 +94,442 @@ public class ResourcesUtil {
      * @throws IOException if the resource file is not found.
      */
     public static Resource loadResource(String requestURL) throws IOException {
-        if (resources.containsKey(requestURL)) {
-            return resources.get(requestURL);
+        return loadResource(requestURL, peerGroup);
+    }
+
+    /**
+     * Load a resource like {@link #loadResource(String)} without asking the peers, used to serve the peers which asked
+     * this server for a resource it owns.
+     *
+     * @param requestURL the URL of the resource.
+     * @return the {@link Resource} or null if the resource is not found.
+     * @throws IOException thrown when the resource file can not be read.
+     */
+    public static Resource loadLocalResource(String requestURL) throws IOException {
+        return loadResource(requestURL, null);
+    }
+
+    private static Resource loadResource(String requestURL, PeerGroup peers) throws IOException {
+        PackFile pack = packFile;
+        if (pack != null) {
+            return pack.loadResource(buildRelativePath(requestURL));
+        }
+        String relativePath = buildRelativePath(requestURL);
+        Resource resource = cache.get(relativePath);
+        if (resource != null) {
+            return resource;
+        }
+        ResourceMetadata metadata = metadataIndex.find(relativePath);
+        if (metadata == null) {
+            return null;
+        }
+        if (peers != null && cache.accepts(metadata.getSize(), false)) {
+            resource = peers.fetch(relativePath, metadata);
+            if (resource != null) {
+                return resource;
+            }
+        }
+        byte[] content = readContent(metadata.getPath());
+        if (isMinified(metadata)) {
+            content = MinificationUtil.minify(content, metadata.getMimeType());
+            // The length of the minified content is known from now on, without loading it again.
+            minifiedMetadata.put(relativePath, new MinifiedMetadata(metadata, new ResourceMetadata(metadata, content.length)));
+        }
+        resource = new Resource(content, metadata.getMimeType());
+        cache.put(relativePath, resource);
+        return resource;
+    }
+
+    /**
+     * Load the gzip compressed copy of a resource. The pre-compressed file with the same name and the .gz extension is
+     * used if it exists, o.w. the resource is compressed once and the result is kept in the cache as a generated entry.
+     *
+     * @param requestURL the URL in the request.
+     * @param metadata   the metadata of the resource, see {@link #hasGzipVariant(ResourceMetadata)}.
+     * @return the gzip compressed {@link Resource} with the mime type of the original resource.
+     * @throws IOException thrown when the resource or its compressed file can not be read.
+     */
+    public static Resource loadGzipVariant(String requestURL, ResourceMetadata metadata) throws IOException {
+        PackFile pack = packFile;
+        if (pack != null) {
+            return pack.loadGzipVariant(buildRelativePath(requestURL));
+        }
+        String relativePath = buildRelativePath(requestURL);
+        if (metadata.hasGzipVariant()) {
+            String key = String.format(GZIP_VARIANT_CACHE_KEY, relativePath);
+            Resource resource = cache.get(key);
+            if (resource == null) {
+                Path path = metadata.getPath();
+                resource = new Resource(readContent(path.resolveSibling(path.getFileName() + GZIP_EXTENSION)), metadata.getMimeType());
+                cache.put(key, resource);
+            }
+            return resource;
         }
-        String resourcePath = buildResourcePath(requestURL);
-        byte[] content = readFileAsByteArray(resourcePath);
-        if (content == null) {
+        // Generated variants are keyed by the content when it is cached so that identical files share them.
+        Resource resource = cache.get(findGeneratedVariantKey(relativePath));
+        if (resource != null) {
+            return resource;
+        }
+        Resource uncompressed = loadResource(requestURL);
+        if (uncompressed == null) {
             return null;
         }
-        Resource resource = new Resource(content, findMimeType(resourcePath));
-        resources.put(requestURL, resource);
+        resource = new Resource(compress(uncompressed), metadata.getMimeType());
+        cache.putGenerated(findGeneratedVariantKey(relativePath), resource);
         return resource;
     }
 
+    private static String findGeneratedVariantKey(String relativePath) {
+        String contentId = cache.getContentId(relativePath);
+        return String.format(GZIP_VARIANT_CACHE_KEY, contentId == null ? relativePath : contentId);
+    }
+
+    /**
+     * @param metadata the metadata of a resource.
+     * @return true if a gzip variant can be sent, either a pre-compressed file or a copy compressed on the fly for text
+     * resources of at least the configured size.
+     */
+    public static boolean hasGzipVariant(ResourceMetadata metadata) {
+        if (metadata.hasGzipVariant()) {
+            return true;
+        }
+        return metadata.getStorageTier() != StorageTier.PACK && gzipMinBytes > 0 && metadata.getSize() >= gzipMinBytes
+                && isCompressible(metadata.getMimeType());
+    }
+
+    /**
+     * @param metadata the metadata of a resource.
+     * @return true if the content of the resource is loaded in memory to be sent, o.w. it is too big for the cache and
+     * should be streamed, see {@link #openStream(ResourceMetadata)}.
+     */
+    public static boolean isCacheable(ResourceMetadata metadata) {
+        return metadata.getStorageTier() == StorageTier.PACK || cache.accepts(metadata.getSize(), false);
+    }
+
+    /**
+     * Stream a resource which is not cacheable from the file system, only a small copy buffer is used.
+     *
+     * @param metadata the metadata of a resource not stored in a pack.
+     * @return the body of the resource.
+     */
+    public static StreamingBody openStream(ResourceMetadata metadata) {
+        return StreamingBody.fromPath(metadata.getPath(), metadata.getSize());
+    }
+
+    /**
+     * Stream the gzip variant of a resource which is not cacheable, the pre-compressed file if it exists o.w. the
+     * resource compressed while it is sent.
+     *
+     * @param metadata the metadata of a resource not stored in a pack.
+     * @return the compressed body.
+     * @throws IOException thrown when the size of the pre-compressed file can not be read.
+     */
+    public static StreamingBody openGzipStream(ResourceMetadata metadata) throws IOException {
+        if (metadata.hasGzipVariant()) {
+            Path path = metadata.getPath();
+            Path gzipPath = path.resolveSibling(path.getFileName() + GZIP_EXTENSION);
+            return StreamingBody.fromPath(gzipPath, Files.size(gzipPath));
+        }
+        return StreamingBody.gzip(openStream(metadata));
+    }
+
+    /**
+     * Find the size of the gzip variant of a resource without compressing it, e.g. for a HEAD request.
+     *
+     * @param requestURL the URL in the request.
+     * @param metadata   the metadata of the resource, see {@link #hasGzipVariant(ResourceMetadata)}.
+     * @return the size in bytes or {@link StreamingBody#UNKNOWN_LENGTH} when the resource is compressed on the fly and
+     * no compressed copy is cached yet.
+     * @throws IOException thrown when the size of the pre-compressed file can not be read.
+     */
+    public static long findGzipSize(String requestURL, ResourceMetadata metadata) throws IOException {
+        PackFile pack = packFile;
+        if (pack != null) {
+            Resource resource = pack.loadGzipVariant(buildRelativePath(requestURL));
+            return resource == null ? StreamingBody.UNKNOWN_LENGTH : resource.getLength();
+        }
+        if (metadata.hasGzipVariant()) {
+            Path path = metadata.getPath();
+            return Files.size(path.resolveSibling(path.getFileName() + GZIP_EXTENSION));
+        }
+        Resource resource = cache.get(findGeneratedVariantKey(buildRelativePath(requestURL)));
+        return resource == null ? StreamingBody.UNKNOWN_LENGTH : resource.getLength();
+    }
+
+    /**
+     * Open the content of a resource for a response made of several resources e.g. a batch or an archive. The content
+     * is loaded from the cache when the resource is cacheable, o.w. it is streamed from the file system.
+     *
+     * @param relativePath the path of the resource relative to the static folder.
+     * @param metadata     the metadata of the resource.
+     * @return the body of the resource, nothing is read before it is written.
+     */
+    public static StreamingBody openContent(String relativePath, ResourceMetadata metadata) {
+        if (!isCacheable(metadata)) {
+            return openStream(metadata);
+        }
+        return new StreamingBody() {
+            @Override
+            public long getLength() {
+                return metadata.getSize();
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                Resource resource = loadResource("/" + relativePath);
+                if (resource == null) {
+                    throw new IOException(ERROR_FILE_NOT_FOUND.formatMessage(relativePath));
+                }
+                StreamingBody.fromResource(resource).writeTo(outputStream);
+            }
+        };
+    }
+
+    /**
+     * List the resources of a folder of the static resources and of its sub folders.
+     *
+     * @param requestURL the URL of the folder e.g. /docs/ or /docs, / for all the resources.
+     * @return the sorted paths of the resources relative to the static folder or null if the folder does not exist.
+     */
+    public static List<String> listResources(String requestURL) {
+        String folder = buildRelativeFolder(requestURL);
+        PackFile pack = packFile;
+        List<String> resources = pack != null ? pack.list(folder) : metadataIndex.list(folder);
+        return resources == null || resources.isEmpty() ? null : resources;
+    }
+
+    /**
+     * Find a folder of the static resources in the static folders, e.g. to list its content.
+     *
+     * @param requestURL the URL of the folder e.g. /docs/.
+     * @return the folder in every static folder containing it, in priority order, empty when it does not exist or when
+     * the resources are served from a pack.
+     */
+    public static List<Path> findFolders(String requestURL) {
+        return packFile != null ? Collections.emptyList() : metadataIndex.findFolders(buildRelativeFolder(requestURL));
+    }
+
+    private static String buildRelativeFolder(String requestURL) {
+        String folder = requestURL.startsWith("/") ? requestURL.substring(1) : requestURL;
+        return folder.isEmpty() || folder.endsWith("/") ? folder : folder + "/";
+    }
+
+    /**
+     * @param mimeType the mime type of a resource.
+     * @return true for formats which are already compressed and would not shrink with deflate e.g. jpeg, zip.
+     */
+    public static boolean isCompressed(String mimeType) {
+        return compressedMimeTypes.contains(mimeType);
+    }
+
+    /**
+     * @param mimeType the mime type of a resource.
+     * @return true for textual content which is worth compressing.
+     */
+    public static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/") || mimeType.endsWith("json") || mimeType.endsWith("xml")
+                || mimeType.equals("image/svg+xml");
+    }
+
+    private static byte[] compress(Resource resource) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(resource.getLength() / 2 + 64);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+            gzipOutputStream.write(resource.getContent(), 0, resource.getLength());
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Find the metadata of the file of a resource in the static folders, the size and the entity tag are the ones of the
+     * file even when the resource is minified.
+     *
+     * @param requestURL the URL in the request.
+     * @return the {@link ResourceMetadata} or null if the file does not exist or the resources are served from a pack.
+     */
+    public static ResourceMetadata findFileMetadata(String requestURL) {
+        return packFile != null ? null : metadataIndex.find(buildRelativePath(requestURL));
+    }
+
+    /**
+     * Find the metadata of a resource without reading its content.
+     *
+     * @param requestURL the URL in the request.
+     * @return the {@link ResourceMetadata} or null if the resource does not exist.
+     */
+    public static ResourceMetadata findMetadata(String requestURL) {
+        PackFile pack = packFile;
+        if (pack != null) {
+            return pack.findMetadata(buildRelativePath(requestURL));
+        }
+        String relativePath = buildRelativePath(requestURL);
+        ResourceMetadata metadata = metadataIndex.find(relativePath);
+        return metadata != null && isMinified(metadata) ? findMinifiedMetadata(relativePath, metadata) : metadata;
+    }
+
+    /**
+     * Find the metadata of a resource with the exact length of its content, the content of a minified resource is loaded
+     * if its length is not known yet, e.g. to write it in the header of a part or an archive entry before the content.
+     *
+     * @param requestURL the URL in the request.
+     * @return the {@link ResourceMetadata} or null if the resource does not exist.
+     * @throws IOException thrown when the content of a minified resource can not be read.
+     */
+    public static ResourceMetadata findExactMetadata(String requestURL) throws IOException {
+        ResourceMetadata metadata = findMetadata(requestURL);
+        if (metadata == null || metadata.getContentLength() != StreamingBody.UNKNOWN_LENGTH) {
+            return metadata;
+        }
+        Resource resource = loadResource(requestURL);
+        ResourceMetadata source = metadataIndex.find(buildRelativePath(requestURL));
+        return resource == null || source == null ? null : new ResourceMetadata(source, resource.getLength());
+    }
+
+    /**
+     * The metadata of a minified resource is known without loading its content: the entity tag is derived from the file
+     * and the content length is only known once the content is loaded, the file size is an upper bound until then.
+     */
+    private static ResourceMetadata findMinifiedMetadata(String relativePath, ResourceMetadata metadata) {
+        MinifiedMetadata minified = minifiedMetadata.get(relativePath);
+        if (minified != null && minified.source == metadata) {
+            return minified.metadata;
+        }
+        ResourceMetadata result = new ResourceMetadata(metadata, StreamingBody.UNKNOWN_LENGTH);
+        // The exact metadata put by a concurrent load is kept.
+        if (minified == null) {
+            minifiedMetadata.putIfAbsent(relativePath, new MinifiedMetadata(metadata, result));
+        } else {
+            minifiedMetadata.replace(relativePath, minified, new MinifiedMetadata(metadata, result));
+        }
+        return result;
+    }
+
+    private static boolean isMinified(ResourceMetadata metadata) {
+        return minify && MinificationUtil.supports(metadata.getMimeType()) && cache.accepts(metadata.getSize(), false);
+    }
+
+    /**
+     * Find the size of a resource without reading its content.
+     *
+     * @param requestURL the URL in the request.
+     * @return the size of the resource in bytes or -1 if the resource does not exist.
+     */
+    public static long findResourceSize(String requestURL) {
+        ResourceMetadata metadata = findMetadata(requestURL);
+        return metadata == null ? -1 : metadata.getSize();
+    }
+
+    /**
+     * Index the metadata of all the static resources, usually done once when the server starts.
+     *
+     * @return the number of indexed resources.
+     */
+    public static int scanResources() {
+        return metadataIndex.scan();
+    }
+
+    /**
+     * Find the folder where uploaded resources are written, the first static folder so that they are never hidden by
+     * a resource of another folder.
+     *
+     * @return the folder or null if resources are served from a pack or the first static folder is not on the file
+     * system e.g. inside a jar file.
+     */
+    public static Path findWritableRoot() {
+        List<Path> roots = metadataIndex.getRoots();
+        if (packFile != null || roots.isEmpty() || roots.get(0).getFileSystem() != FileSystems.getDefault()) {
+            return null;
+        }
+        return roots.get(0);
+    }
+
+    /**
+     * Forget everything known about a resource after its file was written or deleted: its metadata, its cached content
+     * and its cached gzip variants. Variants keyed by the entity tag, e.g. image transforms, are not reached anymore.
+     *
+     * @param requestURL the URL of the resource.
+     */
+    public static void invalidate(String requestURL) {
+        String relativePath = buildRelativePath(requestURL);
+        cache.remove(findGeneratedVariantKey(relativePath));
+        cache.remove(String.format(GZIP_VARIANT_CACHE_KEY, relativePath));
+        cache.remove(relativePath);
+        minifiedMetadata.remove(relativePath);
+        metadataIndex.invalidate(relativePath);
+    }
+
+    /**
+     * Serve all the static resources from a memory mapped pack instead of the static folders, the resources are then
+     * neither read nor cached on the heap. Replacing the pack is atomic for the requests.
+     *
+     * @param pack the {@link PackFile}, null to serve the static folders again.
+     */
+    public static void usePack(PackFile pack) {
+        packFile = pack;
+        cache.clear();
+    }
+
+    /**
+     * Replace the resource cache, usually done once when the server starts.
+     *
+     * @param tieredCache  the {@link TieredCache} of the resources and their generated variants.
+     * @param gzipMinBytes smaller text resources are not compressed on the fly, 0 disables compression on the fly.
+     */
+    public static void configureCache(TieredCache tieredCache, long gzipMinBytes) {
+        TieredCache previous = cache;
+        cache = tieredCache;
+        ResourcesUtil.gzipMinBytes = gzipMinBytes;
+        previous.clear();
+    }
+
+    /**
+     * Enable or disable the minification of the html, css, javascript and json resources of the static folders when
+     * they are loaded, the cached resources are dropped.
+     *
+     * @param enabled true to send the minified resources.
+     */
+    public static void configureMinification(boolean enabled) {
+        minify = enabled;
+        minifiedMetadata.clear();
+        cache.clear();
+    }
+
+    /**
+     * Share the resource cache with other servers, usually done once when the server starts. Only the resources this
+     * server owns are cached, the other ones are fetched from their owner.
+     *
+     * @param peers the {@link PeerGroup}, null to load and cache every resource locally.
+     */
+    public static void configurePeers(PeerGroup peers) {
+        peerGroup = peers;
+    }
+
+    /**
+     * @return the resource cache.
+     */
+    public static TieredCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Build the path of a resource relative to the static folder from the given request URL.
+     *
+     * @param requestURL the URL in the request.
+     * @return the relative path e.g. index.html for / or /index.html.
+     */
+    public static String buildRelativePath(String requestURL) {
+        String filePath = requestURL.endsWith("/") ? requestURL + INDEX_HTML_PAGE : requestURL;
+        return filePath.startsWith("/") ? filePath.substring(1) : filePath;
+    }
+
+    private static byte[] readContent(Path path) throws IOException {
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException e) {
+            LOGGER.warn(ERROR_READING_FILE.formatMessage(path));
+            throw e;
+        }
+    }
+
     /**
      * Build the actual resource path on the file system from the given request URL.
      *
@@ -75,11 +537,7 @@ public class ResourcesUtil {
      * @return actual path of the resource on the file system.
      */
     public static String buildResourcePath(String requestURL) {
-        String filePath = requestURL.endsWith("/") ? requestURL + INDEX_HTML_PAGE : requestURL;
-        int length = filePath.length();
-        filePath = filePath.startsWith("/") ? filePath.substring(1, length) : filePath;
-        filePath = STATIC_RESOURCE_FOLDER_PATH + filePath;
-        return filePath;
+        return STATIC_RESOURCE_FOLDER_PATH + buildRelativePath(requestURL);
     }
 
     /**
@@ -122,4 +580,18 @@ public class ResourcesUtil {
         }
         return mimeType;
     }
+
+    /**
+     * The metadata of a minified resource and the metadata of the file it was computed from.
+     */
+    private static final class MinifiedMetadata {
+
+        private final ResourceMetadata source;
+        private final ResourceMetadata metadata;
+
+        private MinifiedMetadata(ResourceMetadata source, ResourceMetadata metadata) {
+            this.source = source;
+            this.metadata = metadata;
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package com.marshmelo.fileserver.cache;
+
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.models.StorageTier;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class MetadataIndexTest {
+
+    private Path firstRoot;
+    private Path secondRoot;
+    private MetadataIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        firstRoot = Files.createTempDirectory("static1");
+        secondRoot = Files.createTempDirectory("static2");
+        index = new MetadataIndex(Arrays.asList(firstRoot, secondRoot), ResourcesUtil::findMimeType);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        delete(firstRoot);
+        delete(secondRoot);
+    }
+
+    @Test
+    public void testFindReturnsMetadataWithoutReadingContent() throws IOException {
+        // Given
+        Files.createDirectories(firstRoot.resolve("css"));
+        Files.write(firstRoot.resolve("css/style.css"), "body {}".getBytes(StandardCharsets.UTF_8));
+        // When
+        ResourceMetadata metadata = index.find("css/style.css");
+        // Then
+        assertNotNull(metadata);
+        assertEquals(metadata.getSize(), 7);
+        assertEquals(metadata.getMimeType(), "text/css");
+        assertEquals(metadata.getStorageTier(), StorageTier.FILE_SYSTEM);
+        assertFalse(metadata.hasGzipVariant());
+        assertTrue(metadata.getEtag().startsWith("\"") && metadata.getEtag().endsWith("\""));
+    }
+
+    @Test
+    public void testFindRemembersMissingResourcesUntilInvalidated() throws IOException {
+        // Given
+        assertNull(index.find("late.html"));
+        Files.write(firstRoot.resolve("late.html"), new byte[10]);
+        // When
+        ResourceMetadata beforeInvalidation = index.find("late.html");
+        index.invalidate("late.html");
+        ResourceMetadata afterInvalidation = index.find("late.html");
+        // Then
+        assertNull(beforeInvalidation);
+        assertNotNull(afterInvalidation);
+        assertEquals(afterInvalidation.getSize(), 10);
+    }
+
+    @Test
+    public void testFirstRootWinsAndGzipVariantIsDetected() throws IOException {
+        // Given
+        Files.write(firstRoot.resolve("app.js"), new byte[3]);
+        Files.write(firstRoot.resolve("app.js.gz"), new byte[2]);
+        Files.write(secondRoot.resolve("app.js"), new byte[5]);
+        Files.write(secondRoot.resolve("other.js"), new byte[1]);
+        // When
+        int count = index.scan();
+        ResourceMetadata metadata = index.find("app.js");
+        // Then
+        assertEquals(count, 3);
+        assertEquals(metadata.getSize(), 3);
+        assertTrue(metadata.hasGzipVariant());
+        assertNotEquals(metadata.getGzipEtag(), metadata.getEtag());
+    }
+
+    @Test
+    public void testListMergesTheFoldersOfAllRoots() throws IOException {
+        // Given
+        Files.createDirectories(firstRoot.resolve("docs/images"));
+        Files.createDirectories(secondRoot.resolve("docs"));
+        Files.write(firstRoot.resolve("docs/index.html"), new byte[1]);
+        Files.write(firstRoot.resolve("docs/images/logo.png"), new byte[1]);
+        Files.write(secondRoot.resolve("docs/index.html"), new byte[2]);
+        Files.write(secondRoot.resolve("docs/about.html"), new byte[1]);
+        Files.write(secondRoot.resolve("outside.html"), new byte[1]);
+        // When
+        List<String> resources = index.list("docs/");
+        // Then
+        assertEquals(resources, Arrays.asList("docs/about.html", "docs/images/logo.png", "docs/index.html"));
+        assertNull(index.list("missing/"));
+        assertNull(index.list("../"));
+    }
+
+    @Test
+    public void testPathsOutsideTheRootsAreNotResolved() throws IOException {
+        // Given
+        Path secret = Files.createTempFile("secret", ".txt");
+        try {
+            // When
+            ResourceMetadata metadata = index.find("../" + secret.getFileName());
+            // Then
+            assertNull(metadata);
+        } finally {
+            Files.delete(secret);
+        }
+    }
+
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.marshmelo.fileserver.cache;
+
+import com.marshmelo.fileserver.models.Resource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TieredCacheTest {
+
+    private Path diskFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        diskFolder = Files.createTempDirectory("cache");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = diskFolder.toFile().listFiles();
+        if (files != null) {
+            Arrays.stream(files).forEach(File::delete);
+        }
+        diskFolder.toFile().delete();
+    }
+
+    @Test
+    public void testSmallEntriesGoOnHeapAndBigOnesOffHeap() {
+        // Given
+        TieredCache cache = new TieredCache(1000, 100, 1000, 0, null);
+        // When
+        cache.put("/small.css", resource(50, 's'));
+        cache.put("/big.js", resource(500, 'b'));
+        // Then
+        assertEquals(cache.getStats(CacheTier.HEAP).getEntries(), 1);
+        assertEquals(cache.getStats(CacheTier.OFF_HEAP).getEntries(), 1);
+        assertEquals(cache.getStats(CacheTier.OFF_HEAP).getBytes(), 500);
+        Resource big = cache.get("/big.js");
+        assertTrue(big.isMapped());
+        assertEquals(big.getContent()[499], 'b');
+        assertFalse(cache.get("/small.css").isMapped());
+    }
+
+    @Test
+    public void testColdEntriesAreDemotedAndHotOnesPromoted() {
+        // Given
+        TieredCache cache = new TieredCache(100, 100, 1000, 0, null);
+        cache.put("/a.css", resource(60, 'a'));
+        cache.put("/b.css", resource(60, 'b'));
+        // When
+        CacheStats afterInsert = cache.getStats(CacheTier.HEAP);
+        for (int i = 0; i < 5; i++) {
+            cache.get("/a.css");
+        }
+        // Then
+        assertEquals(afterInsert.getEntries(), 1);
+        assertEquals(cache.getStats(CacheTier.HEAP).getDemotions(), 2);
+        assertEquals(cache.getStats(CacheTier.HEAP).getPromotions(), 1);
+        assertFalse(cache.get("/a.css").isMapped());
+        assertTrue(cache.get("/b.css").isMapped());
+        assertEquals(cache.get("/b.css").getContent()[0], 'b');
+    }
+
+    @Test
+    public void testOnlyGeneratedEntriesAreSpilledToDisk() {
+        // Given
+        TieredCache cache = new TieredCache(0, 0, 100, 1000, diskFolder);
+        cache.put("/file.js", resource(80, 'f'));
+        // When
+        cache.putGenerated("/file.js#gzip", resource(80, 'g'));
+        // Then
+        assertNull(cache.get("/file.js"));
+        assertEquals(cache.getStats(CacheTier.OFF_HEAP).getEvictions(), 1);
+        assertEquals(cache.getStats(CacheTier.DISK).getEntries(), 0);
+        assertEquals(cache.get("/file.js#gzip").getContent()[79], 'g');
+
+        // When
+        cache.putGenerated("/other.js#gzip", resource(80, 'o'));
+        // Then
+        assertEquals(cache.getStats(CacheTier.DISK).getEntries(), 1);
+        assertEquals(diskFolder.toFile().list().length, 1);
+        assertEquals(cache.get("/file.js#gzip").getContent()[0], 'g');
+        assertEquals(cache.get("/other.js#gzip").getContent()[0], 'o');
+    }
+
+    @Test
+    public void testClearDeletesSpilledEntries() {
+        // Given
+        TieredCache cache = new TieredCache(0, 0, 0, 1000, diskFolder);
+        cache.putGenerated("/a.js#gzip", resource(10, 'a'));
+        // When
+        cache.clear();
+        // Then
+        assertNull(cache.get("/a.js#gzip"));
+        assertEquals(cache.getMisses(), 1);
+        assertEquals(cache.getStats(CacheTier.DISK).getBytes(), 0);
+        assertEquals(diskFolder.toFile().list().length, 0);
+    }
+
+    @Test
+    public void testIdenticalContentsAreStoredOnce() {
+        // Given
+        TieredCache cache = new TieredCache(1000, 1000, 0, 0, null);
+        // When
+        cache.put("index.html", resource(100, 'i'));
+        cache.put("copy/index.html", resource(100, 'i'));
+        cache.put("other.html", resource(100, 'o'));
+        // Then
+        assertEquals(cache.getKeyCount(), 3);
+        assertEquals(cache.getContentCount(), 2);
+        assertEquals(cache.getStats(CacheTier.HEAP).getBytes(), 200);
+        assertEquals(cache.getDeduplicatedBytes(), 100);
+        assertEquals(cache.getContentId("index.html"), cache.getContentId("copy/index.html"));
+        assertNotEquals(cache.getContentId("index.html"), cache.getContentId("other.html"));
+    }
+
+    @Test
+    public void testSharedContentIsReleasedWithItsLastKey() {
+        // Given
+        TieredCache cache = new TieredCache(1000, 1000, 0, 0, null);
+        cache.put("a.js", resource(100, 'v'));
+        cache.put("b.js", resource(100, 'v'));
+        // When
+        cache.remove("a.js");
+        // Then
+        assertEquals(cache.get("b.js").getContent()[0], 'v');
+        assertEquals(cache.getStats(CacheTier.HEAP).getBytes(), 100);
+        assertEquals(cache.getDeduplicatedBytes(), 0);
+
+        // When
+        cache.remove("b.js");
+        // Then
+        assertEquals(cache.getContentCount(), 0);
+        assertEquals(cache.getStats(CacheTier.HEAP).getBytes(), 0);
+    }
+
+    @Test
+    public void testEvictionRemovesAllTheKeysOfAContent() {
+        // Given
+        TieredCache cache = new TieredCache(150, 150, 0, 0, null);
+        cache.put("a.js", resource(100, 'v'));
+        cache.put("b.js", resource(100, 'v'));
+        // When
+        cache.put("c.js", resource(100, 'c'));
+        // Then
+        assertNull(cache.get("b.js"));
+        assertNull(cache.get("a.js"));
+        assertEquals(cache.get("c.js").getContent()[0], 'c');
+        assertEquals(cache.getKeyCount(), 1);
+        assertEquals(cache.getDeduplicatedBytes(), 0);
+    }
+
+    @Test
+    public void testHotEntryOfALargeTierIsKeptWhenVictimsAreSampled() {
+        // Given
+        TieredCache cache = new TieredCache(200, 200, 0, 0, null);
+        for (int i = 0; i < 20; i++) {
+            cache.put("/" + i + ".css", resource(10, (char) i));
+        }
+        for (int i = 0; i < 10; i++) {
+            cache.get("/0.css");
+        }
+        // When
+        for (int i = 20; i < 60; i++) {
+            cache.put("/" + i + ".css", resource(10, (char) i));
+        }
+        // Then
+        assertEquals(cache.get("/0.css").getContent()[0], 0);
+        assertEquals(cache.getStats(CacheTier.HEAP).getEntries(), 20);
+        assertEquals(cache.getStats(CacheTier.HEAP).getEvictions(), 40);
+        assertEquals(cache.getKeyCount(), 20);
+    }
+
+    private static Resource resource(int length, char fill) {
+        byte[] content = new byte[length];
+        Arrays.fill(content, (byte) fill);
+        return new Resource(content, "text/css");
+    }
+}
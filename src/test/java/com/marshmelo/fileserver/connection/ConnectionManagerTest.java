@@ -0,0 +1,119 @@
+package com.marshmelo.fileserver.connection;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+
+    private static final long IDLE_TIMEOUT = 1000;
+    private static final long HEADER_TIMEOUT = 2000;
+    private static final long WRITE_TIMEOUT = 5000;
+
+    @Test
+    public void testConnectionIsClosedWhenItsDeadlineExpires() {
+        // Given
+        ConnectionManager manager = new ConnectionManager(IDLE_TIMEOUT, HEADER_TIMEOUT, WRITE_TIMEOUT, 0, 10, 64);
+        FakeSocket headerSocket = new FakeSocket();
+        FakeSocket writeSocket = new FakeSocket();
+        FakeSocket idleSocket = new FakeSocket();
+        manager.register(headerSocket, null);
+        manager.register(writeSocket, null).startWrite();
+        manager.register(idleSocket, null).idle();
+        long now = System.nanoTime();
+        // When
+        int afterIdleTimeout = manager.expire(now + millis(IDLE_TIMEOUT + 100));
+        int afterHeaderTimeout = manager.expire(now + millis(HEADER_TIMEOUT + 100));
+        // Then
+        assertEquals(afterIdleTimeout, 1);
+        assertTrue(idleSocket.closed);
+        assertEquals(afterHeaderTimeout, 1);
+        assertTrue(headerSocket.closed);
+        assertFalse(writeSocket.closed);
+        assertEquals(manager.getOpenConnections(), 1);
+        assertEquals(manager.getExpiredConnections(), 2);
+    }
+
+    @Test
+    public void testOldestIdleConnectionIsReapedWhenTheLimitIsReached() {
+        // Given
+        ConnectionManager manager = new ConnectionManager(IDLE_TIMEOUT, HEADER_TIMEOUT, WRITE_TIMEOUT, 3, 10, 64);
+        FakeSocket oldest = new FakeSocket();
+        FakeSocket newest = new FakeSocket();
+        FakeSocket busy = new FakeSocket();
+        manager.register(oldest, null).idle();
+        manager.register(newest, null).idle();
+        manager.register(busy, null).startWrite();
+        // When
+        ManagedConnection connection = manager.register(new FakeSocket(), null);
+        // Then
+        assertNotNull(connection);
+        assertTrue(oldest.closed);
+        assertFalse(newest.closed);
+        assertFalse(busy.closed);
+        assertEquals(manager.getOpenConnections(), 3);
+        assertEquals(manager.getIdleConnections(), 1);
+        assertEquals(manager.getReapedConnections(), 1);
+    }
+
+    @Test
+    public void testConnectionIsRefusedWhenNoConnectionIsIdle() {
+        // Given
+        ConnectionManager manager = new ConnectionManager(IDLE_TIMEOUT, HEADER_TIMEOUT, WRITE_TIMEOUT, 1, 10, 64);
+        ManagedConnection busy = manager.register(new FakeSocket(), null);
+        // When
+        ManagedConnection refused = manager.register(new FakeSocket(), null);
+        busy.close();
+        ManagedConnection accepted = manager.register(new FakeSocket(), null);
+        // Then
+        assertNull(refused);
+        assertNotNull(accepted);
+        assertTrue(busy.isClosed());
+        assertEquals(manager.getRefusedConnections(), 1);
+        assertEquals(manager.getOpenConnections(), 1);
+    }
+
+    @Test
+    public void testClosedConnectionsAreAddedToTheTotals() throws IOException {
+        // Given
+        ConnectionManager manager = new ConnectionManager(IDLE_TIMEOUT, HEADER_TIMEOUT, WRITE_TIMEOUT, 0, 10, 64);
+        FakeSocket socket = new FakeSocket();
+        ManagedConnection connection = manager.register(socket, null);
+        InputStream input = connection.countReads(new ByteArrayInputStream(new byte[100]));
+        OutputStream output = connection.countWrites(new ByteArrayOutputStream());
+        // When
+        input.read(new byte[60]);
+        input.read();
+        output.write(new byte[250]);
+        connection.close();
+        connection.close();
+        // Then
+        assertTrue(socket.closed);
+        assertEquals(manager.getOpenConnections(), 0);
+        assertEquals(manager.getClosedConnections(), 1);
+        assertEquals(manager.getBytesRead(), 61);
+        assertEquals(manager.getBytesWritten(), 250);
+    }
+
+    private static long millis(long milliseconds) {
+        return TimeUnit.MILLISECONDS.toNanos(milliseconds);
+    }
+
+    private static class FakeSocket implements Closeable {
+
+        private boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.marshmelo.fileserver.connection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+
+    private static final long TICK = 10;
+
+    @Test
+    public void testTimeoutsExpireInTheirTick() {
+        // Given
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 8, 0);
+        wheel.schedule("first", 15);
+        wheel.schedule("second", 20);
+        wheel.schedule("third", 55);
+        List<String> expired = new ArrayList<>();
+        // When
+        int beforeFirst = wheel.expire(19, expired);
+        int atSecond = wheel.expire(20, expired);
+        // Then
+        assertEquals(beforeFirst, 0);
+        assertEquals(atSecond, 2);
+        assertEquals(expired, Arrays.asList("first", "second"));
+        assertEquals(wheel.size(), 1);
+    }
+
+    @Test
+    public void testTimeoutsBeyondOneTurnWaitForTheirTurn() {
+        // Given a wheel of 8 ticks, the timeout of tick 11 shares the bucket of tick 3.
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 8, 0);
+        wheel.schedule("late", 110);
+        List<String> expired = new ArrayList<>();
+        // When
+        int firstTurn = wheel.expire(79, expired);
+        int secondTurn = wheel.expire(110, expired);
+        // Then
+        assertEquals(firstTurn, 0);
+        assertEquals(secondTurn, 1);
+        assertEquals(expired, Arrays.asList("late"));
+    }
+
+    @Test
+    public void testCancelledTimeoutsDoNotExpire() {
+        // Given
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 8, 0);
+        TimingWheel.Timeout<String> cancelled = wheel.schedule("cancelled", 30);
+        wheel.schedule("kept", 30);
+        // When
+        wheel.cancel(cancelled);
+        wheel.cancel(cancelled);
+        List<String> expired = new ArrayList<>();
+        wheel.expire(1000, expired);
+        // Then
+        assertEquals(expired, Arrays.asList("kept"));
+        assertEquals(wheel.size(), 0);
+    }
+}
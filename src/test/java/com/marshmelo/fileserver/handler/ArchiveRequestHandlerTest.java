@@ -0,0 +1,111 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.marshmelo.fileserver.handler.HandlerTestSupport.handleBytes;
+import static org.junit.Assert.*;
+
+public class ArchiveRequestHandlerTest {
+
+    private final RequestHandlerRegistry registry = new RequestHandlerRegistry();
+
+    @Before
+    public void setUp() {
+        registry.enableArchives(3);
+    }
+
+    @Test
+    public void testZipArchiveStoresCompressedFormatsAndDeflatesText() throws Exception {
+        // When
+        byte[] response = handleBytes(registry, "GET /docs/?archive=zip HTTP/1.1\n\n");
+        // Then
+        String header = new String(response, 0, headerLength(response), StandardCharsets.ISO_8859_1);
+        assertTrue(header.contains("HTTP/1.1 200 OK"));
+        assertTrue(header.contains("Content-type: application/zip"));
+        assertTrue(header.contains("Content-Disposition: attachment; filename=\"docs.zip\""));
+        assertTrue(header.contains("Transfer-Encoding: chunked"));
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(dechunk(response))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+                byte[] content = IOUtils.toByteArray(zip);
+                String relativePath = entry.getName().substring("docs/".length());
+                assertArrayEquals(content, ResourcesUtil.loadResource("/docs/" + relativePath).getContent());
+                assertEquals(entry.getMethod(), relativePath.endsWith(".png") ? ZipEntry.STORED : ZipEntry.DEFLATED);
+            }
+        }
+        assertEquals(names, Arrays.asList("docs/guide.css", "docs/images/logo.png", "docs/notes.json"));
+    }
+
+    @Test
+    public void testTarArchiveHasAContentLength() throws Exception {
+        // Given
+        byte[] css = ResourcesUtil.loadResource("/docs/guide.css").getContent();
+        // When
+        byte[] response = handleBytes(registry, "GET /docs?archive=tar HTTP/1.1\n\n");
+        // Then
+        int headerLength = headerLength(response);
+        String header = new String(response, 0, headerLength, StandardCharsets.ISO_8859_1);
+        byte[] body = Arrays.copyOfRange(response, headerLength, response.length);
+        assertTrue(header.contains("Content-type: application/x-tar"));
+        assertTrue(header.contains("Content-length: " + body.length));
+        assertEquals(new String(body, 0, 14, StandardCharsets.US_ASCII), "docs/guide.css");
+        assertArrayEquals(Arrays.copyOfRange(body, 512, 512 + css.length), css);
+    }
+
+    @Test
+    public void testFolderWithTooManyFilesIsRejected() throws Exception {
+        // When
+        byte[] response = handleBytes(registry, "GET /?archive=zip HTTP/1.1\n\n");
+        // Then
+        assertTrue(new String(response, StandardCharsets.ISO_8859_1).contains("HTTP/1.1 400 Bad Request"));
+    }
+
+    @Test
+    public void testMissingFolderIsNotFound() throws Exception {
+        // When
+        byte[] response = handleBytes(registry, "GET /not_existing/?archive=zip HTTP/1.1\n\n");
+        // Then
+        assertTrue(new String(response, StandardCharsets.ISO_8859_1).contains("HTTP/1.1 404 Not Found"));
+    }
+
+    private static int headerLength(byte[] response) {
+        String text = new String(response, StandardCharsets.ISO_8859_1);
+        return text.indexOf("\r\n\r\n") + 4;
+    }
+
+    /**
+     * Decode the chunked body of a response.
+     */
+    private static InputStream dechunk(byte[] response) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int position = headerLength(response);
+        while (true) {
+            int lineEnd = position;
+            while (response[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            int size = Integer.parseInt(new String(response, position, lineEnd - position, StandardCharsets.US_ASCII), 16);
+            if (size == 0) {
+                return new ByteArrayInputStream(body.toByteArray());
+            }
+            body.write(response, lineEnd + 2, size);
+            position = lineEnd + 2 + size + 2;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.marshmelo.fileserver.handler.HandlerTestSupport.handle;
+import static com.marshmelo.fileserver.handler.HandlerTestSupport.handleBytes;
+import static org.junit.Assert.*;
+
+public class BatchRequestHandlerTest {
+
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=(\\w+)");
+    private static final Pattern CONTENT_LENGTH = Pattern.compile("Content-length: (\\d+)");
+
+    private final RequestHandlerRegistry registry = new RequestHandlerRegistry();
+
+    @Before
+    public void setUp() {
+        registry.enableBatch("/__batch", 3, 1024 * 1024);
+    }
+
+    @Test
+    public void testMultipartBatchContainsTheResourcesInOrder() throws Exception {
+        // Given
+        String index = new String(ResourcesUtil.loadResource("/index.html").getContent(), StandardCharsets.UTF_8);
+        String json = new String(ResourcesUtil.loadResource("/example.json").getContent(), StandardCharsets.UTF_8);
+        // When
+        String response = handle(registry, "GET /__batch?f=/index.html&f=/example.json HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.contains("HTTP/1.1 200 OK"));
+        Matcher boundary = BOUNDARY.matcher(response);
+        assertTrue(boundary.find());
+        String body = response.substring(response.indexOf("\r\n\r\n") + 4);
+        assertEquals(body.length(), contentLength(response));
+        String delimiter = "--" + boundary.group(1);
+        assertTrue(body.startsWith(delimiter + "\r\nContent-Type: text/html\r\nContent-Location: /index.html\r\n"));
+        assertTrue(body.contains("\r\n\r\n" + index + "\r\n" + delimiter + "\r\nContent-Type: application/json\r\n"));
+        assertTrue(body.endsWith("\r\n\r\n" + json + "\r\n" + delimiter + "--\r\n"));
+    }
+
+    @Test
+    public void testTarBatchHasAHeaderPerResource() throws Exception {
+        // Given
+        byte[] index = ResourcesUtil.loadResource("/index.html").getContent();
+        // When
+        byte[] response = handleBytes(registry, "GET /__batch?f=index.html,example.json&format=tar HTTP/1.1\n\n");
+        // Then
+        String text = new String(response, StandardCharsets.ISO_8859_1);
+        int bodyStart = text.indexOf("\r\n\r\n") + 4;
+        byte[] body = Arrays.copyOfRange(response, bodyStart, response.length);
+        assertTrue(text.contains("Content-type: application/x-tar"));
+        assertEquals(body.length, contentLength(text));
+        assertEquals(body.length % 512, 0);
+        assertEquals(new String(body, 0, 10, StandardCharsets.US_ASCII), "index.html");
+        assertEquals(new String(body, 124, 11, StandardCharsets.US_ASCII), String.format("%011o", index.length));
+        assertEquals(new String(body, 257, 5, StandardCharsets.US_ASCII), "ustar");
+        assertArrayEquals(Arrays.copyOfRange(body, 512, 512 + index.length), index);
+        int secondHeader = 512 + (index.length + 511) / 512 * 512;
+        assertEquals(new String(body, secondHeader, 12, StandardCharsets.US_ASCII), "example.json");
+        assertTrue(checksumMatches(body, 0));
+        assertTrue(checksumMatches(body, secondHeader));
+    }
+
+    @Test
+    public void testBatchWithTooManyFilesIsRejected() throws Exception {
+        // When
+        String response = handle(registry, "GET /__batch?f=/index.html,/index.html,/index.html,/index.html HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.contains("HTTP/1.1 400 Bad Request"));
+    }
+
+    @Test
+    public void testBatchWithMissingFileIsNotFound() throws Exception {
+        // When
+        String response = handle(registry, "GET /__batch?f=/index.html&f=/not_existing.css HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.contains("HTTP/1.1 404 Not Found"));
+    }
+
+    private static boolean checksumMatches(byte[] body, int offset) {
+        int checksum = 0;
+        for (int i = 0; i < 512; i++) {
+            checksum += i >= 148 && i < 156 ? ' ' : body[offset + i] & 0xff;
+        }
+        return new String(body, offset + 148, 6, StandardCharsets.US_ASCII).equals(String.format("%06o", checksum));
+    }
+
+    private static int contentLength(String response) {
+        Matcher matcher = CONTENT_LENGTH.matcher(response);
+        assertTrue(matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+}
@@ -0,0 +1,118 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.handlers.CacheControlRules;
+import com.marshmelo.fileserver.handlers.HttpRequestParser;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.handlers.ResponseWriter;
+import com.marshmelo.fileserver.models.HttpRequest;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class CacheControlRulesTest {
+
+    @Test
+    public void testPolicyIsFoundFromPathAndMimeTypeRules() {
+        // Given
+        Map<String, String> rules = new LinkedHashMap<>();
+        rules.put("/docs/images/", "max-age=604800");
+        rules.put("/docs/*.css", "Max-Age=3600 ,Must-Revalidate");
+        rules.put("/**/*.json", "no-store");
+        rules.put("text/html", "no-cache");
+        rules.put("image/*", "max-age=86400");
+        CacheControlRules cacheControlRules = new CacheControlRules(rules, "max-age=60", false);
+        // When, Then
+        assertEquals(cacheControlRules.findPolicy("/docs/images/logo.png", "image/png"), "max-age=604800");
+        assertEquals(cacheControlRules.findPolicy("/docs/guide.css", "text/css"), "max-age=3600, must-revalidate");
+        assertEquals(cacheControlRules.findPolicy("/docs/old/guide.css", "text/css"), "max-age=60");
+        assertEquals(cacheControlRules.findPolicy("/docs/notes.json", "application/json"), "no-store");
+        assertEquals(cacheControlRules.findPolicy("/notes.json", "application/json"), "no-store");
+        assertEquals(cacheControlRules.findPolicy("/index.html", "text/html"), "no-cache");
+        assertEquals(cacheControlRules.findPolicy("/test.jpg", "image/jpeg"), "max-age=86400");
+    }
+
+    @Test
+    public void testDoubleStarSegmentMatchesNoFolder() {
+        // Given
+        Map<String, String> rules = new LinkedHashMap<>();
+        rules.put("/docs/**/images/*.png", "max-age=604800");
+        rules.put("/**/*.css", "max-age=3600");
+        CacheControlRules cacheControlRules = new CacheControlRules(rules, null, false);
+        // When, Then
+        assertEquals(cacheControlRules.findPolicy("/site.css", "text/css"), "max-age=3600");
+        assertEquals(cacheControlRules.findPolicy("/docs/old/guide.css", "text/css"), "max-age=3600");
+        assertEquals(cacheControlRules.findPolicy("/docs/images/logo.png", "image/png"), "max-age=604800");
+        assertEquals(cacheControlRules.findPolicy("/docs/v1/v2/images/logo.png", "image/png"), "max-age=604800");
+        assertNull(cacheControlRules.findPolicy("/docsimages/logo.png", "image/png"));
+        assertNull(cacheControlRules.findPolicy("/site.css.map", "application/json"));
+    }
+
+    @Test
+    public void testFingerprintedFileNamesAreImmutable() {
+        // Given
+        Map<String, String> rules = new LinkedHashMap<>();
+        rules.put("text/javascript", "no-cache");
+        CacheControlRules cacheControlRules = new CacheControlRules(rules, null, true);
+        // When, Then
+        assertEquals(cacheControlRules.findPolicy("/js/app.3f9a12c4.js", "text/javascript"), CacheControlRules.FINGERPRINTED_POLICY);
+        assertEquals(cacheControlRules.findPolicy("/img/logo-0b5e6d2f91ab.min.png", "image/png"), CacheControlRules.FINGERPRINTED_POLICY);
+        assertEquals(cacheControlRules.findPolicy("/js/app.js", "text/javascript"), "no-cache");
+        assertEquals(cacheControlRules.findPolicy("/js/jquery-3.6.0.min.js", "text/javascript"), "no-cache");
+        assertEquals(cacheControlRules.findPolicy("/js/app.deadbeef.js", "text/javascript"), "no-cache");
+        assertNull(cacheControlRules.findPolicy("/3f9a12c4/index.html", "text/html"));
+        // Dates and serial numbers are not content hashes.
+        assertNull(cacheControlRules.findPolicy("/reports/report-20240101.pdf", "application/pdf"));
+        assertNull(cacheControlRules.findPolicy("/backups/backup.12345678.tar.gz", "application/gzip"));
+        assertNull(cacheControlRules.findPolicy("/invoices/invoice-00001234.pdf", "application/pdf"));
+    }
+
+    @Test
+    public void testInvalidRulesAreIgnored() {
+        // Given
+        Map<String, String> rules = new LinkedHashMap<>();
+        rules.put("text/html", "max-age=forever");
+        rules.put("text/css", "cache-everything");
+        // When
+        CacheControlRules cacheControlRules = new CacheControlRules(rules, "max-age=-1", false);
+        // Then
+        assertNull(cacheControlRules.findPolicy("/index.html", "text/html"));
+        assertNull(cacheControlRules.findPolicy("/docs/guide.css", "text/css"));
+    }
+
+    @Test
+    public void testPolicyIsSentWithOkAndNotModifiedResponses() throws Exception {
+        // Given
+        Map<String, String> rules = new LinkedHashMap<>();
+        rules.put("application/json", "max-age=300");
+        RequestHandlerRegistry registry = new RequestHandlerRegistry();
+        registry.setCacheControlRules(new CacheControlRules(rules, null, true));
+        String ok = handle(registry, "GET /example.json HTTP/1.1\n\n");
+        Matcher etag = Pattern.compile("ETag: (\"[^\"]+\")").matcher(ok);
+        assertTrue(etag.find());
+        // When
+        String notModified = handle(registry, "GET /example.json HTTP/1.1\nIf-None-Match: " + etag.group(1) + "\n\n");
+        String head = handle(registry, "HEAD /example.json HTTP/1.1\n\n");
+        String other = handle(registry, "GET /test.js HTTP/1.1\n\n");
+        // Then
+        assertTrue(ok.contains("Cache-Control: max-age=300\r\n"));
+        assertTrue(notModified.startsWith("HTTP/1.1 304 Not Modified"));
+        assertTrue(notModified.contains("Cache-Control: max-age=300\r\n"));
+        assertTrue(head.contains("Cache-Control: max-age=300\r\n"));
+        assertFalse(other.contains("Cache-Control"));
+    }
+
+    private static String handle(RequestHandlerRegistry registry, String request) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpRequest httpRequest = HttpRequestParser.parseRequest(new ByteArrayInputStream(request.getBytes()));
+        registry.findHandler(httpRequest).handleRequest(httpRequest, new ResponseWriter(outputStream));
+        return new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+}
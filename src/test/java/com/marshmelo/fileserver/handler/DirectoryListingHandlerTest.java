@@ -0,0 +1,114 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.cache.MetadataIndex;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static com.marshmelo.fileserver.handler.HandlerTestSupport.handle;
+import static org.junit.Assert.*;
+
+public class DirectoryListingHandlerTest {
+
+    private final RequestHandlerRegistry registry = new RequestHandlerRegistry();
+
+    @Before
+    public void setUp() {
+        registry.enableListings(100, 1000);
+    }
+
+    @Test
+    public void testHtmlListingLinksTheEntries() throws Exception {
+        // When
+        String response = handle(registry, "GET /docs/ HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.contains("HTTP/1.1 200 OK"));
+        assertTrue(response.contains("Content-type: text/html"));
+        assertTrue(response.contains("<title>Index of /docs/</title>"));
+        assertTrue(response.contains("<a href=\"../\">../</a>"));
+        assertTrue(response.indexOf("<a href=\"guide.css\">guide.css</a></td><td>3011</td>")
+                < response.indexOf("<a href=\"images/\">images/</a>"));
+        assertTrue(response.indexOf("<a href=\"images/\">images/</a>")
+                < response.indexOf("<a href=\"notes.json\">notes.json</a>"));
+    }
+
+    @Test
+    public void testHeadListingHasTheHeadersOfGet() throws Exception {
+        // When
+        String get = handle(registry, "GET /docs/ HTTP/1.1\n\n");
+        String head = handle(registry, "HEAD /docs/ HTTP/1.1\n\n");
+        // Then
+        assertTrue(head.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(head.contains("Content-type: text/html"));
+        assertTrue(head.contains("Content-length: " + body(get).getBytes(StandardCharsets.UTF_8).length));
+        assertEquals(body(head), "");
+    }
+
+    @Test
+    public void testJsonListingIsPagedWithACursor() throws Exception {
+        // When
+        String first = handle(registry, "GET /docs/?format=json&sort=size&order=desc&size=2 HTTP/1.1\n\n");
+        // Then
+        String firstBody = body(first);
+        assertTrue(first.contains("Content-type: application/json"));
+        assertTrue(firstBody.startsWith("{\"path\":\"/docs/\",\"total\":3,\"entries\":[{\"name\":\"guide.css\","
+                + "\"type\":\"file\",\"size\":3011,"));
+        assertTrue(firstBody.contains("{\"name\":\"notes.json\",\"type\":\"file\",\"size\":41,"));
+        assertTrue(firstBody.endsWith("],\"next\":\"?format=json&sort=size&order=desc&size=2&after=41%3Anotes.json\"}\n"));
+        // When
+        String second = handle(registry, "GET /docs/?format=json&sort=size&order=desc&size=2&after=41%3Anotes.json HTTP/1.1\n\n");
+        // Then
+        String secondBody = body(second);
+        assertTrue(secondBody.contains("\"entries\":[{\"name\":\"images\",\"type\":\"directory\",\"size\":0,"));
+        assertTrue(secondBody.endsWith("}],\"next\":null}\n"));
+    }
+
+    @Test
+    public void testInvalidQueryIsRejected() throws Exception {
+        // When
+        String response = handle(registry, "GET /docs/?sort=owner HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.contains("HTTP/1.1 400 Bad Request"));
+    }
+
+    @Test
+    public void testFolderWithIndexIsNotListed() throws Exception {
+        // When
+        String response = handle(registry, "GET / HTTP/1.1\n\n");
+        // Then
+        assertFalse(response.contains("Index of /"));
+    }
+
+    @Test
+    public void testCachedListingIsRefreshedWhenTheFolderChanges() throws Exception {
+        // Given
+        Path folder = MetadataIndex.findClasspathFolders("static").get(0).resolve("listing_test");
+        Files.createDirectories(folder);
+        try {
+            Files.write(folder.resolve("a.txt"), "a".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(folder, FileTime.fromMillis(1000000000000L));
+            String first = body(handle(registry, "GET /listing_test/?format=json HTTP/1.1\n\n"));
+            assertEquals(body(handle(registry, "GET /listing_test/?format=json HTTP/1.1\n\n")), first);
+            // When
+            Files.write(folder.resolve("b.txt"), "b".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(folder, FileTime.fromMillis(1000000001000L));
+            String second = body(handle(registry, "GET /listing_test/?format=json HTTP/1.1\n\n"));
+            // Then
+            assertTrue(first.contains("\"total\":1,"));
+            assertTrue(second.contains("\"total\":2,"));
+            assertTrue(second.contains("{\"name\":\"b.txt\""));
+        } finally {
+            FileUtils.deleteDirectory(folder.toFile());
+        }
+    }
+
+    private static String body(String response) {
+        return response.substring(response.indexOf("\r\n\r\n") + 4);
+    }
+}
@@ -0,0 +1,83 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.connection.ConnectionManager;
+import com.marshmelo.fileserver.handlers.HTTPRequestHandler;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.handlers.ServerContext;
+import com.marshmelo.fileserver.models.RequestLimits;
+import com.marshmelo.fileserver.scheduling.RequestScheduler;
+import com.marshmelo.fileserver.throttling.BandwidthShaper;
+import com.marshmelo.fileserver.throttling.RequestRateLimiter;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class HTTPRequestHandlerTest {
+
+    private static final String REQUEST = "GET /index.html HTTP/1.1\r\nHost: www.marshmelo.com\r\n\r\n";
+
+    @Test
+    public void testPipelinedRequestsAreChargedToTheRateOfTheClient() throws IOException {
+        // Given
+        RequestRateLimiter rateLimiter = new RequestRateLimiter(1, 3, 1024);
+        ServerContext context = new ServerContext(new RequestHandlerRegistry(), RequestLimits.DEFAULT_LIMITS);
+        context.setRateLimiter(rateLimiter);
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+            Socket accepted = server.accept();
+            accepted.setSoTimeout(5000);
+            // The accept path charges the first request of the connection.
+            assertTrue(rateLimiter.tryAcquire(accepted.getInetAddress()));
+            OutputStream outputStream = client.getOutputStream();
+            outputStream.write((REQUEST + REQUEST + REQUEST + REQUEST).getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+            // When
+            new HTTPRequestHandler(accepted, context, null).run();
+            String response = IOUtils.toString(client.getInputStream(), StandardCharsets.ISO_8859_1);
+            // Then
+            assertEquals(response.split("HTTP/1.1 200 OK", -1).length - 1, 3);
+            assertTrue(response.contains("HTTP/1.1 429 Too Many Requests"));
+            assertTrue(response.contains("Retry-After: 1"));
+            assertTrue(accepted.isClosed());
+        }
+    }
+
+    @Test
+    public void testShapedResponsesKeepTheConnectionAlive() throws IOException {
+        // Given
+        ServerContext context = new ServerContext(new RequestHandlerRegistry(), RequestLimits.DEFAULT_LIMITS);
+        RequestScheduler scheduler = new RequestScheduler(2, 1, 1, Long.MAX_VALUE);
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, 100, new HashMap<>(), 64, 1);
+        context.setScheduler(scheduler);
+        context.setBandwidthShaper(shaper);
+        ConnectionManager manager = new ConnectionManager(5000, 5000, 5000, 0, 10, 64);
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+            Socket accepted = server.accept();
+            accepted.setSoTimeout(5000);
+            client.setSoTimeout(5000);
+            OutputStream outputStream = client.getOutputStream();
+            String lastRequest = "GET /index.html HTTP/1.1\r\nHost: www.marshmelo.com\r\nConnection: close\r\n\r\n";
+            outputStream.write((REQUEST + lastRequest).getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+            // When
+            new HTTPRequestHandler(accepted, context, manager.register(accepted, accepted.getInetAddress())).run();
+            String response = IOUtils.toString(client.getInputStream(), StandardCharsets.ISO_8859_1);
+            // Then
+            // The second response is sent once the first body is written by the shaper timers.
+            assertEquals(response.split("HTTP/1.1 200 OK", -1).length - 1, 2);
+        } finally {
+            shaper.shutdown();
+            scheduler.shutdown();
+        }
+    }
+}
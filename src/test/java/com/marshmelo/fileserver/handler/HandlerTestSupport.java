@@ -0,0 +1,194 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.exceptions.RequestParsingException;
+import com.marshmelo.fileserver.handlers.HttpRequestParser;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.handlers.ResponseWriter;
+import com.marshmelo.fileserver.models.HttpRequest;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers shared by the handler tests: serving a request with the handlers of a registry without a connection, and a
+ * stand-in server for the origins and the peers the handlers talk to.
+ */
+final class HandlerTestSupport {
+
+    private HandlerTestSupport() {
+    }
+
+    /**
+     * Serve a request with the handler the registry finds for it.
+     *
+     * @param registry the handlers.
+     * @param request  the request line and the headers.
+     * @return the response, headers included.
+     */
+    static byte[] handleBytes(RequestHandlerRegistry registry, String request)
+            throws IOException, InternalServerException, RequestParsingException {
+        return handleBytes(registry, parse(request));
+    }
+
+    /**
+     * @see #handleBytes(RequestHandlerRegistry, String)
+     */
+    static String handle(RequestHandlerRegistry registry, String request)
+            throws IOException, InternalServerException, RequestParsingException {
+        return new String(handleBytes(registry, request), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serve a request with a body, e.g. an upload.
+     *
+     * @param body the body of the request, null for an empty body.
+     * @see #handleBytes(RequestHandlerRegistry, String)
+     */
+    static String handle(RequestHandlerRegistry registry, String request, String body)
+            throws IOException, InternalServerException, RequestParsingException {
+        HttpRequest httpRequest = parse(request);
+        httpRequest.setBody(new ByteArrayInputStream(body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8)));
+        return new String(handleBytes(registry, httpRequest), StandardCharsets.UTF_8);
+    }
+
+    private static HttpRequest parse(String request) throws IOException, RequestParsingException {
+        return HttpRequestParser.parseRequest(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] handleBytes(RequestHandlerRegistry registry, HttpRequest httpRequest)
+            throws IOException, InternalServerException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        registry.findHandler(httpRequest).handleRequest(httpRequest, new ResponseWriter(outputStream));
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Builds the response of the stand-in server to a request.
+     */
+    interface Responder {
+
+        /**
+         * @param requestLine the request line.
+         * @param headers     the header lines.
+         * @return the whole response, it is sent as it is and the connection is kept alive.
+         * @throws InterruptedException thrown when the test ends while the response is delayed.
+         */
+        String respond(String requestLine, List<String> headers) throws InterruptedException;
+    }
+
+    /**
+     * A server on a free local port answering the requests of keep-alive connections with a {@link Responder}.
+     */
+    static final class StandInServer implements Closeable {
+
+        private final ServerSocket serverSocket;
+        private final Responder responder;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final AtomicInteger connections = new AtomicInteger();
+        private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+
+        StandInServer(Responder responder) throws IOException {
+            this.serverSocket = new ServerSocket(0);
+            this.responder = responder;
+            executor.execute(this::acceptConnections);
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        /**
+         * @return the number of accepted connections.
+         */
+        int getConnections() {
+            return connections.get();
+        }
+
+        /**
+         * Stop accepting connections and close the open ones, the server is unreachable afterwards.
+         */
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            executor.shutdownNow();
+            for (Socket socket : openSockets) {
+                socket.close();
+            }
+        }
+
+        private void acceptConnections() {
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                connections.incrementAndGet();
+                openSockets.add(socket);
+                try {
+                    executor.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    // Accepted while the server is closed.
+                    closeQuietly(socket);
+                    return;
+                }
+                if (serverSocket.isClosed()) {
+                    // Accepted after close() went through the open sockets.
+                    closeQuietly(socket);
+                }
+            }
+        }
+
+        private void closeQuietly(Socket socket) {
+            openSockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket connection = socket) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.ISO_8859_1));
+                OutputStream outputStream = connection.getOutputStream();
+                String requestLine;
+                while ((requestLine = reader.readLine()) != null) {
+                    List<String> headers = new ArrayList<>();
+                    String line;
+                    while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                        headers.add(line);
+                    }
+                    if (line == null) {
+                        // The client closed before the end of the headers.
+                        return;
+                    }
+                    outputStream.write(responder.respond(requestLine, headers).getBytes(StandardCharsets.ISO_8859_1));
+                    outputStream.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // The connection is closed.
+            } finally {
+                openSockets.remove(socket);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.exceptions.RequestParsingException;
+import com.marshmelo.fileserver.handlers.RequestHandler;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static com.marshmelo.fileserver.handler.HandlerTestSupport.handle;
+import static org.junit.Assert.*;
+
+public class HeadRequestHandlerTest {
+
+    private final RequestHandlerRegistry registry = new RequestHandlerRegistry();
+
+    @Test
+    public void testHeadRequestForBigFileReturnsOnlyHeaders() throws IOException, InternalServerException, RequestParsingException {
+        // Given
+        String request =
+                "HEAD /index_big.html HTTP/1.1\n" +
+                        "Host: www.marshmelo.com\n" +
+                        "\n";
+        // When
+        String response = handle(registry, request);
+        // Then
+        assertTrue(response.contains("HTTP/1.1 200 OK"));
+        assertTrue(response.contains("Content-type: text/html"));
+        assertTrue(response.contains("Content-length: 1336967"));
+        assertTrue(response.endsWith("\n\n") || response.endsWith("\r\n\r\n"));
+        assertFalse(response.contains("<html"));
+    }
+
+    @Test
+    public void testHeadRequestAcceptingGzipHasTheHeadersOfGet() throws IOException, InternalServerException, RequestParsingException {
+        // Given
+        String head =
+                "HEAD /index_big.html HTTP/1.1\n" +
+                        "Host: www.marshmelo.com\n" +
+                        "Accept-Encoding: gzip\n" +
+                        "\n";
+        String get = head.replace("HEAD", "GET");
+        // When
+        String headResponse = handle(registry, head);
+        String getResponse = handle(registry, get);
+        // Then
+        assertTrue(headResponse.contains("HTTP/1.1 200 OK"));
+        assertTrue(headResponse.contains("Content-Encoding: gzip"));
+        assertTrue(headResponse.contains("Vary: Accept-Encoding"));
+        assertNotNull(findHeader(headResponse, "ETag"));
+        assertEquals(findHeader(headResponse, "ETag"), findHeader(getResponse, "ETag"));
+        assertEquals(findHeader(headResponse, "Transfer-Encoding"), findHeader(getResponse, "Transfer-Encoding"));
+        assertTrue(headResponse.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    public void testHeadRequestForNonExistingResourceReturnsNotFoundWithoutBody() throws IOException, InternalServerException, RequestParsingException {
+        // Given
+        String request =
+                "HEAD /not_existing.html HTTP/1.1\n" +
+                        "Host: www.marshmelo.com\n" +
+                        "\n";
+        // When
+        String response = handle(registry, request);
+        // Then
+        assertTrue(response.contains("HTTP/1.1 404 Not Found"));
+        assertFalse(response.contains("404 - Page not found!"));
+    }
+
+    @Test
+    public void testOptionsRequestListsAllowedMethods() throws IOException, InternalServerException, RequestParsingException {
+        // Given
+        String request =
+                "OPTIONS * HTTP/1.1\n" +
+                        "Host: www.marshmelo.com\n" +
+                        "\n";
+        // When
+        String response = handle(registry, request);
+        // Then
+        assertTrue(response.contains("HTTP/1.1 200 OK"));
+        assertTrue(response.contains("Allow: GET, HEAD, OPTIONS"));
+        assertTrue(response.contains("Content-length: 0"));
+    }
+
+    @Test
+    public void testHandlersAreSharedBetweenRequests() {
+        // When
+        RequestHandler first = registry.findHandler("HEAD");
+        RequestHandler second = registry.findHandler("HEAD");
+        // Then
+        assertSame(first, second);
+        assertNull(registry.findHandler("POST"));
+    }
+
+    private static String findHeader(String response, String name) {
+        for (String line : response.split("\r\n")) {
+            if (line.startsWith(name + ": ")) {
+                return line.substring(name.length() + 2);
+            }
+        }
+        return null;
+    }
+}
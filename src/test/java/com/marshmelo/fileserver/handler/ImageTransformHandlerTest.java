@@ -0,0 +1,102 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.models.ImageTransformSettings;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.marshmelo.fileserver.handler.HandlerTestSupport.handleBytes;
+import static org.junit.Assert.*;
+
+public class ImageTransformHandlerTest {
+
+    private static final Pattern ETAG = Pattern.compile("ETag: (\"[^\"]+\")");
+
+    private final RequestHandlerRegistry registry = new RequestHandlerRegistry();
+
+    @Before
+    public void setUp() {
+        registry.enableImageTransforms(new ImageTransformSettings(1, 4, 2000, 1000 * 1000, 10000));
+    }
+
+    @Test
+    public void testJpegIsScaledToFitTheBox() throws Exception {
+        // When
+        byte[] response = handleBytes(registry, "GET /test.jpg?w=100&h=100&q=70 HTTP/1.1\n\n");
+        // Then
+        String header = header(response);
+        assertTrue(header.contains("HTTP/1.1 200 OK"));
+        assertTrue(header.contains("Content-type: image/jpeg"));
+        assertTrue(header.contains("-w100h100q70-jpeg\""));
+        assertTrue(header.contains("Last-Modified: "));
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(body(response)));
+        // test.jpg is 1000x571, its aspect ratio is kept.
+        assertEquals(image.getWidth(), 100);
+        assertEquals(image.getHeight(), 57);
+    }
+
+    @Test
+    public void testVariantIsCachedAndRevalidated() throws Exception {
+        // Given
+        byte[] first = handleBytes(registry, "GET /test.jpg?w=64 HTTP/1.1\n\n");
+        Matcher etag = ETAG.matcher(header(first));
+        assertTrue(etag.find());
+        // When
+        byte[] second = handleBytes(registry, "GET /test.jpg?w=64 HTTP/1.1\n\n");
+        byte[] revalidated = handleBytes(registry, "GET /test.jpg?w=64 HTTP/1.1\nIf-None-Match: " + etag.group(1) + "\n\n");
+        // Then
+        assertArrayEquals(body(second), body(first));
+        assertTrue(header(revalidated).contains("HTTP/1.1 304 Not Modified"));
+        assertEquals(body(revalidated).length, 0);
+    }
+
+    @Test
+    public void testPngIsConvertedToJpeg() throws Exception {
+        // When
+        byte[] response = handleBytes(registry, "GET /docs/images/logo.png?format=jpeg HTTP/1.1\n\n");
+        // Then
+        assertTrue(header(response).contains("Content-type: image/jpeg"));
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(body(response)));
+        assertEquals(image.getWidth(), 1);
+        assertEquals(image.getHeight(), 1);
+    }
+
+    @Test
+    public void testInvalidTransformIsRejected() throws Exception {
+        // When
+        byte[] tooWide = handleBytes(registry, "GET /test.jpg?w=5000 HTTP/1.1\n\n");
+        byte[] notANumber = handleBytes(registry, "GET /test.jpg?w=abc HTTP/1.1\n\n");
+        // Then
+        assertTrue(header(tooWide).contains("HTTP/1.1 400 Bad Request"));
+        assertTrue(header(notANumber).contains("HTTP/1.1 400 Bad Request"));
+    }
+
+    @Test
+    public void testOtherResourcesAreServedUnchanged() throws Exception {
+        // When
+        byte[] response = handleBytes(registry, "GET /example.json?w=100 HTTP/1.1\n\n");
+        // Then
+        assertTrue(header(response).contains("HTTP/1.1 200 OK"));
+        assertTrue(header(response).contains("Content-type: application/json"));
+    }
+
+    private static int headerLength(byte[] response) {
+        return new String(response, StandardCharsets.ISO_8859_1).indexOf("\r\n\r\n") + 4;
+    }
+
+    private static String header(byte[] response) {
+        return new String(response, 0, headerLength(response), StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] body(byte[] response) {
+        return Arrays.copyOfRange(response, headerLength(response), response.length);
+    }
+}
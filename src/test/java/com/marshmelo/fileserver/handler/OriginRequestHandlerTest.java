@@ -0,0 +1,132 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.handler.HandlerTestSupport.StandInServer;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.models.OriginSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.marshmelo.fileserver.handler.HandlerTestSupport.handle;
+import static org.junit.Assert.*;
+
+public class OriginRequestHandlerTest {
+
+    private static final String CONTENT = "from the origin";
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger conditionalRequests = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private StandInServer origin;
+    private RequestHandlerRegistry registry;
+    private volatile String cacheControl = "max-age=60";
+    private volatile long delayMillis;
+
+    @Before
+    public void setUp() throws IOException {
+        origin = new StandInServer(this::respond);
+        registry = new RequestHandlerRegistry();
+        registry.enableOrigin(new OriginSettings(URI.create("http://127.0.0.1:" + origin.getPort()), 4, 2000, 30000));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        origin.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFreshCopyIsServedFromTheCache() throws Exception {
+        // When
+        String miss = handle(registry, "GET /origin-test/fresh.txt HTTP/1.1\n\n");
+        String hit = handle(registry, "GET /origin-test/fresh.txt HTTP/1.1\n\n");
+        // Then
+        assertTrue(miss.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(miss.contains("X-Cache: MISS"));
+        assertTrue(miss.endsWith("\r\n\r\n" + CONTENT));
+        assertTrue(hit.contains("X-Cache: HIT"));
+        assertTrue(hit.contains("Cache-Control: max-age=60"));
+        assertTrue(hit.endsWith("\r\n\r\n" + CONTENT));
+        assertEquals(requests.get(), 1);
+    }
+
+    @Test
+    public void testStaleCopyIsRevalidatedOverTheSameConnection() throws Exception {
+        // Given
+        cacheControl = "no-cache";
+        // When
+        handle(registry, "GET /origin-test/stale.txt HTTP/1.1\n\n");
+        String revalidated = handle(registry, "GET /origin-test/stale.txt HTTP/1.1\n\n");
+        String notModified = handle(registry, "GET /origin-test/stale.txt HTTP/1.1\nIf-None-Match: \"v1\"\n\n");
+        // Then
+        assertTrue(revalidated.contains("X-Cache: REVALIDATED"));
+        assertTrue(revalidated.endsWith("\r\n\r\n" + CONTENT));
+        assertTrue(notModified.startsWith("HTTP/1.1 304 Not Modified"));
+        assertEquals(requests.get(), 3);
+        assertEquals(conditionalRequests.get(), 2);
+        assertEquals(origin.getConnections(), 1);
+    }
+
+    @Test
+    public void testConcurrentMissesAreCoalesced() throws Exception {
+        // Given
+        delayMillis = 300;
+        List<Future<String>> responses = new ArrayList<>();
+        // When
+        for (int i = 0; i < 5; i++) {
+            responses.add(executor.submit(() -> handle(registry, "GET /origin-test/slow.txt HTTP/1.1\n\n")));
+        }
+        // Then
+        for (Future<String> response : responses) {
+            assertTrue(response.get().endsWith("\r\n\r\n" + CONTENT));
+        }
+        assertEquals(requests.get(), 1);
+    }
+
+    @Test
+    public void testNoStoreResponseIsNotCached() throws Exception {
+        // Given
+        cacheControl = "no-store";
+        // When
+        handle(registry, "GET /origin-test/private.txt HTTP/1.1\n\n");
+        String second = handle(registry, "GET /origin-test/private.txt HTTP/1.1\n\n");
+        // Then
+        assertTrue(second.contains("X-Cache: MISS"));
+        assertTrue(second.endsWith("\r\n\r\n" + CONTENT));
+        assertEquals(requests.get(), 2);
+    }
+
+    @Test
+    public void testUnreachableOriginIsABadGateway() throws Exception {
+        // Given
+        origin.close();
+        // When
+        String response = handle(registry, "GET /origin-test/down.txt HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.startsWith("HTTP/1.1 502 Bad Gateway"));
+    }
+
+    /**
+     * A stand-in origin answering every request with the same keep-alive response, 304 when the entity tag matches.
+     */
+    private String respond(String requestLine, List<String> headers) throws InterruptedException {
+        boolean conditional = headers.stream().anyMatch(header -> header.equalsIgnoreCase("If-None-Match: \"v1\""));
+        requests.incrementAndGet();
+        Thread.sleep(delayMillis);
+        if (conditional) {
+            conditionalRequests.incrementAndGet();
+            return "HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\nCache-Control: " + cacheControl + "\r\n\r\n";
+        }
+        return "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nETag: \"v1\"\r\nCache-Control: " + cacheControl
+                + "\r\nContent-Length: " + CONTENT.length() + "\r\n\r\n" + CONTENT;
+    }
+}
@@ -0,0 +1,156 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.handler.HandlerTestSupport.StandInServer;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.models.PeerSettings;
+import com.marshmelo.fileserver.peer.PeerGroup;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static com.marshmelo.fileserver.handler.HandlerTestSupport.handle;
+import static org.junit.Assert.*;
+
+public class PeerRequestHandlerTest {
+
+    private static final String SELF = "127.0.0.1:1";
+    private static final String DISK_CONTENT = "from the disk";
+    private static final String PEER_CONTENT = "from the peer";
+    private static final int FILES = 16;
+
+    private final Path folder = ResourcesUtil.findWritableRoot().resolve("peer-test");
+    private final AtomicInteger requests = new AtomicInteger();
+    private StandInServer peer;
+    private RequestHandlerRegistry registry;
+    private PeerGroup peerGroup;
+    private volatile String peerEtag;
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(folder);
+        for (int i = 0; i < FILES; i++) {
+            Files.write(folder.resolve("file-" + i + ".txt"), DISK_CONTENT.getBytes(StandardCharsets.UTF_8));
+        }
+        peer = new StandInServer(this::respond);
+        registry = new RequestHandlerRegistry();
+        peerGroup = registry.enablePeers(new PeerSettings(SELF, Arrays.asList(SELF, "127.0.0.1:" + peer.getPort()),
+                "/__peer", 160, 2, 1000));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ResourcesUtil.configurePeers(null);
+        peer.close();
+        for (int i = 0; i < FILES; i++) {
+            ResourcesUtil.invalidate("/peer-test/file-" + i + ".txt");
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testResourceOwnedByAPeerIsFetchedFromIt() throws Exception {
+        // Given
+        String url = findFile(false);
+        peerEtag = ResourcesUtil.findFileMetadata(url).getEtag();
+        // When
+        String response = handle(registry, "GET " + url + " HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response.endsWith("\r\n\r\n" + PEER_CONTENT));
+        assertEquals(requests.get(), 1);
+        assertEquals(peerGroup.getFetchedCount(), 1L);
+    }
+
+    @Test
+    public void testResourceOwnedByThisServerIsReadFromDisk() throws Exception {
+        // Given
+        String url = findFile(true);
+        // When
+        String response = handle(registry, "GET " + url + " HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.endsWith("\r\n\r\n" + DISK_CONTENT));
+        assertEquals(requests.get(), 0);
+    }
+
+    @Test
+    public void testPeerWithAnotherVersionIsIgnored() throws Exception {
+        // Given
+        String url = findFile(false);
+        peerEtag = "\"other\"";
+        // When
+        String response = handle(registry, "GET " + url + " HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.endsWith("\r\n\r\n" + DISK_CONTENT));
+        assertEquals(requests.get(), 1);
+        assertEquals(peerGroup.getFallbackCount(), 1L);
+        assertTrue(peerGroup.isAvailable("127.0.0.1:" + peer.getPort()));
+    }
+
+    @Test
+    public void testUnreachablePeerIsMarkedDown() throws Exception {
+        // Given
+        String url = findFile(false);
+        peer.close();
+        // When
+        String response = handle(registry, "GET " + url + " HTTP/1.1\n\n");
+        peerGroup.checkHealth();
+        // Then
+        assertTrue(response.endsWith("\r\n\r\n" + DISK_CONTENT));
+        assertFalse(peerGroup.isAvailable("127.0.0.1:" + peer.getPort()));
+        // Its resources are owned by the remaining servers.
+        assertTrue(peerGroup.isOwner(ResourcesUtil.buildRelativePath(url)));
+    }
+
+    @Test
+    public void testPeerEndpointServesTheLocalCopy() throws Exception {
+        // Given
+        String etag = ResourcesUtil.findFileMetadata("/peer-test/file-0.txt").getEtag();
+        // When
+        String resource = handle(registry, "GET /__peer?path=peer-test%2Ffile-0.txt HTTP/1.1\n\n");
+        String health = handle(registry, "GET /__peer HTTP/1.1\n\n");
+        String missing = handle(registry, "GET /__peer?path=peer-test%2Fmissing.txt HTTP/1.1\n\n");
+        // Then
+        assertTrue(resource.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(resource.contains("ETag: " + etag));
+        assertTrue(resource.endsWith("\r\n\r\n" + DISK_CONTENT));
+        assertTrue(health.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(missing.startsWith("HTTP/1.1 404 Not Found"));
+        assertEquals(requests.get(), 0);
+    }
+
+    /**
+     * @param owned true for a file owned by this server, false for a file owned by the peer.
+     */
+    private String findFile(boolean owned) {
+        for (int i = 0; i < FILES; i++) {
+            if (peerGroup.isOwner("peer-test/file-" + i + ".txt") == owned) {
+                return "/peer-test/file-" + i + ".txt";
+            }
+        }
+        throw new AssertionError("No file is owned by " + (owned ? "this server" : "the peer"));
+    }
+
+    /**
+     * A stand-in peer answering every request for a resource with its own copy and the configured entity tag.
+     */
+    private String respond(String requestLine, List<String> headers) {
+        if (!requestLine.contains("?path=")) {
+            return "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n";
+        }
+        requests.incrementAndGet();
+        return "HTTP/1.1 200 OK\r\nETag: " + peerEtag + "\r\nContent-Length: " + PEER_CONTENT.length() + "\r\n\r\n" + PEER_CONTENT;
+    }
+}
@@ -0,0 +1,75 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.exceptions.InternalServerException;
+import com.marshmelo.fileserver.exceptions.RequestParsingException;
+import com.marshmelo.fileserver.handlers.HttpRequestParser;
+import com.marshmelo.fileserver.handlers.PreloadHints;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.handlers.ResponseWriter;
+import com.marshmelo.fileserver.models.HttpRequest;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class PreloadHintsTest {
+
+    private static final String LINK = "Link: </docs/guide.css>; rel=preload; as=style, </test.js?v=2>; rel=preload; as=script, "
+            + "</docs/images/logo.png>; rel=preload; as=image\r\n";
+
+    @Test
+    public void testEarlyHintsAreSentBeforeThePage() throws Exception {
+        // Given
+        RequestHandlerRegistry registry = registry(new PreloadHints(8, true, true));
+        // When
+        String response = handle(registry, "GET /preload.html HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.startsWith("HTTP/1.1 103 Early Hints\r\n"));
+        int finalResponse = response.indexOf("\r\n\r\n") + 4;
+        String earlyHints = response.substring(0, finalResponse);
+        assertTrue(earlyHints.contains(LINK));
+        assertFalse(earlyHints.contains("Content-length"));
+        assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n", finalResponse));
+        assertTrue(response.indexOf(LINK, finalResponse) > 0);
+    }
+
+    @Test
+    public void testLinkHeaderOnlyWithoutEarlyHints() throws Exception {
+        // Given
+        RequestHandlerRegistry registry = registry(new PreloadHints(2, false, false));
+        // When
+        String response = handle(registry, "GET /preload.html HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response.contains("Link: </docs/guide.css>; rel=preload; as=style, </test.js?v=2>; rel=preload; as=script\r\n"));
+    }
+
+    @Test
+    public void testOtherResourcesHaveNoHints() throws Exception {
+        // Given
+        RequestHandlerRegistry registry = registry(new PreloadHints(8, true, true));
+        // When
+        String response = handle(registry, "GET /test.js HTTP/1.1\n\n");
+        // Then
+        assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertFalse(response.contains("Link: "));
+    }
+
+    private static RequestHandlerRegistry registry(PreloadHints preloadHints) {
+        RequestHandlerRegistry registry = new RequestHandlerRegistry();
+        registry.enablePreloadHints(preloadHints);
+        return registry;
+    }
+
+    private static String handle(RequestHandlerRegistry registry, String request)
+            throws IOException, InternalServerException, RequestParsingException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpRequest httpRequest = HttpRequestParser.parseRequest(new ByteArrayInputStream(request.getBytes()));
+        registry.findHandler(httpRequest).handleRequest(httpRequest, new ResponseWriter(outputStream));
+        return new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,264 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.handlers.HttpResponseBuilder;
+import com.marshmelo.fileserver.handlers.ResponseWriter;
+import com.marshmelo.fileserver.models.HttpResponse;
+import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.StreamingBody;
+import com.marshmelo.fileserver.throttling.BandwidthShaper;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ResponseWriterTest {
+
+    @Test
+    public void testBodyOfUnknownLengthIsChunked() throws IOException {
+        // Given
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ResponseWriter writer = new ResponseWriter(outputStream);
+        HttpResponse response = HttpResponseBuilder.buildResponse("text/plain", body(StreamingBody.UNKNOWN_LENGTH, "Hello", " chunked"), 200);
+        // When
+        writer.writeHeader(response);
+        writer.writeBody(response, "/hello.txt");
+        // Then
+        String output = new String(outputStream.toByteArray(), StandardCharsets.US_ASCII);
+        assertTrue(output.contains("Transfer-Encoding: chunked"));
+        assertFalse(output.contains("Content-length"));
+        // Small writes are gathered in one chunk.
+        assertTrue(output.endsWith("d\r\nHello chunked\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    public void testFlushedBytesAreSentAsAChunk() throws IOException {
+        // Given
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ResponseWriter writer = new ResponseWriter(outputStream);
+        StreamingBody body = new StreamingBody() {
+            @Override
+            public long getLength() {
+                return UNKNOWN_LENGTH;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write("Hello".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                out.write("World!".getBytes(StandardCharsets.US_ASCII));
+            }
+        };
+        // When
+        writer.writeBody(HttpResponseBuilder.buildResponse("text/plain", body, 200), null);
+        // Then
+        assertEquals(new String(outputStream.toByteArray(), StandardCharsets.US_ASCII), "5\r\nHello\r\n6\r\nWorld!\r\n0\r\n\r\n");
+    }
+
+    @Test
+    public void testBodyOfKnownLengthIsNotChunked() throws IOException {
+        // Given
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ResponseWriter writer = new ResponseWriter(outputStream);
+        HttpResponse response = HttpResponseBuilder.buildResponse("text/plain", body(5, "Hello"), 200);
+        // When
+        writer.writeHeader(response);
+        writer.writeBody(response, null);
+        // Then
+        String output = new String(outputStream.toByteArray(), StandardCharsets.US_ASCII);
+        assertTrue(output.contains("Content-length: 5"));
+        assertFalse(output.contains("Transfer-Encoding"));
+        assertTrue(output.endsWith("Hello"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBodyShorterThanItsLengthFails() throws IOException {
+        // Given
+        ResponseWriter writer = new ResponseWriter(new ByteArrayOutputStream());
+        // When
+        writer.writeBody(HttpResponseBuilder.buildResponse("text/plain", body(10, "Hello"), 200), null);
+    }
+
+    @Test
+    public void testSmallResponseIsSentWithASingleWrite() throws IOException {
+        // Given
+        WriteCountingOutputStream outputStream = new WriteCountingOutputStream();
+        ResponseWriter writer = new ResponseWriter(outputStream);
+        HttpResponse response = HttpResponseBuilder.buildResponse(new Resource("Hello".getBytes(StandardCharsets.US_ASCII), "text/plain"), 200);
+        // When
+        writer.writeResponse(response, null);
+        // Then
+        String output = new String(outputStream.toByteArray(), StandardCharsets.US_ASCII);
+        assertTrue(output.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(output.contains("Content-length: 5\r\n"));
+        assertTrue(output.endsWith("\r\n\r\nHello"));
+        assertEquals(outputStream.writes, 1);
+    }
+
+    @Test
+    public void testBatchedResponsesAreSentTogether() throws IOException {
+        // Given
+        WriteCountingOutputStream outputStream = new WriteCountingOutputStream();
+        ResponseWriter writer = new ResponseWriter(outputStream);
+        HttpResponse response = HttpResponseBuilder.buildResponse(new Resource("Hello".getBytes(StandardCharsets.US_ASCII), "text/plain"), 200);
+        // When
+        writer.setBatching(true);
+        writer.writeResponse(response, null);
+        writer.writeResponse(response, null);
+        int writesWhileBatching = outputStream.writes;
+        writer.setBatching(false);
+        // Then
+        assertEquals(writesWhileBatching, 0);
+        assertEquals(outputStream.writes, 1);
+        String output = new String(outputStream.toByteArray(), StandardCharsets.US_ASCII);
+        assertEquals(output.split("HTTP/1.1 200 OK").length, 3);
+    }
+
+    @Test
+    public void testLargeBodyIsGatheredWithTheHeader() throws IOException {
+        // Given
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        List<Integer> writes = new ArrayList<>();
+        GatheringByteChannel channel = new GatheringChannel(outputStream, writes);
+        ResponseWriter writer = new ResponseWriter(channel, null);
+        byte[] content = new byte[100000];
+        Arrays.fill(content, (byte) 'x');
+        HttpResponse response = HttpResponseBuilder.buildResponse(new Resource(content, "text/plain"), 200);
+        // When
+        writer.writeResponse(response, null);
+        // Then
+        assertEquals(writes.size(), 1);
+        assertEquals(outputStream.size(), (int) writes.get(0));
+        assertTrue(new String(outputStream.toByteArray(), StandardCharsets.US_ASCII).endsWith("\r\n\r\n" + new String(content, StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testShapedGzipBodyIsReadFromItsChannelAndChunked() throws Exception {
+        // Given
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, 32 * 1024, new HashMap<>(), 8 * 1024, 1);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ResponseWriter writer = new ResponseWriter(outputStream, shaper.openConnection(InetAddress.getLoopbackAddress(), () -> {
+        }));
+        byte[] content = new byte[48 * 1024];
+        new Random(42).nextBytes(content);
+        ReadableByteChannel source = Channels.newChannel(new ByteArrayInputStream(content));
+        StreamingBody body = StreamingBody.gzip(StreamingBody.fromChannel(source, content.length));
+        // When
+        writer.writeBody(HttpResponseBuilder.buildResponse("text/plain", body, 200), null);
+        boolean doneWhenReturned = writer.getPendingTransfer().isDone();
+        writer.getPendingTransfer().get(5, TimeUnit.SECONDS);
+        // Then
+        assertFalse(doneWhenReturned);
+        assertFalse(source.isOpen());
+        byte[] compressed = unchunk(outputStream.toByteArray());
+        assertArrayEquals(IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))), content);
+        shaper.shutdown();
+    }
+
+    private static byte[] unchunk(byte[] chunked) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int position = 0;
+        while (true) {
+            int lineEnd = position;
+            while (chunked[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            int size = Integer.parseInt(new String(chunked, position, lineEnd - position, StandardCharsets.US_ASCII), 16);
+            if (size == 0) {
+                return body.toByteArray();
+            }
+            body.write(chunked, lineEnd + 2, size);
+            position = lineEnd + 2 + size + 2;
+        }
+    }
+
+    private static StreamingBody body(long length, String... parts) {
+        return new StreamingBody() {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                for (String part : parts) {
+                    out.write(part.getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+        };
+    }
+
+    private static class WriteCountingOutputStream extends ByteArrayOutputStream {
+
+        private int writes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            super.write(b, off, len);
+            writes++;
+        }
+    }
+
+    /**
+     * Gathering channel writing everything to a stream, it records the bytes written by every call.
+     */
+    private static class GatheringChannel implements GatheringByteChannel {
+
+        private final ByteArrayOutputStream outputStream;
+        private final List<Integer> writes;
+
+        GatheringChannel(ByteArrayOutputStream outputStream, List<Integer> writes) {
+            this.outputStream = outputStream;
+            this.writes = writes;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                while (srcs[i].hasRemaining()) {
+                    outputStream.write(srcs[i].get());
+                    written++;
+                }
+            }
+            writes.add((int) written);
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.marshmelo.fileserver.handler;
+
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.models.UploadSettings;
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static com.marshmelo.fileserver.handler.HandlerTestSupport.handle;
+import static org.junit.Assert.*;
+
+public class UploadRequestHandlerTest {
+
+    private static final String AUTHORIZATION = "Authorization: Bearer s3cret\n";
+
+    private final RequestHandlerRegistry registry = new RequestHandlerRegistry();
+    private final Path folder = ResourcesUtil.findWritableRoot().resolve("upload-test");
+
+    public UploadRequestHandlerTest() {
+        registry.enableUploads(new UploadSettings("s3cret", 16, UploadSettings.FsyncPolicy.FILE));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (Files.exists(folder)) {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        ResourcesUtil.invalidate("/upload-test/notes.txt");
+        ResourcesUtil.invalidate("/upload-test/notes.txt.gz");
+    }
+
+    @Test
+    public void testPutWithoutTokenIsRejected() throws Exception {
+        // When
+        String response = handle(registry, "PUT /upload-test/notes.txt HTTP/1.1\nAuthorization: Bearer guess\n\n", "hello");
+        // Then
+        assertTrue(response.startsWith("HTTP/1.1 401 Unauthorized"));
+        assertTrue(response.contains("WWW-Authenticate: Bearer realm=\"uploads\""));
+        assertFalse(Files.exists(folder.resolve("notes.txt")));
+    }
+
+    @Test
+    public void testPutPublishesAndReplacesTheResource() throws Exception {
+        // When
+        String created = handle(registry, "PUT /upload-test/notes.txt HTTP/1.1\n" + AUTHORIZATION + "\n", "first");
+        String firstGet = handle(registry, "GET /upload-test/notes.txt HTTP/1.1\n\n", null);
+        String replaced = handle(registry, "PUT /upload-test/notes.txt HTTP/1.1\n" + AUTHORIZATION + "\n", "second");
+        String secondGet = handle(registry, "GET /upload-test/notes.txt HTTP/1.1\n\n", null);
+        // Then
+        assertTrue(created.startsWith("HTTP/1.1 201 Created"));
+        assertTrue(created.contains("Location: /upload-test/notes.txt"));
+        assertTrue(firstGet.endsWith("\r\n\r\nfirst"));
+        assertTrue(replaced.startsWith("HTTP/1.1 204 No Content"));
+        assertFalse(replaced.contains("Content-length"));
+        // The cached content of the first version is dropped.
+        assertTrue(secondGet.endsWith("\r\n\r\nsecond"));
+        try (Stream<Path> files = Files.list(folder)) {
+            assertEquals(files.count(), 1L);
+        }
+    }
+
+    @Test
+    public void testTooLargeUploadLeavesNoFile() throws Exception {
+        // When
+        String response = handle(registry, "PUT /upload-test/notes.txt HTTP/1.1\n" + AUTHORIZATION + "\n", "more than sixteen bytes");
+        // Then
+        assertTrue(response.startsWith("HTTP/1.1 413 Payload Too Large"));
+        try (Stream<Path> files = Files.list(folder)) {
+            assertEquals(files.count(), 0L);
+        }
+    }
+
+    @Test
+    public void testDeleteRemovesTheResource() throws Exception {
+        // Given
+        handle(registry, "PUT /upload-test/notes.txt HTTP/1.1\n" + AUTHORIZATION + "\n", "hello");
+        // When
+        String deleted = handle(registry, "DELETE /upload-test/notes.txt HTTP/1.1\n" + AUTHORIZATION + "\n", null);
+        String get = handle(registry, "GET /upload-test/notes.txt HTTP/1.1\n\n", null);
+        String deletedAgain = handle(registry, "DELETE /upload-test/notes.txt HTTP/1.1\n" + AUTHORIZATION + "\n", null);
+        // Then
+        assertTrue(deleted.startsWith("HTTP/1.1 204 No Content"));
+        assertTrue(get.startsWith("HTTP/1.1 404 Not Found"));
+        assertTrue(deletedAgain.startsWith("HTTP/1.1 404 Not Found"));
+    }
+
+    @Test
+    public void testDeleteRemovesThePreCompressedCopy() throws Exception {
+        // Given
+        handle(registry, "PUT /upload-test/notes.txt HTTP/1.1\n" + AUTHORIZATION + "\n", "hello");
+        handle(registry, "PUT /upload-test/notes.txt.gz HTTP/1.1\n" + AUTHORIZATION + "\n", "compressed");
+        String cached = handle(registry, "GET /upload-test/notes.txt.gz HTTP/1.1\n\n", null);
+        // When
+        String deleted = handle(registry, "DELETE /upload-test/notes.txt HTTP/1.1\n" + AUTHORIZATION + "\n", null);
+        String get = handle(registry, "GET /upload-test/notes.txt.gz HTTP/1.1\n\n", null);
+        // Then
+        assertTrue(cached.endsWith("\r\n\r\ncompressed"));
+        assertTrue(deleted.startsWith("HTTP/1.1 204 No Content"));
+        assertTrue(get.startsWith("HTTP/1.1 404 Not Found"));
+        assertFalse(Files.exists(folder.resolve("notes.txt.gz")));
+    }
+
+    @Test
+    public void testHiddenAndFolderPathsAreRejected() throws Exception {
+        // When
+        String hidden = handle(registry, "PUT /upload-test/.upload-1.tmp HTTP/1.1\n" + AUTHORIZATION + "\n", "x");
+        String parent = handle(registry, "PUT /upload-test/../../outside.txt HTTP/1.1\n" + AUTHORIZATION + "\n", "x");
+        String folderPath = handle(registry, "PUT /upload-test/ HTTP/1.1\n" + AUTHORIZATION + "\n", "x");
+        // Then
+        assertTrue(hidden.startsWith("HTTP/1.1 400 Bad Request"));
+        assertTrue(parent.startsWith("HTTP/1.1 400 Bad Request"));
+        assertTrue(folderPath.startsWith("HTTP/1.1 400 Bad Request"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.marshmelo.fileserver.http2;
+
+import com.marshmelo.fileserver.exceptions.Http2Exception;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HpackTest {
+
+    @Test
+    public void testDecodingRequestsWithHuffmanAndDynamicTable() throws Http2Exception {
+        // Given the request examples of https://tools.ietf.org/html/rfc7541#appendix-C.4
+        HpackDecoder decoder = new HpackDecoder(Http2Settings.DEFAULT_HEADER_TABLE_SIZE);
+        byte[] first = hex("828684418cf1e3c2e5f23a6ba0ab90f4ff");
+        byte[] second = hex("828684be5886a8eb10649cbf");
+        byte[] third = hex("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf");
+        // When
+        List<HeaderField> firstFields = decoder.decode(first);
+        List<HeaderField> secondFields = decoder.decode(second);
+        List<HeaderField> thirdFields = decoder.decode(third);
+        // Then
+        assertEquals(firstFields.size(), 4);
+        assertEquals(firstFields.get(3).getName(), ":authority");
+        assertEquals(firstFields.get(3).getValue(), "www.example.com");
+        assertEquals(secondFields.size(), 5);
+        assertEquals(secondFields.get(3).getValue(), "www.example.com");
+        assertEquals(secondFields.get(4).getName(), "cache-control");
+        assertEquals(secondFields.get(4).getValue(), "no-cache");
+        assertEquals(thirdFields.size(), 5);
+        assertEquals(thirdFields.get(1).getValue(), "https");
+        assertEquals(thirdFields.get(2).getValue(), "/index.html");
+        assertEquals(thirdFields.get(4).getName(), "custom-key");
+        assertEquals(thirdFields.get(4).getValue(), "custom-value");
+    }
+
+    @Test
+    public void testEncodedBlocksAreDecodedAndRepeatedHeadersIndexed() throws Http2Exception {
+        // Given
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(Http2Settings.DEFAULT_HEADER_TABLE_SIZE);
+        List<HeaderField> fields = Arrays.asList(new HeaderField(":status", "200"),
+                new HeaderField("content-type", "text/html"), new HeaderField("server", "Marshmelo Http Server"),
+                new HeaderField("content-length", "119"));
+        // When
+        byte[] first = encoder.encode(fields);
+        byte[] second = encoder.encode(fields);
+        List<HeaderField> firstFields = decoder.decode(first);
+        List<HeaderField> secondFields = decoder.decode(second);
+        // Then
+        assertEquals(firstFields.size(), 4);
+        assertEquals(secondFields.size(), 4);
+        for (int i = 0; i < fields.size(); i++) {
+            assertEquals(firstFields.get(i).getName(), fields.get(i).getName());
+            assertEquals(secondFields.get(i).getValue(), fields.get(i).getValue());
+        }
+        // Status, content-type and server take one octet each the second time, content-length is never indexed.
+        assertTrue(second.length < first.length);
+        assertEquals(second.length, 1 + 1 + 1 + 5);
+    }
+
+    @Test
+    public void testTableSizeUpdateIsSignaledToTheDecoder() throws Http2Exception {
+        // Given
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(Http2Settings.DEFAULT_HEADER_TABLE_SIZE);
+        List<HeaderField> fields = Arrays.asList(new HeaderField(":status", "200"), new HeaderField("server", "Marshmelo"));
+        decoder.decode(encoder.encode(fields));
+        // When
+        encoder.setMaxTableSize(0);
+        byte[] block = encoder.encode(fields);
+        List<HeaderField> decoded = decoder.decode(block);
+        // Then
+        assertEquals(block[0], (byte) 0x20);
+        assertEquals(decoded.get(1).getValue(), "Marshmelo");
+    }
+
+    @Test(expected = Http2Exception.class)
+    public void testDecodingInvalidIndexFails() throws Http2Exception {
+        // Given an indexed field after the end of the empty dynamic table.
+        HpackDecoder decoder = new HpackDecoder(Http2Settings.DEFAULT_HEADER_TABLE_SIZE);
+        // When
+        decoder.decode(new byte[]{(byte) 0xbe});
+    }
+
+    private static byte[] hex(String value) {
+        byte[] bytes = new byte[value.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(value.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
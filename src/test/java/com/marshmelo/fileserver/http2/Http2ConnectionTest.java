@@ -0,0 +1,248 @@
+package com.marshmelo.fileserver.http2;
+
+import com.marshmelo.fileserver.exceptions.Http2Exception;
+import com.marshmelo.fileserver.handlers.RequestHandlerRegistry;
+import com.marshmelo.fileserver.handlers.ServerContext;
+import com.marshmelo.fileserver.models.RequestLimits;
+import com.marshmelo.fileserver.scheduling.RequestScheduler;
+import com.marshmelo.fileserver.throttling.RequestRateLimiter;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.marshmelo.fileserver.http2.Http2Frame.*;
+import static org.junit.Assert.*;
+
+public class Http2ConnectionTest {
+
+    private static final byte[] PREFACE_BODY = "SM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final RequestScheduler scheduler = new RequestScheduler(1, 1, 1, 512 * 1024, 2);
+    private final RequestHandlerRegistry registry = new RequestHandlerRegistry();
+    private final HpackEncoder encoder = new HpackEncoder();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testStreamsAreServedOnOneConnection() throws IOException, Http2Exception {
+        // Given
+        ByteArrayOutputStream input = openConnection(new byte[0]);
+        writeRequest(input, 1, "GET", "/index.html");
+        writeRequest(input, 3, "HEAD", "/index_big.html");
+        // When
+        List<Http2Frame> frames = serve(input);
+        // Then
+        List<HeaderField> first = findHeaders(frames, 1);
+        List<HeaderField> second = findHeaders(frames, 3);
+        assertEquals(first.get(0).getValue(), "200");
+        assertEquals(findValue(first, "content-type"), "text/html");
+        assertEquals(readBody(frames, 1).length, 119);
+        assertEquals(second.get(0).getValue(), "200");
+        assertEquals(findValue(second, "content-length"), "1336967");
+        assertEquals(readBody(frames, 3).length, 0);
+        assertEquals(frames.get(frames.size() - 1).getType(), GOAWAY);
+    }
+
+    @Test
+    public void testSettingsAndPingAreAcknowledged() throws IOException, Http2Exception {
+        // Given
+        ByteArrayOutputStream input = openConnection(new byte[0]);
+        byte[] ping = "12345678".getBytes(StandardCharsets.US_ASCII);
+        writeFrame(input, PING, 0, 0, ping);
+        // When
+        List<Http2Frame> frames = serve(input);
+        // Then
+        assertEquals(frames.get(0).getType(), SETTINGS);
+        assertFalse(frames.get(0).hasFlag(FLAG_ACK));
+        assertEquals(frames.get(1).getType(), SETTINGS);
+        assertTrue(frames.get(1).hasFlag(FLAG_ACK));
+        assertEquals(frames.get(2).getType(), PING);
+        assertTrue(frames.get(2).hasFlag(FLAG_ACK));
+        assertArrayEquals(frames.get(2).getPayload(), ping);
+    }
+
+    @Test
+    public void testResponseBodyRespectsTheFlowControlWindow() throws IOException, Http2Exception {
+        // Given a client window of 10 bytes which is never updated.
+        ByteArrayOutputStream input = openConnection(new byte[]{0, 4, 0, 0, 0, 10});
+        writeRequest(input, 1, "GET", "/index.html");
+        // When
+        List<Http2Frame> frames = serve(input);
+        // Then
+        assertEquals(readBody(frames, 1).length, 10);
+        assertTrue(frames.stream().anyMatch(frame -> frame.getType() == RST_STREAM && frame.getStreamId() == 1));
+    }
+
+    @Test
+    public void testUnsupportedMethodIsAnsweredOnItsStream() throws IOException, Http2Exception {
+        // Given
+        ByteArrayOutputStream input = openConnection(new byte[0]);
+        writeRequest(input, 1, "DELETE", "/index.html");
+        // When
+        List<Http2Frame> frames = serve(input);
+        // Then
+        assertEquals(findHeaders(frames, 1).get(0).getValue(), "501");
+    }
+
+    @Test
+    public void testConnectionStartingWithoutSettingsIsClosedWithProtocolError() throws IOException, Http2Exception {
+        // Given
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        input.write(PREFACE_BODY);
+        writeFrame(input, PING, 0, 0, new byte[8]);
+        // When
+        List<Http2Frame> frames = serve(input);
+        // Then
+        Http2Frame goAway = frames.get(frames.size() - 1);
+        assertEquals(goAway.getType(), GOAWAY);
+        assertEquals(Http2FrameCodec.readInt(goAway.getPayload(), 4), PROTOCOL_ERROR);
+    }
+
+    @Test
+    public void testStreamsExceedingTheRateOfTheClientAreReset() throws IOException, Http2Exception {
+        // Given
+        ByteArrayOutputStream input = openConnection(new byte[0]);
+        writeRequest(input, 1, "GET", "/index.html");
+        writeRequest(input, 3, "GET", "/index.html");
+        writeRequest(input, 5, "GET", "/index.html");
+        // When
+        List<Http2Frame> frames = serve(input, new RequestRateLimiter(1, 2, 1024));
+        // Then
+        assertEquals(findHeaders(frames, 1).get(0).getValue(), "200");
+        assertEquals(findHeaders(frames, 3).get(0).getValue(), "200");
+        Http2Frame reset = frames.stream().filter(frame -> frame.getType() == RST_STREAM).findFirst().orElse(null);
+        assertNotNull(reset);
+        assertEquals(reset.getStreamId(), 5);
+        assertEquals(Http2FrameCodec.readInt(reset.getPayload(), 0), ENHANCE_YOUR_CALM);
+    }
+
+    @Test
+    public void testStreamsAreServedOnASocketAcceptedFromAChannel() throws IOException, Http2Exception, InterruptedException {
+        // Given
+        ByteArrayOutputStream input = openConnection(new byte[0]);
+        writeRequest(input, 1, "GET", "/index.html");
+        ServerContext context = new ServerContext(registry, RequestLimits.DEFAULT_LIMITS);
+        context.setScheduler(scheduler);
+        context.setHttp2Settings(new Http2Settings());
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+             SocketChannel accepted = server.accept()) {
+            Socket socket = accepted.socket();
+            socket.setSoTimeout(5000);
+            client.getOutputStream().write("PRI * HTTP/2.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            // The request line and the blank line of the preface are read by the HTTP/1.1 parser.
+            assertEquals(new String(IOUtils.readFully(inputStream, 18), StandardCharsets.US_ASCII), "PRI * HTTP/2.0\r\n\r\n");
+            // The frames are not buffered by the parser, they wait in the socket.
+            client.getOutputStream().write(input.toByteArray());
+            client.shutdownOutput();
+            Thread.sleep(100);
+            // When
+            new Http2Connection(socket, inputStream, context, null).serve();
+            List<Http2Frame> frames = readFrames(IOUtils.toByteArray(client.getInputStream()));
+            // Then
+            assertEquals(findHeaders(frames, 1).get(0).getValue(), "200");
+            assertEquals(readBody(frames, 1).length, 119);
+        }
+    }
+
+    private ByteArrayOutputStream openConnection(byte[] settings) throws IOException {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        input.write(PREFACE_BODY);
+        writeFrame(input, SETTINGS, 0, 0, settings);
+        return input;
+    }
+
+    private void writeRequest(ByteArrayOutputStream input, int streamId, String method, String path) throws IOException {
+        byte[] block = encoder.encode(Arrays.asList(new HeaderField(":method", method), new HeaderField(":scheme", "http"),
+                new HeaderField(":path", path), new HeaderField(":authority", "www.marshmelo.com")));
+        writeFrame(input, HEADERS, FLAG_END_HEADERS | FLAG_END_STREAM, streamId, block);
+    }
+
+    private static void writeFrame(ByteArrayOutputStream input, int type, int flags, int streamId, byte[] payload) throws IOException {
+        Http2FrameCodec codec = new Http2FrameCodec(null, input);
+        codec.writeFrame(type, flags, streamId, payload, 0, payload.length);
+        codec.flush();
+    }
+
+    /**
+     * Serve the frames until the end of the input and read the frames written by the server.
+     */
+    private List<Http2Frame> serve(ByteArrayOutputStream input) throws IOException, Http2Exception {
+        return serve(input, null);
+    }
+
+    private List<Http2Frame> serve(ByteArrayOutputStream input, RequestRateLimiter rateLimiter) throws IOException, Http2Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ServerContext context = new ServerContext(registry, RequestLimits.DEFAULT_LIMITS);
+        context.setScheduler(scheduler);
+        context.setHttp2Settings(new Http2Settings());
+        context.setRateLimiter(rateLimiter);
+        Http2Connection connection = new Http2Connection(() -> {
+        }, InetAddress.getLoopbackAddress(), new ByteArrayInputStream(input.toByteArray()), output, 1000, context);
+        connection.serve();
+        return readFrames(output.toByteArray());
+    }
+
+    private static List<Http2Frame> readFrames(byte[] output) throws IOException, Http2Exception {
+        Http2FrameCodec codec = new Http2FrameCodec(new ByteArrayInputStream(output), null);
+        List<Http2Frame> frames = new ArrayList<>();
+        Http2Frame frame;
+        while ((frame = codec.readFrame(Http2Settings.MAX_FRAME_SIZE_LIMIT)) != null) {
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static List<HeaderField> findHeaders(List<Http2Frame> frames, int streamId) throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(Http2Settings.DEFAULT_HEADER_TABLE_SIZE);
+        List<HeaderField> fields = null;
+        for (Http2Frame frame : frames) {
+            if (frame.getType() == HEADERS) {
+                List<HeaderField> decoded = decoder.decode(frame.getPayload());
+                if (frame.getStreamId() == streamId) {
+                    fields = decoded;
+                }
+            }
+        }
+        assertNotNull(fields);
+        return fields;
+    }
+
+    private static String findValue(List<HeaderField> fields, String name) {
+        for (HeaderField field : fields) {
+            if (field.getName().equals(name)) {
+                return field.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readBody(List<Http2Frame> frames, int streamId) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (Http2Frame frame : frames) {
+            if (frame.getType() == DATA && frame.getStreamId() == streamId) {
+                body.write(frame.getPayload());
+            }
+        }
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,112 @@
+package com.marshmelo.fileserver.pack;
+
+import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.models.StorageTier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class PackFileTest {
+
+    private Path folder;
+    private Path staticFolder;
+    private Path pack;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("pack");
+        staticFolder = folder.resolve("static");
+        Files.createDirectories(staticFolder.resolve("css"));
+        pack = folder.resolve("static.pack");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testPackedResourcesAreServedFromTheMapping() throws IOException {
+        // Given
+        byte[] html = "<html>packed</html>".getBytes(StandardCharsets.UTF_8);
+        Files.write(staticFolder.resolve("index.html"), html);
+        Files.write(staticFolder.resolve("css/style.css"), "body {}".getBytes(StandardCharsets.UTF_8));
+        // When
+        int count = new PackWriter(false).write(staticFolder, pack);
+        PackFile packFile = PackFile.open(pack);
+        // Then
+        assertEquals(count, 2);
+        assertEquals(packFile.size(), 2);
+        ResourceMetadata metadata = packFile.findMetadata("index.html");
+        assertEquals(metadata.getSize(), html.length);
+        assertEquals(metadata.getMimeType(), "text/html");
+        assertEquals(metadata.getStorageTier(), StorageTier.PACK);
+        assertEquals(metadata.getLastModified(), Files.getLastModifiedTime(staticFolder.resolve("index.html")).toMillis());
+        Resource resource = packFile.loadResource("index.html");
+        assertTrue(resource.isMapped());
+        assertArrayEquals(resource.getContent(), html);
+        assertEquals(packFile.findMetadata("css/style.css").getMimeType(), "text/css");
+        assertNull(packFile.findMetadata("missing.html"));
+        assertNull(packFile.loadResource("missing.html"));
+    }
+
+    @Test
+    public void testGzipVariantsArePackedNextToTheBody() throws IOException {
+        // Given
+        byte[] css = new byte[10000];
+        Arrays.fill(css, (byte) 'a');
+        Files.write(staticFolder.resolve("css/style.css"), css);
+        Files.write(staticFolder.resolve("robots.txt.gz"), new byte[]{1, 2, 3});
+        // When
+        new PackWriter(true).write(staticFolder, pack);
+        PackFile packFile = PackFile.open(pack);
+        // Then
+        assertTrue(packFile.findMetadata("css/style.css").hasGzipVariant());
+        Resource gzipVariant = packFile.loadGzipVariant("css/style.css");
+        byte[] uncompressed = new byte[css.length];
+        try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(gzipVariant.getContent()))) {
+            int read = 0;
+            while (read < uncompressed.length) {
+                read += inputStream.read(uncompressed, read, uncompressed.length - read);
+            }
+        }
+        assertArrayEquals(uncompressed, css);
+        // A .gz file without its uncompressed file is packed as a resource of its own.
+        assertNotNull(packFile.findMetadata("robots.txt.gz"));
+    }
+
+    @Test
+    public void testBodiesArePageAligned() throws IOException {
+        // Given
+        Files.write(staticFolder.resolve("a.js"), new byte[]{1});
+        Files.write(staticFolder.resolve("b.js"), new byte[]{2});
+        // When
+        new PackWriter(false).write(staticFolder, pack);
+        // Then
+        assertEquals(Files.size(pack), 2L * PackFormat.PAGE_SIZE + 1);
+        assertEquals(PackFile.open(pack).loadResource("b.js").getContent()[0], 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidPackIsRejected() throws IOException {
+        // Given
+        Files.write(pack, "not a pack at all".getBytes(StandardCharsets.UTF_8));
+        // When
+        PackFile.open(pack);
+    }
+}
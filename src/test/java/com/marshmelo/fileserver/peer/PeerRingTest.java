@@ -0,0 +1,65 @@
+package com.marshmelo.fileserver.peer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PeerRingTest {
+
+    private static final int KEYS = 3000;
+
+    @Test
+    public void testOwnersDoNotDependOnTheOrderOfThePeers() {
+        // Given
+        PeerRing ring = new PeerRing(Arrays.asList("10.0.0.1:8000", "10.0.0.2:8000", "10.0.0.3:8000"), 160);
+        PeerRing reordered = new PeerRing(Arrays.asList("10.0.0.3:8000", "10.0.0.1:8000", "10.0.0.2:8000"), 160);
+        // Then
+        for (int i = 0; i < KEYS; i++) {
+            String key = "assets/file-" + i + ".js";
+            assertEquals(reordered.findOwner(key, peer -> true), ring.findOwner(key, peer -> true));
+        }
+    }
+
+    @Test
+    public void testResourcesAreSpreadEvenly() {
+        // Given
+        PeerRing ring = new PeerRing(Arrays.asList("10.0.0.1:8000", "10.0.0.2:8000", "10.0.0.3:8000"), 160);
+        Map<String, Integer> counts = new HashMap<>();
+        // When
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.findOwner("assets/file-" + i + ".js", peer -> true), 1, Integer::sum);
+        }
+        // Then
+        assertEquals(counts.size(), 3);
+        for (int count : counts.values()) {
+            assertTrue(count > KEYS / 3 * 3 / 4 && count < KEYS / 3 * 5 / 4);
+        }
+    }
+
+    @Test
+    public void testDownPeerOnlyMovesItsOwnResources() {
+        // Given
+        PeerRing ring = new PeerRing(Arrays.asList("10.0.0.1:8000", "10.0.0.2:8000", "10.0.0.3:8000"), 160);
+        PeerRing withoutThird = new PeerRing(Arrays.asList("10.0.0.1:8000", "10.0.0.2:8000"), 160);
+        int moved = 0;
+        // When
+        for (int i = 0; i < KEYS; i++) {
+            String key = "assets/file-" + i + ".js";
+            String owner = ring.findOwner(key, peer -> true);
+            String fallback = ring.findOwner(key, peer -> !peer.equals("10.0.0.3:8000"));
+            // Then
+            assertEquals(fallback, withoutThird.findOwner(key, peer -> true));
+            if (!owner.equals("10.0.0.3:8000")) {
+                assertEquals(fallback, owner);
+            } else {
+                moved++;
+            }
+        }
+        assertTrue(moved > 0);
+        assertNull(ring.findOwner("index.html", peer -> false));
+    }
+}
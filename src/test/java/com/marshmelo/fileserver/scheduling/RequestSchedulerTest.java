@@ -0,0 +1,57 @@
+package com.marshmelo.fileserver.scheduling;
+
+import com.marshmelo.fileserver.utils.ResourcesUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RequestSchedulerTest {
+
+    @Test
+    public void testLargeTransferIsDecidedByThreshold() throws IOException {
+        // Given
+        RequestScheduler scheduler = new RequestScheduler(1, 1, 1, 512 * 1024);
+        // When
+        long smallFileSize = ResourcesUtil.findResourceSize("/index.html");
+        long bigFileSize = ResourcesUtil.findResourceSize("/index_big.html");
+        long missingFileSize = ResourcesUtil.findResourceSize("/not_existing.html");
+        // Then
+        assertEquals(smallFileSize, 119);
+        assertFalse(scheduler.isLargeTransfer(smallFileSize));
+        assertTrue(scheduler.isLargeTransfer(bigFileSize));
+        assertEquals(missingFileSize, -1);
+        assertFalse(scheduler.isLargeTransfer(missingFileSize));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testSmallRequestsAreServedWhileLargeLaneIsSaturated() throws InterruptedException {
+        // Given
+        RequestScheduler scheduler = new RequestScheduler(1, 1, 1, 512 * 1024);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch smallServed = new CountDownLatch(1);
+        Runnable blockingTransfer = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        // When
+        boolean running = scheduler.offerLargeTransfer(blockingTransfer);
+        boolean queued = scheduler.offerLargeTransfer(blockingTransfer);
+        boolean rejected = scheduler.offerLargeTransfer(blockingTransfer);
+        scheduler.execute(smallServed::countDown);
+        // Then
+        assertTrue(running);
+        assertTrue(queued);
+        assertFalse(rejected);
+        assertTrue(smallServed.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,126 @@
+package com.marshmelo.fileserver.throttling;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BandwidthShaperTest {
+
+    @Test
+    public void testConnectionRateIsFoundFromPathAndMimeTypeRules() {
+        // Given
+        Map<String, Long> rules = new HashMap<>();
+        rules.put("/downloads/", 1000L);
+        rules.put("/downloads/big/", 500L);
+        rules.put("image/jpeg", 2000L);
+        rules.put("video/*", 3000L);
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, 100, rules, 1024, 1);
+        // When, Then
+        assertEquals(shaper.findConnectionRate("/downloads/file.zip", "application/zip"), 1000L);
+        assertEquals(shaper.findConnectionRate("/downloads/big/file.zip", "application/zip"), 500L);
+        assertEquals(shaper.findConnectionRate("/test.jpg", "image/jpeg"), 2000L);
+        assertEquals(shaper.findConnectionRate("/movie.mp4", "video/mp4"), 3000L);
+        assertEquals(shaper.findConnectionRate("/index.html", "text/html"), 100L);
+        shaper.shutdown();
+    }
+
+    @Test
+    public void testTransferIsRescheduledWhenConnectionRateIsExceeded() throws Exception {
+        // Given
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, 32 * 1024, new HashMap<>(), 8 * 1024, 1);
+        ShapedConnection connection = shaper.openConnection(InetAddress.getLoopbackAddress(), () -> {
+        });
+        byte[] content = new byte[64 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // When
+        long start = System.nanoTime();
+        CompletableFuture<Void> completion = connection.transfer(content, content.length, "/index.html", "text/html", out);
+        boolean doneWhenReturned = completion.isDone();
+        completion.get(5, TimeUnit.SECONDS);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // Then
+        assertFalse(doneWhenReturned);
+        assertTrue(elapsedMillis >= 700);
+        assertArrayEquals(out.toByteArray(), content);
+        shaper.shutdown();
+    }
+
+    @Test
+    public void testChannelTransferIsReadChunkByChunkAndClosesTheChannel() throws Exception {
+        // Given
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, 32 * 1024, new HashMap<>(), 8 * 1024, 1);
+        ShapedConnection connection = shaper.openConnection(InetAddress.getLoopbackAddress(), () -> {
+        });
+        byte[] content = new byte[64 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        ReadableByteChannel source = Channels.newChannel(new ByteArrayInputStream(content));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // When
+        CompletableFuture<Void> completion = connection.transfer(source, "/index.html", "text/html", out);
+        boolean doneWhenReturned = completion.isDone();
+        completion.get(5, TimeUnit.SECONDS);
+        // Then
+        assertFalse(doneWhenReturned);
+        assertArrayEquals(out.toByteArray(), content);
+        assertFalse(source.isOpen());
+        shaper.shutdown();
+    }
+
+    @Test
+    public void testConnectionBucketOfARateIsKeptAcrossRules() throws Exception {
+        // Given
+        Map<String, Long> rules = new HashMap<>();
+        rules.put("/downloads/", 8 * 1024L);
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, 32 * 1024, rules, 8 * 1024, 1);
+        ShapedConnection connection = shaper.openConnection(InetAddress.getLoopbackAddress(), () -> {
+        });
+        byte[] content = new byte[8 * 1024];
+        // When
+        connection.transfer(content, content.length, "/downloads/a.zip", "application/zip", new ByteArrayOutputStream())
+                .get(5, TimeUnit.SECONDS);
+        connection.transfer(content, 1024, "/index.html", "text/html", new ByteArrayOutputStream()).get(5, TimeUnit.SECONDS);
+        CompletableFuture<Void> completion = connection.transfer(content, content.length, "/downloads/b.zip",
+                "application/zip", new ByteArrayOutputStream());
+        boolean doneWhenReturned = completion.isDone();
+        completion.get(5, TimeUnit.SECONDS);
+        // Then
+        // The bucket of the downloads is still empty, a new one would let the second download through at once.
+        assertFalse(doneWhenReturned);
+        shaper.shutdown();
+    }
+
+    @Test
+    public void testClientBucketInUseIsNotPurged() throws Exception {
+        // Given
+        BandwidthShaper shaper = new BandwidthShaper(0, 32 * 1024, 0, new HashMap<>(), 8 * 1024, 1);
+        ShapedConnection connection = shaper.openConnection(InetAddress.getLoopbackAddress(), () -> {
+        });
+        OutputStream stream = connection.openStream("/archive.zip", "application/zip", new ByteArrayOutputStream());
+        // When
+        shaper.purgeIdleClientBuckets();
+        int inUse = shaper.getClientBucketCount();
+        stream.close();
+        shaper.purgeIdleClientBuckets();
+        // Then
+        // The full bucket is idle but a second connection of the client would get its own bucket next to it.
+        assertEquals(inUse, 1);
+        assertEquals(shaper.getClientBucketCount(), 0);
+        shaper.shutdown();
+    }
+}
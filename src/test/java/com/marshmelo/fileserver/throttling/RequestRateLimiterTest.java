@@ -0,0 +1,52 @@
+package com.marshmelo.fileserver.throttling;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.*;
+
+public class RequestRateLimiterTest {
+
+    @Test
+    public void testRequestsAreRejectedWhenBurstIsExceeded() throws UnknownHostException {
+        // Given
+        RequestRateLimiter rateLimiter = new RequestRateLimiter(1, 3, 1024);
+        InetAddress client = InetAddress.getByName("10.0.0.1");
+        InetAddress otherClient = InetAddress.getByName("10.0.0.2");
+        // When
+        boolean first = rateLimiter.tryAcquire(client);
+        boolean second = rateLimiter.tryAcquire(client);
+        boolean third = rateLimiter.tryAcquire(client);
+        boolean fourth = rateLimiter.tryAcquire(client);
+        boolean otherClientFirst = rateLimiter.tryAcquire(otherClient);
+        // Then
+        assertTrue(first);
+        assertTrue(second);
+        assertTrue(third);
+        assertFalse(fourth);
+        assertTrue(otherClientFirst);
+    }
+
+    @Test
+    public void testNumberOfTrackedClientsIsBounded() throws UnknownHostException {
+        // Given
+        RequestRateLimiter rateLimiter = new RequestRateLimiter(1, 1, 64 * 4);
+        // When
+        for (int i = 0; i < 10000; i++) {
+            rateLimiter.tryAcquire(InetAddress.getByAddress(new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i}));
+        }
+        // Then
+        assertTrue(rateLimiter.size() <= 64 * 4);
+    }
+
+    @Test
+    public void testTooManyRequestsResponseIsPreBuilt() {
+        // When
+        String response = new String(RequestRateLimiter.TOO_MANY_REQUESTS_RESPONSE);
+        // Then
+        assertTrue(response.startsWith("HTTP/1.1 429 Too Many Requests\r\n"));
+        assertTrue(response.endsWith("\r\n\r\nToo Many Requests"));
+    }
+}
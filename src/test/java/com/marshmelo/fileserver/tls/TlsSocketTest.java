@@ -0,0 +1,184 @@
+package com.marshmelo.fileserver.tls;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.*;
+
+public class TlsSocketTest {
+
+    private static final String KEYSTORE = "tls/server.p12";
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final String MESSAGE = "GET /index.html HTTP/1.1\r\n\r\n";
+
+    private ServerSocket serverSocket;
+    private Thread server;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0);
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        serverSocket.close();
+        if (server != null) {
+            server.join(5000);
+        }
+    }
+
+    @Test
+    public void testSecondConnectionResumesTheSession() throws Exception {
+        // Given
+        TlsContext tlsContext = createContext("TLSv1.2", false);
+        startEchoServer(tlsContext, 2);
+        SSLContext clientContext = createClientContext();
+        // When
+        String first = echo(clientContext, "TLSv1.2", new String[0]);
+        String second = echo(clientContext, "TLSv1.2", new String[0]);
+        server.join(5000);
+        // Then
+        assertEquals(first, MESSAGE);
+        assertEquals(second, MESSAGE);
+        assertEquals(tlsContext.getStats().getFullHandshakes(), 1);
+        assertEquals(tlsContext.getStats().getResumedHandshakes(), 1);
+        assertEquals(tlsContext.getStats().getFailedHandshakes(), 0);
+    }
+
+    @Test
+    public void testHttp2IsNegotiatedWithAlpn() throws Exception {
+        // Given
+        TlsContext tlsContext = createContext("TLSv1.2", true);
+        String[] protocols = new String[1];
+        server = new Thread(() -> {
+            try (TlsSocket socket = tlsContext.wrap(serverSocket.accept())) {
+                socket.startHandshake(5000);
+                protocols[0] = socket.getApplicationProtocol();
+                socket.getOutputStream().write(MESSAGE.getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                protocols[0] = e.getMessage();
+            }
+        });
+        server.start();
+        // When
+        String echoed = read(createClientContext(), "TLSv1.2", new String[]{"h2", "http/1.1"});
+        server.join(5000);
+        // Then
+        assertEquals(echoed, MESSAGE);
+        assertEquals(protocols[0], TlsContext.HTTP2_PROTOCOL);
+    }
+
+    @Test
+    public void testPlainTextClientFailsTheHandshake() throws Exception {
+        // Given
+        TlsContext tlsContext = createContext("TLSv1.2", false);
+        startEchoServer(tlsContext, 1);
+        // When
+        try (Socket client = new Socket("localhost", serverSocket.getLocalPort())) {
+            client.getOutputStream().write(MESSAGE.getBytes(StandardCharsets.US_ASCII));
+            client.getInputStream().read();
+        } catch (IOException e) {
+            // The server may reset the connection.
+        }
+        server.join(5000);
+        // Then
+        assertEquals(tlsContext.getStats().getFailedHandshakes(), 1);
+        assertEquals(tlsContext.getStats().getFullHandshakes(), 0);
+    }
+
+    private static TlsContext createContext(String protocol, boolean http2) throws Exception {
+        Path keyStore = Paths.get(TlsSocketTest.class.getClassLoader().getResource(KEYSTORE).toURI());
+        return new TlsContext(keyStore, PASSWORD, "PKCS12", new String[]{protocol}, 100,
+                60, false, http2);
+    }
+
+    /**
+     * Serve the connections by echoing the first line block the client sends.
+     */
+    private void startEchoServer(TlsContext tlsContext, int connections) {
+        server = new Thread(() -> {
+            for (int i = 0; i < connections; i++) {
+                try (TlsSocket socket = tlsContext.wrap(serverSocket.accept())) {
+                    socket.setSoTimeout(5000);
+                    socket.startHandshake(5000);
+                    byte[] message = new byte[MESSAGE.length()];
+                    new DataInputStream(socket.getInputStream()).readFully(message);
+                    socket.getOutputStream().write(message);
+                    socket.getOutputStream().flush();
+                } catch (IOException e) {
+                    // Counted by the stats.
+                }
+            }
+        });
+        server.start();
+    }
+
+    private String echo(SSLContext clientContext, String protocol, String[] applicationProtocols) throws IOException {
+        try (SSLSocket client = openClient(clientContext, protocol, applicationProtocols)) {
+            client.getOutputStream().write(MESSAGE.getBytes(StandardCharsets.US_ASCII));
+            return readMessage(client.getInputStream());
+        }
+    }
+
+    private String read(SSLContext clientContext, String protocol, String[] applicationProtocols) throws IOException {
+        try (SSLSocket client = openClient(clientContext, protocol, applicationProtocols)) {
+            return readMessage(client.getInputStream());
+        }
+    }
+
+    private SSLSocket openClient(SSLContext clientContext, String protocol, String[] applicationProtocols) throws IOException {
+        SSLSocket client = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", serverSocket.getLocalPort());
+        client.setSoTimeout(5000);
+        SSLParameters parameters = client.getSSLParameters();
+        parameters.setProtocols(new String[]{protocol});
+        parameters.setApplicationProtocols(applicationProtocols);
+        client.setSSLParameters(parameters);
+        client.startHandshake();
+        return client;
+    }
+
+    private static String readMessage(InputStream inputStream) throws IOException {
+        byte[] message = new byte[MESSAGE.length()];
+        new DataInputStream(inputStream).readFully(message);
+        return new String(message, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A client context trusting the self signed certificate of the test keystore.
+     */
+    private static SSLContext createClientContext() throws GeneralSecurityException {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return context;
+    }
+}
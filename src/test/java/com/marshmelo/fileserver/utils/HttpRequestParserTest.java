@@ -3,6 +3,7 @@ package com.marshmelo.fileserver.utils;
 import com.marshmelo.fileserver.exceptions.RequestParsingException;
 import com.marshmelo.fileserver.handlers.HttpRequestParser;
 import com.marshmelo.fileserver.models.HttpRequest;
+import com.marshmelo.fileserver.models.RequestLimits;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
@@ -165,6 +166,21 @@ public class HttpRequestParserTest {
         assertEquals(httpRequest.getParam("param3"), "");
     }
 
+    @Test
+    public void testRepeatedParametersAreJoined() throws IOException, RequestParsingException {
+        // Given
+        String request =
+                "GET /__batch?f=/index.html&f=%2Fexample.json&format=tar HTTP/1.1\n" +
+                        "Host: www.marshmelo.com\n" +
+                        "\n";
+        // When
+        HttpRequest httpRequest = HttpRequestParser.parseRequest(new ByteArrayInputStream(request.getBytes()));
+        // Then
+        assertEquals(httpRequest.getParams().size(), 2);
+        assertEquals(httpRequest.getParam("f"), "/index.html,/example.json");
+        assertEquals(httpRequest.getParam("format"), "tar");
+    }
+
     /**
      * Parameter three does not have equal sign in the end, so it will not be considered a parameter.
      */
@@ -218,4 +234,98 @@ public class HttpRequestParserTest {
         // IllegalArgumentException exception when encoding the URL parameters.
     }
 
+    @Test
+    public void testParsingHttpRequestWithTooLongRequestLine() throws IOException {
+        // Given
+        String request =
+                "GET /index.html?param=testtesttesttesttesttest HTTP/1.1\n" +
+                        "Host: www.marshmelo.com\n" +
+                        "\n";
+        RequestLimits limits = new RequestLimits(32, 1024, 10, 1000);
+
+        InputStream inputStream = new ByteArrayInputStream(request.getBytes());
+        // When
+        try {
+            HttpRequestParser.parseRequest(inputStream, limits);
+            fail();
+        } catch (RequestParsingException e) {
+            // Then
+            assertEquals(e.getStatus(), 414);
+        }
+    }
+
+    @Test
+    public void testParsingHttpRequestWithTooLargeHeaders() throws IOException {
+        // Given
+        String request =
+                "GET /index.html HTTP/1.1\n" +
+                        "Host: www.marshmelo.com\n" +
+                        "User-Agent: Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1)\n" +
+                        "\n";
+        RequestLimits limits = new RequestLimits(1024, 48, 10, 1000);
+
+        InputStream inputStream = new ByteArrayInputStream(request.getBytes());
+        // When
+        try {
+            HttpRequestParser.parseRequest(inputStream, limits);
+            fail();
+        } catch (RequestParsingException e) {
+            // Then
+            assertEquals(e.getStatus(), 431);
+        }
+    }
+
+    @Test
+    public void testParsingHttpRequestWithTooManyHeaders() throws IOException {
+        // Given
+        String request =
+                "GET /index.html HTTP/1.1\r\n" +
+                        "Host: www.marshmelo.com\r\n" +
+                        "Accept: */*\r\n" +
+                        "Accept-Language: en-us\r\n" +
+                        "\r\n";
+        RequestLimits limits = new RequestLimits(1024, 1024, 2, 1000);
+
+        InputStream inputStream = new ByteArrayInputStream(request.getBytes());
+        // When
+        try {
+            HttpRequestParser.parseRequest(inputStream, limits);
+            fail();
+        } catch (RequestParsingException e) {
+            // Then
+            assertEquals(e.getStatus(), 431);
+        }
+    }
+
+    @Test
+    public void testParsingHttpRequestWithCarriageReturnsLeavesBodyUnread() throws IOException, RequestParsingException {
+        // Given
+        String request =
+                "GET /index.html HTTP/1.1\r\n" +
+                        "Host: www.marshmelo.com\r\n" +
+                        "\r\n" +
+                        "BODY";
+
+        InputStream inputStream = new ByteArrayInputStream(request.getBytes());
+        // When
+        HttpRequest httpRequest = HttpRequestParser.parseRequest(inputStream);
+        // Then
+        assertEquals(httpRequest.getUrl(), "/index.html");
+        assertEquals(httpRequest.getHeader("Host"), "www.marshmelo.com");
+        assertEquals(inputStream.available(), 4);
+    }
+
+    @Test
+    public void testParsingHttp2PrefaceLeavesFramesUnread() throws IOException, RequestParsingException {
+        // Given
+        String request = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n";
+
+        InputStream inputStream = new ByteArrayInputStream(request.getBytes());
+        // When
+        HttpRequest httpRequest = HttpRequestParser.parseRequest(inputStream);
+        // Then
+        assertEquals(httpRequest.getMethod(), "PRI");
+        assertEquals(httpRequest.getUrl(), "*");
+        assertEquals(inputStream.available(), 6);
+    }
 }
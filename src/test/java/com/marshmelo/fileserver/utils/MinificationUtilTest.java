@@ -0,0 +1,65 @@
+package com.marshmelo.fileserver.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class MinificationUtilTest {
+
+    @Test
+    public void testHtmlKeepsTagsAndPreformattedContent() {
+        // Given
+        String html = "<!DOCTYPE html>\n<html>\n    <head>\n        <title>A   title</title>\n    </head>\n"
+                + "    <!-- a comment -->\n    <body class=\"a   b\">\n        <pre>  x\n    y</pre>\n"
+                + "        <script>if (a < b) {  c(); }</script>\n    </body>\n</html>\n";
+        // When
+        String minified = MinificationUtil.minifyHtml(html);
+        // Then
+        assertEquals(minified, "<!DOCTYPE html>\n<html>\n<head>\n<title>A title</title>\n</head>\n<body class=\"a   b\">\n"
+                + "<pre>  x\n    y</pre>\n<script>if (a < b) {  c(); }</script>\n</body>\n</html>\n");
+    }
+
+    @Test
+    public void testCssRemovesCommentsAndWhitespace() {
+        // Given
+        String css = "/* header */\nh1 ,  h2 {\n    color : red;\n    content: \"a  ;  b\";\n}\n"
+                + "a :hover { margin: 0 auto; }\n/*! license */\n.a/**/.b { width: calc(1px + 2px); }\n";
+        // When
+        String minified = MinificationUtil.minifyCss(css);
+        // Then
+        assertEquals(minified, "h1,h2{color :red;content:\"a  ;  b\"}a :hover{margin:0 auto}/*! license */"
+                + " .a.b{width:calc(1px + 2px)}");
+    }
+
+    @Test
+    public void testJsKeepsLineBreaksStringsAndRegularExpressions() {
+        // Given
+        String js = "// comment\nfunction f(a, b) {\n    /* block */\n    var s = 'a  // b';\n"
+                + "    var r = /[/]\\/* x/g;\n    var t = `x  ${ {a: 1}.a }  y`;\n    return a / b\n}\n";
+        // When
+        String minified = MinificationUtil.minifyJs(js);
+        // Then
+        assertEquals(minified, "function f(a, b) {\nvar s = 'a  // b';\nvar r = /[/]\\/* x/g;\n"
+                + "var t = `x  ${ {a: 1}.a }  y`;\nreturn a / b\n}");
+    }
+
+    @Test
+    public void testJsonRemovesWhitespaceOutsideStrings() {
+        // When
+        String minified = MinificationUtil.minifyJson("{\n  \"a b\": [1, 2],\n  \"c\": \"d \\\" e\"\n}\n");
+        // Then
+        assertEquals(minified, "{\"a b\":[1,2],\"c\":\"d \\\" e\"}");
+    }
+
+    @Test
+    public void testContentWhichCanNotBeTokenizedIsUnchanged() {
+        // Given
+        byte[] js = "var s = 'not terminated;\n    f();\n".getBytes(StandardCharsets.UTF_8);
+        // When
+        byte[] minified = MinificationUtil.minify(js, "text/javascript");
+        // Then
+        assertSame(minified, js);
+    }
+}
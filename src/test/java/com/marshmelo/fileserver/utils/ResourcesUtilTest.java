@@ -1,6 +1,8 @@
 package com.marshmelo.fileserver.utils;
 
 import com.marshmelo.fileserver.models.Resource;
+import com.marshmelo.fileserver.models.ResourceMetadata;
+import com.marshmelo.fileserver.models.StreamingBody;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -46,6 +48,33 @@ public class ResourcesUtilTest {
         assertEquals(resource.getMimeType(), "application/octet-stream");
     }
 
+    @Test
+    public void test_LoadMinifiedResource_WhenMinificationIsEnabled() throws IOException {
+        // Given
+        ResourceMetadata original = ResourcesUtil.findMetadata("/example.json");
+        // When
+        ResourcesUtil.configureMinification(true);
+        try {
+            ResourceMetadata unloaded = ResourcesUtil.findMetadata("/example.json");
+            Resource resource = ResourcesUtil.loadResource("/example.json");
+            ResourceMetadata metadata = ResourcesUtil.findMetadata("/example.json");
+            // Then
+            String content = new String(resource.getContent());
+            assertTrue(content.startsWith("{\"widget\":{\"debug\":\"on\",\"window\":{\"title\":\"Sample Konfabulator Widget\","));
+            // The metadata is found without minifying the content, its length is known once the content is loaded.
+            assertEquals(unloaded.getContentLength(), StreamingBody.UNKNOWN_LENGTH);
+            assertEquals(unloaded.getSize(), original.getSize());
+            assertEquals(metadata.getContentLength(), resource.getLength());
+            assertEquals(metadata.getSize(), resource.getLength());
+            assertTrue(metadata.getSize() < original.getSize());
+            assertEquals(metadata.getEtag(), unloaded.getEtag());
+            assertNotEquals(metadata.getEtag(), original.getEtag());
+        } finally {
+            ResourcesUtil.configureMinification(false);
+        }
+        assertEquals(ResourcesUtil.loadResource("/example.json").getLength(), original.getSize());
+    }
+
     @Test
     public void test_LoadExistingResource_WithJsonExtension() throws IOException {
         // Given